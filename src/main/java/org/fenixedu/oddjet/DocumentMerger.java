@@ -0,0 +1,298 @@
+package org.fenixedu.oddjet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.fenixedu.oddjet.exception.DocumentLoadException;
+import org.odftoolkit.odfdom.pkg.OdfPackage;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Merges text documents, such as the instances of a template for several records, or of different templates, into a single
+ * document, one record after the other, separated by page breaks.
+ * <p>
+ * User fields hold a single value for the whole document, so the user fields of each record are replaced by their values before
+ * merging. Automatic styles and pictures shared by the records are kept once, while those with clashing names but different
+ * contents are renamed. Tables, sections and frames of each record are renamed so that their names remain unique.
+ */
+public class DocumentMerger {
+
+    /** Children of the document body that hold document wide declarations rather than content. */
+    private static final Set<String> DECLARATIONS = new HashSet<String>(Arrays.asList("text:variable-decls",
+            "text:sequence-decls", "text:user-field-decls", "text:dde-connection-decls", "office:forms"));
+    /** Attributes that name an element that must be unique in the document. */
+    private static final Set<String> UNIQUE_NAMES = new HashSet<String>(Arrays.asList("table:name", "text:name", "draw:name"));
+    /** Elements whose name attribute must be unique in the document. */
+    private static final Set<String> UNIQUELY_NAMED = new HashSet<String>(Arrays.asList("table:table", "text:section",
+            "draw:frame"));
+
+    private final TextDocument target;
+    private final Document targetContent;
+    private final Element targetBody;
+    private final Element targetStyles;
+    /** The automatic styles of the merged document indexed by name. */
+    private final Map<String, Element> styles = new HashMap<String, Element>();
+    private int records = 0;
+
+    /**
+     * @param first the first record, into which the following records are merged.
+     * @throws DocumentLoadException if the document DOM can not be created.
+     */
+    public DocumentMerger(TextDocument first) throws DocumentLoadException {
+        this.target = first;
+        try {
+            this.targetContent = first.getContentDom();
+            this.targetBody = (Element) targetContent.getElementsByTagName("office:text").item(0);
+            this.targetStyles = getAutomaticStyles(targetContent);
+        } catch (Exception e) {
+            throw new DocumentLoadException(e);
+        }
+        flattenUserFields(targetContent);
+        NodeList children = targetStyles.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) {
+                Element style = (Element) children.item(i);
+                styles.put(style.getAttribute("style:name"), style);
+            }
+        }
+        records = 1;
+    }
+
+    /**
+     * Appends a record to the merged document, after a page break. The record document is left unusable.
+     *
+     * @param record the record to be appended.
+     * @throws DocumentLoadException if the record DOM can not be created.
+     */
+    public void append(TextDocument record) throws DocumentLoadException {
+        Document content;
+        try {
+            content = record.getContentDom();
+        } catch (Exception e) {
+            throw new DocumentLoadException(e);
+        }
+        flattenUserFields(content);
+        String suffix = "_" + records;
+
+        Map<String, String> renamedStyles = mergeStyles(getAutomaticStyles(content));
+        Map<String, String> renamedPictures = mergePictures(record.getPackage(), content);
+
+        target.addPageBreak();
+        Element body = (Element) content.getElementsByTagName("office:text").item(0);
+        List<Node> nodes = new ArrayList<Node>();
+        for (Node node = body.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (!DECLARATIONS.contains(node.getNodeName())) {
+                nodes.add(node);
+            }
+        }
+        for (Node node : nodes) {
+            Node imported = targetContent.importNode(node, true);
+            if (imported instanceof Element) {
+                rename((Element) imported, renamedStyles, renamedPictures, suffix);
+            }
+            targetBody.appendChild(imported);
+        }
+        records++;
+    }
+
+    /**
+     * @return the merged document.
+     */
+    public TextDocument getDocument() {
+        return target;
+    }
+
+    private Map<String, String> mergeStyles(Element recordStyles) {
+        List<Element> recordStyleList = new ArrayList<Element>();
+        Set<String> recordNames = new HashSet<String>();
+        NodeList children = recordStyles.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) {
+                recordStyleList.add((Element) children.item(i));
+                recordNames.add(((Element) children.item(i)).getAttribute("style:name"));
+            }
+        }
+        // A style clashes with the merged style of the same name if they differ, or if it refers to a clashing style, as it
+        // would refer to a renamed style once merged. Clashes spread through references until no more styles clash.
+        Set<String> clashing = new HashSet<String>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Element style : recordStyleList) {
+                String name = style.getAttribute("style:name");
+                Element existing = styles.get(name);
+                if (existing != null && !clashing.contains(name)
+                        && (!existing.isEqualNode(style) || refersToAny(style, clashing))) {
+                    clashing.add(name);
+                    changed = true;
+                }
+            }
+        }
+
+        Map<String, String> renamed = new HashMap<String, String>();
+        for (String name : clashing) {
+            String newName = name + "_" + records;
+            for (int n = 1; styles.containsKey(newName) || recordNames.contains(newName); n++) {
+                newName = name + "_" + records + "_" + n;
+            }
+            renamed.put(name, newName);
+        }
+        for (Element style : recordStyleList) {
+            String name = style.getAttribute("style:name");
+            if (styles.containsKey(name) && !clashing.contains(name)) {
+                // identical styles, shared by the records, are kept once
+                continue;
+            }
+            Element imported = (Element) targetContent.importNode(style, true);
+            if (clashing.contains(name)) {
+                name = renamed.get(name);
+                imported.setAttribute("style:name", name);
+            }
+            // parent, list, data and other style references must follow the renamed styles
+            renameStyleReferences(imported, renamed);
+            targetStyles.appendChild(imported);
+            styles.put(name, imported);
+        }
+        return renamed;
+    }
+
+    private static boolean refersToAny(Element element, Set<String> names) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (attribute.getName().endsWith("style-name") && names.contains(attribute.getValue())) {
+                return true;
+            }
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && refersToAny((Element) child, names)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void renameStyleReferences(Element element, Map<String, String> renamedStyles) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (attribute.getName().endsWith("style-name") && renamedStyles.containsKey(attribute.getValue())) {
+                attribute.setValue(renamedStyles.get(attribute.getValue()));
+            }
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                renameStyleReferences((Element) child, renamedStyles);
+            }
+        }
+    }
+
+    private Map<String, String> mergePictures(OdfPackage recordPackage, Document content) {
+        Map<String, String> renamed = new HashMap<String, String>();
+        OdfPackage targetPackage = target.getPackage();
+        NodeList images = content.getElementsByTagName("draw:image");
+        for (int i = 0; i < images.getLength(); i++) {
+            String path = ((Element) images.item(i)).getAttribute("xlink:href");
+            if (path.isEmpty() || path.contains("://") || renamed.containsKey(path)) {
+                continue;
+            }
+            byte[] picture = recordPackage.getBytes(path);
+            if (picture == null) {
+                continue;
+            }
+            byte[] existing = targetPackage.getBytes(path);
+            if (existing != null && Arrays.equals(existing, picture)) {
+                // identical pictures, shared by the records, are kept once
+                continue;
+            }
+            String newPath = path;
+            if (existing != null) {
+                int extension = path.lastIndexOf('.');
+                String base = extension > path.lastIndexOf('/') ? path.substring(0, extension) : path;
+                String ext = extension > path.lastIndexOf('/') ? path.substring(extension) : "";
+                newPath = base + "_" + records + ext;
+                renamed.put(path, newPath);
+            }
+            targetPackage.insert(picture, newPath, recordPackage.getFileEntryMediaType(path));
+        }
+        return renamed;
+    }
+
+    private static void rename(Element element, Map<String, String> renamedStyles, Map<String, String> renamedPictures,
+            String suffix) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            String name = attribute.getName();
+            if (name.endsWith("style-name") && renamedStyles.containsKey(attribute.getValue())) {
+                attribute.setValue(renamedStyles.get(attribute.getValue()));
+            } else if (name.equals("xlink:href") && renamedPictures.containsKey(attribute.getValue())) {
+                attribute.setValue(renamedPictures.get(attribute.getValue()));
+            } else if (UNIQUE_NAMES.contains(name) && UNIQUELY_NAMED.contains(element.getNodeName())) {
+                attribute.setValue(attribute.getValue() + suffix);
+            }
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                rename((Element) child, renamedStyles, renamedPictures, suffix);
+            }
+        }
+    }
+
+    /**
+     * Replaces the references to user fields in a document content by the fields' values. String values are used as they are,
+     * while other values, such as numbers and dates, are replaced by the text the field displays, which is formatted by the
+     * field's data style.
+     *
+     * @param content the content DOM of the document.
+     */
+    static void flattenUserFields(Document content) {
+        Map<String, String> values = new HashMap<String, String>();
+        NodeList declarations = content.getElementsByTagName("text:user-field-decl");
+        for (int i = 0; i < declarations.getLength(); i++) {
+            Element declaration = (Element) declarations.item(i);
+            values.put(declaration.getAttribute("text:name"), getStringValue(declaration));
+        }
+        NodeList fieldNodes = content.getElementsByTagName("text:user-field-get");
+        List<Element> fields = new ArrayList<Element>();
+        for (int i = 0; i < fieldNodes.getLength(); i++) {
+            fields.add((Element) fieldNodes.item(i));
+        }
+        for (Element field : fields) {
+            String value = values.get(field.getAttribute("text:name"));
+            field.getParentNode().replaceChild(content.createTextNode(value != null ? value : field.getTextContent()), field);
+        }
+    }
+
+    /**
+     * @return the value of a string user field, or null if the field holds another type of value, whose raw value is not the
+     *         displayed text.
+     */
+    private static String getStringValue(Element declaration) {
+        String type = declaration.getAttribute("office:value-type");
+        if (type.isEmpty() || type.equals("string")) {
+            return declaration.hasAttribute("office:string-value") ? declaration.getAttribute("office:string-value") : null;
+        }
+        return null;
+    }
+
+    private static Element getAutomaticStyles(Document content) {
+        Element styles = (Element) content.getElementsByTagName("office:automatic-styles").item(0);
+        if (styles == null) {
+            styles = content.createElementNS("urn:oasis:names:tc:opendocument:xmlns:office:1.0", "office:automatic-styles");
+            content.getDocumentElement().insertBefore(styles, content.getElementsByTagName("office:body").item(0));
+        }
+        return styles;
+    }
+}
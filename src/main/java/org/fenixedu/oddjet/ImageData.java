@@ -0,0 +1,83 @@
+package org.fenixedu.oddjet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An image bound to a template as a data parameter, or as a table data value, filling the frame of the template that references
+ * it. A frame references a parameter by its name, the frame's name being the attribute chain of the image, and a table cell by
+ * holding the frame. The frame keeps its size and position, so the image replaces its picture as if it was inserted in the
+ * template.
+ * <p>
+ * The image content is read, as a stream, only while the instance is filled. Identical images are stored once in the instance,
+ * and images larger than their frame may be downsampled to a {@link Template#setImageResolution(int) resolution}.
+ */
+public class ImageData {
+
+    private final File file;
+    private final byte[] content;
+    private InputStream stream;
+
+    /**
+     * Creates an image read from a file each time an instance is filled.
+     *
+     * @param file the image file.
+     */
+    public ImageData(File file) {
+        this.file = file;
+        this.content = null;
+    }
+
+    /**
+     * Creates an image from its content.
+     *
+     * @param content the image content.
+     */
+    public ImageData(byte[] content) {
+        this.file = null;
+        this.content = content;
+    }
+
+    /**
+     * Creates an image read from a stream. The stream is read, and closed, by the first instance filled with the image, so the
+     * image can only be rendered once.
+     *
+     * @param stream the image content stream.
+     */
+    public ImageData(InputStream stream) {
+        this.file = null;
+        this.content = null;
+        this.stream = stream;
+    }
+
+    /**
+     * Opens the stream of the image content, which the caller must close.
+     *
+     * @return the stream of the image content.
+     * @throws IOException if the image can not be read, or if its single use stream was already read.
+     */
+    InputStream openStream() throws IOException {
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        synchronized (this) {
+            if (stream == null) {
+                throw new IOException("The image stream was already read.");
+            }
+            InputStream opened = stream;
+            stream = null;
+            return opened;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file != null ? file.getName() : "image";
+    }
+}
@@ -0,0 +1,303 @@
+package org.fenixedu.oddjet;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.fenixedu.oddjet.exception.DocumentSaveException;
+import org.fenixedu.oddjet.exception.OpenOfficeConnectionException;
+import org.fenixedu.oddjet.exception.RenderCancelledException;
+import org.fenixedu.oddjet.utils.DocumentWriter;
+import org.fenixedu.oddjet.utils.OfficeService;
+import org.fenixedu.oddjet.utils.PrintUtils;
+import org.odftoolkit.simple.TextDocument;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Writes instances of a template, one for each added record, as the entries of a ZIP archive. The instances are rendered by the
+ * given executor, up to a number of them ahead of the entry being written, and each one is written to the archive, in the order
+ * the records were added, as soon as it and all the previous ones are ready. Instance documents are saved directly into their
+ * entries, without intermediate files or byte arrays.
+ * <p>
+ * When printing, each instance is converted by the printing service, which is resolved once per archive, and its print is
+ * buffered until the conversion succeeds and then copied into its entry. Conversions run serially, in the thread adding the
+ * records and in their order, while the following instances are still rendered in parallel: the office process lays out one
+ * document at a time, so converting in the rendering threads would only queue the conversions in the office process, where
+ * their timeouts would run out while waiting.
+ * <p>
+ * Archives are not thread safe: records must be added, and the archive finished, by a single thread.
+ */
+public class InstanceArchive {
+
+    /**
+     * Receives the failed renders of an archive's records, which are left out of the archive instead of aborting it.
+     */
+    public static interface FailureListener {
+
+        /**
+         * @param entryName the name of the entry of the record whose render failed.
+         * @param record the data of the record, which may be added again to retry it.
+         * @param failure the cause of the failure.
+         */
+        void renderFailed(String entryName, TemplateData record, Exception failure);
+    }
+
+    private final Template template;
+    private final ZipOutputStream zip;
+    /** Whether the ZIP stream was created by this archive and must be finished by it. */
+    private final boolean ownsZip;
+    private final ExecutorService executor;
+    private final int window;
+    private boolean print = false;
+    private FailureListener failureListener;
+    /** The service converting the prints, resolved when the first print is written. */
+    private OfficeService printingService;
+    /** The entries being rendered or waiting to be written, in order. */
+    private final Deque<PendingEntry> pending = new ArrayDeque<PendingEntry>();
+
+    /**
+     * Constructs an archive writing to the given ZIP stream, which is left open when the archive is finished.
+     *
+     * @param template the template to be instantiated.
+     * @param zip the ZIP stream to write the instances to.
+     * @param executor the executor rendering the instances.
+     * @param window the maximum number of instances rendered, or waiting to be written, ahead of the entry being written.
+     * @throws IllegalArgumentException if the window is not positive.
+     */
+    public InstanceArchive(Template template, ZipOutputStream zip, ExecutorService executor, int window) {
+        this(template, zip, false, executor, window);
+    }
+
+    /**
+     * Constructs an archive writing a ZIP file to the given channel, which is left open when the archive is finished.
+     *
+     * @param template the template to be instantiated.
+     * @param channel the channel to write the ZIP file to.
+     * @param executor the executor rendering the instances.
+     * @param window the maximum number of instances rendered, or waiting to be written, ahead of the entry being written.
+     * @throws IllegalArgumentException if the window is not positive.
+     */
+    public InstanceArchive(Template template, WritableByteChannel channel, ExecutorService executor, int window) {
+        this(template, new ZipOutputStream(Channels.newOutputStream(channel)), true, executor, window);
+    }
+
+    private InstanceArchive(Template template, ZipOutputStream zip, boolean ownsZip, ExecutorService executor, int window) {
+        Preconditions.checkArgument(window > 0, "The render window must be positive.");
+        this.template = template;
+        this.zip = zip;
+        this.ownsZip = ownsZip;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * @return true if the entries are prints of the instances, false if they are the instance documents.
+     */
+    public boolean isPrint() {
+        return print;
+    }
+
+    /**
+     * Sets whether the entries are prints of the instances, obtained from the template's printing service, or the instance
+     * documents. Only affects the records added afterwards.
+     *
+     * @param print true to write prints of the instances, false to write the instance documents.
+     */
+    public void setPrint(boolean print) {
+        this.print = print;
+    }
+
+    /**
+     * @return the listener of failed renders, or null if a failed render aborts the archive.
+     */
+    public FailureListener getFailureListener() {
+        return failureListener;
+    }
+
+    /**
+     * Sets a listener of failed renders. Records whose render fails are reported to the listener and left out of the archive,
+     * instead of cancelling the pending renders and failing the archive. Failures writing the entries still abort the archive.
+     *
+     * @param failureListener the listener of failed renders, or null to abort the archive when a render fails.
+     */
+    public void setFailureListener(FailureListener failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    /**
+     * Schedules the render of an instance for the given record and writes the entries that are ready, waiting for the oldest
+     * ones if the render window is full.
+     *
+     * @param entryName the name of the record's entry in the archive.
+     * @param record the data of the record.
+     * @throws DocumentSaveException if an entry can not be written to the archive.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderCancelledException if the thread is interrupted while waiting for a render.
+     */
+    public void add(String entryName, final TemplateData record) throws DocumentSaveException, OpenOfficeConnectionException,
+            RenderCancelledException {
+        final boolean print = this.print;
+        final RenderContext context = new RenderContext(template.getRenderLimits());
+        Future<Object> render = executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                TextDocument document = template.getInstance(context, record.toRenderData());
+                if (!print) {
+                    return document;
+                }
+                try {
+                    // the office process loads the documents it converts from their bytes
+                    return PrintUtils.toByteArray(document, template.isFlatOutput());
+                } finally {
+                    document.close();
+                }
+            }
+        });
+        pending.add(new PendingEntry(entryName, record, context, render));
+        while (!pending.isEmpty() && (pending.size() > window || pending.peek().render.isDone())) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Waits for the pending renders and writes their entries, leaving the archive open for more records.
+     *
+     * @throws DocumentSaveException if an entry can not be written to the archive.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderCancelledException if the thread is interrupted while waiting for a render.
+     */
+    public void flush() throws DocumentSaveException, OpenOfficeConnectionException, RenderCancelledException {
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Waits for the pending renders and writes their entries. If the archive was constructed over a channel, the ZIP file is
+     * completed, leaving the channel open.
+     *
+     * @throws DocumentSaveException if an entry can not be written to the archive.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderCancelledException if the thread is interrupted while waiting for a render.
+     */
+    public void finish() throws DocumentSaveException, OpenOfficeConnectionException, RenderCancelledException {
+        flush();
+        if (ownsZip) {
+            try {
+                zip.finish();
+                zip.flush();
+            } catch (IOException e) {
+                throw new DocumentSaveException(e);
+            }
+        }
+    }
+
+    /**
+     * Cancels the pending renders, discarding their instances. Entries already written are kept.
+     */
+    public void cancel() {
+        while (!pending.isEmpty()) {
+            PendingEntry entry = pending.poll();
+            if (!entry.render.cancel(true)) {
+                try {
+                    Object instance = entry.render.get();
+                    if (instance instanceof TextDocument) {
+                        ((TextDocument) instance).close();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // the failed render left nothing to discard
+                }
+            }
+        }
+    }
+
+    private void writeNext() {
+        PendingEntry entry = pending.poll();
+        Object instance;
+        try {
+            instance = entry.render.get();
+        } catch (InterruptedException e) {
+            pending.addFirst(entry);
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException();
+        } catch (ExecutionException e) {
+            if (failureListener != null && e.getCause() instanceof Exception) {
+                failureListener.renderFailed(entry.name, entry.record, (Exception) e.getCause());
+                return;
+            }
+            cancel();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DocumentSaveException(e);
+        }
+        try {
+            zip.putNextEntry(new ZipEntry(entry.name));
+            OutputStream out = new EntryOutputStream(zip);
+            if (instance instanceof TextDocument) {
+                TextDocument document = (TextDocument) instance;
+                try {
+                    DocumentWriter.write(document, out, template.isFlatOutput());
+                } finally {
+                    document.close();
+                }
+            } else {
+                if (printingService == null) {
+                    printingService = Template.getPrintingService();
+                }
+                PrintUtils.print((byte[]) instance, printingService, out, entry.context.getConversionTimeout());
+            }
+            zip.closeEntry();
+        } catch (RuntimeException e) {
+            cancel();
+            throw e;
+        } catch (Exception e) {
+            cancel();
+            throw new DocumentSaveException(e);
+        }
+    }
+
+    private static class PendingEntry {
+        private final String name;
+        private final TemplateData record;
+        private final RenderContext context;
+        private final Future<Object> render;
+
+        private PendingEntry(String name, TemplateData record, RenderContext context, Future<Object> render) {
+            this.name = name;
+            this.record = record;
+            this.context = context;
+            this.render = render;
+        }
+    }
+
+    /** Writes to the current entry of a ZIP stream, leaving the stream open when the entry's writer closes it. */
+    private static class EntryOutputStream extends FilterOutputStream {
+        private EntryOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package org.fenixedu.oddjet;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.odftoolkit.odfdom.pkg.OdfPackage;
+import org.odftoolkit.simple.TextDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Stores the {@link ImageData images} filling the frames of a single instance in its package. Each image is streamed to a
+ * temporary file while its SHA-256 digest is computed, so it is never held whole in memory before it is stored, and images with
+ * the same content, and target size, are stored once. When a resolution is set, images larger than their frame at that resolution
+ * are downsampled, decoding only a subsample of their pixels, before they are stored.
+ */
+class PictureStore {
+
+    private static final Pattern LENGTH = Pattern.compile("^(\\d*\\.?\\d+)(cm|mm|in|pt|pc)$");
+
+    private static final Logger logger = LoggerFactory.getLogger(PictureStore.class);
+
+    private final OdfPackage odfPackage;
+    private final int resolution;
+    /** The package paths of the stored images, indexed by their digest and target size. */
+    private final Map<String, String> stored = new HashMap<String, String>();
+
+    /**
+     * @param document the instance document.
+     * @param resolution the resolution, in dots per inch, to which images larger than their frame are downsampled, or 0 to store
+     *            the images as they are.
+     */
+    PictureStore(TextDocument document, int resolution) {
+        this.odfPackage = document.getPackage();
+        this.resolution = resolution;
+    }
+
+    /**
+     * Fills the frames of a subtree of the document whose names are accepted by a filter with images.
+     *
+     * @param root the root of the subtree.
+     * @param images the filter of the frame names, returning the image of each frame it accepts, or null if it does not accept
+     *            it.
+     */
+    void fillFrames(Element root, ImageResolver images) {
+        NodeList frameNodes = root.getElementsByTagName("draw:frame");
+        List<Element> frames = new ArrayList<Element>();
+        for (int i = 0; i < frameNodes.getLength(); i++) {
+            frames.add((Element) frameNodes.item(i));
+        }
+        for (Element frame : frames) {
+            String name = frame.getAttribute("draw:name");
+            if (!name.isEmpty()) {
+                ImageData image = images.resolve(name);
+                if (image != null) {
+                    fill(frame, image);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the first frame of a subtree of the document with an image.
+     *
+     * @param root the root of the subtree, such as a table cell.
+     * @param image the image.
+     * @return false if the subtree has no frame with a picture.
+     */
+    boolean fillFirstFrame(Element root, ImageData image) {
+        NodeList frames = root.getElementsByTagName("draw:frame");
+        for (int i = 0; i < frames.getLength(); i++) {
+            if (fill((Element) frames.item(i), image)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the picture of a frame by an image, storing the image if it was not stored yet.
+     *
+     * @return false if the frame has no picture.
+     */
+    private boolean fill(Element frame, ImageData image) {
+        Element picture = null;
+        for (Node child = frame.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if ("draw:image".equals(child.getNodeName())) {
+                picture = (Element) child;
+                break;
+            }
+        }
+        if (picture == null) {
+            return false;
+        }
+        try {
+            String path = store(image, getPixels(frame.getAttribute("svg:width")), getPixels(frame.getAttribute("svg:height")));
+            picture.setAttribute("xlink:href", path);
+            picture.setAttribute("xlink:type", "simple");
+            // a picture embedded in the content instead of the package
+            Node child = picture.getFirstChild();
+            while (child != null) {
+                Node next = child.getNextSibling();
+                if ("office:binary-data".equals(child.getNodeName())) {
+                    picture.removeChild(child);
+                }
+                child = next;
+            }
+        } catch (Exception e) {
+            logger.error("Failed to fill frame " + frame.getAttribute("draw:name") + " with image " + image + ": " + e);
+        }
+        return true;
+    }
+
+    private String store(ImageData image, int width, int height) throws Exception {
+        Path temporary = Files.createTempFile("oddjet-image", ".tmp");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(image.openStream(), digest)) {
+                Files.copy(in, temporary, StandardCopyOption.REPLACE_EXISTING);
+            }
+            String hash = toHex(digest.digest());
+            boolean resize = resolution > 0 && width > 0 && height > 0;
+            String key = resize ? hash + "@" + width + "x" + height : hash;
+            String path = stored.get(key);
+            if (path != null) {
+                return path;
+            }
+            String mediaType;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(temporary))) {
+                mediaType = URLConnection.guessContentTypeFromStream(in);
+            }
+            BufferedImage downsampled = resize ? downsample(temporary, width, height) : null;
+            byte[] encoded = null;
+            if (downsampled != null) {
+                boolean opaque = !downsampled.getColorModel().hasAlpha();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                if (ImageIO.write(downsampled, opaque ? "jpeg" : "png", out) && out.size() < Files.size(temporary)) {
+                    encoded = out.toByteArray();
+                    mediaType = opaque ? "image/jpeg" : "image/png";
+                }
+            }
+            path = "Pictures/" + hash + (encoded != null ? "_" + width + "x" + height : "") + getExtension(mediaType);
+            if (!odfPackage.contains(path)) {
+                if (encoded != null) {
+                    odfPackage.insert(encoded, path, mediaType);
+                } else {
+                    try (InputStream in = Files.newInputStream(temporary)) {
+                        odfPackage.insert(in, path, mediaType != null ? mediaType : "");
+                    }
+                }
+            }
+            stored.put(key, path);
+            return path;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Decodes an image at the lowest subsample that still covers the given size, and scales it to that size, keeping its aspect
+     * ratio.
+     *
+     * @return the downsampled image, or null if the image is not larger than the given size or can not be decoded.
+     */
+    private static BufferedImage downsample(Path file, int width, int height) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int sourceWidth = reader.getWidth(0);
+                int sourceHeight = reader.getHeight(0);
+                double scale = Math.max((double) width / sourceWidth, (double) height / sourceHeight);
+                if (scale >= 1) {
+                    return null;
+                }
+                // keeps at least twice the target size, so the final scaling smooths the subsampled pixels
+                int subsampling = Math.max(1, (int) (1 / (2 * scale)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage source = reader.read(0, param);
+                int targetWidth = Math.max(1, (int) Math.round(sourceWidth * scale));
+                int targetHeight = Math.max(1, (int) Math.round(sourceHeight * scale));
+                int type = source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+                BufferedImage target = new BufferedImage(targetWidth, targetHeight, type);
+                Graphics2D graphics = target.createGraphics();
+                try {
+                    graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    graphics.drawImage(source, 0, 0, targetWidth, targetHeight, null);
+                } finally {
+                    graphics.dispose();
+                }
+                return target;
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not downsample image, it will be stored as it is: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * @param length a length in the ODF notation, such as <code>3cm</code>.
+     * @return the number of pixels of the length at the store's resolution, or 0 if it is unknown.
+     */
+    private int getPixels(String length) {
+        Matcher matcher = LENGTH.matcher(length.trim().toLowerCase(Locale.ENGLISH));
+        if (resolution <= 0 || !matcher.matches()) {
+            return 0;
+        }
+        double value = Double.parseDouble(matcher.group(1));
+        double inches;
+        switch (matcher.group(2)) {
+        case "cm":
+            inches = value / 2.54;
+            break;
+        case "mm":
+            inches = value / 25.4;
+            break;
+        case "pt":
+            inches = value / 72;
+            break;
+        case "pc":
+            inches = value / 6;
+            break;
+        default:
+            inches = value;
+        }
+        return (int) Math.ceil(inches * resolution);
+    }
+
+    private static String getExtension(String mediaType) {
+        if (mediaType == null) {
+            return "";
+        }
+        switch (mediaType) {
+        case "image/png":
+            return ".png";
+        case "image/jpeg":
+            return ".jpg";
+        case "image/gif":
+            return ".gif";
+        case "image/bmp":
+            return ".bmp";
+        default:
+            return "";
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Resolves the images of the frames of a subtree of the document.
+     */
+    interface ImageResolver {
+
+        /**
+         * @param frameName the name of a frame.
+         * @return the image filling the frame, or null if the frame is not filled.
+         */
+        ImageData resolve(String frameName);
+    }
+}
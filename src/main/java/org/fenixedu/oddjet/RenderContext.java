@@ -0,0 +1,136 @@
+package org.fenixedu.oddjet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fenixedu.oddjet.exception.RenderCancelledException;
+import org.fenixedu.oddjet.exception.RenderLimitExceededException;
+
+/**
+ * Keeps the state of a single render of a template, checking it against the render's {@link RenderLimits}.
+ */
+class RenderContext {
+
+    /** Estimated number of DOM nodes added per filled cell: the cell, its paragraph and its text. */
+    private static final int NODES_PER_CELL = 3;
+
+    private final RenderLimits limits;
+    private final long start;
+    private long baseNodes = 0;
+    private long cells = 0;
+    private PictureStore pictures;
+    private int previewRows = 0;
+
+    /**
+     * @param limits the limits of the render, null if the render is unlimited.
+     */
+    RenderContext(RenderLimits limits) {
+        this.limits = limits != null ? limits : new RenderLimits();
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Accounts for the nodes of a content DOM before it is filled. Renders merging several documents add the nodes of each one.
+     *
+     * @param baseNodes the number of nodes of the content DOM before it is filled.
+     */
+    void addBaseNodes(long baseNodes) {
+        this.baseNodes += baseNodes;
+    }
+
+    /**
+     * @return the store of the images of the document being filled.
+     */
+    PictureStore getPictures() {
+        return pictures;
+    }
+
+    /**
+     * @param pictures the store of the images of the document being filled. Renders merging several documents set the store of
+     *            each one.
+     */
+    void setPictures(PictureStore pictures) {
+        this.pictures = pictures;
+    }
+
+    /**
+     * @return the maximum number of data entries filled into each dynamic table, and of items of each repeated section, or 0 if
+     *         all entries and items are filled.
+     */
+    int getPreviewRows() {
+        return previewRows;
+    }
+
+    /**
+     * @param previewRows the maximum number of data entries filled into each dynamic table, and of items of each repeated
+     *            section, for renders that are only previews, or 0 to fill all entries and items.
+     */
+    void setPreviewRows(int previewRows) {
+        this.previewRows = previewRows;
+    }
+
+    /**
+     * Checks if the render was cancelled, through the interruption of its thread, or if its deadline has passed.
+     *
+     * @throws RenderCancelledException if the rendering thread was interrupted.
+     * @throws RenderLimitExceededException if the render deadline has passed.
+     */
+    void checkpoint() throws RenderCancelledException, RenderLimitExceededException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new RenderCancelledException();
+        }
+        if (limits.getDeadline() > 0 && getElapsedTime() > limits.getDeadline()) {
+            throw new RenderLimitExceededException("Render deadline of " + limits.getDeadline() + "ms exceeded.");
+        }
+    }
+
+    /**
+     * Checks that the given number of cells can still be filled without exceeding the render's cell and DOM size limits.
+     *
+     * @param additionalCells the number of cells about to be filled.
+     * @throws RenderLimitExceededException if filling the cells would exceed the limits.
+     */
+    void checkCells(long additionalCells) throws RenderLimitExceededException {
+        long total = cells + additionalCells;
+        if (limits.getMaxCells() > 0 && total > limits.getMaxCells()) {
+            throw new RenderLimitExceededException("Render cell limit of " + limits.getMaxCells() + " exceeded.");
+        }
+        if (limits.getMaxDomNodes() > 0 && baseNodes + total * NODES_PER_CELL > limits.getMaxDomNodes()) {
+            throw new RenderLimitExceededException("Render estimated DOM size limit of " + limits.getMaxDomNodes()
+                    + " nodes exceeded.");
+        }
+    }
+
+    /**
+     * Accounts for a filled cell, checking all the render limits.
+     *
+     * @throws RenderCancelledException if the rendering thread was interrupted.
+     * @throws RenderLimitExceededException if any limit was exceeded.
+     */
+    void countCell() throws RenderCancelledException, RenderLimitExceededException {
+        checkpoint();
+        checkCells(1);
+        cells++;
+    }
+
+    /**
+     * @return the maximum time the conversion of the render may take in milliseconds, taking into account both the conversion
+     *         limit and the remaining time until the deadline, or 0 if it is unlimited.
+     * @throws RenderLimitExceededException if the render deadline has passed.
+     */
+    long getConversionTimeout() throws RenderLimitExceededException {
+        checkpoint();
+        long timeout = limits.getMaxConversionTime();
+        if (limits.getDeadline() > 0) {
+            long remaining = Math.max(1, limits.getDeadline() - getElapsedTime());
+            timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+        }
+        return timeout;
+    }
+
+    /**
+     * @return the time elapsed since the start of the render, in milliseconds.
+     */
+    long getElapsedTime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,151 @@
+package org.fenixedu.oddjet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.fenixedu.oddjet.exception.AttributeChainResolutionFailureException;
+import org.fenixedu.oddjet.table.TableData;
+
+/**
+ * Holds the data bound to a single render of a template. Lazy parameters and table data sources are only evaluated when the
+ * template references them, and at most once per render.
+ */
+class RenderData {
+
+    private final Map<String, Object> parameters;
+    private final Map<String, Supplier<?>> lazyParameters;
+    private final Object rootObject;
+    private final Map<String, TableData> tableDataSources;
+    private final Map<String, Supplier<? extends TableData>> lazyTableDataSources;
+    private final Map<String, Iterable<?>> sectionDataSources;
+
+    /** The values of the attribute chains, and of all their prefixes, resolved so far in this render. */
+    private final Map<String, Object> resolvedChains = new HashMap<String, Object>();
+    /** The failures of the attribute chains that could not be resolved so far in this render. */
+    private final Map<String, AttributeChainResolutionFailureException> failedChains =
+            new HashMap<String, AttributeChainResolutionFailureException>();
+    /** The failures of the lazy table data sources that could not be evaluated so far in this render. */
+    private final Map<String, AttributeChainResolutionFailureException> failedTableDataSources =
+            new HashMap<String, AttributeChainResolutionFailureException>();
+
+    /**
+     * @param parameters the template data parameters.
+     * @param lazyParameters the lazily evaluated template data parameters.
+     * @param rootObject the object on which attributes that are not parameters are resolved, null if there is none.
+     * @param tableDataSources the template table data sources.
+     * @param lazyTableDataSources the lazily evaluated template table data sources.
+     * @param sectionDataSources the template section data sources.
+     */
+    RenderData(Map<String, Object> parameters, Map<String, Supplier<?>> lazyParameters, Object rootObject,
+            Map<String, TableData> tableDataSources, Map<String, Supplier<? extends TableData>> lazyTableDataSources,
+            Map<String, Iterable<?>> sectionDataSources) {
+        this.parameters = parameters;
+        this.lazyParameters = lazyParameters;
+        this.rootObject = rootObject;
+        this.tableDataSources = tableDataSources;
+        this.lazyTableDataSources = lazyTableDataSources;
+        this.sectionDataSources = sectionDataSources;
+    }
+
+    /**
+     * Creates the data of a single item of a repeated section, in which the item is the only parameter, named after the
+     * section.
+     *
+     * @param sectionName the name of the section.
+     * @param item the section item.
+     * @return the data of the section item.
+     */
+    static RenderData forItem(String sectionName, Object item) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(sectionName, item);
+        return new RenderData(parameters, new HashMap<String, Supplier<?>>(), null, new HashMap<String, TableData>(),
+                new HashMap<String, Supplier<? extends TableData>>(), new HashMap<String, Iterable<?>>());
+    }
+
+    /**
+     * Resolves an attribute chain whose first attribute is a data parameter or, if no such parameter exists, an attribute of the
+     * root object. Every prefix of the chain is resolved at most once per render, so chains sharing a prefix reuse its value
+     * instead of evaluating the attributes along it again.
+     *
+     * @param attributeChain the chain of attributes to resolve, separated by dots.
+     * @return the object that can be accessed following the provided attribute chain.
+     * @throws AttributeChainResolutionFailureException if the chain can not be resolved.
+     */
+    Object resolve(String attributeChain) throws AttributeChainResolutionFailureException {
+        if (attributeChain == null) {
+            throw new AttributeChainResolutionFailureException("Attribute chain string representation is null.");
+        }
+        if (resolvedChains.containsKey(attributeChain)) {
+            return resolvedChains.get(attributeChain);
+        }
+        if (failedChains.containsKey(attributeChain)) {
+            throw failedChains.get(attributeChain);
+        }
+        try {
+            Object value;
+            int separator = attributeChain.lastIndexOf('.');
+            if (separator < 0) {
+                value = resolveFirst(attributeChain);
+            } else {
+                Object owner = resolve(attributeChain.substring(0, separator));
+                value = Template.resolveAttribute(owner, attributeChain.substring(separator + 1));
+            }
+            resolvedChains.put(attributeChain, value);
+            return value;
+        } catch (AttributeChainResolutionFailureException e) {
+            failedChains.put(attributeChain, e);
+            throw e;
+        }
+    }
+
+    private Object resolveFirst(String name) throws AttributeChainResolutionFailureException {
+        if (parameters.containsKey(name)) {
+            return parameters.get(name);
+        }
+        if (lazyParameters.containsKey(name)) {
+            try {
+                return lazyParameters.get(name).get();
+            } catch (RuntimeException e) {
+                throw new AttributeChainResolutionFailureException("Could not evaluate lazy parameter '" + name + "'.", e);
+            }
+        }
+        if (rootObject != null) {
+            return Template.resolveAttribute(rootObject, name);
+        }
+        throw new AttributeChainResolutionFailureException("No match was found for '" + name + "'.");
+    }
+
+    /**
+     * @param name the name of a section data source.
+     * @return the items of the section data source with the given name, or null if there is none.
+     */
+    Iterable<?> getSectionData(String name) {
+        return sectionDataSources.get(name);
+    }
+
+    /**
+     * @param name the name of a table data source.
+     * @return the table data source with the given name, evaluating it if it is lazy, or null if there is none.
+     * @throws AttributeChainResolutionFailureException if the table data source is lazy and its evaluation fails.
+     */
+    TableData getTableData(String name) throws AttributeChainResolutionFailureException {
+        TableData tableData = tableDataSources.get(name);
+        if (tableData == null && lazyTableDataSources.containsKey(name)) {
+            if (failedTableDataSources.containsKey(name)) {
+                throw failedTableDataSources.get(name);
+            }
+            try {
+                tableData = lazyTableDataSources.get(name).get();
+            } catch (RuntimeException e) {
+                AttributeChainResolutionFailureException failure =
+                        new AttributeChainResolutionFailureException("Could not evaluate lazy table data source '" + name
+                                + "'.", e);
+                failedTableDataSources.put(name, failure);
+                throw failure;
+            }
+            tableDataSources.put(name, tableData);
+        }
+        return tableData;
+    }
+}
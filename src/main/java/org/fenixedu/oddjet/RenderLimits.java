@@ -0,0 +1,75 @@
+package org.fenixedu.oddjet;
+
+/**
+ * Contains the resource budgets of a single render of a template. Each render of a {@link Template} with limits checks them
+ * cooperatively while filling the document and while waiting for its conversion, aborting with a
+ * {@link org.fenixedu.oddjet.exception.RenderLimitExceededException RenderLimitExceededException} as soon as one is exceeded.
+ * A limit with a value of 0 or less is not enforced, which is the default for all limits.
+ */
+public class RenderLimits {
+
+    /** The maximum wall-clock time of a render, including conversion, in milliseconds. */
+    private long deadline = 0;
+    /** The maximum number of table cells a render may fill. */
+    private long maxCells = 0;
+    /** The maximum estimated number of nodes of the content DOM of a render. */
+    private long maxDomNodes = 0;
+    /** The maximum time a conversion by the OpenOffice service may take, in milliseconds. */
+    private long maxConversionTime = 0;
+
+    /**
+     * @return the maximum wall-clock time of a render, including conversion, in milliseconds.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline the maximum wall-clock time of a render, including conversion, in milliseconds.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return the maximum number of table cells a render may fill.
+     */
+    public long getMaxCells() {
+        return maxCells;
+    }
+
+    /**
+     * @param maxCells the maximum number of table cells a render may fill.
+     */
+    public void setMaxCells(long maxCells) {
+        this.maxCells = maxCells;
+    }
+
+    /**
+     * @return the maximum estimated number of nodes of the content DOM of a render.
+     */
+    public long getMaxDomNodes() {
+        return maxDomNodes;
+    }
+
+    /**
+     * @param maxDomNodes the maximum estimated number of nodes of the content DOM of a render.
+     */
+    public void setMaxDomNodes(long maxDomNodes) {
+        this.maxDomNodes = maxDomNodes;
+    }
+
+    /**
+     * @return the maximum time a conversion by the OpenOffice service may take, in milliseconds.
+     */
+    public long getMaxConversionTime() {
+        return maxConversionTime;
+    }
+
+    /**
+     * @param maxConversionTime the maximum time a conversion by the OpenOffice service may take, in milliseconds.
+     */
+    public void setMaxConversionTime(long maxConversionTime) {
+        this.maxConversionTime = maxConversionTime;
+    }
+}
@@ -1,7 +1,7 @@
 package org.fenixedu.oddjet;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -14,34 +14,60 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.apache.commons.io.IOUtils;
+import org.fenixedu.oddjet.TemplateStructure.SectionStructure;
+import org.fenixedu.oddjet.TemplateStructure.TableStructure;
 import org.fenixedu.oddjet.exception.AttributeChainResolutionFailureException;
+import org.fenixedu.oddjet.exception.ConversionOverloadException;
 import org.fenixedu.oddjet.exception.DocumentLoadException;
 import org.fenixedu.oddjet.exception.DocumentSaveException;
-import org.fenixedu.oddjet.exception.IllegalTableCallRepresentationException;
 import org.fenixedu.oddjet.exception.IllegalTemplateDataSourceNameException;
 import org.fenixedu.oddjet.exception.IllegalTemplateParameterNameException;
 import org.fenixedu.oddjet.exception.OpenOfficeConnectionException;
+import org.fenixedu.oddjet.exception.RenderCancelledException;
+import org.fenixedu.oddjet.exception.RenderLimitExceededException;
+import org.fenixedu.oddjet.table.EntryIterator;
+import org.fenixedu.oddjet.table.EntryListTableData;
+import org.fenixedu.oddjet.table.StreamingTableData;
 import org.fenixedu.oddjet.table.TableCall;
 import org.fenixedu.oddjet.table.TableConfiguration;
 import org.fenixedu.oddjet.table.TableConfiguration.ContentDirection;
 import org.fenixedu.oddjet.table.TableConfiguration.ContentStructure;
+import org.fenixedu.oddjet.table.TableConfiguration.FillBehavior;
 import org.fenixedu.oddjet.table.TableConfiguration.LastBorderSourceSection;
+import org.fenixedu.oddjet.table.TableConfiguration.WriteBehavior;
 import org.fenixedu.oddjet.table.TableCoordinate;
 import org.fenixedu.oddjet.table.TableData;
+import org.fenixedu.oddjet.utils.ConversionPriority;
+import org.fenixedu.oddjet.utils.ConversionScheduler;
+import org.fenixedu.oddjet.utils.DisplayCondition;
+import org.fenixedu.oddjet.utils.DocumentWriter;
+import org.fenixedu.oddjet.utils.FlatDocument;
+import org.fenixedu.oddjet.utils.OfficeEndpointPool;
+import org.fenixedu.oddjet.utils.OfficeService;
 import org.fenixedu.oddjet.utils.OpenOfficePrintingService;
+import org.fenixedu.oddjet.utils.PrintResult;
 import org.fenixedu.oddjet.utils.PrintUtils;
-import org.odftoolkit.odfdom.dom.OdfMetaDom;
+import org.fenixedu.oddjet.utils.SegmentedBuffer;
+import org.fenixedu.oddjet.utils.ValueFormat;
 import org.odftoolkit.odfdom.dom.element.OdfStylableElement;
+import org.odftoolkit.odfdom.dom.element.table.TableTableElement;
 import org.odftoolkit.odfdom.dom.style.props.OdfStyleProperty;
 import org.odftoolkit.simple.TextDocument;
 import org.odftoolkit.simple.common.field.Fields;
@@ -54,9 +80,13 @@ import org.odftoolkit.simple.table.Table;
 import org.odftoolkit.simple.text.Paragraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import com.artofsolving.jodconverter.DocumentFormat;
+import com.google.common.base.Preconditions;
+
 /**
  * Contains a template file along with the teplate's data and locale, allowing creating instances of the original template
  * document with the contained data and locale, printing them and saving the results.
@@ -72,16 +102,34 @@ public class Template {
     private String path;
     /** The locale of the template. */
     private Locale locale;
-    /** Map of template data parameters. */
-    final private Map<String, Object> dataParameters = new HashMap<String, Object>();
-    /** Map of template table data sources. */
-    final private Map<String, TableData> tableDataSources = new HashMap<String, TableData>();
+    /** The data bound to the template. */
+    final private TemplateData data = new TemplateData();
+    /** The cache of analyzed template structures, null if structures are not to be shared or persisted. */
+    private TemplateCache structureCache;
+    /** The analyzed structure of the template document, null if it has not been analyzed yet. */
+    private TemplateStructure structure;
+    /** The limits of each render of the template, null if renders are unlimited. */
+    private RenderLimits renderLimits;
+    /** The resolution, in dots per inch, to which images larger than their frame are downsampled, 0 to keep them as they are. */
+    private int imageResolution = 0;
+    /** Whether instances are written as flat ODF XML files instead of packages. */
+    private boolean flatOutput = false;
 
     /** The regex string to match parameter attribute access. */
     private static final String ATTRIBUTE_ACCESS_REGEX = "\\.";
 
     private static final Logger logger = LoggerFactory.getLogger(Template.class);
 
+    /** The members matching each attribute name, per class, so they are only looked up once per JVM. */
+    private static final ClassValue<ConcurrentMap<String, Object>> memberCache = new ClassValue<ConcurrentMap<String, Object>>() {
+        @Override
+        protected ConcurrentMap<String, Object> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<String, Object>();
+        }
+    };
+    /** Marks the attribute names with no matching member in the member cache. */
+    private static final Object NO_MEMBER = new Object();
+
     /**
      * Constructs a Template with no associated template file and with the default locale.
      */
@@ -170,9 +218,10 @@ public class Template {
      *
      * @param fileContent the template file byte array.
      * @param locale the template's locale.
+     * @throws DocumentLoadException if the template file is a flat XML file that could not be read.
      */
     public Template(byte[] fileContent, Locale locale) {
-        this.bytes = fileContent;
+        setBytes(fileContent);
         setLocale(locale);
     }
 
@@ -180,6 +229,7 @@ public class Template {
      * Constructs a Template from a template file byte array and with the default locale.
      *
      * @param fileContent the template file byte array.
+     * @throws DocumentLoadException if the template file is a flat XML file that could not be read.
      */
     public Template(byte[] fileContent) {
         this(fileContent, Locale.getDefault());
@@ -211,44 +261,147 @@ public class Template {
     }
 
     /**
-     * Reads and sets the template document from the given InputStream.
+     * Reads and sets the template document from the given InputStream. The template file may be an ODF package or a flat ODF
+     * XML file, in which case instances are written as flat files too, until {@link #setFlatOutput(boolean)} says otherwise.
      *
      * @param fileStream the stream to read the template file.
      * @throws DocumentLoadException if the file could not be read from the stream.
      */
     public void setDocument(InputStream fileStream) throws DocumentLoadException {
         try {
-            this.bytes = IOUtils.toByteArray(fileStream);
+            setBytes(IOUtils.toByteArray(fileStream));
         } catch (IOException e) {
             throw new DocumentLoadException(e);
         }
     }
 
     /**
-     * @return a map with the current data parameters. This map cannot be used to add, modify or remove parameters.
+     * Sets the bytes of the template document, converting flat files into packages once, as the ODF toolkit only loads packages.
+     */
+    private void setBytes(byte[] fileContent) {
+        boolean flat = FlatDocument.isFlat(fileContent);
+        this.bytes = flat ? FlatDocument.toPackage(fileContent) : fileContent;
+        this.flatOutput = flat;
+        this.structure = null;
+    }
+
+    /**
+     * @return true if instances are written as flat ODF XML files, false if they are written as packages.
+     */
+    public boolean isFlatOutput() {
+        return flatOutput;
+    }
+
+    /**
+     * Sets whether instances are written as flat ODF XML files (<code>.fodt</code>), which are neither zipped when written nor
+     * unzipped by the office process when printed, or as packages. Flat files suit text documents with few or no pictures, which
+     * are embedded as base64 data. By default instances are written in the format of the template file.
+     *
+     * @param flatOutput true to write instances as flat files, false to write them as packages.
+     */
+    public void setFlatOutput(boolean flatOutput) {
+        this.flatOutput = flatOutput;
+    }
+
+    /**
+     * @return the cache used to share and persist the template's analyzed structure, or null if there is none.
+     */
+    public TemplateCache getStructureCache() {
+        return structureCache;
+    }
+
+    /**
+     * Sets the cache used to share and persist the template's analyzed structure. When the cache already contains the structure
+     * of this template document, instances are generated without analyzing the document again.
+     *
+     * @param structureCache the cache to be used, or null to analyze the template document once per Template object.
+     */
+    public void setStructureCache(TemplateCache structureCache) {
+        this.structureCache = structureCache;
+    }
+
+    /**
+     * Gets the analyzed structure of the template document, analyzing it if it is neither known by this Template nor cached.
+     * Calling this method ahead of time allows paying the analysis cost before the first instance is requested.
+     *
+     * @return the structure of the template document.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     */
+    public TemplateStructure getStructure() throws DocumentLoadException {
+        if (structure == null && structureCache != null) {
+            structure = structureCache.get(bytes);
+        }
+        if (structure == null) {
+            TextDocument document = loadDocument();
+            getStructure(document);
+            document.close();
+        }
+        return structure;
+    }
+
+    private TemplateStructure getStructure(TextDocument document) {
+        if (structure == null && structureCache != null) {
+            structure = structureCache.get(bytes);
+        }
+        if (structure == null) {
+            structure = TemplateStructure.analyze(document);
+            if (structureCache != null) {
+                structureCache.put(bytes, structure);
+            }
+        }
+        return structure;
+    }
+
+    private TextDocument loadDocument() throws DocumentLoadException {
+        try {
+            return TextDocument.loadDocument(new ByteArrayInputStream(bytes));
+        } catch (Exception e) {
+            throw new DocumentLoadException(e);
+        }
+    }
+
+    /**
+     * @return a map with the current data parameters, excluding the lazy ones. This map cannot be used to add, modify or remove
+     *         parameters.
      */
     public Map<String, Object> getParameters() {
-        return new HashMap<String, Object>(dataParameters);
+        return data.getParameters();
+    }
+
+    /**
+     * @return a map with the current lazy data parameters. This map cannot be used to add, modify or remove parameters.
+     */
+    public Map<String, Supplier<?>> getLazyParameters() {
+        return data.getLazyParameters();
     }
 
     /**
-     * Adds or replaces a template data parameter.
+     * Adds or replaces a template data parameter. The value is used as it is, even if it is a {@link Supplier}, see
+     * {@link #addLazyParameter(String, Supplier)} for parameters evaluated on demand.
      *
      * @param name the name of the data parameter.
-     * @param value the data object for this parameter.
+     * @param value the data object for this parameter, which may be null.
      * @throws IllegalTemplateParameterNameException if the supplied name contains the attribute access operator ".".
      */
     public void addParameter(String name, Object value) throws IllegalTemplateParameterNameException {
-        if (Pattern.compile(ATTRIBUTE_ACCESS_REGEX).matcher(name).find()) {
-            throw new IllegalTemplateParameterNameException(name);
-        } else {
-            this.dataParameters.put(name, value);
-        }
+        data.addParameter(name, value);
+    }
+
+    /**
+     * Adds or replaces a lazily evaluated template data parameter. The supplier is only called by renders of template documents
+     * that reference the parameter, at most once per render.
+     *
+     * @param name the name of the data parameter.
+     * @param value the supplier of the data object for this parameter.
+     * @throws IllegalTemplateParameterNameException if the supplied name contains the attribute access operator ".".
+     */
+    public void addLazyParameter(String name, Supplier<?> value) throws IllegalTemplateParameterNameException {
+        data.addLazyParameter(name, value);
     }
 
     /** Removes all template data parameters. */
     public void clearParameters() {
-        this.dataParameters.clear();
+        data.clearParameters();
     }
 
     /**
@@ -257,7 +410,24 @@ public class Template {
      * @param name the name of the data parameter that is to be removed.
      */
     public void removeParameter(String name) {
-        this.dataParameters.remove(name);
+        data.removeParameter(name);
+    }
+
+    /**
+     * @return the object on which attributes that are not data parameters are resolved, or null if there is none.
+     */
+    public Object getRootObject() {
+        return data.getRootObject();
+    }
+
+    /**
+     * Binds an object to the template whose attributes are resolved on demand. User fields whose first attribute does not match
+     * a data parameter are resolved on this object, so only the attributes referenced by the template document are evaluated.
+     *
+     * @param rootObject the object to be bound, or null to remove the binding.
+     */
+    public void setRootObject(Object rootObject) {
+        data.setRootObject(rootObject);
     }
 
     /**
@@ -268,16 +438,25 @@ public class Template {
      * @throws IllegalTemplateDataSourceNameException if the supplied name does not conform to the table source name notation
      */
     public void addTableDataSource(String name, TableData value) throws IllegalTemplateDataSourceNameException {
-        if (TableCall.isValidSourceName(name)) {
-            this.tableDataSources.put(name, value);
-        } else {
-            throw new IllegalTemplateDataSourceNameException(name);
-        }
+        data.addTableDataSource(name, value);
+    }
+
+    /**
+     * Adds or replaces a lazily evaluated template table's data source. The supplier is only called by renders of template
+     * documents containing a table that uses the data source, at most once per render.
+     *
+     * @param name the name of the table to contain this data.
+     * @param value the supplier of the object containing the table data.
+     * @throws IllegalTemplateDataSourceNameException if the supplied name does not conform to the table source name notation
+     */
+    public void addLazyTableDataSource(String name, Supplier<? extends TableData> value)
+            throws IllegalTemplateDataSourceNameException {
+        data.addLazyTableDataSource(name, value);
     }
 
     /** Removes all template table data sources. */
     public void clearTableDataSources() {
-        this.tableDataSources.clear();
+        data.clearTableDataSources();
     }
 
     /**
@@ -286,14 +465,50 @@ public class Template {
      * @param name the name of the table whose data source is to be removed.
      */
     public void removeTableDataSource(String name) {
-        this.tableDataSources.remove(name);
+        data.removeTableDataSource(name);
     }
 
     /**
-     * @return a map with the current table data sources.
+     * @return a map with the current table data sources, excluding the lazy ones.
      */
     public Map<String, TableData> getTableDataSources() {
-        return new HashMap<String, TableData>(tableDataSources);
+        return data.getTableDataSources();
+    }
+
+    /**
+     * Adds or replaces a template section's data source. The section of the template document with the given name is repeated
+     * for each item, in order, and removed if there are no items. Within each repetition, user fields whose attribute chain
+     * starts with the section name are resolved on the item, and tables are filled with the item attribute named after their
+     * data source, which may be a {@link TableData} or an {@link Iterable} of entries, falling back to the template's table data
+     * sources. Sections within a repeated section are not repeated themselves.
+     *
+     * @param name the name of the section to be repeated.
+     * @param items the items of the section.
+     * @throws IllegalTemplateDataSourceNameException if the supplied name does not conform to the source name notation.
+     */
+    public void addSectionDataSource(String name, Iterable<?> items) throws IllegalTemplateDataSourceNameException {
+        data.addSectionDataSource(name, items);
+    }
+
+    /** Removes all template section data sources. */
+    public void clearSectionDataSources() {
+        data.clearSectionDataSources();
+    }
+
+    /**
+     * Removes the template section's data source for the section with the given name.
+     *
+     * @param name the name of the section whose data source is to be removed.
+     */
+    public void removeSectionDataSource(String name) {
+        data.removeSectionDataSource(name);
+    }
+
+    /**
+     * @return a map with the current section data sources.
+     */
+    public Map<String, Iterable<?>> getSectionDataSources() {
+        return data.getSectionDataSources();
     }
 
     /**
@@ -310,24 +525,179 @@ public class Template {
         this.locale = locale;
     }
 
+    /**
+     * @return the limits of each render of the template, or null if renders are unlimited.
+     */
+    public RenderLimits getRenderLimits() {
+        return renderLimits;
+    }
+
+    /**
+     * Sets the limits of each render of the template. Renders check their limits and the interruption of the rendering thread
+     * while filling the document and while waiting for its conversion.
+     *
+     * @param renderLimits the limits to be enforced, or null for unlimited renders.
+     */
+    public void setRenderLimits(RenderLimits renderLimits) {
+        this.renderLimits = renderLimits;
+    }
+
+    /**
+     * @return the resolution, in dots per inch, to which images larger than their frame are downsampled, or 0 if images are kept
+     *         as they are.
+     */
+    public int getImageResolution() {
+        return imageResolution;
+    }
+
+    /**
+     * Sets the resolution to which the {@link ImageData images} filling the frames of the template are downsampled when they are
+     * larger than their frame at that resolution, so that large photos shown small do not inflate the instances and their
+     * conversion. Frames whose size is not absolute keep their images as they are.
+     *
+     * @param imageResolution the resolution in dots per inch, such as 150 or 300, or 0 to keep the images as they are.
+     */
+    public void setImageResolution(int imageResolution) {
+        Preconditions.checkArgument(imageResolution >= 0, "The image resolution can not be negative.");
+        this.imageResolution = imageResolution;
+    }
+
     /**
      * Loads the template document from the stored document bytes, fills its variable content with the added data and returns it.
      *
      * @return the TextDocument object corresponding to an instance of this template.
      * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws RenderLimitExceededException if the render exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
      */
-    public TextDocument getInstance() throws DocumentLoadException {
-        TextDocument document;
+    public TextDocument getInstance() throws DocumentLoadException, RenderLimitExceededException, RenderCancelledException {
+        return getInstance(new RenderContext(renderLimits));
+    }
+
+    private TextDocument getInstance(RenderContext context) throws DocumentLoadException {
+        return getInstance(context, this.data.toRenderData());
+    }
+
+    TextDocument getInstance(RenderContext context, RenderData data) throws DocumentLoadException {
+        TextDocument document = loadDocument();
+        TemplateStructure structure = getStructure(document);
+        context.addBaseNodes(structure.getContentNodeCount());
+        context.setPictures(new PictureStore(document, imageResolution));
         try {
-            document = TextDocument.loadDocument(new ByteArrayInputStream(bytes));
-        } catch (Exception e) {
-            throw new DocumentLoadException(e);
+            pruneHiddenContent(document, data, context);
+            fillSections(document, structure, data, getLocale(), context);
+            fillUserFields(document, structure, data, getLocale(), context);
+            fillFrames(document, data, context);
+            fillTables(document, structure, data, getLocale(), context);
+        } catch (RuntimeException e) {
+            document.close();
+            throw e;
         }
-        fillUserFields(document, getParameters(), getLocale());
-        fillTables(document, getTableDataSources(), getLocale());
         return document;
     }
 
+    /**
+     * Loads the template document from the stored document bytes and fills its variable content with the given data instead of
+     * the data bound to the template. Unlike the template's own data, distinct TemplateData objects may be rendered concurrently.
+     *
+     * @param record the data to fill the instance with.
+     * @return the TextDocument object corresponding to an instance of this template for the given data.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws RenderLimitExceededException if the render exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
+     */
+    public TextDocument getInstance(TemplateData record) throws DocumentLoadException, RenderLimitExceededException,
+            RenderCancelledException {
+        return getInstance(new RenderContext(renderLimits), record.toRenderData());
+    }
+
+    /**
+     * Connects to an headless OpenOffice process, sends it an {@link #getInstance(TemplateData) instance} of this template for
+     * the given data for printing and returns a byte array with the obtained print.
+     *
+     * @param record the data to fill the instance with.
+     * @return a byte array corresponding to a print of an instance of this template for the given data, or null if no printing
+     *         service is configured.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
+     */
+    public byte[] getInstancePrint(TemplateData record) throws DocumentLoadException, DocumentSaveException,
+            OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        RenderContext context = new RenderContext(renderLimits);
+        try (SegmentedBuffer instance = save(getInstance(context, record.toRenderData()))) {
+            return PrintUtils.print(instance, getPrintingService(), context.getConversionTimeout());
+        }
+    }
+
+    /**
+     * Renders an instance of the template for each of the given records and merges them into a single document, in order, each
+     * record starting on a new page. The data bound to the template itself is not used. User fields are replaced by their values
+     * in the merged document, since each record has its own values. The automatic styles and pictures the records share are kept
+     * once, and tables, sections and frames are renamed with the index of their record. The render limits of the template apply
+     * to the whole merged document.
+     *
+     * @param records the data of each record.
+     * @return the TextDocument object containing an instance of this template for each record, or null if there are no records.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws RenderLimitExceededException if the render exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
+     */
+    public TextDocument getMergedInstance(Iterable<TemplateData> records) throws DocumentLoadException,
+            RenderLimitExceededException, RenderCancelledException {
+        return getMergedInstance(records, new RenderContext(renderLimits));
+    }
+
+    private TextDocument getMergedInstance(Iterable<TemplateData> records, RenderContext context) throws DocumentLoadException {
+        DocumentMerger merger = null;
+        try {
+            for (TemplateData record : records) {
+                TextDocument document = getInstance(context, record.toRenderData());
+                if (merger == null) {
+                    merger = new DocumentMerger(document);
+                } else {
+                    try {
+                        merger.append(document);
+                    } finally {
+                        document.close();
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            if (merger != null) {
+                merger.getDocument().close();
+            }
+            throw e;
+        }
+        return merger != null ? merger.getDocument() : null;
+    }
+
+    /**
+     * Connects to an headless OpenOffice process and sends it the {@link #getMergedInstance(Iterable) merged instance} of the
+     * given records for printing, returning the obtained print. The records are converted at once, in a single document.
+     *
+     * @param records the data of each record.
+     * @return the print of the merged instance, or null if there are no records or no printing service is configured.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
+     */
+    public byte[] getMergedInstancePrint(Iterable<TemplateData> records) throws DocumentLoadException, DocumentSaveException,
+            OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        RenderContext context = new RenderContext(renderLimits);
+        TextDocument document = getMergedInstance(records, context);
+        if (document == null) {
+            return null;
+        }
+        try (SegmentedBuffer instance = save(document)) {
+            return PrintUtils.print(instance, getPrintingService(), context.getConversionTimeout());
+        }
+    }
+
     /**
      * Instantiates the template through {@link #getInstance()} and attempts to save it as a file to the given path.
      *
@@ -337,9 +707,9 @@ public class Template {
      */
     public void saveInstance(String path) throws DocumentSaveException, DocumentLoadException {
         TextDocument document = getInstance();
-        try {
-            document.save(path);
-        } catch (Exception e) {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            DocumentWriter.write(document, out, flatOutput);
+        } catch (IOException e) {
             throw new DocumentSaveException(e);
         }
         document.close();
@@ -355,9 +725,9 @@ public class Template {
     public void saveInstance(File file) throws DocumentLoadException, DocumentSaveException {
         TextDocument document = getInstance();
 
-        try {
-            document.save(file);
-        } catch (Exception e) {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            DocumentWriter.write(document, out, flatOutput);
+        } catch (IOException e) {
             throw new DocumentSaveException(e);
         }
         document.close();
@@ -372,205 +742,738 @@ public class Template {
      */
     public void saveInstance(OutputStream stream) throws DocumentLoadException, DocumentSaveException {
         TextDocument document = getInstance();
-        try {
-            document.save(stream);
-        } catch (Exception e) {
-            throw new DocumentSaveException(e);
-        }
+        DocumentWriter.write(document, stream, flatOutput);
         document.close();
     }
 
     /**
-     * Saves an instance of the template through {@link #saveInstance(OutputStream)} into a byte array and returns it.
+     * Saves an instance of the template through {@link #saveInstance(OutputStream)} into a byte array and returns it. Callers
+     * that write the instance elsewhere should use {@link #getInstanceBuffer()} instead, which does not copy the instance into a
+     * single array.
      *
      * @return a byte array corresponding to an instance of this template.
      * @throws DocumentSaveException if the document can not be written to a byte array.
      * @throws DocumentLoadException if the document can not be created from the stored bytes.
      */
     public byte[] getInstanceByteArray() throws DocumentLoadException, DocumentSaveException {
-        ByteArrayOutputStream ostream = new ByteArrayOutputStream();
-        saveInstance(ostream);
-        return ostream.toByteArray();
+        try (SegmentedBuffer buffer = getInstanceBuffer()) {
+            return buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Saves an instance of the template through {@link #saveInstance(OutputStream)} into a buffer made of pooled segments,
+     * which can be written to a stream or channel, or read as read-only byte buffers, without copying the instance into a single
+     * array. The buffer must be closed once the instance is no longer used, returning its segments to the pool.
+     *
+     * @return a buffer holding an instance of this template.
+     * @throws DocumentSaveException if the document can not be written to the buffer.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     */
+    public SegmentedBuffer getInstanceBuffer() throws DocumentLoadException, DocumentSaveException {
+        SegmentedBuffer buffer = new SegmentedBuffer();
+        try {
+            saveInstance(buffer);
+        } catch (RuntimeException e) {
+            buffer.close();
+            throw e;
+        }
+        return buffer;
     }
 
     /**
-     * Connects to an headless OpenOffice process, sends it an instance byte array, obtained through
-     * {@link #getInstanceByteArray()} for printing and returns a byte array with the obtained print of the instance.
+     * Connects to an headless OpenOffice process, sends it an instance, saved as through {@link #getInstanceBuffer()}, for
+     * printing and returns a byte array with the obtained print of the instance.
      *
      * @return a byte array corresponding to a print of an instance of this template
      * @throws DocumentSaveException if the document can not be written to a byte array.
      * @throws DocumentLoadException if the document can not be created from the stored bytes.
      * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
      */
-    public byte[] getInstancePrint() throws DocumentLoadException, DocumentSaveException, OpenOfficeConnectionException {
-        OddjetConfiguration.ConfigurationProperties config = OddjetConfiguration.getConfiguration();
-        OpenOfficePrintingService service =
-                new OpenOfficePrintingService(config.openOfficeHost(), config.openOfficePort(), config.openOfficeOutput());
-        return PrintUtils.print(getInstance(), service);
+    public byte[] getInstancePrint() throws DocumentLoadException, DocumentSaveException, OpenOfficeConnectionException,
+            RenderLimitExceededException, RenderCancelledException {
+        PrintResult result = getInstancePrintResult();
+        return result != null ? result.getOutput() : null;
     }
 
     /**
-     * Obtains a print of an instance through {@link #getInstancePrint()} and attempts to save it as a file to the
-     * given path.
+     * Connects to an headless OpenOffice process, sends it an instance of this template for printing and returns the obtained
+     * print along with the page count of the instance as laid out for that print, and the size and timing of the render.
      *
-     * @param path the path to save the instance document to.
+     * @return the print of an instance of this template along with its page count, or null if no printing service is configured.
      * @throws DocumentSaveException if the document can not be written to a byte array.
      * @throws DocumentLoadException if the document can not be created from the stored bytes.
      * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
      */
-    public void saveInstancePrint(String path) throws DocumentLoadException, DocumentSaveException, OpenOfficeConnectionException {
-        try {
-            FileOutputStream ostream = new FileOutputStream(path);
-            saveInstancePrint(ostream);
-        } catch (FileNotFoundException e) {
-            throw new DocumentSaveException(e);
+    public PrintResult getInstancePrintResult() throws DocumentLoadException, DocumentSaveException,
+            OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        RenderContext context = new RenderContext(renderLimits);
+        try (SegmentedBuffer instance = save(getInstance(context))) {
+            long renderTime = context.getElapsedTime();
+            PrintResult result = PrintUtils.printResult(instance, getPrintingService(), context.getConversionTimeout());
+            if (result != null) {
+                result.setRenderTime(renderTime);
+            }
+            return result;
         }
     }
 
     /**
-     * Obtains a print of an instance through {@link #getInstancePrint()} and attempts to save it to the given file.
+     * Connects to an headless OpenOffice process, sends it an instance of this template and obtains prints of the instance in all
+     * the given formats from that single load of the document, along with its page count.
      *
-     * @param file the file to save the instance document to.
+     * @param extensions the file extensions of the formats of the prints to be obtained, such as pdf, docx or png.
+     * @return the prints of an instance of this template in the given formats along with its page count.
+     * @throws IllegalArgumentException if any of the given extensions does not match a known format.
      * @throws DocumentSaveException if the document can not be written to a byte array.
      * @throws DocumentLoadException if the document can not be created from the stored bytes.
      * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
      */
-    public void saveInstancePrint(File file) throws DocumentLoadException, DocumentSaveException, OpenOfficeConnectionException {
-        FileOutputStream ostream;
-        try {
-            ostream = new FileOutputStream(file);
-            saveInstancePrint(ostream);
-        } catch (FileNotFoundException e) {
-            throw new DocumentSaveException(e);
+    public PrintResult getInstancePrints(String... extensions) throws DocumentLoadException, DocumentSaveException,
+            OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        List<DocumentFormat> formats = new ArrayList<DocumentFormat>();
+        for (String extension : extensions) {
+            formats.add(PrintUtils.getDocumentFormat(extension));
+        }
+        RenderContext context = new RenderContext(renderLimits);
+        try (SegmentedBuffer instance = save(getInstance(context))) {
+            long renderTime = context.getElapsedTime();
+            PrintResult result = PrintUtils.print(instance, getPrintingService(), formats, context.getConversionTimeout());
+            if (result != null) {
+                result.setRenderTime(renderTime);
+            }
+            return result;
         }
     }
 
     /**
-     * Obtains a print of an instance through {@link #getInstancePrint()} and attempts to save it to the given
-     * OutputStream.
+     * Renders a preview of an instance of this template and has its first page converted to the given format. Each dynamic
+     * table is filled with at most the given number of data entries, and each repeated section with at most that number of items,
+     * so the entries and items left out are neither written nor styled and the preview takes about the same time however large
+     * the data is. The table statistics fields of streamed table data only account for the previewed entries. The page count of
+     * the preview is not obtained.
      *
-     * @param stream the OutputStream to save the instance document to.
+     * @param previewRows the maximum number of entries filled into each dynamic table, and of items of each repeated section.
+     * @param extension the file extension of the format of the preview, such as pdf or png.
+     * @return the preview of the first page of an instance of this template, or null if no printing service is configured.
+     * @throws IllegalArgumentException if the number of entries is not positive or the extension does not match a known format.
      * @throws DocumentSaveException if the document can not be written to a byte array.
      * @throws DocumentLoadException if the document can not be created from the stored bytes.
      * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
      */
-    public void saveInstancePrint(OutputStream stream) throws DocumentLoadException, DocumentSaveException,
-            OpenOfficeConnectionException {
-        try {
-            stream.write(getInstancePrint());
-        } catch (IOException e) {
-            throw new DocumentSaveException(e);
-        }
+    public PrintResult getInstancePreview(int previewRows, String extension) throws DocumentLoadException,
+            DocumentSaveException, OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        return getInstancePreview(this.data.toRenderData(), previewRows, extension);
     }
 
     /**
-     * Returns the page count of an instance. To do this an instance must be fully generated, which is time-consuming.
+     * Renders a preview of an instance of this template for the given data, as described in
+     * {@link #getInstancePreview(int, String)}.
      *
-     * @return the page count of the template instance.
+     * @param record the data to fill the instance with.
+     * @param previewRows the maximum number of entries filled into each dynamic table, and of items of each repeated section.
+     * @param extension the file extension of the format of the preview, such as pdf or png.
+     * @return the preview of the first page of an instance of this template for the given data, or null if no printing service is
+     *         configured.
+     * @throws IllegalArgumentException if the number of entries is not positive or the extension does not match a known format.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
      * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
      */
-    public int getInstancePageCount() throws DocumentLoadException {
-        TextDocument document = getInstance();
-        try {
-            OdfMetaDom meta = document.getMetaDom();
-            Node statistics = meta.getElementsByTagName("meta:document-statistic").item(0);
-            return Integer.parseInt(statistics.getAttributes().getNamedItem("meta:page-count").getNodeValue());
-        } catch (Exception e) {
-            throw new DocumentLoadException(e);
+    public PrintResult getInstancePreview(TemplateData record, int previewRows, String extension) throws DocumentLoadException,
+            DocumentSaveException, OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        return getInstancePreview(record.toRenderData(), previewRows, extension);
+    }
+
+    private PrintResult getInstancePreview(RenderData data, int previewRows, String extension) {
+        Preconditions.checkArgument(previewRows > 0, "Previews must fill at least one entry per table.");
+        DocumentFormat format = PrintUtils.getDocumentFormat(extension);
+        RenderContext context = new RenderContext(renderLimits);
+        context.setPreviewRows(previewRows);
+        try (SegmentedBuffer instance = save(getInstance(context, data))) {
+            long renderTime = context.getElapsedTime();
+            PrintResult result = PrintUtils.printPreview(instance, getPrintingService(), format, context.getConversionTimeout());
+            if (result != null) {
+                result.setRenderTime(renderTime);
+            }
+            return result;
         }
     }
 
-    private static void fillUserFields(TextDocument document, Map<String, Object> parameters, Locale locale) {
-        NodeList nodes;
+    /** Saves a rendered instance into a buffer for printing, closing the instance. */
+    private SegmentedBuffer save(TextDocument document) {
         try {
-            nodes = document.getContentRoot().getElementsByTagName("text:user-field-decl");
-        } catch (Exception e) {
-            logger.error("Failed to create the file DOM while filling the user fields.");
-            e.printStackTrace();
-            return;
-        }
-        for (int i = 0; i < nodes.getLength(); i++) {
-            String userFieldName = nodes.item(i).getAttributes().getNamedItem("text:name").getNodeValue();
-            VariableField var = document.getVariableFieldByName(userFieldName);
-            try {
-                Object fieldValue = resolveAttributeChain(parameters, userFieldName);
-                var.updateField(translate(fieldValue, locale), null);
-            } catch (AttributeChainResolutionFailureException e) {
-                logger.error(e.getMessage());
-            }
+            return PrintUtils.toBuffer(document, flatOutput);
+        } finally {
+            document.close();
         }
     }
 
     /**
-     * Resolves a chain of attributes by getting the first attribute's value from the root object, and from it getting the next
-     * attribute's value successively until there are no attributes in the chain returning the last object evaluated. The
-     * attribute may be a key in a map, a public method (with 0 parameters) or field of the object, or an inaccessible field with
-     * an accessible "get","is" or "has" method.
+     * Instantiates the template and has its conversion scheduled by the given scheduler, waiting for the obtained print. The
+     * instance is generated in the calling thread, only the conversion is subject to the scheduler's queueing policy.
      *
-     * @param root the root object for the chain
-     * @param attributeChain the chain of attributes to resolve. The attribute names in the chain are expected to be separated by
-     *            dots.
-     * @return the object that can be accessed following the provided attribute chain starting at the root object
-     * @throws AttributeChainResolutionFailureException if attributeChain is null or if the attributes in the chain are not found
-     *             or their value is null or unaccessible
+     * @param scheduler the scheduler of the conversions to the OpenOffice service.
+     * @param priority the priority class of the conversion.
+     * @param caller the identifier of the caller the conversion counts against, such as a tenant or an application name.
+     * @return a byte array corresponding to a print of an instance of this template
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws ConversionOverloadException if the scheduler's queue for the given priority is full.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
      */
-    public static Object resolveAttributeChain(Object root, String attributeChain)
-            throws AttributeChainResolutionFailureException {
-        return resolveAttributeChain(root, getAttributeChainComponents(attributeChain));
+    public byte[] getInstancePrint(ConversionScheduler scheduler, ConversionPriority priority, String caller)
+            throws DocumentLoadException, DocumentSaveException, OpenOfficeConnectionException, ConversionOverloadException,
+            RenderLimitExceededException, RenderCancelledException {
+        final RenderContext context = new RenderContext(renderLimits);
+        // a conversion that is abandoned, or still queued, when the caller stops waiting may yet read the instance, which is then
+        // left to the garbage collector rather than returned to the pool
+        final SegmentedBuffer instance = save(getInstance(context));
+        final OpenOfficePrintingService service = getPrintingService();
+        return scheduler.execute(priority, caller, instance.size(), new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return PrintUtils.print(instance, service, context.getConversionTimeout());
+            }
+        });
     }
 
-    // Adapted from https://github.com/mbosecke/pebble/blob/master/src/main/java/com/mitchellbosecke/pebble/node/expression/GetAttributeExpression.java#L43
-    private static Object resolveAttributeChain(Object root, List<String> chainComponents)
-            throws AttributeChainResolutionFailureException {
-        Object result = root;
-        for (String attributeName : chainComponents) {
-            if (result == null) {
-                throw new AttributeChainResolutionFailureException("Could not resolve attribute chain. Object containing '"
-                        + attributeName + "' is null.");
+    /**
+     * Instantiates the template and has it printed by one of the services of the given pool, which hedges slow conversions and
+     * avoids unhealthy services.
+     *
+     * @param pool the pool of OpenOffice services to be used.
+     * @return a byte array corresponding to a print of an instance of this template
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if no service of the pool is available or all attempted services failed.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
+     */
+    public byte[] getInstancePrint(OfficeEndpointPool pool) throws DocumentLoadException, DocumentSaveException,
+            OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        final RenderContext context = new RenderContext(renderLimits);
+        // hedged conversions that are abandoned may still read the instance, which is then left to the garbage collector rather
+        // than returned to the pool
+        final SegmentedBuffer instance = save(getInstance(context));
+        final long timeout = context.getConversionTimeout();
+        return pool.execute(new OfficeEndpointPool.Conversion<byte[]>() {
+            @Override
+            public byte[] convert(OfficeService service) {
+                return PrintUtils.print(instance, service, timeout);
             }
+        });
+    }
 
-            boolean found = false;
-            if (!found) {
-                try {
-                    if (result instanceof Map && ((Map<?, ?>) result).containsKey(attributeName)) {
-                        result = ((Map<?, ?>) result).get(attributeName);
-                        found = true;
-                    }
-                } catch (ClassCastException e) {
-                    //ignores maps where keys are not strings
-                };
+    /**
+     * Instantiates the template with the given data and has it converted by one of the services of the given pool, as described
+     * in {@link #getInstancePrint(OfficeEndpointPool)}.
+     *
+     * @param record the data to fill the instance with.
+     * @param pool the pool of OpenOffice services to convert the instance.
+     * @return a byte array corresponding to a print of an instance of this template for the given data.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if no service of the pool is available or all attempted services failed.
+     * @throws RenderLimitExceededException if the render, including its conversion, exceeds the template's render limits.
+     * @throws RenderCancelledException if the rendering thread is interrupted.
+     */
+    public byte[] getInstancePrint(TemplateData record, OfficeEndpointPool pool) throws DocumentLoadException,
+            DocumentSaveException, OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        final RenderContext context = new RenderContext(renderLimits);
+        // hedged conversions that are abandoned may still read the instance, which is then left to the garbage collector rather
+        // than returned to the pool
+        final SegmentedBuffer instance = save(getInstance(context, record.toRenderData()));
+        final long timeout = context.getConversionTimeout();
+        return pool.execute(new OfficeEndpointPool.Conversion<byte[]>() {
+            @Override
+            public byte[] convert(OfficeService service) {
+                return PrintUtils.print(instance, service, timeout);
             }
+        });
+    }
 
-            if (!found) {
+    static OpenOfficePrintingService getPrintingService() {
+        OddjetConfiguration.ConfigurationProperties config = OddjetConfiguration.getConfiguration();
+        return new OpenOfficePrintingService(config.openOfficeHost(), config.openOfficePort(), config.openOfficeOutput());
+    }
+
+    /**
+     * Obtains a print of an instance through {@link #getInstancePrint()} and attempts to save it as a file to the
+     * given path.
+     *
+     * @param path the path to save the instance document to.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     */
+    public void saveInstancePrint(String path) throws DocumentLoadException, DocumentSaveException, OpenOfficeConnectionException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(path))) {
+            saveInstancePrint(out);
+        } catch (IOException e) {
+            throw new DocumentSaveException(e);
+        }
+    }
+
+    /**
+     * Obtains a print of an instance through {@link #getInstancePrint()} and attempts to save it to the given file.
+     *
+     * @param file the file to save the instance document to.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     */
+    public void saveInstancePrint(File file) throws DocumentLoadException, DocumentSaveException, OpenOfficeConnectionException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            saveInstancePrint(out);
+        } catch (IOException e) {
+            throw new DocumentSaveException(e);
+        }
+    }
+
+    /**
+     * Obtains a print of an instance as {@link #getInstancePrint()} does and attempts to save it to the given OutputStream,
+     * streaming the print into it without copying it into a byte array.
+     *
+     * @param stream the OutputStream to save the instance document to.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     */
+    public void saveInstancePrint(OutputStream stream) throws DocumentLoadException, DocumentSaveException,
+            OpenOfficeConnectionException {
+        RenderContext context = new RenderContext(renderLimits);
+        try (SegmentedBuffer instance = save(getInstance(context))) {
+            PrintUtils.print(instance, getPrintingService(), stream, context.getConversionTimeout());
+        }
+    }
+
+    /**
+     * Returns the page count of an instance as laid out by the OpenOffice process. To do this an instance must be fully
+     * generated and printed, which is time-consuming; callers that also need the print should use
+     * {@link #getInstancePrintResult()} instead, which obtains both from the same render.
+     *
+     * @return the page count of the template instance, or -1 if it could not be obtained.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws DocumentLoadException if the document can not be created from the stored bytes.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     */
+    public int getInstancePageCount() throws DocumentLoadException, DocumentSaveException, OpenOfficeConnectionException {
+        PrintResult result = getInstancePrintResult();
+        return result != null ? result.getPageCount() : -1;
+    }
+
+    private static void fillUserFields(TextDocument document, TemplateStructure structure, RenderData data, Locale locale,
+            RenderContext context) {
+        for (String userFieldName : structure.getUserFieldNames()) {
+            context.checkpoint();
+            if (isSectionItemField(structure, data, userFieldName)) {
+                // filled with each item of its repeated section
+                continue;
+            }
+            VariableField var = document.getVariableFieldByName(userFieldName);
+            try {
+                Object fieldValue = data.resolve(ValueFormat.stripDirective(userFieldName));
+                ValueFormat format = structure.getUserFieldFormat(userFieldName);
+                if (format != null) {
+                    fieldValue = format.apply(fieldValue, locale);
+                }
+                var.updateField(translate(fieldValue, locale), null);
+            } catch (AttributeChainResolutionFailureException e) {
+                logger.error(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Fills the named picture frames of the document whose name is an attribute chain that resolves to an image.
+     */
+    private static void fillFrames(TextDocument document, final RenderData data, RenderContext context) {
+        context.checkpoint();
+        Element root;
+        try {
+            root = document.getContentRoot();
+        } catch (Exception e) {
+            logger.error("Failed to create the file DOM while filling the picture frames.");
+            return;
+        }
+        context.getPictures().fillFrames(root, new PictureStore.ImageResolver() {
+            @Override
+            public ImageData resolve(String frameName) {
+                return resolveImage(data, frameName);
+            }
+        });
+    }
+
+    private static ImageData resolveImage(RenderData data, String frameName) {
+        try {
+            Object value = data.resolve(frameName);
+            return value instanceof ImageData ? (ImageData) value : null;
+        } catch (AttributeChainResolutionFailureException e) {
+            // a static frame
+            return null;
+        }
+    }
+
+    private static boolean isSectionItemField(TemplateStructure structure, RenderData data, String userFieldName) {
+        String attributeChain = ValueFormat.stripDirective(userFieldName);
+        int separator = attributeChain.indexOf('.');
+        String name = separator < 0 ? attributeChain : attributeChain.substring(0, separator);
+        return structure.getSection(name) != null && data.getSectionData(name) != null;
+    }
+
+    private static void fillSections(TextDocument document, TemplateStructure structure, RenderData data, Locale locale,
+            RenderContext context) {
+        List<Element> sections = new ArrayList<Element>();
+        // the names in use, which the repetitions and the sections and frames they hold must not clash with
+        Set<String> sectionNames = new HashSet<String>();
+        Set<String> frameNames = new HashSet<String>();
+        try {
+            Element root = document.getContentRoot();
+            for (Element section : getElements(root, "text:section")) {
+                sectionNames.add(section.getAttribute("text:name"));
+                if (data.getSectionData(section.getAttribute("text:name")) != null && !hasRepeatedAncestor(section, data)) {
+                    sections.add(section);
+                }
+            }
+            for (Element frame : getElements(root, "draw:frame")) {
+                frameNames.add(frame.getAttribute("draw:name"));
+            }
+        } catch (Exception e) {
+            logger.error("Failed to create the file DOM while collecting the sections.");
+            e.printStackTrace();
+            return;
+        }
+
+        for (Element section : sections) {
+            String sectionName = section.getAttribute("text:name");
+            SectionStructure ss = structure.getSection(sectionName);
+            // The section subtree is detached once and cloned for each item
+            Node parent = section.getParentNode();
+            Node marker = parent.getOwnerDocument().createTextNode("");
+            parent.insertBefore(marker, section);
+            parent.removeChild(section);
+            int index = 0;
+            for (Object item : data.getSectionData(sectionName)) {
+                if (context.getPreviewRows() > 0 && index >= context.getPreviewRows()) {
+                    // previews leave out the remaining items, which are then neither read nor filled
+                    break;
+                }
+                context.checkpoint();
+                Element repetition = (Element) section.cloneNode(true);
+                repetition.setAttribute("text:name", uniqueName(sectionName + "_" + index, sectionNames));
+                parent.insertBefore(repetition, marker);
+                fillSectionItem(document, repetition, ss, structure, item, index, data, locale, context);
+                renameNested(repetition, index, sectionNames, frameNames);
+                index++;
+            }
+            parent.removeChild(marker);
+        }
+    }
+
+    /**
+     * Removes the sections and paragraphs hidden by display conditions that hold for the render's data, so the office services
+     * do not lay out content that is never shown. The conditions that do not hold are removed as well, settling the display of
+     * their content, while those that can not be evaluated, because they use an unsupported notation or a variable without a
+     * value, are kept for the office services to evaluate.
+     */
+    private static void pruneHiddenContent(TextDocument document, final RenderData data, RenderContext context) {
+        Element root;
+        try {
+            root = document.getContentRoot();
+        } catch (Exception e) {
+            logger.error("Failed to create the file DOM while pruning the hidden content.");
+            return;
+        }
+        Function<String, Object> variables = new Function<String, Object>() {
+            @Override
+            public Object apply(String variable) {
                 try {
-                    Member member = null;
-                    member = findMember(result, attributeName);
-                    if (member != null) {
-                        if (member instanceof Method) {
-                            result = ((Method) member).invoke(result);
-                            found = true;
-                        } else if (member instanceof Field) {
-                            result = ((Field) member).get(result);
-                            found = true;
-                        }
-                    }
-                } catch (IllegalAccessException e) {
-                    throw new AttributeChainResolutionFailureException("Could not resolve attribute chain. Attribute '"
-                            + attributeName + "' is not accessible.", e);
-                } catch (IllegalArgumentException e) {
-                    throw new AttributeChainResolutionFailureException("Could not resolve attribute chain. Method matching '"
-                            + attributeName + "' requires arguments.", e);
-                } catch (InvocationTargetException e) {
-                    throw new AttributeChainResolutionFailureException(
-                            "Could not resolve attribute chain. Exception ocurred while evaluating the method matching '"
-                                    + attributeName + "'.", e);
+                    return data.resolve(variable);
+                } catch (AttributeChainResolutionFailureException e) {
+                    throw new IllegalArgumentException(e.getMessage(), e);
+                }
+            }
+        };
+        for (Element section : getElements(root, "text:section")) {
+            context.checkpoint();
+            String display = section.getAttribute("text:display");
+            if (display.equals("none")) {
+                removeAttached(root, section);
+            } else if (display.equals("condition")) {
+                Boolean hidden = evaluateCondition(section.getAttribute("text:condition"), variables);
+                if (hidden == Boolean.TRUE) {
+                    removeAttached(root, section);
+                } else if (hidden == Boolean.FALSE) {
+                    section.removeAttribute("text:display");
+                    section.removeAttribute("text:condition");
+                }
+            }
+        }
+        for (Element field : getElements(root, "text:hidden-paragraph")) {
+            context.checkpoint();
+            Boolean hidden = evaluateCondition(field.getAttribute("text:condition"), variables);
+            if (hidden == Boolean.TRUE) {
+                Node paragraph = field.getParentNode();
+                while (paragraph != null && !paragraph.getNodeName().equals("text:p")
+                        && !paragraph.getNodeName().equals("text:h")) {
+                    paragraph = paragraph.getParentNode();
+                }
+                removeAttached(root, paragraph != null ? paragraph : field);
+            } else if (hidden == Boolean.FALSE) {
+                removeAttached(root, field);
+            }
+        }
+    }
+
+    /**
+     * @return true if the condition holds, false if it does not, or null if it can not be evaluated.
+     */
+    private static Boolean evaluateCondition(String condition, Function<String, Object> variables) {
+        if (condition.isEmpty()) {
+            return null;
+        }
+        try {
+            return DisplayCondition.parse(condition).evaluate(variables);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Display condition '" + condition + "' left to the office services: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<Element> getElements(Element root, String tagName) {
+        NodeList nodes = root.getElementsByTagName(tagName);
+        List<Element> elements = new ArrayList<Element>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element) nodes.item(i));
+        }
+        return elements;
+    }
+
+    /** Removes a node, unless it was already detached from the root along with a removed ancestor. */
+    private static void removeAttached(Element root, Node node) {
+        for (Node ancestor = node.getParentNode(); ancestor != null; ancestor = ancestor.getParentNode()) {
+            if (ancestor == root) {
+                node.getParentNode().removeChild(node);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Renames the sections and named frames held by a repetition of a section with the index of its item, so that their names
+     * remain unique. Frames are renamed once filled, as the frames filled with the item's images are named after them.
+     */
+    private static void renameNested(Element repetition, int index, Set<String> sectionNames, Set<String> frameNames) {
+        for (Element section : getElements(repetition, "text:section")) {
+            section.setAttribute("text:name", uniqueName(section.getAttribute("text:name") + "_" + index, sectionNames));
+        }
+        for (Element frame : getElements(repetition, "draw:frame")) {
+            if (!frame.getAttribute("draw:name").isEmpty()) {
+                frame.setAttribute("draw:name", uniqueName(frame.getAttribute("draw:name") + "_" + index, frameNames));
+            }
+        }
+    }
+
+    /**
+     * Reserves the given name, or the name suffixed with <code>_[n]</code> if the given one is already in use.
+     *
+     * @return the reserved name.
+     */
+    private static String uniqueName(String name, Set<String> names) {
+        String unique = name;
+        for (int n = 1; names.contains(unique); n++) {
+            unique = name + "_" + n;
+        }
+        names.add(unique);
+        return unique;
+    }
+
+    private static boolean hasRepeatedAncestor(Element section, RenderData data) {
+        for (Node node = section.getParentNode(); node instanceof Element; node = node.getParentNode()) {
+            if ("text:section".equals(node.getNodeName())
+                    && data.getSectionData(((Element) node).getAttribute("text:name")) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void fillSectionItem(TextDocument document, Element repetition, SectionStructure ss,
+            TemplateStructure structure, Object item, int index, RenderData data, Locale locale, RenderContext context) {
+        String sectionName = ss.getName();
+        final RenderData itemData = RenderData.forItem(sectionName, item);
+
+        // Replace the item fields with their values, as user fields hold a single value for the whole document
+        NodeList fieldNodes = repetition.getElementsByTagName("text:user-field-get");
+        List<Element> fields = new ArrayList<Element>();
+        for (int i = 0; i < fieldNodes.getLength(); i++) {
+            fields.add((Element) fieldNodes.item(i));
+        }
+        for (Element field : fields) {
+            String fieldName = field.getAttribute("text:name");
+            if (!ss.getItemFieldNames().contains(fieldName)) {
+                continue;
+            }
+            String text = "";
+            try {
+                Object fieldValue = itemData.resolve(ValueFormat.stripDirective(fieldName));
+                ValueFormat format = structure.getUserFieldFormat(fieldName);
+                if (format != null) {
+                    fieldValue = format.apply(fieldValue, locale);
                 }
+                text = translate(fieldValue, locale);
+            } catch (AttributeChainResolutionFailureException e) {
+                logger.error(e.getMessage());
+            }
+            field.getParentNode().replaceChild(field.getOwnerDocument().createTextNode(text), field);
+        }
+
+        // Fill the frames named after the item's images
+        final String itemPrefix = sectionName + ".";
+        context.getPictures().fillFrames(repetition, new PictureStore.ImageResolver() {
+            @Override
+            public ImageData resolve(String frameName) {
+                return frameName.startsWith(itemPrefix) ? resolveImage(itemData, frameName) : null;
             }
+        });
+
+        // Rename the tables so they are unique, and no longer match the table call notation, and fill them with the item's data
+        NodeList tableNodes = repetition.getElementsByTagName("table:table");
+        List<Element> tables = new ArrayList<Element>();
+        for (int i = 0; i < tableNodes.getLength(); i++) {
+            tables.add((Element) tableNodes.item(i));
+        }
+        for (Element tableElement : tables) {
+            String tableName = tableElement.getAttribute("table:name");
+            String repetitionTableName = tableName + "#" + index;
+            tableElement.setAttribute("table:name", repetitionTableName);
+            TableStructure ts = structure.getTable(tableName);
+            if (ts == null) {
+                continue;
+            }
+            String tableSourceName = ts.getCall().getTableDataSourceName();
+            TableData td = null;
+            try {
+                Object source = resolveAttribute(item, tableSourceName);
+                if (source instanceof TableData) {
+                    td = (TableData) source;
+                } else if (source instanceof Iterable) {
+                    td = new EntryListTableData((Iterable<?>) source);
+                }
+            } catch (AttributeChainResolutionFailureException e) {
+                try {
+                    td = data.getTableData(tableSourceName);
+                } catch (AttributeChainResolutionFailureException failure) {
+                    logger.error(failure.getMessage() + " Table " + tableName + " in section " + sectionName
+                            + " was left static.");
+                    continue;
+                }
+            }
+            if (td == null) {
+                logger.warn("No matching data source was found for table " + tableName + " in section " + sectionName
+                        + ", assumed to be static table.");
+                continue;
+            }
+            fillTable(document, document.getTableByName(repetitionTableName), ts, td, locale, context, false);
+        }
+    }
+
+    /**
+     * Resolves a chain of attributes by getting the first attribute's value from the root object, and from it getting the next
+     * attribute's value successively until there are no attributes in the chain returning the last object evaluated. The
+     * attribute may be a key in a map, a public method (with 0 parameters) or field of the object, or an inaccessible field with
+     * an accessible "get","is" or "has" method.
+     *
+     * @param root the root object for the chain
+     * @param attributeChain the chain of attributes to resolve. The attribute names in the chain are expected to be separated by
+     *            dots.
+     * @return the object that can be accessed following the provided attribute chain starting at the root object
+     * @throws AttributeChainResolutionFailureException if attributeChain is null or if the attributes in the chain are not found
+     *             or their value is null or unaccessible
+     */
+    public static Object resolveAttributeChain(Object root, String attributeChain)
+            throws AttributeChainResolutionFailureException {
+        return resolveAttributeChain(root, getAttributeChainComponents(attributeChain));
+    }
+
+    // Adapted from https://github.com/mbosecke/pebble/blob/master/src/main/java/com/mitchellbosecke/pebble/node/expression/GetAttributeExpression.java#L43
+    private static Object resolveAttributeChain(Object root, List<String> chainComponents)
+            throws AttributeChainResolutionFailureException {
+        Object result = root;
+        for (String attributeName : chainComponents) {
+            result = resolveAttribute(result, attributeName);
+        }
+        return result;
+    }
+
+    /**
+     * Resolves a single attribute of an object, as described in {@link #resolveAttributeChain(Object, String)}.
+     *
+     * @param object the object containing the attribute.
+     * @param attributeName the name of the attribute.
+     * @return the value of the attribute.
+     * @throws AttributeChainResolutionFailureException if the object is null or if the attribute is not found or unaccessible.
+     */
+    static Object resolveAttribute(Object object, String attributeName) throws AttributeChainResolutionFailureException {
+        if (object == null) {
+            throw new AttributeChainResolutionFailureException("Could not resolve attribute chain. Object containing '"
+                    + attributeName + "' is null.");
+        }
+        Object result = object;
+        boolean found = false;
+        if (!found) {
+            try {
+                if (result instanceof Map && ((Map<?, ?>) result).containsKey(attributeName)) {
+                    result = ((Map<?, ?>) result).get(attributeName);
+                    found = true;
+                }
+            } catch (ClassCastException e) {
+                //ignores maps where keys are not strings
+            };
+        }
 
-            if (!found) {
-                throw new AttributeChainResolutionFailureException("No match was found for '" + attributeName + "'.");
+        if (!found) {
+            try {
+                Member member = null;
+                member = findMember(result, attributeName);
+                if (member != null) {
+                    if (member instanceof Method) {
+                        result = ((Method) member).invoke(result);
+                        found = true;
+                    } else if (member instanceof Field) {
+                        result = ((Field) member).get(result);
+                        found = true;
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                throw new AttributeChainResolutionFailureException("Could not resolve attribute chain. Attribute '"
+                        + attributeName + "' is not accessible.", e);
+            } catch (IllegalArgumentException e) {
+                throw new AttributeChainResolutionFailureException("Could not resolve attribute chain. Method matching '"
+                        + attributeName + "' requires arguments.", e);
+            } catch (InvocationTargetException e) {
+                throw new AttributeChainResolutionFailureException(
+                        "Could not resolve attribute chain. Exception ocurred while evaluating the method matching '"
+                                + attributeName + "'.", e);
             }
         }
+
+        if (!found) {
+            throw new AttributeChainResolutionFailureException("No match was found for '" + attributeName + "'.");
+        }
         return result;
     }
 
@@ -582,15 +1485,23 @@ public class Template {
         return new ArrayList<String>(Arrays.asList(attributeChain.split(ATTRIBUTE_ACCESS_REGEX)));
     }
 
-    // Copied and adapted from https://github.com/mbosecke/pebble/blob/master/src/main/java/com/mitchellbosecke/pebble/node/expression/GetAttributeExpression.java#L43
     private static Member findMember(Object object, String attributeName) throws IllegalAccessException {
+        ConcurrentMap<String, Object> members = memberCache.get(object.getClass());
+        Object member = members.get(attributeName);
+        if (member == null) {
+            member = lookupMember(object.getClass(), attributeName);
+            members.put(attributeName, member != null ? member : NO_MEMBER);
+        }
+        return member != NO_MEMBER ? (Member) member : null;
+    }
+
+    // Copied and adapted from https://github.com/mbosecke/pebble/blob/master/src/main/java/com/mitchellbosecke/pebble/node/expression/GetAttributeExpression.java#L43
+    private static Member lookupMember(Class<?> clazz, String attributeName) throws IllegalAccessException {
 
         if (attributeName.isEmpty()) {
             return null;
         }
 
-        Class<?> clazz = object.getClass();
-
         boolean found = false;
         Member result = null;
 
@@ -648,65 +1559,94 @@ public class Template {
         return result;
     }
 
-    private static void fillTables(TextDocument document, Map<String, TableData> tableDataSources, Locale locale) {
+    private static void fillTables(TextDocument document, TemplateStructure structure, RenderData renderData, Locale locale,
+            RenderContext context) {
         for (Table table : document.getTableList()) {
+            context.checkpoint();
 
-            TableCall tc = null;
-            TableData td = null;
+            TableStructure ts = structure.getTable(table.getTableName());
+            if (ts == null) {
+                // not a table call, assumed to be static table.
+                continue;
+            }
+            TableCall tc = ts.getCall();
+            TableData td;
             try {
-                tc = new TableCall(table.getTableName());
-            } catch (IllegalTableCallRepresentationException e) {
-                logger.warn("Table name " + table.getTableName()
-                        + " does not conform to table call notation, assumed to be static table.");
+                td = renderData.getTableData(tc.getTableDataSourceName());
+            } catch (AttributeChainResolutionFailureException e) {
+                logger.error(e.getMessage() + " Table " + tc.getTableName() + " was left static.");
                 continue;
             }
-
-            String tableName = tc.getTableName();
-            String tableSourceName = tc.getTableDataSourceName();
-
-            td = tableDataSources.get(tableSourceName);
             if (td == null) {
-                logger.warn("No matching data source was found for table " + tableName + ", assumed to be static table.");
+                logger.warn("No matching data source was found for table " + tc.getTableName()
+                        + ", assumed to be static table.");
                 continue;
             }
+            fillTable(document, table, ts, td, locale, context, true);
+        }
+    }
 
-            TableConfiguration tp = tc.getParameters();
-            TableCoordinate headers = tp.getHeader();
-            TableCoordinate styleRCoord = tp.getStyleRelativeCoord();
-            ContentStructure structure = tp.getContentStructure();
-            int hCol = headers.getColumn();
-            int hRow = headers.getRow();
+    /**
+     * Fills a single dynamic table with its data.
+     *
+     * @param statistics whether the table relative automatic fields with table statistics are to be created.
+     */
+    private static void fillTable(TextDocument document, Table table, TableStructure ts, TableData td, Locale locale,
+            RenderContext context, boolean statistics) {
+        TableCall tc = ts.getCall();
+        String tableName = tc.getTableName();
+        String tableSourceName = tc.getTableDataSourceName();
+
+        TableConfiguration tp = tc.getParameters();
+        TableCoordinate headers = tp.getHeader();
+        TableCoordinate styleRCoord = ts.getStyleRelativeCoord();
+        int hCol = headers.getColumn();
+        int hRow = headers.getRow();
+
+        // The styles of the predefined style cells were collected before adding any new cells.
+        Map<String, String> cellStyles = ts.getCellStyles();
+        Border lastBorder =
+                collectLastBorder(table, hCol, hRow, tp.getLastBorderSourceSection(), tp.getLastBorderSourceType());
+
+        if (ts.getContentStructure() == ContentStructure.CATEGORICAL) {
+            TemplateStructure.removeCategoryHeaders(table, headers, tp.getContentDirection());
+        }
 
-            // Check if table has necessary cells predefined
-            if (structure != ContentStructure.CATEGORICAL && (hRow >= table.getRowCount() || hCol >= table.getColumnCount())) {
-                logger.error("Table dimensions of " + table.getTableName()
-                        + " do not allow the specification of the semantic data. Default category order assumed.");
-                structure = ContentStructure.POSITIONAL;
-            }
-            if ((styleRCoord != null && (hRow + styleRCoord.getRow() > table.getRowCount() || hCol + styleRCoord.getColumn() > table
-                    .getColumnCount()))
-                    || (tp.getLastBorderSourceSection() == LastBorderSourceSection.BODY && (table.getRowCount() == hRow || table
-                            .getColumnCount() == hCol))) {
-                logger.error("Table dimensions of " + table.getTableName()
-                        + " are not suficient to specify the table cell format. Default cell style will be used.");
-                styleRCoord = null;
+        int nData;
+        if (td instanceof StreamingTableData && tp.getFillBehavior() == FillBehavior.WRITE) {
+            // Fill the table directly from the entries, one entry at a time, without holding the whole data in memory
+            StreamingTableData std = (StreamingTableData) td;
+            EntryIterator rows =
+                    ts.getContentStructure() == ContentStructure.CATEGORICAL ? std.getEntries(ts.getCategoryOrder()) : std
+                            .getEntries();
+            try {
+                Iterator<List<Object>> entries = rows;
+                if (ts.getCategoryFormats() != null) {
+                    entries = formatEntries(entries, ts.getCategoryFormats(), locale);
+                }
+                boolean isDataEmpty = !entries.hasNext();
+                if (statistics) {
+                    Fields.createUserVariableField(document, tableSourceName + "_isEmpty", "" + isDataEmpty);
+                }
+                if (isDataEmpty) {
+                    logger.warn("Data source for table '" + table.getTableName() + "' is empty, assumed to be a static table.");
+                    return;
+                }
+                nData = fillEntries(document, table, tableName, tp, entries, locale, context, statistics);
+            } finally {
+                // previews and failures stop before the last entry, which would otherwise leave the data source open
+                rows.close();
             }
-
-            // Collect all the styles of the predefined style cells before adding any new cells.
-            //      This is only necessary due to a quirk in the simpleAPI where creating a new column/row changes the style of the cell
-            //      in the previous column/row.
-            Map<String, String> cellStyles = collectCellStyles(table, hCol, hRow, styleRCoord);
-            Border lastBorder =
-                    collectLastBorder(table, hCol, hRow, tp.getLastBorderSourceSection(), tp.getLastBorderSourceType());
-
+        } else {
             // Get the positional version of the data ( using the category order in the template table in the semantic case )
             List<List<Object>> data = null;
-            if (structure == ContentStructure.CATEGORICAL) {
-                List<String> categoryOrder = null;
-                categoryOrder = getCategoryOrder(table, headers, tp.getContentDirection());
-                data = td.getData(categoryOrder);
+            if (ts.getContentStructure() == ContentStructure.CATEGORICAL) {
+                data = td.getData(ts.getCategoryOrder(), locale);
+                if (data != null && ts.getCategoryFormats() != null) {
+                    data = formatCategories(data, ts.getCategoryFormats(), locale);
+                }
             } else {
-                data = td.getData();
+                data = td.getData(locale);
             }
 
             boolean isDataEmpty = true;
@@ -717,162 +1657,88 @@ public class Template {
                 }
                 isDataEmpty = depth == 0;
             }
-            Fields.createUserVariableField(document, tableSourceName + "_isEmpty", "" + isDataEmpty);
+            if (statistics) {
+                Fields.createUserVariableField(document, tableSourceName + "_isEmpty", "" + isDataEmpty);
+            }
             if (isDataEmpty) {
                 logger.warn("Data source for table '" + table.getTableName() + "' is empty, assumed to be a static table.");
-                continue;
+                return;
             }
-            Fields.createUserVariableField(document, tableName + "_dataSize", "" + data.size());
-            Fields.createUserVariableField(document, tableName + "_dataDepth", "" + depth);
-
-            int X, Y, i, j, startX, startY, limitX, limitY, tableDimX, tableSpaceX, tableDimY, tableSpaceY, nData = 0;
-            if (tp.getContentDirection() == ContentDirection.VERTICAL) {
-                startX = hCol;
-                startY = hRow;
-                tableDimX = table.getRowByIndex(hRow).getCellCount();
-                tableDimY = table.getColumnByIndex(hCol).getCellCount();
-            } else {
-                startX = hRow;
-                startY = hCol;
-                tableDimX = table.getColumnByIndex(hCol).getCellCount();
-                tableDimY = table.getRowByIndex(hRow).getCellCount();
-            }
-            tableSpaceX = startY > 0 ? tableDimX - startX : -1;
-            limitX = data.size();
-            if (tableSpaceX > 0) {
-                if (tableSpaceX < limitX) {
-                    limitX = tableSpaceX;
-                    logger.warn("Too many data categories for the allocated table space in table '" + table.getTableName()
-                            + "'. The remaining categories beyond table limits will be ignored.");
-                } else if (tableSpaceX > limitX) {
-                    logger.warn("Too few data categories for the allocated table space in table '" + table.getTableName()
-                            + "'. The remaining space will be empty.");
-                }
+            if (statistics) {
+                Fields.createUserVariableField(document, tableName + "_dataSize", "" + data.size());
+                Fields.createUserVariableField(document, tableName + "_dataDepth", "" + depth);
             }
 
-            for (X = startX, i = 0; i < limitX; i++, X++) {
-                List<Object> dataCategory = data.get(i);
-
-                tableSpaceY = startX > 0 ? tableDimY - startY : -1;
-                boolean overflowReported = false;
-                limitY = dataCategory != null ? dataCategory.size() : 0;
-                if (tableSpaceY > 0) {
-                    if (tableSpaceY < limitY) {
-                        limitY = tableSpaceY;
-                        logger.warn("Data category nr." + X
-                                + " has more data than the allocated table space allows for in table '" + table.getTableName()
-                                + "'. Remaining data will be ignored.");
-                        overflowReported = true;
-                    }
-                }
-                for (Y = startY, j = 0; j < limitY; j++, Y++) {
-                    Cell cell =
-                            tp.getContentDirection() == ContentDirection.VERTICAL ? table.getCellByPosition(X, Y) : table
-                                    .getCellByPosition(Y, X);
-                    switch (tp.getFillBehavior()) { //FIXME Fall through here allows cleaner code but it's a little less efficient.
-                    case STEP:
-                        // If there is a paragraph with content then don't do anything, else fall through
-                        if (cell.getParagraphByIndex(0, true) != null) {
-                            break;
-                        }
-                    case SKIP:
-                        // If there is a paragraph with content then just rollback the data to be reused and recheck for data overflows, else fall through
-                        if (cell.getParagraphByIndex(0, true) != null) {
-                            j--;
-                            if (tableSpaceY > 0) {
-                                if (tableDimY - Y < limitY - j) {
-                                    limitY = tableDimY - Y;
-                                    if (!overflowReported) {
-                                        logger.warn("Data category nr." + X
-                                                + " has more data than the allocated table space allows for in table '"
-                                                + table.getTableName() + "'. Remaining data will be ignored.");
-                                        overflowReported = true;
-                                    }
-                                }
-                            }
-                            break;
-                        }
-                    case WRITE:
-                        nData++;
-                        switch (tp.getWriteBehavior()) {
-                        case APPEND:
-                            // Get the last paragraph and if it exists add the data's text to it, else fall through
-                            Paragraph lastParagraph = cell.getParagraphByReverseIndex(0, false);
-                            if (lastParagraph != null) {
-                                lastParagraph.getOdfElement().setTextContent(
-                                        lastParagraph.getTextContent() + translate(dataCategory.get(j), locale));
-                                break;
-                            }
-                        case PREPEND:
-                            // Get the first paragraph and if it exists add the data's text to it, else fall through
-                            Paragraph firstParagraph = cell.getParagraphByIndex(0, false);
-                            if (firstParagraph != null) {
-                                firstParagraph.getOdfElement().setTextContent(
-                                        translate(dataCategory.get(j) + firstParagraph.getTextContent(), locale));
-                                break;
-                            }
-                        case OVERWRITE:
-                            cell.removeTextContent();
-                            cell.addParagraph(translate(dataCategory.get(j), locale));
-                            break;
-                        default:
-                            logger.error("Atempted to use unimplemented Write Behavior: " + tp.getWriteBehavior().name() + ".");
-                        }
-                        break;
-                    default:
-                        logger.error("Atempted to use unimplemented Fill Behavior: " + tp.getFillBehavior().name() + ".");
-                    }
-                }
+            if (context.getPreviewRows() > 0) {
+                // previews leave out the remaining entries, which are then neither written nor styled
+                data = truncateCategories(data, context.getPreviewRows());
             }
-            // Create table relative automatic fields with table statistics
+            nData = fillCategories(table, tp, data, locale, context);
+        }
+
+        // Create table relative automatic fields with table statistics
+        if (statistics) {
             Fields.createUserVariableField(document, tableName + "_nRow", "" + table.getRowCount());
             Fields.createUserVariableField(document, tableName + "_nCol", "" + table.getColumnCount());
             Fields.createUserVariableField(document, tableName + "_nData", "" + nData);
+        }
 
-            // Apply the correct formatting to each cell in the table
-            if (cellStyles != null) {
-                int sCol = styleRCoord.getColumn();
-                int sRow = styleRCoord.getRow();
-                for (i = hCol; i < table.getColumnCount(); i++) {
-                    for (j = hRow; j < table.getRowCount(); j++) {
-                        Cell cell = table.getCellByPosition(i, j);
-                        TableCoordinate styleCellCoord;
-                        if (sCol == 0) {        // vertical
-                            styleCellCoord = new TableCoordinate(i, j % sRow + hRow);
-                        } else if (sRow == 0) { // horizontal
-                            styleCellCoord = new TableCoordinate(i % sCol + hCol, j);
-                        } else {                // periodic
-                            int jumps = Math.min((i - hCol) / sCol, (j - hRow) / sRow);
-                            styleCellCoord = new TableCoordinate(i - jumps * sCol, j - jumps * sRow);
-                        }
-                        // Copy style cell style properties
-                        cell.setCellStyleName(cellStyles.get(styleCellCoord.toString()));
-                        // Copy paragraph style
-                        Cell styleCell = table.getCellByPosition(styleCellCoord.getColumn(), styleCellCoord.getRow());
-                        Iterator<Paragraph> pit = cell.getParagraphIterator();
-                        Iterator<Paragraph> spit = styleCell.getParagraphIterator();
-                        while (pit.hasNext() && spit.hasNext()) {
-                            //pit.next().setStyleName(spit.next().getStyleName()); //FIXME Not working, figure out why...
-                            copyStyle(spit.next().getOdfElement(), pit.next().getOdfElement());
-                        }
+        // Apply the correct formatting to each cell in the table
+        int i, j;
+        if (cellStyles != null) {
+            int sCol = styleRCoord.getColumn();
+            int sRow = styleRCoord.getRow();
+            for (i = hCol; i < table.getColumnCount(); i++) {
+                context.checkpoint();
+                for (j = hRow; j < table.getRowCount(); j++) {
+                    Cell cell = table.getCellByPosition(i, j);
+                    TableCoordinate styleCellCoord;
+                    if (sCol == 0) {        // vertical
+                        styleCellCoord = new TableCoordinate(i, j % sRow + hRow);
+                    } else if (sRow == 0) { // horizontal
+                        styleCellCoord = new TableCoordinate(i % sCol + hCol, j);
+                    } else {                // periodic
+                        int jumps = Math.min((i - hCol) / sCol, (j - hRow) / sRow);
+                        styleCellCoord = new TableCoordinate(i - jumps * sCol, j - jumps * sRow);
+                    }
+                    // Copy style cell style properties
+                    cell.setCellStyleName(cellStyles.get(styleCellCoord.toString()));
+                    // Copy paragraph style
+                    Cell styleCell = table.getCellByPosition(styleCellCoord.getColumn(), styleCellCoord.getRow());
+                    Iterator<Paragraph> pit = cell.getParagraphIterator();
+                    Iterator<Paragraph> spit = styleCell.getParagraphIterator();
+                    while (pit.hasNext() && spit.hasNext()) {
+                        //pit.next().setStyleName(spit.next().getStyleName()); //FIXME Not working, figure out why...
+                        copyStyle(spit.next().getOdfElement(), pit.next().getOdfElement());
                     }
                 }
             }
+        }
+
+        List<Table> tables = Collections.singletonList(table);
+        if (tp.getSplitRows() > 0) {
+            if (tp.getContentDirection() == ContentDirection.VERTICAL) {
+                tables = splitTable(table, hRow, tp.getSplitRows(), context);
+            } else {
+                logger.warn("Table '" + table.getTableName() + "' is horizontal and will not be split.");
+            }
+        }
 
-            //Change the last border of the table
-            if (lastBorder != null) {
+        //Change the last border of the tables
+        if (lastBorder != null) {
+            for (Table part : tables) {
                 CellBordersType lastBorderType;
                 CellRange lastCells = null;
                 if (tp.getContentDirection() == ContentDirection.VERTICAL) {
                     lastBorderType = CellBordersType.BOTTOM;
                     lastCells =
-                            table.getCellRangeByPosition(headers.getColumn(), table.getRowCount() - 1,
-                                    table.getColumnCount() - 1, table.getRowCount() - 1);
+                            part.getCellRangeByPosition(headers.getColumn(), part.getRowCount() - 1,
+                                    part.getColumnCount() - 1, part.getRowCount() - 1);
                 } else {
                     lastBorderType = CellBordersType.LEFT;
                     lastCells =
-                            table.getCellRangeByPosition(table.getColumnCount() - 1, headers.getRow(),
-                                    table.getColumnCount() - 1, table.getRowCount() - 1);
+                            part.getCellRangeByPosition(part.getColumnCount() - 1, headers.getRow(),
+                                    part.getColumnCount() - 1, part.getRowCount() - 1);
                 }
                 for (i = 0; i < lastCells.getColumnNumber(); i++) {
                     for (j = 0; j < lastCells.getRowNumber(); j++) {
@@ -881,7 +1747,307 @@ public class Template {
                 }
             }
         }
+    }
+
+    /**
+     * Splits a filled vertical table into consecutive tables with at most the given number of body rows each, following the
+     * original table in the document. Each new table holds a copy of the original's header rows, within their
+     * <code>table:table-header-rows</code> element if they have one, and of its column definitions. It is named after the
+     * original with the suffix <code>_[part]</code>, or <code>_[part]_[n]</code> if another table of the document already has
+     * that name. The body rows are moved, not copied, so they keep the styles already applied to them.
+     *
+     * @return the original table followed by the new tables.
+     */
+    private static List<Table> splitTable(Table table, int hRow, int splitRows, RenderContext context) {
+        List<Table> tables = new ArrayList<Table>();
+        tables.add(table);
+        int rowCount = table.getRowCount();
+        if (rowCount - hRow <= splitRows) {
+            return tables;
+        }
+        List<Node> headerRows = new ArrayList<Node>();
+        List<Node> bodyRows = new ArrayList<Node>();
+        for (int i = 0; i < rowCount; i++) {
+            (i < hRow ? headerRows : bodyRows).add(table.getRowByIndex(i).getOdfElement());
+        }
+        Element original = table.getOdfElement();
+        Node parent = original.getParentNode();
+        Node next = original.getNextSibling();
+        Set<String> tableNames = new HashSet<String>();
+        NodeList documentTables = original.getOwnerDocument().getElementsByTagName("table:table");
+        for (int i = 0; i < documentTables.getLength(); i++) {
+            tableNames.add(((Element) documentTables.item(i)).getAttribute("table:name"));
+        }
+        for (int start = splitRows, part = 1; start < bodyRows.size(); start += splitRows, part++) {
+            context.checkpoint();
+            TableTableElement chunk = (TableTableElement) original.cloneNode(false);
+            chunk.setAttribute("table:name", uniqueName(table.getTableName() + "_" + part, tableNames));
+            // column definitions and any other non-row content, which never holds rows once the table was filled
+            for (Node child = original.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (!isRowContainer(child)) {
+                    chunk.appendChild(child.cloneNode(true));
+                }
+            }
+            // header rows keep their container, so that the office still repeats them on each page
+            Node headerContainer = null;
+            Node headerContainerCopy = chunk;
+            for (Node headerRow : headerRows) {
+                Node container = headerRow.getParentNode();
+                if (container != headerContainer) {
+                    headerContainer = container;
+                    headerContainerCopy = chunk;
+                    if (container != original) {
+                        headerContainerCopy = chunk.appendChild(container.cloneNode(false));
+                    }
+                }
+                headerContainerCopy.appendChild(headerRow.cloneNode(true));
+            }
+            for (int i = start; i < start + splitRows && i < bodyRows.size(); i++) {
+                Node row = bodyRows.get(i);
+                row.getParentNode().removeChild(row);
+                chunk.appendChild(row);
+            }
+            parent.insertBefore(chunk, next);
+            tables.add(Table.getInstance(chunk));
+        }
+        return tables;
+    }
+
+    private static boolean isRowContainer(Node node) {
+        String name = node.getNodeName();
+        return name.equals("table:table-row") || name.equals("table:table-rows") || name.equals("table:table-header-rows")
+                || name.equals("table:table-row-group");
+    }
+
+    private static List<List<Object>> formatCategories(List<List<Object>> data, List<ValueFormat> formats, final Locale locale) {
+        List<List<Object>> formatted = new ArrayList<List<Object>>(data);
+        for (int i = 0; i < formatted.size() && i < formats.size(); i++) {
+            final List<Object> category = formatted.get(i);
+            final ValueFormat format = formats.get(i);
+            if (category != null && format != null) {
+                formatted.set(i, new AbstractList<Object>() {
+                    @Override
+                    public Object get(int index) {
+                        return format.apply(category.get(index), locale);
+                    }
+
+                    @Override
+                    public int size() {
+                        return category.size();
+                    }
+                });
+            }
+        }
+        return formatted;
+    }
+
+    /**
+     * @return a view of the categorical data where each category keeps at most its first entries, up to the given depth.
+     */
+    private static List<List<Object>> truncateCategories(List<List<Object>> data, int depth) {
+        List<List<Object>> truncated = new ArrayList<List<Object>>(data.size());
+        for (List<Object> category : data) {
+            truncated.add(category != null && category.size() > depth ? category.subList(0, depth) : category);
+        }
+        return truncated;
+    }
+
+    private static Iterator<List<Object>> formatEntries(final Iterator<List<Object>> entries, final List<ValueFormat> formats,
+            final Locale locale) {
+        return new Iterator<List<Object>>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public List<Object> next() {
+                List<Object> entry = new ArrayList<Object>(entries.next());
+                for (int i = 0; i < entry.size() && i < formats.size(); i++) {
+                    if (formats.get(i) != null) {
+                        entry.set(i, formats.get(i).apply(entry.get(i), locale));
+                    }
+                }
+                return entry;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private static int fillCategories(Table table, TableConfiguration tp, List<List<Object>> data, Locale locale,
+            RenderContext context) {
+        int hCol = tp.getHeader().getColumn();
+        int hRow = tp.getHeader().getRow();
+        int X, Y, i, j, startX, startY, limitX, limitY, tableDimX, tableSpaceX, tableDimY, tableSpaceY, nData = 0;
+        if (tp.getContentDirection() == ContentDirection.VERTICAL) {
+            startX = hCol;
+            startY = hRow;
+            tableDimX = table.getRowByIndex(hRow).getCellCount();
+            tableDimY = table.getColumnByIndex(hCol).getCellCount();
+        } else {
+            startX = hRow;
+            startY = hCol;
+            tableDimX = table.getColumnByIndex(hCol).getCellCount();
+            tableDimY = table.getRowByIndex(hRow).getCellCount();
+        }
+        tableSpaceX = startY > 0 ? tableDimX - startX : -1;
+        limitX = data.size();
+        if (tableSpaceX > 0) {
+            if (tableSpaceX < limitX) {
+                limitX = tableSpaceX;
+                logger.warn("Too many data categories for the allocated table space in table '" + table.getTableName()
+                        + "'. The remaining categories beyond table limits will be ignored.");
+            } else if (tableSpaceX > limitX) {
+                logger.warn("Too few data categories for the allocated table space in table '" + table.getTableName()
+                        + "'. The remaining space will be empty.");
+            }
+        }
+
+        for (X = startX, i = 0; i < limitX; i++, X++) {
+            List<Object> dataCategory = data.get(i);
+
+            tableSpaceY = startX > 0 ? tableDimY - startY : -1;
+            boolean overflowReported = false;
+            limitY = dataCategory != null ? dataCategory.size() : 0;
+            if (tableSpaceY > 0) {
+                if (tableSpaceY < limitY) {
+                    limitY = tableSpaceY;
+                    logger.warn("Data category nr." + X
+                            + " has more data than the allocated table space allows for in table '" + table.getTableName()
+                            + "'. Remaining data will be ignored.");
+                    overflowReported = true;
+                }
+            }
+            // Fail fast when the category alone would exceed the render limits
+            context.checkCells(limitY);
+            for (Y = startY, j = 0; j < limitY; j++, Y++) {
+                context.countCell();
+                Cell cell =
+                        tp.getContentDirection() == ContentDirection.VERTICAL ? table.getCellByPosition(X, Y) : table
+                                .getCellByPosition(Y, X);
+                switch (tp.getFillBehavior()) { //FIXME Fall through here allows cleaner code but it's a little less efficient.
+                case STEP:
+                    // If there is a paragraph with content then don't do anything, else fall through
+                    if (cell.getParagraphByIndex(0, true) != null) {
+                        break;
+                    }
+                case SKIP:
+                    // If there is a paragraph with content then just rollback the data to be reused and recheck for data overflows, else fall through
+                    if (cell.getParagraphByIndex(0, true) != null) {
+                        j--;
+                        if (tableSpaceY > 0) {
+                            if (tableDimY - Y < limitY - j) {
+                                limitY = tableDimY - Y;
+                                if (!overflowReported) {
+                                    logger.warn("Data category nr." + X
+                                            + " has more data than the allocated table space allows for in table '"
+                                            + table.getTableName() + "'. Remaining data will be ignored.");
+                                    overflowReported = true;
+                                }
+                            }
+                        }
+                        break;
+                    }
+                case WRITE:
+                    nData++;
+                    writeCell(cell, dataCategory.get(j), tp.getWriteBehavior(), locale, context);
+                    break;
+                default:
+                    logger.error("Atempted to use unimplemented Fill Behavior: " + tp.getFillBehavior().name() + ".");
+                }
+            }
+        }
+        return nData;
+    }
 
+    private static int fillEntries(TextDocument document, Table table, String tableName, TableConfiguration tp,
+            Iterator<List<Object>> entries, Locale locale, RenderContext context, boolean statistics) {
+        int hCol = tp.getHeader().getColumn();
+        int hRow = tp.getHeader().getRow();
+        boolean vertical = tp.getContentDirection() == ContentDirection.VERTICAL;
+        int startX = vertical ? hCol : hRow;
+        int startY = vertical ? hRow : hCol;
+        int tableDimX = vertical ? table.getRowByIndex(hRow).getCellCount() : table.getColumnByIndex(hCol).getCellCount();
+        int tableDimY = vertical ? table.getColumnByIndex(hCol).getCellCount() : table.getRowByIndex(hRow).getCellCount();
+        int tableSpaceX = startY > 0 ? tableDimX - startX : -1;
+        int tableSpaceY = startX > 0 ? tableDimY - startY : -1;
+        int nData = 0, depth = 0, size = 0;
+        boolean categoryOverflowReported = false, entryOverflowReported = false;
+
+        int previewRows = context.getPreviewRows();
+        // previews stop reading the entries once they have enough, so their statistics only account for those entries
+        for (int Y = startY; entries.hasNext() && (previewRows <= 0 || depth < previewRows); Y++, depth++) {
+            List<Object> entry = entries.next();
+            size = Math.max(size, entry.size());
+            if (tableSpaceY > 0 && depth >= tableSpaceY) {
+                // Keep counting the remaining entries for the table statistics without writing them
+                if (!entryOverflowReported) {
+                    logger.warn("Table '" + table.getTableName()
+                            + "' has more entries than the allocated table space allows for. Remaining entries will be ignored.");
+                    entryOverflowReported = true;
+                }
+                continue;
+            }
+            int limitX = entry.size();
+            if (tableSpaceX > 0 && tableSpaceX < limitX) {
+                limitX = tableSpaceX;
+                if (!categoryOverflowReported) {
+                    logger.warn("Too many data categories for the allocated table space in table '" + table.getTableName()
+                            + "'. The remaining categories beyond table limits will be ignored.");
+                    categoryOverflowReported = true;
+                }
+            }
+            context.checkCells(limitX);
+            for (int X = startX, i = 0; i < limitX; i++, X++) {
+                context.countCell();
+                Cell cell = vertical ? table.getCellByPosition(X, Y) : table.getCellByPosition(Y, X);
+                writeCell(cell, entry.get(i), tp.getWriteBehavior(), locale, context);
+                nData++;
+            }
+        }
+        if (statistics) {
+            Fields.createUserVariableField(document, tableName + "_dataSize", "" + size);
+            Fields.createUserVariableField(document, tableName + "_dataDepth", "" + depth);
+        }
+        return nData;
+    }
+
+    private static void writeCell(Cell cell, Object value, WriteBehavior writeBehavior, Locale locale, RenderContext context) {
+        if (value instanceof ImageData) {
+            // Images fill the frame of the cell, whatever the write behavior
+            if (!context.getPictures().fillFirstFrame(cell.getOdfElement(), (ImageData) value)) {
+                logger.warn("Image data was given for a table cell without a picture frame, it will be ignored.");
+            }
+            return;
+        }
+        switch (writeBehavior) {
+        case APPEND:
+            // Get the last paragraph and if it exists add the data's text to it, else fall through
+            Paragraph lastParagraph = cell.getParagraphByReverseIndex(0, false);
+            if (lastParagraph != null) {
+                lastParagraph.getOdfElement().setTextContent(
+                        lastParagraph.getTextContent() + translate(value, locale));
+                break;
+            }
+        case PREPEND:
+            // Get the first paragraph and if it exists add the data's text to it, else fall through
+            Paragraph firstParagraph = cell.getParagraphByIndex(0, false);
+            if (firstParagraph != null) {
+                firstParagraph.getOdfElement().setTextContent(
+                        translate(value + firstParagraph.getTextContent(), locale));
+                break;
+            }
+        case OVERWRITE:
+            cell.removeTextContent();
+            cell.addParagraph(translate(value, locale));
+            break;
+        default:
+            logger.error("Atempted to use unimplemented Write Behavior: " + writeBehavior.name() + ".");
+        }
     }
 
     // XXX This breaks if the cells contain any "none" border attribute.
@@ -949,50 +2115,11 @@ public class Template {
         return false;
     }
 
-    private static Map<String, String> collectCellStyles(Table table, int hCol, int hRow, TableCoordinate styleRCoord) {
-        Map<String, String> cellStyles = null;
-        if (styleRCoord != null) {
-            cellStyles = new HashMap<>();
-            for (int i = hCol; i < table.getColumnCount(); i++) {
-                int limit = i > styleRCoord.getColumn() ? styleRCoord.getRow() + hRow : table.getRowCount();
-                for (int j = hCol; j < limit; j++) {
-                    cellStyles.put(new TableCoordinate(i, j).toString(), table.getCellByPosition(i, j).getStyleName());
-                }
-            }
-        }
-        return cellStyles;
-    }
-
-    private static List<String> getCategoryOrder(Table table, TableCoordinate headers, ContentDirection fdir) {
-        List<String> categoryOrder = new ArrayList<String>();
-        CellRange categoryRange = null;
-        if (fdir == ContentDirection.VERTICAL) {
-            categoryRange =
-                    table.getCellRangeByPosition(headers.getColumn(), headers.getRow(), table.getColumnCount() - 1,
-                            headers.getRow());
-        } else {
-            categoryRange =
-                    table.getCellRangeByPosition(headers.getColumn(), headers.getRow(), headers.getColumn(),
-                            table.getRowCount() - 1);
-        }
-        for (int i = 0; i < categoryRange.getColumnNumber(); i++) {
-            for (int j = 0; j < categoryRange.getRowNumber(); j++) {
-                Cell cell = categoryRange.getCellByPosition(i, j);
-                Paragraph categoryParagraph = cell.getParagraphByIndex(0, false);
-                String category = null;
-                if (categoryParagraph == null || (category = categoryParagraph.getTextContent().trim()).isEmpty()) {
-                    logger.warn("Data category missing at (" + i + "," + j + ") in table '" + table.getTableName() + "'.");
-                    categoryOrder.add(null);
-                } else {
-                    cell.removeParagraph(categoryParagraph);
-                    categoryOrder.add(category);
-                };
-            }
-        }
-        return categoryOrder;
-    }
-
     private static String translate(Object object, Locale locale) {
+        if (object instanceof String) {
+            // Skip the reflective lookup for values that are already text, such as preformatted table data
+            return (String) object;
+        }
         try {
             Method m = object.getClass().getMethod("getContent", Locale.class);
             Object content = m.invoke(object, locale);
@@ -0,0 +1,171 @@
+package org.fenixedu.oddjet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches analyzed {@link TemplateStructure template structures} in memory and, optionally, in a local directory. Entries are keyed
+ * by the digest of the template document bytes, the library version and the structure format, so a structure persisted by one
+ * JVM can be loaded directly by the next one, as long as neither the template nor the library changed.
+ * <p>
+ * A single cache may be shared by any number of {@link Template templates}.
+ */
+public class TemplateCache {
+
+    /** Version used in the cache keys when the library version can not be determined. */
+    private static final String UNKNOWN_VERSION = "dev";
+    /**
+     * Version of the persisted structure format, to be incremented whenever the serialized form of {@link TemplateStructure}
+     * changes, since development builds of different revisions share the same library version.
+     */
+    private static final int STRUCTURE_FORMAT = 2;
+    /** Extension of the persisted structure files. */
+    private static final String FILE_EXTENSION = ".structure";
+
+    private static final Logger logger = LoggerFactory.getLogger(TemplateCache.class);
+
+    /** The directory where the structures are persisted, null if the cache is memory only. */
+    private final File directory;
+    /** The structures already loaded or analyzed by this JVM, indexed by key. */
+    private final ConcurrentMap<String, TemplateStructure> structures = new ConcurrentHashMap<String, TemplateStructure>();
+
+    /**
+     * Constructs a memory only TemplateCache.
+     */
+    public TemplateCache() {
+        this.directory = null;
+    }
+
+    /**
+     * Constructs a TemplateCache that persists the template structures in the given directory, creating it if necessary.
+     *
+     * @param directory the cache directory.
+     * @throws IllegalArgumentException if the directory does not exist and can not be created.
+     */
+    public TemplateCache(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cache directory " + directory.getAbsolutePath() + " can not be created.");
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * @return the directory where the structures are persisted, or null if this cache is memory only.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the cached structure of a template document.
+     *
+     * @param templateBytes the bytes of the template document file.
+     * @return the cached structure or null if there is none for this template and library version.
+     */
+    public TemplateStructure get(byte[] templateBytes) {
+        String key = getKey(templateBytes);
+        TemplateStructure structure = structures.get(key);
+        if (structure == null && directory != null) {
+            structure = read(new File(directory, key + FILE_EXTENSION));
+            if (structure != null) {
+                structures.putIfAbsent(key, structure);
+            }
+        }
+        return structure;
+    }
+
+    /**
+     * Caches the structure of a template document, persisting it if this cache has a directory. Failures to persist the
+     * structure are logged and otherwise ignored.
+     *
+     * @param templateBytes the bytes of the template document file.
+     * @param structure the structure of the template document.
+     */
+    public void put(byte[] templateBytes, TemplateStructure structure) {
+        String key = getKey(templateBytes);
+        structures.put(key, structure);
+        if (directory != null) {
+            write(new File(directory, key + FILE_EXTENSION), structure);
+        }
+    }
+
+    /** Removes all cached structures, including the persisted ones. */
+    public void clear() {
+        structures.clear();
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(FILE_EXTENSION)) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    private static TemplateStructure read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(file))) {
+            return (TemplateStructure) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            logger.warn("Discarding unreadable template structure " + file.getName() + ".");
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void write(File file, TemplateStructure structure) {
+        // Write to a temporary file and rename it so concurrent readers never see a partial structure.
+        File temporary = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(temporary))) {
+            out.writeObject(structure);
+        } catch (IOException e) {
+            logger.warn("Failed to persist template structure " + file.getName() + ".");
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+        }
+    }
+
+    private static String getKey(byte[] templateBytes) {
+        return digest(templateBytes) + "-" + getLibraryVersion() + "-" + STRUCTURE_FORMAT;
+    }
+
+    private static String getLibraryVersion() {
+        Package library = TemplateCache.class.getPackage();
+        String version = library != null ? library.getImplementationVersion() : null;
+        return version != null ? version : UNKNOWN_VERSION;
+    }
+
+    /**
+     * @param bytes the bytes to digest.
+     * @return the hexadecimal representation of the SHA-256 digest of the given bytes.
+     */
+    static String digest(byte[] bytes) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package org.fenixedu.oddjet;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+import org.fenixedu.oddjet.exception.IllegalTemplateDataSourceNameException;
+import org.fenixedu.oddjet.exception.IllegalTemplateParameterNameException;
+import org.fenixedu.oddjet.table.TableCall;
+import org.fenixedu.oddjet.table.TableData;
+
+/**
+ * Contains the data bound to a template: its data parameters, root object and table and section data sources. A template holds
+ * its own data, and several TemplateData objects may be rendered by the same template, for instance as the records of a
+ * {@link Template#getMergedInstance(Iterable) merged instance}.
+ */
+public class TemplateData {
+
+    /** The regex string to match parameter attribute access. */
+    private static final Pattern ATTRIBUTE_ACCESS = Pattern.compile("\\.");
+
+    /** Map of data parameters. */
+    final private Map<String, Object> dataParameters = new HashMap<String, Object>();
+    /** Map of lazily evaluated data parameters. */
+    final private Map<String, Supplier<?>> lazyDataParameters = new HashMap<String, Supplier<?>>();
+    /** The object on which attributes that are not data parameters are resolved, null if there is none. */
+    private Object rootObject;
+    /** Map of table data sources. */
+    final private Map<String, TableData> tableDataSources = new HashMap<String, TableData>();
+    /** Map of lazily evaluated table data sources. */
+    final private Map<String, Supplier<? extends TableData>> lazyTableDataSources =
+            new HashMap<String, Supplier<? extends TableData>>();
+    /** Map of section data sources. */
+    final private Map<String, Iterable<?>> sectionDataSources = new HashMap<String, Iterable<?>>();
+
+    /**
+     * @return a map with the current data parameters, excluding the lazy ones. This map cannot be used to add, modify or remove
+     *         parameters.
+     */
+    public Map<String, Object> getParameters() {
+        return new HashMap<String, Object>(dataParameters);
+    }
+
+    /**
+     * @return a map with the current lazy data parameters. This map cannot be used to add, modify or remove parameters.
+     */
+    public Map<String, Supplier<?>> getLazyParameters() {
+        return new HashMap<String, Supplier<?>>(lazyDataParameters);
+    }
+
+    /**
+     * Adds or replaces a data parameter. The value is used as it is, even if it is a {@link Supplier}, see
+     * {@link #addLazyParameter(String, Supplier)} for parameters evaluated on demand.
+     *
+     * @param name the name of the data parameter.
+     * @param value the data object for this parameter, which may be null.
+     * @throws IllegalTemplateParameterNameException if the supplied name contains the attribute access operator ".".
+     */
+    public void addParameter(String name, Object value) throws IllegalTemplateParameterNameException {
+        if (ATTRIBUTE_ACCESS.matcher(name).find()) {
+            throw new IllegalTemplateParameterNameException(name);
+        } else {
+            this.lazyDataParameters.remove(name);
+            this.dataParameters.put(name, value);
+        }
+    }
+
+    /**
+     * Adds or replaces a lazily evaluated data parameter. The supplier is only called by renders of template documents that
+     * reference the parameter, at most once per render.
+     *
+     * @param name the name of the data parameter.
+     * @param value the supplier of the data object for this parameter.
+     * @throws IllegalTemplateParameterNameException if the supplied name contains the attribute access operator ".".
+     */
+    public void addLazyParameter(String name, Supplier<?> value) throws IllegalTemplateParameterNameException {
+        if (ATTRIBUTE_ACCESS.matcher(name).find()) {
+            throw new IllegalTemplateParameterNameException(name);
+        } else {
+            this.dataParameters.remove(name);
+            this.lazyDataParameters.put(name, value);
+        }
+    }
+
+    /** Removes all data parameters. */
+    public void clearParameters() {
+        this.dataParameters.clear();
+        this.lazyDataParameters.clear();
+    }
+
+    /**
+     * Removes the data parameter with the given name.
+     *
+     * @param name the name of the data parameter that is to be removed.
+     */
+    public void removeParameter(String name) {
+        this.dataParameters.remove(name);
+        this.lazyDataParameters.remove(name);
+    }
+
+    /**
+     * @return the object on which attributes that are not data parameters are resolved, or null if there is none.
+     */
+    public Object getRootObject() {
+        return rootObject;
+    }
+
+    /**
+     * Binds an object whose attributes are resolved on demand. User fields whose first attribute does not match a data
+     * parameter are resolved on this object, so only the attributes referenced by the template document are evaluated.
+     *
+     * @param rootObject the object to be bound, or null to remove the binding.
+     */
+    public void setRootObject(Object rootObject) {
+        this.rootObject = rootObject;
+    }
+
+    /**
+     * Adds or replaces a table's data source.
+     *
+     * @param name the name of the table to contain this data.
+     * @param value the object containing the table data.
+     * @throws IllegalTemplateDataSourceNameException if the supplied name does not conform to the table source name notation
+     */
+    public void addTableDataSource(String name, TableData value) throws IllegalTemplateDataSourceNameException {
+        if (TableCall.isValidSourceName(name)) {
+            this.lazyTableDataSources.remove(name);
+            this.tableDataSources.put(name, value);
+        } else {
+            throw new IllegalTemplateDataSourceNameException(name);
+        }
+    }
+
+    /**
+     * Adds or replaces a lazily evaluated table's data source. The supplier is only called by renders of template documents
+     * containing a table that uses the data source, at most once per render.
+     *
+     * @param name the name of the table to contain this data.
+     * @param value the supplier of the object containing the table data.
+     * @throws IllegalTemplateDataSourceNameException if the supplied name does not conform to the table source name notation
+     */
+    public void addLazyTableDataSource(String name, Supplier<? extends TableData> value)
+            throws IllegalTemplateDataSourceNameException {
+        if (TableCall.isValidSourceName(name)) {
+            this.tableDataSources.remove(name);
+            this.lazyTableDataSources.put(name, value);
+        } else {
+            throw new IllegalTemplateDataSourceNameException(name);
+        }
+    }
+
+    /** Removes all table data sources. */
+    public void clearTableDataSources() {
+        this.tableDataSources.clear();
+        this.lazyTableDataSources.clear();
+    }
+
+    /**
+     * Removes the table data source for the table with the given name.
+     *
+     * @param name the name of the table whose data source is to be removed.
+     */
+    public void removeTableDataSource(String name) {
+        this.tableDataSources.remove(name);
+        this.lazyTableDataSources.remove(name);
+    }
+
+    /**
+     * @return a map with the current table data sources, excluding the lazy ones.
+     */
+    public Map<String, TableData> getTableDataSources() {
+        return new HashMap<String, TableData>(tableDataSources);
+    }
+
+    /**
+     * Adds or replaces a section's data source. The section of the template document with the given name is repeated for each
+     * item, in order, and removed if there are no items. Within each repetition, user fields whose attribute chain starts with
+     * the section name are resolved on the item, and tables are filled with the item attribute named after their data source,
+     * which may be a {@link TableData} or an {@link Iterable} of entries, falling back to the table data sources. Sections within
+     * a repeated section are not repeated themselves.
+     *
+     * @param name the name of the section to be repeated.
+     * @param items the items of the section.
+     * @throws IllegalTemplateDataSourceNameException if the supplied name does not conform to the source name notation.
+     */
+    public void addSectionDataSource(String name, Iterable<?> items) throws IllegalTemplateDataSourceNameException {
+        if (TableCall.isValidSourceName(name)) {
+            this.sectionDataSources.put(name, items);
+        } else {
+            throw new IllegalTemplateDataSourceNameException(name);
+        }
+    }
+
+    /** Removes all section data sources. */
+    public void clearSectionDataSources() {
+        this.sectionDataSources.clear();
+    }
+
+    /**
+     * Removes the section data source for the section with the given name.
+     *
+     * @param name the name of the section whose data source is to be removed.
+     */
+    public void removeSectionDataSource(String name) {
+        this.sectionDataSources.remove(name);
+    }
+
+    /**
+     * @return a map with the current section data sources.
+     */
+    public Map<String, Iterable<?>> getSectionDataSources() {
+        return new HashMap<String, Iterable<?>>(sectionDataSources);
+    }
+
+    /**
+     * @return the data of a single render of this data.
+     */
+    RenderData toRenderData() {
+        return new RenderData(getParameters(), getLazyParameters(), rootObject, getTableDataSources(),
+                new HashMap<String, Supplier<? extends TableData>>(lazyTableDataSources), getSectionDataSources());
+    }
+}
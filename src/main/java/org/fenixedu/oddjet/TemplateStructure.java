@@ -0,0 +1,392 @@
+package org.fenixedu.oddjet;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.fenixedu.oddjet.exception.IllegalTableCallRepresentationException;
+import org.fenixedu.oddjet.table.TableCall;
+import org.fenixedu.oddjet.table.TableConfiguration;
+import org.fenixedu.oddjet.table.TableConfiguration.ContentDirection;
+import org.fenixedu.oddjet.table.TableConfiguration.ContentStructure;
+import org.fenixedu.oddjet.table.TableConfiguration.LastBorderSourceSection;
+import org.fenixedu.oddjet.table.TableCoordinate;
+import org.fenixedu.oddjet.utils.ValueFormat;
+import org.odftoolkit.simple.TextDocument;
+import org.odftoolkit.simple.table.Cell;
+import org.odftoolkit.simple.table.CellRange;
+import org.odftoolkit.simple.table.Table;
+import org.odftoolkit.simple.text.Paragraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Contains the result of analyzing a template document: the user fields it declares, the contents of its sections and, for each
+ * of its dynamic tables, the parsed table call, the category order and the style source information. This information depends
+ * only on the template document, so it can be computed once and reused by every instance of the template, or persisted through
+ * a {@link TemplateCache}.
+ */
+public class TemplateStructure implements Serializable {
+
+    private static final long serialVersionUID = -5530871926417380962L;
+
+    /**
+     * Contains the analyzed structure of a single dynamic table of the template.
+     */
+    public static class TableStructure implements Serializable {
+
+        private static final long serialVersionUID = 1849306275531847429L;
+
+        private TableCall call;
+        private ContentStructure contentStructure;
+        private TableCoordinate styleRelativeCoord;
+        private List<String> categoryOrder;
+        private List<ValueFormat> categoryFormats;
+        private Map<String, String> cellStyles;
+
+        /**
+         * @return the table call parsed from the table name.
+         */
+        public TableCall getCall() {
+            return call;
+        }
+
+        /**
+         * @return the content structure to be used, which may differ from the table call's if the table dimensions do not allow
+         *         the specification of the categories.
+         */
+        public ContentStructure getContentStructure() {
+            return contentStructure;
+        }
+
+        /**
+         * @return the style relative coordinate to be used, or null if the table dimensions do not allow the specification of
+         *         the cell format.
+         */
+        public TableCoordinate getStyleRelativeCoord() {
+            return styleRelativeCoord;
+        }
+
+        /**
+         * @return the category order read from the table headers, without format directives, or null if the content structure
+         *         is not categorical.
+         */
+        public List<String> getCategoryOrder() {
+            return categoryOrder;
+        }
+
+        /**
+         * @return the formats of the categories, parallel to the category order, with null for categories without a format
+         *         directive, or null if no category has one.
+         */
+        public List<ValueFormat> getCategoryFormats() {
+            return categoryFormats;
+        }
+
+        /**
+         * @return the style names of the predefined style cells indexed by the string representation of their coordinates, or
+         *         null if no style is to be copied.
+         */
+        public Map<String, String> getCellStyles() {
+            return cellStyles;
+        }
+    }
+
+    /**
+     * Contains the analyzed structure of a section of the template, which may be repeated for each item of a section data
+     * source.
+     */
+    public static class SectionStructure implements Serializable {
+
+        private static final long serialVersionUID = 5209461873349120537L;
+
+        private String name;
+        private List<String> itemFieldNames = new ArrayList<String>();
+        private List<String> tableNames = new ArrayList<String>();
+
+        /**
+         * @return the section name, which is also the name of its data source.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the names of the user fields within the section that refer to the section's items, that is, whose attribute
+         *         chain starts with the section name.
+         */
+        public List<String> getItemFieldNames() {
+            return Collections.unmodifiableList(itemFieldNames);
+        }
+
+        /**
+         * @return the names of the tables within the section.
+         */
+        public List<String> getTableNames() {
+            return Collections.unmodifiableList(tableNames);
+        }
+    }
+
+    /** The names of the user fields declared in the template. */
+    private List<String> userFieldNames = new ArrayList<String>();
+    /** The formats of the user fields with a format directive, indexed by user field name. */
+    private Map<String, ValueFormat> userFieldFormats = new HashMap<String, ValueFormat>();
+    /** The structure of the template's dynamic tables indexed by table name. */
+    private Map<String, TableStructure> tables = new HashMap<String, TableStructure>();
+    /** The structure of the template's sections indexed by section name. */
+    private Map<String, SectionStructure> sections = new HashMap<String, SectionStructure>();
+    /** The number of element nodes in the template's content. */
+    private long contentNodeCount = 0;
+
+    private static final Logger logger = LoggerFactory.getLogger(TemplateStructure.class);
+
+    /**
+     * @return the names of the user fields declared in the template.
+     */
+    public List<String> getUserFieldNames() {
+        return Collections.unmodifiableList(userFieldNames);
+    }
+
+    /**
+     * @param userFieldName the name of a user field declared in the template.
+     * @return the format given by the user field name's format directive, or null if it has none.
+     */
+    public ValueFormat getUserFieldFormat(String userFieldName) {
+        return userFieldFormats.get(userFieldName);
+    }
+
+    /**
+     * @return the names of the data parameters, or root object attributes, referenced by the template's user fields.
+     */
+    public Set<String> getParameterNames() {
+        Set<String> names = new TreeSet<String>();
+        for (String userFieldName : userFieldNames) {
+            String attributeChain = ValueFormat.stripDirective(userFieldName);
+            int separator = attributeChain.indexOf('.');
+            names.add(separator < 0 ? attributeChain : attributeChain.substring(0, separator));
+        }
+        return names;
+    }
+
+    /**
+     * @return the names of the table data sources used by the template's dynamic tables.
+     */
+    public Set<String> getTableDataSourceNames() {
+        Set<String> names = new TreeSet<String>();
+        for (TableStructure table : tables.values()) {
+            names.add(table.getCall().getTableDataSourceName());
+        }
+        return names;
+    }
+
+    /**
+     * @return the names of the template's sections, which may be bound to section data sources.
+     */
+    public Set<String> getSectionNames() {
+        return new TreeSet<String>(sections.keySet());
+    }
+
+    /**
+     * @param sectionName the name of a section in the template.
+     * @return the structure of the section with the given name or null if there is no such section.
+     */
+    public SectionStructure getSection(String sectionName) {
+        return sections.get(sectionName);
+    }
+
+    /**
+     * @return the number of element nodes in the template's content, used to estimate the size of an instance's DOM.
+     */
+    public long getContentNodeCount() {
+        return contentNodeCount;
+    }
+
+    /**
+     * @param tableName the name of a table in the template.
+     * @return the structure of the table with the given name or null if it is a static table.
+     */
+    public TableStructure getTable(String tableName) {
+        return tables.get(tableName);
+    }
+
+    /**
+     * Analyzes a freshly loaded template document. The document is not modified.
+     *
+     * @param document the template document to be analyzed.
+     * @return the structure of the given template document.
+     */
+    public static TemplateStructure analyze(TextDocument document) {
+        TemplateStructure structure = new TemplateStructure();
+        try {
+            structure.contentNodeCount = document.getContentRoot().getElementsByTagName("*").getLength();
+            NodeList nodes = document.getContentRoot().getElementsByTagName("text:user-field-decl");
+            for (int i = 0; i < nodes.getLength(); i++) {
+                String userFieldName = nodes.item(i).getAttributes().getNamedItem("text:name").getNodeValue();
+                structure.userFieldNames.add(userFieldName);
+                ValueFormat format = ValueFormat.parse(userFieldName);
+                if (format != null) {
+                    structure.userFieldFormats.put(userFieldName, format);
+                }
+            }
+            NodeList sectionNodes = document.getContentRoot().getElementsByTagName("text:section");
+            for (int i = 0; i < sectionNodes.getLength(); i++) {
+                SectionStructure section = analyzeSection((Element) sectionNodes.item(i));
+                structure.sections.put(section.name, section);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to create the file DOM while collecting the user fields.");
+            e.printStackTrace();
+        }
+        for (Table table : document.getTableList()) {
+            TableStructure tableStructure = analyzeTable(table);
+            if (tableStructure != null) {
+                structure.tables.put(table.getTableName(), tableStructure);
+            }
+        }
+        return structure;
+    }
+
+    private static SectionStructure analyzeSection(Element sectionElement) {
+        SectionStructure section = new SectionStructure();
+        section.name = sectionElement.getAttribute("text:name");
+        NodeList fields = sectionElement.getElementsByTagName("text:user-field-get");
+        for (int i = 0; i < fields.getLength(); i++) {
+            String fieldName = ((Element) fields.item(i)).getAttribute("text:name");
+            String attributeChain = ValueFormat.stripDirective(fieldName);
+            if ((attributeChain.equals(section.name) || attributeChain.startsWith(section.name + "."))
+                    && !section.itemFieldNames.contains(fieldName)) {
+                section.itemFieldNames.add(fieldName);
+            }
+        }
+        NodeList tables = sectionElement.getElementsByTagName("table:table");
+        for (int i = 0; i < tables.getLength(); i++) {
+            section.tableNames.add(((Element) tables.item(i)).getAttribute("table:name"));
+        }
+        return section;
+    }
+
+    private static TableStructure analyzeTable(Table table) {
+        TableCall tc = null;
+        try {
+            tc = new TableCall(table.getTableName());
+        } catch (IllegalTableCallRepresentationException e) {
+            logger.warn("Table name " + table.getTableName()
+                    + " does not conform to table call notation, assumed to be static table.");
+            return null;
+        }
+
+        TableConfiguration tp = tc.getParameters();
+        TableCoordinate headers = tp.getHeader();
+        TableCoordinate styleRCoord = tp.getStyleRelativeCoord();
+        ContentStructure structure = tp.getContentStructure();
+        int hCol = headers.getColumn();
+        int hRow = headers.getRow();
+
+        // Check if table has necessary cells predefined
+        if (structure != ContentStructure.CATEGORICAL && (hRow >= table.getRowCount() || hCol >= table.getColumnCount())) {
+            logger.error("Table dimensions of " + table.getTableName()
+                    + " do not allow the specification of the semantic data. Default category order assumed.");
+            structure = ContentStructure.POSITIONAL;
+        }
+        if ((styleRCoord != null && (hRow + styleRCoord.getRow() > table.getRowCount() || hCol + styleRCoord.getColumn() > table
+                .getColumnCount()))
+                || (tp.getLastBorderSourceSection() == LastBorderSourceSection.BODY && (table.getRowCount() == hRow || table
+                        .getColumnCount() == hCol))) {
+            logger.error("Table dimensions of " + table.getTableName()
+                    + " are not suficient to specify the table cell format. Default cell style will be used.");
+            styleRCoord = null;
+        }
+
+        TableStructure tableStructure = new TableStructure();
+        tableStructure.call = tc;
+        tableStructure.contentStructure = structure;
+        tableStructure.styleRelativeCoord = styleRCoord;
+        // Collect all the styles of the predefined style cells before adding any new cells.
+        //      This is only necessary due to a quirk in the simpleAPI where creating a new column/row changes the style of the cell
+        //      in the previous column/row.
+        tableStructure.cellStyles = collectCellStyles(table, hCol, hRow, styleRCoord);
+        if (structure == ContentStructure.CATEGORICAL) {
+            List<String> headerOrder = getCategoryOrder(table, headers, tp.getContentDirection());
+            tableStructure.categoryOrder = new ArrayList<String>();
+            List<ValueFormat> formats = new ArrayList<ValueFormat>();
+            boolean hasFormats = false;
+            for (String header : headerOrder) {
+                ValueFormat format = header != null ? ValueFormat.parse(header) : null;
+                tableStructure.categoryOrder.add(header != null ? ValueFormat.stripDirective(header) : null);
+                formats.add(format);
+                hasFormats |= format != null;
+            }
+            tableStructure.categoryFormats = hasFormats ? formats : null;
+        }
+        return tableStructure;
+    }
+
+    private static Map<String, String> collectCellStyles(Table table, int hCol, int hRow, TableCoordinate styleRCoord) {
+        Map<String, String> cellStyles = null;
+        if (styleRCoord != null) {
+            cellStyles = new HashMap<>();
+            for (int i = hCol; i < table.getColumnCount(); i++) {
+                int limit = i > styleRCoord.getColumn() ? styleRCoord.getRow() + hRow : table.getRowCount();
+                for (int j = hCol; j < limit; j++) {
+                    cellStyles.put(new TableCoordinate(i, j).toString(), table.getCellByPosition(i, j).getStyleName());
+                }
+            }
+        }
+        return cellStyles;
+    }
+
+    private static List<String> getCategoryOrder(Table table, TableCoordinate headers, ContentDirection fdir) {
+        List<String> categoryOrder = new ArrayList<String>();
+        CellRange categoryRange = getCategoryRange(table, headers, fdir);
+        for (int i = 0; i < categoryRange.getColumnNumber(); i++) {
+            for (int j = 0; j < categoryRange.getRowNumber(); j++) {
+                Paragraph categoryParagraph = categoryRange.getCellByPosition(i, j).getParagraphByIndex(0, false);
+                String category = null;
+                if (categoryParagraph == null || (category = categoryParagraph.getTextContent().trim()).isEmpty()) {
+                    logger.warn("Data category missing at (" + i + "," + j + ") in table '" + table.getTableName() + "'.");
+                    categoryOrder.add(null);
+                } else {
+                    categoryOrder.add(category);
+                };
+            }
+        }
+        return categoryOrder;
+    }
+
+    /**
+     * Removes the category specifications from the header cells of a table instance.
+     *
+     * @param table the table whose categories are to be removed.
+     * @param headers the table's header coordinate.
+     * @param fdir the table's content direction.
+     */
+    static void removeCategoryHeaders(Table table, TableCoordinate headers, ContentDirection fdir) {
+        CellRange categoryRange = getCategoryRange(table, headers, fdir);
+        for (int i = 0; i < categoryRange.getColumnNumber(); i++) {
+            for (int j = 0; j < categoryRange.getRowNumber(); j++) {
+                Cell cell = categoryRange.getCellByPosition(i, j);
+                Paragraph categoryParagraph = cell.getParagraphByIndex(0, false);
+                if (categoryParagraph != null && !categoryParagraph.getTextContent().trim().isEmpty()) {
+                    cell.removeParagraph(categoryParagraph);
+                }
+            }
+        }
+    }
+
+    private static CellRange getCategoryRange(Table table, TableCoordinate headers, ContentDirection fdir) {
+        if (fdir == ContentDirection.VERTICAL) {
+            return table.getCellRangeByPosition(headers.getColumn(), headers.getRow(), table.getColumnCount() - 1,
+                    headers.getRow());
+        } else {
+            return table.getCellRangeByPosition(headers.getColumn(), headers.getRow(), headers.getColumn(),
+                    table.getRowCount() - 1);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.fenixedu.oddjet.batch;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An append-only local manifest of the completed records of a batch, which lets an interrupted batch resume where it stopped.
+ * Each line holds the key of a completed record, the SHA-256 digest of its output and the name of its output file, separated by
+ * tabs. Lines are written, and synced to the disk, only after the output is complete, so a batch that dies, even along with its
+ * host, leaves at most an incomplete last line, which is ignored when the manifest is loaded again.
+ */
+public class BatchManifest implements Closeable {
+
+    private final Map<String, String[]> completed = new HashMap<String, String[]>();
+    private final FileOutputStream out;
+    private final Writer writer;
+
+    /**
+     * Opens a manifest, loading the records it already lists as completed, or creates it if it does not exist.
+     *
+     * @param file the manifest file.
+     * @throws IOException if the manifest can not be read or opened for writing.
+     */
+    public BatchManifest(File file) throws IOException {
+        boolean truncated = false;
+        if (file.exists()) {
+            try (BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length == 3 && !fields[1].isEmpty()) {
+                        completed.put(fields[0], fields);
+                    }
+                }
+            }
+            truncated = file.length() > 0 && !endsWithLineBreak(file);
+        }
+        this.out = new FileOutputStream(file, true);
+        this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        if (truncated) {
+            // ends the incomplete line left by an interrupted batch
+            writer.write('\n');
+            writer.flush();
+            out.getFD().sync();
+        }
+    }
+
+    private static boolean endsWithLineBreak(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            in.getChannel().position(file.length() - 1);
+            return in.read() == '\n';
+        }
+    }
+
+    /**
+     * @param key the key of a record.
+     * @return true if the manifest lists the record as completed.
+     */
+    public synchronized boolean isCompleted(String key) {
+        return completed.containsKey(toKey(key));
+    }
+
+    /**
+     * @param key the key of a record.
+     * @return the digest of the output of the record, or null if the record is not completed.
+     */
+    public synchronized String getDigest(String key) {
+        String[] fields = completed.get(toKey(key));
+        return fields != null ? fields[1] : null;
+    }
+
+    /**
+     * @param key the key of a record.
+     * @return the name of the output file of the record, or null if the record is not completed.
+     */
+    public synchronized String getOutputName(String key) {
+        String[] fields = completed.get(toKey(key));
+        return fields != null ? fields[2] : null;
+    }
+
+    /**
+     * @return the number of records listed as completed.
+     */
+    public synchronized int size() {
+        return completed.size();
+    }
+
+    /**
+     * Lists a record as completed, appending it to the manifest file and syncing it to the disk.
+     *
+     * @param key the key of the record.
+     * @param digest the hexadecimal SHA-256 digest of the record's output.
+     * @param outputName the name of the record's output file.
+     * @throws IOException if the manifest can not be written.
+     */
+    public synchronized void complete(String key, String digest, String outputName) throws IOException {
+        String[] fields = new String[] { toKey(key), digest, toKey(outputName) };
+        writer.write(fields[0] + "\t" + fields[1] + "\t" + fields[2] + "\n");
+        writer.flush();
+        // a flushed line may still be lost with the host, the record would then be rendered again on resume
+        out.getFD().sync();
+        completed.put(fields[0], fields);
+    }
+
+    /** Keys and names are single line fields of the manifest. */
+    private static String toKey(String key) {
+        return key.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
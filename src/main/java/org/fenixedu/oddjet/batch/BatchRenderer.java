@@ -0,0 +1,672 @@
+package org.fenixedu.oddjet.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fenixedu.oddjet.InstanceArchive;
+import org.fenixedu.oddjet.OddjetConfiguration;
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.TemplateData;
+import org.fenixedu.oddjet.exception.AttributeChainResolutionFailureException;
+import org.fenixedu.oddjet.exception.MalformedRecordException;
+import org.fenixedu.oddjet.exception.RenderCancelledException;
+import org.fenixedu.oddjet.table.EntryListTableData;
+import org.fenixedu.oddjet.table.PositionalTableData;
+import org.fenixedu.oddjet.table.TableCall;
+import org.fenixedu.oddjet.table.TableData;
+import org.fenixedu.oddjet.utils.DocumentWriter;
+import org.odftoolkit.simple.TextDocument;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Renders a template for each record of a batch input, with a number of parallel workers, writing the instances, or their
+ * prints, to a directory or to a ZIP archive. Each record field becomes a template data parameter, and fields holding lists also
+ * become the table and section data sources of the same name: lists of lists fill tables positionally, while lists of objects
+ * fill them by entry attributes.
+ * <p>
+ * It can be run from the command line with the self-contained <code>cli</code> artifact, which bundles its dependencies:
+ *
+ * <pre>
+ * java -jar oddjet-&lt;version&gt;-cli.jar --template &lt;file.odt|file.fodt&gt; --input &lt;file|-&gt; [--format jsonl|csv]
+ *     [--delimiter &lt;char&gt;] [--output &lt;directory|file.zip&gt;] [--workers &lt;n&gt;] [--print]
+ *     [--name &lt;attribute chain&gt;] [--locale &lt;language tag&gt;] [--manifest &lt;file&gt;] [--key &lt;attribute chain&gt;]
+ *     [--retries &lt;n&gt;] [--retry-delay &lt;milliseconds&gt;]
+ * </pre>
+ *
+ * The input format is taken from the input file extension when not given. Printing requires the OpenOffice service configured
+ * for Oddjet. Renders that fail are retried after the main stream of records, with an exponential backoff. Records that still
+ * fail are reported and left out of the output, and the run exits with status 1 if any record failed.
+ * <p>
+ * Runs writing to a directory may keep a {@link BatchManifest manifest} of the completed records, identified by a key, so an
+ * interrupted run can be resumed by running it again with the same input and manifest: records already completed, whose output
+ * file still exists under the same name and with the digest listed in the manifest, are skipped. Outputs are written to
+ * temporary files and renamed when complete, so an interrupted run never leaves incomplete outputs under their final names.
+ */
+public class BatchRenderer {
+
+    /** The number of records between progress reports. */
+    private static final int PROGRESS_INTERVAL = 1000;
+    /** The suffix of the output files being written. */
+    private static final String PART_SUFFIX = ".part";
+
+    private final Template template;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private boolean print = false;
+    private String nameChain;
+    private String keyChain;
+    private BatchManifest manifest;
+    private int retries = 2;
+    private long retryDelay = 1000;
+    private PrintStream log = System.err;
+
+    private final AtomicInteger read = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger retried = new AtomicInteger();
+    /** The records whose render failed in the current pass, to be retried. */
+    private final Queue<Item> failures = new ConcurrentLinkedQueue<Item>();
+    private long elapsedTime = 0;
+    /** The extension of the output files of the current run. */
+    private String extension;
+
+    /**
+     * @param template the template to be rendered for each record.
+     */
+    public BatchRenderer(Template template) {
+        this.template = template;
+    }
+
+    /**
+     * @param workers the number of records rendered in parallel.
+     * @throws IllegalArgumentException if the number of workers is not positive.
+     */
+    public void setWorkers(int workers) {
+        Preconditions.checkArgument(workers > 0, "The number of workers must be positive.");
+        this.workers = workers;
+    }
+
+    /**
+     * @param print true to write prints of the instances, false to write the instance documents.
+     */
+    public void setPrint(boolean print) {
+        this.print = print;
+    }
+
+    /**
+     * Sets the attribute chain, resolved on each record, that names the record's output file. Records are named by their
+     * position in the input when there is no such chain or it can not be resolved.
+     *
+     * @param nameChain the attribute chain naming the output files, or null to name them by position.
+     */
+    public void setNameChain(String nameChain) {
+        this.nameChain = nameChain;
+    }
+
+    /**
+     * Sets the attribute chain, resolved on each record, that identifies the record in the manifest. Records are identified by
+     * the name of their output file when there is no such chain or it can not be resolved.
+     *
+     * @param keyChain the attribute chain identifying the records, or null to identify them by their output file name.
+     */
+    public void setKeyChain(String keyChain) {
+        this.keyChain = keyChain;
+    }
+
+    /**
+     * Sets the manifest where completed records are listed, and from which the records completed by previous runs are skipped.
+     * Manifests are only kept for runs writing to a directory.
+     *
+     * @param manifest the manifest of the batch, or null to render every record without keeping a manifest.
+     */
+    public void setManifest(BatchManifest manifest) {
+        this.manifest = manifest;
+    }
+
+    /**
+     * Sets how many times a failed render is retried, after the main stream of records. The delay before each retry pass doubles
+     * the previous one.
+     *
+     * @param retries the maximum number of retries of each record, 0 for none.
+     * @param retryDelay the delay before the first retry pass, in milliseconds.
+     * @throws IllegalArgumentException if the number of retries or the delay is negative.
+     */
+    public void setRetries(int retries, long retryDelay) {
+        Preconditions.checkArgument(retries >= 0, "The number of retries can not be negative.");
+        Preconditions.checkArgument(retryDelay >= 0, "The retry delay can not be negative.");
+        this.retries = retries;
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @param log the stream to which progress, failures and throughput are reported.
+     */
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    /**
+     * @return the number of records read in the last run, including the failed ones.
+     */
+    public int getRead() {
+        return read.get();
+    }
+
+    /**
+     * @return the number of records that failed in the last run.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return the number of records skipped in the last run because the manifest listed them as completed.
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of renders retried in the last run.
+     */
+    public int getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * @return the duration of the last run, in milliseconds.
+     */
+    public long getElapsedTime() {
+        return elapsedTime;
+    }
+
+    /**
+     * Renders the template for each of the given records. The output is a ZIP archive if its name ends in <code>.zip</code>, and
+     * a directory, created if necessary, otherwise.
+     *
+     * @param records the reader of the records.
+     * @param output the output archive or directory.
+     * @throws IOException if the input can not be read or the output or the manifest can not be written.
+     * @throws IllegalStateException if there is a manifest and the output is a ZIP archive.
+     */
+    public void run(RecordReader records, File output) throws IOException {
+        boolean archive = output.getName().toLowerCase(Locale.ENGLISH).endsWith(".zip");
+        Preconditions.checkState(!archive || manifest == null, "Manifests are only kept for runs writing to a directory.");
+        read.set(0);
+        failed.set(0);
+        skipped.set(0);
+        retried.set(0);
+        failures.clear();
+        long start = System.nanoTime();
+        if (print) {
+            extension = "." + OddjetConfiguration.getConfiguration().openOfficeOutput();
+        } else {
+            extension = template.isFlatOutput() ? ".fodt" : ".odt";
+        }
+        // analyze the template once, before the workers need it
+        template.getStructure();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            if (archive) {
+                renderToArchive(records, output, executor);
+            } else {
+                renderToDirectory(records, output, executor);
+            }
+        } finally {
+            executor.shutdownNow();
+            elapsedTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+        double seconds = Math.max(elapsedTime, 1) / 1000.0;
+        int rendered = read.get() - failed.get() - skipped.get();
+        log.printf(Locale.ENGLISH, "Rendered %d of %d records in %.1fs (%.1f records/s), %d skipped, %d retried, %d failed.%n",
+                rendered, read.get(), seconds, rendered / seconds, skipped.get(), retried.get(), failed.get());
+    }
+
+    private void renderToArchive(RecordReader records, File output, ExecutorService executor) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(output); FileChannel channel = stream.getChannel()) {
+            InstanceArchive archive = new InstanceArchive(template, channel, executor, 2 * workers);
+            archive.setPrint(print);
+            archive.setFailureListener(new InstanceArchive.FailureListener() {
+                @Override
+                public void renderFailed(String entryName, TemplateData record, Exception failure) {
+                    failures.add(new Item(entryName, entryName, record, failure));
+                }
+            });
+            Set<String> names = new HashSet<String>();
+            Map<String, Object> record;
+            while ((record = nextRecord(records)) != null) {
+                TemplateData data = toTemplateData(record, records.getLineNumber());
+                if (data != null) {
+                    archive.add(getEntryName(record, names), data);
+                }
+            }
+            archive.flush();
+            for (int attempt = 0; attempt < retries && !failures.isEmpty(); attempt++) {
+                for (Item item : startRetryPass(attempt)) {
+                    archive.add(item.name, item.data);
+                }
+                archive.flush();
+            }
+            failRemaining();
+            archive.finish();
+        }
+    }
+
+    private void renderToDirectory(RecordReader records, File output, ExecutorService executor) throws IOException {
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Output directory " + output.getAbsolutePath() + " can not be created.");
+        }
+        // bounds the records read ahead of the workers
+        Semaphore slots = new Semaphore(2 * workers);
+        Set<String> names = new HashSet<String>();
+        Map<String, Object> record;
+        while ((record = nextRecord(records)) != null) {
+            TemplateData data = toTemplateData(record, records.getLineNumber());
+            if (data == null) {
+                continue;
+            }
+            String name = getEntryName(record, names);
+            String key = getKey(record, name);
+            if (isCompleted(key, name, output)) {
+                skipped.incrementAndGet();
+                continue;
+            }
+            submit(new Item(key, name, data, null), output, executor, slots);
+        }
+        slots.acquireUninterruptibly(2 * workers);
+        slots.release(2 * workers);
+        for (int attempt = 0; attempt < retries && !failures.isEmpty(); attempt++) {
+            for (Item item : startRetryPass(attempt)) {
+                submit(item, output, executor, slots);
+            }
+            slots.acquireUninterruptibly(2 * workers);
+            slots.release(2 * workers);
+        }
+        failRemaining();
+    }
+
+    /**
+     * @return true if the manifest lists the record as completed with the given output name, and its output file still has the
+     *         listed digest.
+     */
+    private boolean isCompleted(String key, String name, File output) throws IOException {
+        if (manifest == null || !manifest.isCompleted(key) || !name.equals(manifest.getOutputName(key))) {
+            return false;
+        }
+        File file = new File(output, name);
+        if (!file.isFile()) {
+            return false;
+        }
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest()).equals(manifest.getDigest(key));
+    }
+
+    private void submit(final Item item, final File output, ExecutorService executor, final Semaphore slots) {
+        slots.acquireUninterruptibly();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String digest = write(template, print, item.data, new File(output, item.name));
+                    if (manifest != null) {
+                        manifest.complete(item.key, digest, item.name);
+                    }
+                } catch (Exception e) {
+                    failures.add(new Item(item.key, item.name, item.data, e));
+                } finally {
+                    slots.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes an instance, or its print, to a temporary file that is renamed to the given file once complete.
+     *
+     * @return the hexadecimal SHA-256 digest of the written file.
+     */
+    static String write(Template template, boolean print, TemplateData data, File file) throws Exception {
+        return write(template, print, data, file, new File(file.getPath() + PART_SUFFIX), null);
+    }
+
+    /**
+     * Writes an instance, or its print, to the given temporary file, which is renamed to the given file once complete if the
+     * lease of the render is still held. The temporary file is deleted if the render fails or the lease is lost.
+     *
+     * @param part the temporary file, which must be unique to the render.
+     * @param lease renews the lease of the render, returning false if it was lost, or null if the render holds no lease.
+     * @return the hexadecimal SHA-256 digest of the written file.
+     * @throws IOException if the lease was lost, or the file can not be written.
+     */
+    static String write(Template template, boolean print, TemplateData data, File file, File part, Callable<Boolean> lease)
+            throws Exception {
+        MessageDigest digest = newDigest();
+        try (OutputStream out = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(part)), digest)) {
+            if (print) {
+                out.write(template.getInstancePrint(data));
+            } else {
+                TextDocument document = template.getInstance(data);
+                try {
+                    DocumentWriter.write(document, out, template.isFlatOutput());
+                } finally {
+                    document.close();
+                }
+            }
+        } catch (Exception e) {
+            part.delete();
+            throw e;
+        }
+        // renewing the lease right before the rename keeps another worker from taking over the render meanwhile
+        if (lease != null && !lease.call()) {
+            part.delete();
+            throw new IOException("Lease of " + file.getName() + " was lost, its output was not written.");
+        }
+        try {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Waits for the backoff of a retry pass and takes the records to be retried in it.
+     */
+    private List<Item> startRetryPass(int attempt) {
+        long delay = retryDelay << Math.min(attempt, 20);
+        log.printf(Locale.ENGLISH, "Retrying %d failed records in %dms.%n", failures.size(), delay);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException();
+        }
+        List<Item> items = new ArrayList<Item>();
+        Item item;
+        while ((item = failures.poll()) != null) {
+            items.add(item);
+        }
+        retried.addAndGet(items.size());
+        return items;
+    }
+
+    private void failRemaining() {
+        Item item;
+        while ((item = failures.poll()) != null) {
+            fail(item.name, item.failure);
+        }
+    }
+
+    private Map<String, Object> nextRecord(RecordReader records) throws IOException {
+        while (true) {
+            try {
+                Map<String, Object> record = records.next();
+                if (record != null) {
+                    int count = read.incrementAndGet();
+                    if (count % PROGRESS_INTERVAL == 0) {
+                        log.printf(Locale.ENGLISH, "%d records read, %d skipped, %d failed.%n", count, skipped.get(),
+                                failed.get() + failures.size());
+                    }
+                }
+                return record;
+            } catch (MalformedRecordException e) {
+                read.incrementAndGet();
+                fail("line " + records.getLineNumber(), e);
+            }
+        }
+    }
+
+    private TemplateData toTemplateData(Map<String, Object> record, int lineNumber) {
+        try {
+            return toTemplateData(record);
+        } catch (RuntimeException e) {
+            fail("line " + lineNumber, e);
+            return null;
+        }
+    }
+
+    /**
+     * Maps a record to template data. Each field becomes a data parameter and, if it holds a list and its name is a valid source
+     * name, the table and section data sources of the same name.
+     *
+     * @param record the record fields.
+     * @return the data of the record.
+     * @throws org.fenixedu.oddjet.exception.IllegalTemplateParameterNameException if a field name is not a valid parameter name.
+     */
+    public static TemplateData toTemplateData(Map<String, Object> record) {
+        TemplateData data = new TemplateData();
+        for (Map.Entry<String, Object> field : record.entrySet()) {
+            data.addParameter(field.getKey(), field.getValue());
+            if (field.getValue() instanceof List && TableCall.isValidSourceName(field.getKey())) {
+                List<?> items = (List<?>) field.getValue();
+                data.addTableDataSource(field.getKey(), toTableData(items));
+                data.addSectionDataSource(field.getKey(), items);
+            }
+        }
+        return data;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static TableData toTableData(List<?> items) {
+        if (!items.isEmpty() && items.get(0) instanceof List) {
+            return new PositionalTableData((Iterable<Iterable>) (List) items);
+        }
+        return new EntryListTableData(items);
+    }
+
+    private String getKey(Map<String, Object> record, String name) {
+        if (keyChain != null) {
+            try {
+                Object value = Template.resolveAttributeChain(record, keyChain);
+                if (value != null) {
+                    return value.toString();
+                }
+            } catch (AttributeChainResolutionFailureException e) {
+                // identified by the output file name
+            }
+        }
+        return name;
+    }
+
+    private String getEntryName(Map<String, Object> record, Set<String> names) {
+        String name = null;
+        if (nameChain != null) {
+            try {
+                Object value = Template.resolveAttributeChain(record, nameChain);
+                if (value != null && !value.toString().trim().isEmpty()) {
+                    name = value.toString().trim().replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+                }
+            } catch (AttributeChainResolutionFailureException e) {
+                // named by position
+            }
+        }
+        if (name == null) {
+            name = "record-" + read.get();
+        }
+        String unique = name;
+        for (int n = 2; !names.add(unique); n++) {
+            unique = name + "-" + n;
+        }
+        return unique + extension;
+    }
+
+    private void fail(String name, Exception e) {
+        failed.incrementAndGet();
+        synchronized (log) {
+            log.println("Failed " + name + ": " + e);
+        }
+    }
+
+    /** A record to be rendered, with the failure of its last render if it is to be retried. */
+    private static class Item {
+        private final String key;
+        private final String name;
+        private final TemplateData data;
+        private final Exception failure;
+
+        private Item(String key, String name, TemplateData data, Exception failure) {
+            this.key = key;
+            this.name = name;
+            this.data = data;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Runs a batch from the command line, as described in the {@link BatchRenderer class documentation}.
+     *
+     * @param args the command line arguments.
+     */
+    public static void main(String[] args) {
+        File templateFile = null;
+        String input = null;
+        String format = null;
+        char delimiter = ',';
+        File output = new File(".");
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean print = false;
+        String name = null;
+        Locale locale = Locale.getDefault();
+        File manifest = null;
+        String key = null;
+        int retries = 2;
+        long retryDelay = 1000;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--print")) {
+                    print = true;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value of " + option + ".");
+                }
+                String value = args[++i];
+                if (option.equals("--template")) {
+                    templateFile = new File(value);
+                } else if (option.equals("--input")) {
+                    input = value;
+                } else if (option.equals("--format")) {
+                    format = value.toLowerCase(Locale.ENGLISH);
+                } else if (option.equals("--delimiter")) {
+                    Preconditions.checkArgument(value.length() == 1, "The delimiter must be a single character.");
+                    delimiter = value.charAt(0);
+                } else if (option.equals("--output")) {
+                    output = new File(value);
+                } else if (option.equals("--workers")) {
+                    workers = Integer.parseInt(value);
+                } else if (option.equals("--name")) {
+                    name = value;
+                } else if (option.equals("--locale")) {
+                    locale = Locale.forLanguageTag(value);
+                } else if (option.equals("--manifest")) {
+                    manifest = new File(value);
+                } else if (option.equals("--key")) {
+                    key = value;
+                } else if (option.equals("--retries")) {
+                    retries = Integer.parseInt(value);
+                } else if (option.equals("--retry-delay")) {
+                    retryDelay = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + option + ".");
+                }
+            }
+            Preconditions.checkArgument(templateFile != null && input != null, "The template and input are required.");
+            if (format == null) {
+                format = input.toLowerCase(Locale.ENGLISH).endsWith(".csv") ? "csv" : "jsonl";
+            }
+            Preconditions.checkArgument(format.equals("csv") || format.equals("jsonl"), "Unknown input format " + format + ".");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: BatchRenderer --template <file.odt> --input <file|-> [--format jsonl|csv] "
+                    + "[--delimiter <char>] [--output <directory|file.zip>] [--workers <n>] [--print] "
+                    + "[--name <attribute chain>] [--locale <language tag>] [--manifest <file>] [--key <attribute chain>] "
+                    + "[--retries <n>] [--retry-delay <milliseconds>]");
+            System.exit(2);
+            return;
+        }
+
+        BatchRenderer renderer = new BatchRenderer(new Template(templateFile, locale));
+        renderer.setWorkers(workers);
+        renderer.setPrint(print);
+        renderer.setNameChain(name);
+        renderer.setKeyChain(key);
+        renderer.setRetries(retries, retryDelay);
+        InputStream in;
+        try {
+            in = input.equals("-") ? System.in : new FileInputStream(input);
+        } catch (FileNotFoundException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        InputStreamReader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+        try (RecordReader records = format.equals("csv") ? RecordReader.csv(reader, delimiter) : RecordReader.jsonLines(reader)) {
+            if (manifest != null) {
+                try (BatchManifest batchManifest = new BatchManifest(manifest)) {
+                    renderer.setManifest(batchManifest);
+                    renderer.run(records, output);
+                }
+            } else {
+                renderer.run(records, output);
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        System.exit(renderer.getFailed() > 0 ? 1 : 0);
+    }
+}
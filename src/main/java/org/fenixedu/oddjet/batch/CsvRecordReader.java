@@ -0,0 +1,121 @@
+package org.fenixedu.oddjet.batch;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fenixedu.oddjet.exception.MalformedRecordException;
+
+/**
+ * Reads records from CSV, as described in RFC 4180, whose first row holds the field names. Every value is read as a string.
+ * Field names with dots, such as <code>person.name</code>, are read as nested maps, so their values can be accessed by the same
+ * attribute chains in the template.
+ */
+class CsvRecordReader extends RecordReader {
+
+    private final char delimiter;
+    private List<String> header;
+
+    CsvRecordReader(Reader reader) {
+        this(reader, ',');
+    }
+
+    CsvRecordReader(Reader reader, char delimiter) {
+        super(reader);
+        this.delimiter = delimiter;
+    }
+
+    @Override
+    public Map<String, Object> next() throws IOException, MalformedRecordException {
+        if (header == null) {
+            header = readRow();
+            if (header == null) {
+                return null;
+            }
+        }
+        List<String> row;
+        do {
+            row = readRow();
+            if (row == null) {
+                return null;
+            }
+        } while (row.size() == 1 && row.get(0).isEmpty());
+        if (row.size() != header.size()) {
+            throw new MalformedRecordException("Row ending at line " + lineNumber + " has " + row.size() + " fields, "
+                    + header.size() + " were expected.");
+        }
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < header.size(); i++) {
+            put(record, header.get(i), row.get(i));
+        }
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> record, String name, String value) {
+        int separator = name.indexOf('.');
+        if (separator < 0) {
+            record.put(name, value);
+            return;
+        }
+        String key = name.substring(0, separator);
+        Object nested = record.get(key);
+        if (!(nested instanceof Map)) {
+            nested = new LinkedHashMap<String, Object>();
+            record.put(key, nested);
+        }
+        put((Map<String, Object>) nested, name.substring(separator + 1), value);
+    }
+
+    /**
+     * @return the fields of the next row, which may span several lines if it has quoted line breaks, or null if there are no
+     *         more rows.
+     */
+    private List<String> readRow() throws IOException {
+        String line = readLine();
+        if (line == null) {
+            return null;
+        }
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                line = readLine();
+                if (line == null) {
+                    throw new MalformedRecordException("Unterminated quoted field at line " + lineNumber + ".");
+                }
+                field.append('\n');
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
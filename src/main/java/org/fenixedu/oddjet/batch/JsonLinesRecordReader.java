@@ -0,0 +1,97 @@
+package org.fenixedu.oddjet.batch;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fenixedu.oddjet.exception.MalformedRecordException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Reads records from JSON lines, one JSON object per line. Blank lines are skipped. JSON objects are read as maps, arrays as
+ * lists, integral numbers as longs when they fit and as decimals otherwise.
+ */
+class JsonLinesRecordReader extends RecordReader {
+
+    private static final JsonParser parser = new JsonParser();
+
+    JsonLinesRecordReader(Reader reader) {
+        super(reader);
+    }
+
+    @Override
+    public Map<String, Object> next() throws IOException, MalformedRecordException {
+        String line;
+        do {
+            line = readLine();
+            if (line == null) {
+                return null;
+            }
+        } while (line.trim().isEmpty());
+        return parse(line, "Line " + lineNumber);
+    }
+
+    /**
+     * @param json a JSON object.
+     * @param position the description of the position of the object in its input, for error messages.
+     * @return the record read from the object.
+     * @throws MalformedRecordException if the JSON is not valid or not an object.
+     */
+    static Map<String, Object> parse(String json, String position) throws MalformedRecordException {
+        JsonElement element;
+        try {
+            element = parser.parse(json);
+        } catch (JsonParseException e) {
+            throw new MalformedRecordException(position + " is not valid JSON: " + e.getMessage());
+        }
+        if (element == null || !element.isJsonObject()) {
+            throw new MalformedRecordException(position + " is not a JSON object.");
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> record = (Map<String, Object>) toValue(element);
+        return record;
+    }
+
+    private static Object toValue(JsonElement element) {
+        if (element.isJsonObject()) {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                map.put(entry.getKey(), toValue(entry.getValue()));
+            }
+            return map;
+        }
+        if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            List<Object> list = new ArrayList<Object>(array.size());
+            for (JsonElement item : array) {
+                list.add(toValue(item));
+            }
+            return list;
+        }
+        if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                return primitive.getAsBoolean();
+            }
+            if (primitive.isNumber()) {
+                BigDecimal number = primitive.getAsBigDecimal();
+                try {
+                    return number.longValueExact();
+                } catch (ArithmeticException e) {
+                    return number;
+                }
+            }
+            return primitive.getAsString();
+        }
+        return null;
+    }
+}
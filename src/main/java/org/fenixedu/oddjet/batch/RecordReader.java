@@ -0,0 +1,103 @@
+package org.fenixedu.oddjet.batch;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+import org.fenixedu.oddjet.exception.MalformedRecordException;
+
+/**
+ * Reads the records of a batch input one at a time, so inputs of any size can be rendered without loading them entirely. Each
+ * record is read as a map from field names to values, which may be nested maps and lists.
+ */
+public abstract class RecordReader implements Closeable {
+
+    /** The reader of the input. */
+    protected final BufferedReader reader;
+    /** The number of lines read so far. */
+    protected int lineNumber = 0;
+
+    /**
+     * @param reader the reader of the input.
+     */
+    protected RecordReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Creates a reader of JSON lines inputs, in which each non blank line is a JSON object.
+     *
+     * @param reader the reader of the input.
+     * @return the record reader.
+     */
+    public static RecordReader jsonLines(Reader reader) {
+        return new JsonLinesRecordReader(reader);
+    }
+
+    /**
+     * Creates a reader of comma separated CSV inputs, in which the first row holds the field names.
+     *
+     * @param reader the reader of the input.
+     * @return the record reader.
+     */
+    public static RecordReader csv(Reader reader) {
+        return new CsvRecordReader(reader);
+    }
+
+    /**
+     * Creates a reader of CSV inputs, in which the first row holds the field names.
+     *
+     * @param reader the reader of the input.
+     * @param delimiter the character separating the fields.
+     * @return the record reader.
+     */
+    public static RecordReader csv(Reader reader, char delimiter) {
+        return new CsvRecordReader(reader, delimiter);
+    }
+
+    /**
+     * Reads a single record from a JSON object, which may span several lines.
+     *
+     * @param json the JSON object.
+     * @return the record.
+     * @throws MalformedRecordException if the JSON is not valid or not an object.
+     */
+    public static Map<String, Object> parseJson(String json) throws MalformedRecordException {
+        return JsonLinesRecordReader.parse(json, "Record");
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the next record, or null if there are no more records.
+     * @throws IOException if the input can not be read.
+     * @throws MalformedRecordException if the record can not be parsed. The following records can still be read.
+     */
+    public abstract Map<String, Object> next() throws IOException, MalformedRecordException;
+
+    /**
+     * @return the number of the last line read, which is the last line of the last record read.
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * @return the next line of the input, or null if there are no more lines.
+     * @throws IOException if the input can not be read.
+     */
+    protected String readLine() throws IOException {
+        String line = reader.readLine();
+        if (line != null) {
+            lineNumber++;
+        }
+        return line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,353 @@
+package org.fenixedu.oddjet.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.fenixedu.oddjet.exception.MalformedRecordException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A work queue of render jobs kept in a spool directory, which may be shared through a network file system by any number of
+ * worker processes, without a broker. Each job is a file holding a record as a JSON object, and moves between the subdirectories
+ * of the spool by atomic renames:
+ * <ul>
+ * <li><code>pending</code>: jobs waiting for a worker. Jobs are written elsewhere and renamed into it, so workers never see
+ * incomplete jobs.</li>
+ * <li><code>claimed</code>: jobs being rendered. A worker claims a job by renaming it into this directory, which only one worker
+ * can do. The modification time of a claimed job is its lease, which the worker renews while rendering it. Jobs whose lease
+ * expired, because their worker died, are returned to <code>pending</code> by any worker.</li>
+ * <li><code>done</code>: completed jobs.</li>
+ * <li><code>failed</code>: jobs whose render failed, along with an <code>.error</code> file describing the failure, and jobs
+ * whose lease expired too many times.</li>
+ * </ul>
+ * Job files are named <code>&lt;id&gt;.&lt;attempt&gt;.job</code>, where the attempt counts the expired leases of the job. Since
+ * leases are compared against the local clock, the clocks of the worker hosts must be kept synchronized, with a lease duration
+ * well above their skew. The spool must be on a file system supporting atomic renames and hard links, as jobs are never moved
+ * by copying them.
+ */
+public class SpoolQueue {
+
+    private static final String JOB_SUFFIX = ".job";
+    private static final String ERROR_SUFFIX = ".error";
+
+    private final Path pending;
+    private final Path claimed;
+    private final Path done;
+    private final Path failed;
+    private final Path incoming;
+    private final long leaseDuration;
+    private int maxAttempts = 3;
+    /** The pending jobs listed by the last scan and not yet tried by this queue. */
+    private final Deque<Path> candidates = new ArrayDeque<Path>();
+
+    /**
+     * Opens a spool directory, creating its subdirectories if necessary.
+     *
+     * @param root the spool directory.
+     * @param leaseDuration the time after which the lease of a claimed job that was not renewed expires, in milliseconds.
+     * @throws IOException if the spool subdirectories can not be created.
+     */
+    public SpoolQueue(File root, long leaseDuration) throws IOException {
+        Preconditions.checkArgument(leaseDuration > 0, "The lease duration must be positive.");
+        this.pending = Files.createDirectories(root.toPath().resolve("pending"));
+        this.claimed = Files.createDirectories(root.toPath().resolve("claimed"));
+        this.done = Files.createDirectories(root.toPath().resolve("done"));
+        this.failed = Files.createDirectories(root.toPath().resolve("failed"));
+        this.incoming = Files.createDirectories(root.toPath().resolve("incoming"));
+        this.leaseDuration = leaseDuration;
+    }
+
+    /**
+     * @return the time after which the lease of a claimed job that was not renewed expires, in milliseconds.
+     */
+    public long getLeaseDuration() {
+        return leaseDuration;
+    }
+
+    /**
+     * @param maxAttempts the number of times a job may be claimed before its expired lease moves it to the failed jobs.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        Preconditions.checkArgument(maxAttempts > 0, "The maximum number of attempts must be positive.");
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Adds a job to the queue. Identifiers are unique, a job whose identifier is already pending, claimed, done or failed is
+     * refused instead of replacing the existing job or overwriting its output.
+     *
+     * @param id the identifier of the job, which names its output. Characters other than letters, digits, dashes and
+     *            underscores are replaced by underscores.
+     * @param record the record to be rendered, as a JSON object.
+     * @throws FileAlreadyExistsException if a job with the same identifier was already submitted.
+     * @throws IOException if the job can not be written to the spool.
+     */
+    public void submit(String id, String record) throws IOException {
+        String sanitized = id.replaceAll("[^\\p{L}\\p{N}_-]", "_");
+        // checked in the order jobs move through the spool, so that a job moving meanwhile is still found
+        for (Path directory : new Path[] { pending, claimed, done, failed }) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, sanitized + ".*" + JOB_SUFFIX)) {
+                if (stream.iterator().hasNext()) {
+                    throw new FileAlreadyExistsException(sanitized, null, "A job with this identifier was already submitted.");
+                }
+            }
+        }
+        Path temporary = incoming.resolve(UUID.randomUUID() + ".tmp");
+        Files.write(temporary, record.getBytes(StandardCharsets.UTF_8));
+        try {
+            // unlike a rename, linking fails if the target exists, so concurrent submissions of the same job are refused too
+            Files.createLink(pending.resolve(sanitized + ".0" + JOB_SUFFIX), temporary);
+        } finally {
+            Files.delete(temporary);
+        }
+    }
+
+    /**
+     * Claims the next pending job, returning jobs with expired leases to the queue first if there are no pending jobs.
+     *
+     * @return the claimed job, or null if there are no jobs to be claimed.
+     * @throws IOException if the spool can not be read.
+     */
+    public synchronized Job claim() throws IOException {
+        Job job = claimCandidate();
+        if (job == null && requeueExpired() > 0) {
+            job = claimCandidate();
+        }
+        return job;
+    }
+
+    private Job claimCandidate() throws IOException {
+        for (int scan = 0; scan < 2; scan++) {
+            while (!candidates.isEmpty()) {
+                Path candidate = candidates.poll();
+                Path target = claimed.resolve(candidate.getFileName());
+                try {
+                    // renaming keeps the modification time, so the lease is started before the job is claimed
+                    Files.setLastModifiedTime(candidate, FileTime.fromMillis(System.currentTimeMillis()));
+                    move(candidate, target);
+                } catch (NoSuchFileException e) {
+                    // claimed by another worker
+                    continue;
+                }
+                return new Job(target);
+            }
+            candidates.addAll(list(pending));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the claimed jobs whose lease expired to the pending jobs, or moves them to the failed jobs if they were claimed too
+     * many times.
+     *
+     * @return the number of jobs returned to the pending jobs.
+     * @throws IOException if the spool can not be read.
+     */
+    public int requeueExpired() throws IOException {
+        int requeued = 0;
+        long now = System.currentTimeMillis();
+        for (Path job : list(claimed)) {
+            try {
+                if (now - Files.getLastModifiedTime(job).toMillis() <= leaseDuration) {
+                    continue;
+                }
+                String id = getId(job);
+                int attempt = getAttempt(job) + 1;
+                if (attempt < maxAttempts) {
+                    move(job, pending.resolve(id + "." + attempt + JOB_SUFFIX));
+                    requeued++;
+                } else {
+                    move(job, failed.resolve(job.getFileName()));
+                    Files.write(failed.resolve(id + ERROR_SUFFIX),
+                            ("Lease expired " + attempt + " times.\n").getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (NoSuchFileException e) {
+                // completed or requeued by another worker
+            }
+        }
+        return requeued;
+    }
+
+    /**
+     * @return the number of pending jobs.
+     * @throws IOException if the spool can not be read.
+     */
+    public int getPendingCount() throws IOException {
+        return list(pending).size();
+    }
+
+    /**
+     * @return the number of claimed jobs, including those whose lease expired.
+     * @throws IOException if the spool can not be read.
+     */
+    public int getClaimedCount() throws IOException {
+        return list(claimed).size();
+    }
+
+    /**
+     * @return the number of completed jobs.
+     * @throws IOException if the spool can not be read.
+     */
+    public int getDoneCount() throws IOException {
+        return list(done).size();
+    }
+
+    /**
+     * @return the number of failed jobs.
+     * @throws IOException if the spool can not be read.
+     */
+    public int getFailedCount() throws IOException {
+        return list(failed).size();
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> jobs = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + JOB_SUFFIX)) {
+            for (Path job : stream) {
+                jobs.add(job);
+            }
+        }
+        Collections.sort(jobs);
+        return jobs;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        // a copying move could let two workers claim the same job, failing is the only safe option without atomic renames
+        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String getId(Path job) {
+        String name = job.getFileName().toString();
+        name = name.substring(0, name.length() - JOB_SUFFIX.length());
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    private static int getAttempt(Path job) {
+        String name = job.getFileName().toString();
+        name = name.substring(0, name.length() - JOB_SUFFIX.length());
+        return Integer.parseInt(name.substring(name.lastIndexOf('.') + 1));
+    }
+
+    /**
+     * A job claimed from the queue. Its lease must be renewed while it is rendered, and it must be either completed or failed.
+     */
+    public class Job {
+
+        private final Path path;
+        /** Whether the lease was found to be lost, after which the job belongs to another worker. */
+        private volatile boolean lost = false;
+
+        private Job(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * @return the identifier of the job.
+         */
+        public String getId() {
+            return SpoolQueue.getId(path);
+        }
+
+        /**
+         * @return the number of times the lease of this job expired before it was claimed.
+         */
+        public int getAttempt() {
+            return SpoolQueue.getAttempt(path);
+        }
+
+        /**
+         * @return true if renewing, completing or failing this job found its lease lost, in which case the job may have been
+         *         claimed by another worker, and its render must be abandoned without writing any output.
+         */
+        public boolean isLost() {
+            return lost;
+        }
+
+        /**
+         * @return the record of this job, as a JSON object.
+         * @throws IOException if the job can not be read.
+         */
+        public String getContent() throws IOException {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the record of this job.
+         * @throws IOException if the job can not be read.
+         * @throws MalformedRecordException if the job is not a JSON object.
+         */
+        public Map<String, Object> getRecord() throws IOException, MalformedRecordException {
+            return RecordReader.parseJson(getContent());
+        }
+
+        /**
+         * Renews the lease of this job.
+         *
+         * @return false if the lease was lost, because it expired and the job was returned to the queue.
+         * @throws IOException if the lease can not be renewed.
+         */
+        public boolean renew() throws IOException {
+            try {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+                return true;
+            } catch (NoSuchFileException e) {
+                lost = true;
+                return false;
+            }
+        }
+
+        /**
+         * Moves this job to the completed jobs.
+         *
+         * @return false if the lease was lost, because it expired and the job was returned to the queue.
+         * @throws IOException if the job can not be moved.
+         */
+        public boolean complete() throws IOException {
+            try {
+                move(path, done.resolve(path.getFileName()));
+                return true;
+            } catch (NoSuchFileException e) {
+                lost = true;
+                return false;
+            }
+        }
+
+        /**
+         * Moves this job to the failed jobs, along with the description of the failure.
+         *
+         * @param failure the cause of the failure.
+         * @return false if the lease was lost, because it expired and the job was returned to the queue.
+         * @throws IOException if the job can not be moved.
+         */
+        public boolean fail(Exception failure) throws IOException {
+            try {
+                move(path, failed.resolve(path.getFileName()));
+            } catch (NoSuchFileException e) {
+                lost = true;
+                return false;
+            }
+            StringWriter trace = new StringWriter();
+            failure.printStackTrace(new PrintWriter(trace));
+            Files.write(failed.resolve(getId() + ERROR_SUFFIX), trace.toString().getBytes(StandardCharsets.UTF_8));
+            return true;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package org.fenixedu.oddjet.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fenixedu.oddjet.OddjetConfiguration;
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.exception.AttributeChainResolutionFailureException;
+import org.fenixedu.oddjet.exception.MalformedRecordException;
+
+import com.google.common.base.Preconditions;
+import com.google.gson.Gson;
+
+/**
+ * Renders the jobs of a {@link SpoolQueue spool queue} with a number of parallel workers, writing each instance, or its print, to
+ * an output directory in a file named after the job. Any number of worker processes may serve the same spool, so throughput
+ * grows by starting more of them. The leases of the jobs being rendered are renewed at a third of the lease duration. A render
+ * whose lease was lost, because it took longer than the lease and another worker claimed the job, is abandoned: each claim
+ * writes its own temporary file, which only replaces the output while the lease is still held.
+ * <p>
+ * It can be run from the command line, either to submit the records of a batch input as jobs:
+ *
+ * <pre>
+ * java org.fenixedu.oddjet.batch.SpoolWorker --spool &lt;directory&gt; --submit &lt;file|-&gt; [--format jsonl|csv]
+ *     [--name &lt;attribute chain&gt;]
+ * </pre>
+ *
+ * or to render them:
+ *
+ * <pre>
+ * java org.fenixedu.oddjet.batch.SpoolWorker --spool &lt;directory&gt; --template &lt;file.odt|file.fodt&gt;
+ *     --output &lt;directory&gt; [--workers &lt;n&gt;] [--print] [--lease &lt;milliseconds&gt;] [--poll &lt;milliseconds&gt;]
+ *     [--exit-when-idle] [--locale &lt;language tag&gt;]
+ * </pre>
+ */
+public class SpoolWorker {
+
+    private final SpoolQueue queue;
+    private final Template template;
+    private final File output;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private boolean print = false;
+    private long pollInterval = 1000;
+    private boolean exitWhenIdle = false;
+    private PrintStream log = System.err;
+    private volatile boolean running;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    /** The jobs being rendered, whose leases are renewed, along with the threads rendering them. */
+    private final Map<SpoolQueue.Job, Thread> active = new ConcurrentHashMap<SpoolQueue.Job, Thread>();
+
+    /**
+     * @param queue the queue of the jobs to be rendered.
+     * @param template the template to be rendered for each job.
+     * @param output the directory where the outputs are written, created if necessary.
+     */
+    public SpoolWorker(SpoolQueue queue, Template template, File output) {
+        this.queue = queue;
+        this.template = template;
+        this.output = output;
+    }
+
+    /**
+     * @param workers the number of jobs rendered in parallel.
+     * @throws IllegalArgumentException if the number of workers is not positive.
+     */
+    public void setWorkers(int workers) {
+        Preconditions.checkArgument(workers > 0, "The number of workers must be positive.");
+        this.workers = workers;
+    }
+
+    /**
+     * @param print true to write prints of the instances, false to write the instance documents.
+     */
+    public void setPrint(boolean print) {
+        this.print = print;
+    }
+
+    /**
+     * @param pollInterval the time a worker waits before looking for jobs again when there are none, in milliseconds.
+     */
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    /**
+     * @param exitWhenIdle true to stop each worker when there are no jobs to claim, false to keep polling the queue.
+     */
+    public void setExitWhenIdle(boolean exitWhenIdle) {
+        this.exitWhenIdle = exitWhenIdle;
+    }
+
+    /**
+     * @param log the stream to which failures and throughput are reported.
+     */
+    public void setLog(PrintStream log) {
+        this.log = log;
+    }
+
+    /**
+     * @return the number of jobs completed by this worker.
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of jobs failed by this worker.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Renders jobs until {@link #stop() stopped} or, if it exits when idle, until there are no jobs to claim.
+     *
+     * @throws IOException if the output directory can not be created.
+     * @throws InterruptedException if the thread is interrupted while waiting for the workers.
+     */
+    public void run() throws IOException, InterruptedException {
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IOException("Output directory " + output.getAbsolutePath() + " can not be created.");
+        }
+        final String extension;
+        if (print) {
+            extension = "." + OddjetConfiguration.getConfiguration().openOfficeOutput();
+        } else {
+            extension = template.isFlatOutput() ? ".fodt" : ".odt";
+        }
+        template.getStructure();
+        running = true;
+        long start = System.nanoTime();
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+        long renewal = Math.max(1, queue.getLeaseDuration() / 3);
+        heartbeat.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                for (SpoolQueue.Job job : active.keySet()) {
+                    try {
+                        if (!job.renew()) {
+                            report("Lease of job " + job.getId() + " was lost, its render is abandoned.");
+                            // interrupting the render stops it at its next checkpoint
+                            synchronized (job) {
+                                Thread worker = active.remove(job);
+                                if (worker != null) {
+                                    worker.interrupt();
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        report("Could not renew the lease of job " + job.getId() + ": " + e);
+                    }
+                }
+            }
+        }, renewal, renewal, TimeUnit.MILLISECONDS);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < workers; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work(extension);
+                }
+            }, "oddjet-spool-worker-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            heartbeat.shutdownNow();
+        }
+        double seconds = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), 1) / 1000.0;
+        log.printf(Locale.ENGLISH, "Completed %d jobs in %.1fs (%.1f jobs/s), %d failed.%n", completed.get(), seconds,
+                completed.get() / seconds, failed.get());
+    }
+
+    /**
+     * Stops the workers after the jobs they are rendering.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    private void work(String extension) {
+        while (running) {
+            SpoolQueue.Job job;
+            try {
+                job = queue.claim();
+            } catch (IOException e) {
+                report("Could not claim a job: " + e);
+                job = null;
+            }
+            if (job == null) {
+                if (exitWhenIdle) {
+                    return;
+                }
+                try {
+                    Thread.sleep(pollInterval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            active.put(job, Thread.currentThread());
+            final SpoolQueue.Job claimedJob = job;
+            try {
+                File file = new File(output, job.getId() + extension);
+                // each claim has its own temporary file, since a worker whose lease expired may still be writing its own
+                File part = new File(output, job.getId() + extension + "." + job.getAttempt() + "." + UUID.randomUUID()
+                        + ".part");
+                BatchRenderer.write(template, print, BatchRenderer.toTemplateData(job.getRecord()), file, part,
+                        new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() throws IOException {
+                                return claimedJob.renew();
+                            }
+                        });
+                release(job);
+                if (job.complete()) {
+                    completed.incrementAndGet();
+                } else {
+                    report("Lease of job " + job.getId() + " was lost before it completed.");
+                }
+            } catch (Exception e) {
+                release(job);
+                if (job.isLost()) {
+                    report("Abandoned job " + job.getId() + ", whose lease was lost.");
+                    continue;
+                }
+                failed.incrementAndGet();
+                report("Failed job " + job.getId() + ": " + e);
+                try {
+                    job.fail(e);
+                } catch (IOException ioe) {
+                    report("Could not move failed job " + job.getId() + ": " + ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops renewing the lease of a job, clearing the interrupt of a render abandoned because the lease was lost, so it does not
+     * stop the next job.
+     */
+    private void release(SpoolQueue.Job job) {
+        boolean renewed;
+        synchronized (job) {
+            renewed = active.remove(job) != null;
+        }
+        if (!renewed) {
+            Thread.interrupted();
+        }
+    }
+
+    private void report(String message) {
+        synchronized (log) {
+            log.println(message);
+        }
+    }
+
+    /**
+     * Submits the records of a batch input as jobs of a queue.
+     *
+     * @param queue the queue to submit the jobs to.
+     * @param records the reader of the records.
+     * @param nameChain the attribute chain, resolved on each record, that identifies its job, or null to identify jobs by their
+     *            position in the input.
+     * @return the number of submitted jobs.
+     * @throws FileAlreadyExistsException if the job of a record has the identifier of an already submitted job. The jobs of the
+     *             records before it remain submitted.
+     * @throws IOException if the input can not be read or the jobs can not be written.
+     * @throws MalformedRecordException if a record can not be parsed.
+     */
+    public static int submit(SpoolQueue queue, RecordReader records, String nameChain) throws IOException {
+        Gson gson = new Gson();
+        int count = 0;
+        Map<String, Object> record;
+        while ((record = records.next()) != null) {
+            count++;
+            String id = null;
+            if (nameChain != null) {
+                try {
+                    Object value = Template.resolveAttributeChain(record, nameChain);
+                    id = value != null ? value.toString() : null;
+                } catch (AttributeChainResolutionFailureException e) {
+                    // identified by position
+                }
+            }
+            queue.submit(id != null && !id.trim().isEmpty() ? id.trim() : "record-" + count, gson.toJson(record));
+        }
+        return count;
+    }
+
+    /**
+     * Submits or renders the jobs of a spool from the command line, as described in the {@link SpoolWorker class
+     * documentation}.
+     *
+     * @param args the command line arguments.
+     * @throws Exception if the spool, the input or the template can not be read.
+     */
+    public static void main(String[] args) throws Exception {
+        File spool = null;
+        String submit = null;
+        String format = null;
+        String name = null;
+        File templateFile = null;
+        File output = null;
+        int workers = Runtime.getRuntime().availableProcessors();
+        boolean print = false;
+        long lease = 5 * 60 * 1000;
+        long poll = 1000;
+        boolean exitWhenIdle = false;
+        Locale locale = Locale.getDefault();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--print")) {
+                    print = true;
+                    continue;
+                }
+                if (option.equals("--exit-when-idle")) {
+                    exitWhenIdle = true;
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value of " + option + ".");
+                }
+                String value = args[++i];
+                if (option.equals("--spool")) {
+                    spool = new File(value);
+                } else if (option.equals("--submit")) {
+                    submit = value;
+                } else if (option.equals("--format")) {
+                    format = value.toLowerCase(Locale.ENGLISH);
+                } else if (option.equals("--name")) {
+                    name = value;
+                } else if (option.equals("--template")) {
+                    templateFile = new File(value);
+                } else if (option.equals("--output")) {
+                    output = new File(value);
+                } else if (option.equals("--workers")) {
+                    workers = Integer.parseInt(value);
+                } else if (option.equals("--lease")) {
+                    lease = Long.parseLong(value);
+                } else if (option.equals("--poll")) {
+                    poll = Long.parseLong(value);
+                } else if (option.equals("--locale")) {
+                    locale = Locale.forLanguageTag(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + option + ".");
+                }
+            }
+            Preconditions.checkArgument(spool != null, "The spool directory is required.");
+            Preconditions.checkArgument(submit != null || (templateFile != null && output != null),
+                    "Either the input to submit or the template and output are required.");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: SpoolWorker --spool <directory> --submit <file|-> [--format jsonl|csv] "
+                    + "[--name <attribute chain>]");
+            System.err.println("       SpoolWorker --spool <directory> --template <file.odt|file.fodt> --output <directory> "
+                    + "[--workers <n>] [--print] [--lease <milliseconds>] [--poll <milliseconds>] [--exit-when-idle] "
+                    + "[--locale <language tag>]");
+            System.exit(2);
+            return;
+        }
+
+        SpoolQueue queue = new SpoolQueue(spool, lease);
+        if (submit != null) {
+            if (format == null) {
+                format = submit.toLowerCase(Locale.ENGLISH).endsWith(".csv") ? "csv" : "jsonl";
+            }
+            InputStreamReader reader =
+                    new InputStreamReader(submit.equals("-") ? System.in : new FileInputStream(submit), StandardCharsets.UTF_8);
+            try (RecordReader records = format.equals("csv") ? RecordReader.csv(reader) : RecordReader.jsonLines(reader)) {
+                System.err.println("Submitted " + submit(queue, records, name) + " jobs.");
+            }
+            return;
+        }
+        final SpoolWorker worker = new SpoolWorker(queue, new Template(templateFile, locale), output);
+        worker.setWorkers(workers);
+        worker.setPrint(print);
+        worker.setPollInterval(poll);
+        worker.setExitWhenIdle(exitWhenIdle);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                worker.stop();
+            }
+        });
+        worker.run();
+        System.exit(worker.getFailed() > 0 ? 1 : 0);
+    }
+}
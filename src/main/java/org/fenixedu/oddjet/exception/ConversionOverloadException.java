@@ -0,0 +1,17 @@
+package org.fenixedu.oddjet.exception;
+
+/**
+ * Signals that a conversion was rejected because the queue of its priority class was full.
+ */
+public class ConversionOverloadException extends RuntimeException {
+
+    private static final long serialVersionUID = -1935806371627394210L;
+
+    /**
+     * @param message the description of the overloaded queue.
+     */
+    public ConversionOverloadException(String message) {
+        super(message);
+    }
+
+}
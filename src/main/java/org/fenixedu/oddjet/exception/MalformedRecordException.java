@@ -0,0 +1,21 @@
+package org.fenixedu.oddjet.exception;
+
+/**
+ * Signals a record of a batch input that can not be parsed.
+ */
+public class MalformedRecordException extends RuntimeException {
+
+    private static final long serialVersionUID = 4712690351842036915L;
+
+    /**
+     * @param message the description of the problem, including the position of the record in the input.
+     */
+    public MalformedRecordException(String message) {
+        super(message);
+    }
+
+    public MalformedRecordException(Exception e) {
+        super(e);
+    }
+
+}
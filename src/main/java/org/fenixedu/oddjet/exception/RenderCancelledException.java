@@ -0,0 +1,14 @@
+package org.fenixedu.oddjet.exception;
+
+/**
+ * Signals that a render was cancelled, through the interruption of the rendering thread, and was aborted.
+ */
+public class RenderCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = -6907731208641093715L;
+
+    public RenderCancelledException() {
+        super("Render was cancelled.");
+    }
+
+}
@@ -0,0 +1,17 @@
+package org.fenixedu.oddjet.exception;
+
+/**
+ * Signals that a render exceeded one of its {@link org.fenixedu.oddjet.RenderLimits RenderLimits} and was aborted.
+ */
+public class RenderLimitExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 4721840937104286185L;
+
+    /**
+     * @param message the description of the exceeded limit.
+     */
+    public RenderLimitExceededException(String message) {
+        super(message);
+    }
+
+}
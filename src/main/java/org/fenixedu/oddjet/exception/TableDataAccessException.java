@@ -0,0 +1,14 @@
+package org.fenixedu.oddjet.exception;
+
+/**
+ * Encapsulates exceptions that happen while reading the data of a table from its underlying source, such as a database.
+ */
+public class TableDataAccessException extends RuntimeException {
+
+    private static final long serialVersionUID = -6038617297301524617L;
+
+    public TableDataAccessException(Exception e) {
+        super(e);
+    }
+
+}
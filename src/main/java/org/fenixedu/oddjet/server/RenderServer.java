@@ -0,0 +1,407 @@
+package org.fenixedu.oddjet.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.fenixedu.oddjet.OddjetConfiguration;
+import org.fenixedu.oddjet.RenderLimits;
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.TemplateCache;
+import org.fenixedu.oddjet.TemplateData;
+import org.fenixedu.oddjet.batch.BatchRenderer;
+import org.fenixedu.oddjet.batch.RecordReader;
+import org.fenixedu.oddjet.exception.ConversionOverloadException;
+import org.fenixedu.oddjet.exception.IllegalTemplateDataSourceNameException;
+import org.fenixedu.oddjet.exception.IllegalTemplateParameterNameException;
+import org.fenixedu.oddjet.exception.MalformedRecordException;
+import org.fenixedu.oddjet.exception.OpenOfficeConnectionException;
+import org.fenixedu.oddjet.exception.RenderLimitExceededException;
+import org.fenixedu.oddjet.utils.DocumentWriter;
+import org.fenixedu.oddjet.utils.FlatDocument;
+import org.fenixedu.oddjet.utils.OfficeEndpointPool;
+import org.fenixedu.oddjet.utils.OpenOfficePrintingService;
+import org.fenixedu.oddjet.utils.PrintUtils;
+import org.fenixedu.oddjet.utils.SegmentedBuffer;
+import org.odftoolkit.simple.TextDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long running render server, so that short lived clients do not pay the warm-up of the JVM, the analysis of the templates and
+ * the connection to the office services on every render. Templates are the <code>.odt</code> and <code>.fodt</code> files of a
+ * directory, identified by their file name without the extension, loaded on their first request and reloaded when their file
+ * changes. Prints are converted by a pool of OpenOffice services, connected once.
+ * <p>
+ * Records are posted as JSON objects, mapped to template data as described in {@link BatchRenderer}:
+ * <ul>
+ * <li><code>POST /templates/&lt;id&gt;/instance</code> responds with the instance, flat for flat templates.</li>
+ * <li><code>POST /templates/&lt;id&gt;/print</code> responds with the print of the instance.</li>
+ * <li><code>GET /health</code> responds with <code>ok</code>.</li>
+ * </ul>
+ * The <code>locale</code> query parameter sets the locale of the instance, as the language tag of one of the locales available in
+ * the JVM. Records larger than the {@link #setMaxBodySize(int) maximum body size} are refused. The server listens on the
+ * loopback address unless told otherwise, since it does not authenticate its clients. It can be run from the command line:
+ *
+ * <pre>
+ * java org.fenixedu.oddjet.server.RenderServer --templates &lt;directory&gt; [--port &lt;n&gt;] [--bind &lt;address&gt;]
+ *     [--workers &lt;n&gt;]
+ * </pre>
+ */
+public class RenderServer {
+
+    private static final Pattern TEMPLATE_PATH = Pattern.compile("/templates/([\\w-]+)/(instance|print)");
+    private static final String ODT_MEDIA_TYPE = "application/vnd.oasis.opendocument.text";
+    /** The locales instances may be requested in. */
+    private static final Set<Locale> AVAILABLE_LOCALES = new HashSet<Locale>(Arrays.asList(Locale.getAvailableLocales()));
+    /** The default maximum size of a posted record, in bytes. */
+    public static final int DEFAULT_MAX_BODY_SIZE = 4 * 1024 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(RenderServer.class);
+
+    private final File templateDirectory;
+    private final TemplateCache structureCache = new TemplateCache();
+    /** The loaded templates, indexed by identifier and locale. */
+    private final ConcurrentMap<String, LoadedTemplate> templates = new ConcurrentHashMap<String, LoadedTemplate>();
+    private final OfficeEndpointPool pool;
+    /** The pool of the service configured for Oddjet, created on the first print. */
+    private OfficeEndpointPool defaultPool;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+    private volatile RenderLimits renderLimits;
+
+    /**
+     * @param templateDirectory the directory of the template files.
+     * @param address the address to listen on.
+     * @param workers the number of requests served in parallel.
+     * @param pool the pool of OpenOffice services converting the prints, or null to use the service configured for Oddjet.
+     * @throws IOException if the server can not listen on the given address.
+     */
+    public RenderServer(File templateDirectory, InetSocketAddress address, int workers, OfficeEndpointPool pool)
+            throws IOException {
+        Preconditions.checkArgument(templateDirectory.isDirectory(), "Template directory does not exist.");
+        Preconditions.checkArgument(workers > 0, "The number of workers must be positive.");
+        this.templateDirectory = templateDirectory;
+        this.pool = pool;
+        this.server = HttpServer.create(address, 0);
+        this.executor = Executors.newFixedThreadPool(workers);
+        server.setExecutor(executor);
+        server.createContext("/templates/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                render(exchange);
+            }
+        });
+        server.createContext("/health", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, 200, "text/plain", "ok".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops serving requests, waiting for the ones being served for at most the given time.
+     *
+     * @param delay the maximum time to wait for the requests being served, in seconds.
+     */
+    public void stop(int delay) {
+        server.stop(delay);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the address the server listens on.
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * @return the maximum size of a posted record, in bytes.
+     */
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Sets the maximum size of a posted record. Larger records are refused with status 413, without being read entirely.
+     *
+     * @param maxBodySize the maximum size of a posted record, in bytes.
+     * @throws IllegalArgumentException if the size is not positive.
+     */
+    public void setMaxBodySize(int maxBodySize) {
+        Preconditions.checkArgument(maxBodySize > 0, "The maximum body size must be positive.");
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * @return the limits of each render, or null if renders are unlimited.
+     */
+    public RenderLimits getRenderLimits() {
+        return renderLimits;
+    }
+
+    /**
+     * Sets the limits of each render. Renders exceeding them are answered with status 422. Only affects the templates loaded
+     * afterwards, so it should be set before the server is started.
+     *
+     * @param renderLimits the limits of each render, or null for unlimited renders.
+     */
+    public void setRenderLimits(RenderLimits renderLimits) {
+        this.renderLimits = renderLimits;
+    }
+
+    private void render(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            Matcher matcher = TEMPLATE_PATH.matcher(exchange.getRequestURI().getPath());
+            if (!matcher.matches()) {
+                respondError(exchange, 404, "Unknown resource.");
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respondError(exchange, 405, "Records must be posted.");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            Locale locale = query.containsKey("locale") ? Locale.forLanguageTag(query.get("locale")) : Locale.getDefault();
+            if (!AVAILABLE_LOCALES.contains(locale)) {
+                // templates are kept per locale, so unknown locales would grow them without bound
+                respondError(exchange, 400, "Unknown locale " + query.get("locale") + ".");
+                return;
+            }
+            Template template = getTemplate(matcher.group(1), locale);
+            if (template == null) {
+                respondError(exchange, 404, "Unknown template " + matcher.group(1) + ".");
+                return;
+            }
+            String body = readBody(exchange, maxBodySize);
+            if (body == null) {
+                respondError(exchange, 413, "Records are limited to " + maxBodySize + " bytes.");
+                return;
+            }
+            TemplateData data = BatchRenderer.toTemplateData(RecordReader.parseJson(body));
+            if (matcher.group(2).equals("print")) {
+                byte[] print = template.getInstancePrint(data, getPool());
+                String extension = OddjetConfiguration.getConfiguration().openOfficeOutput();
+                respond(exchange, 200, PrintUtils.getDocumentFormat(extension).getMimeType(), print);
+            } else {
+                TextDocument document = template.getInstance(data);
+                // written before responding, so that a failing write is still answered with an error status
+                try (SegmentedBuffer buffer = new SegmentedBuffer()) {
+                    try {
+                        DocumentWriter.write(document, buffer, template.isFlatOutput());
+                    } finally {
+                        document.close();
+                    }
+                    exchange.getResponseHeaders().set("Content-Type",
+                            template.isFlatOutput() ? FlatDocument.MEDIA_TYPE : ODT_MEDIA_TYPE);
+                    exchange.sendResponseHeaders(200, buffer.size());
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        buffer.writeTo(out);
+                    }
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Rendered " + exchange.getRequestURI() + " in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+            }
+        } catch (MalformedRecordException | IllegalTemplateParameterNameException | IllegalTemplateDataSourceNameException e) {
+            respondError(exchange, 400, e.getMessage());
+        } catch (RenderLimitExceededException e) {
+            respondError(exchange, 422, e.getMessage());
+        } catch (OpenOfficeConnectionException | ConversionOverloadException e) {
+            respondError(exchange, 503, "Printing service unavailable.");
+        } catch (Exception e) {
+            logger.error("Failed to render " + exchange.getRequestURI() + ".", e);
+            respondError(exchange, 500, "Render failed.");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Gets a loaded template, loading it if it was not loaded yet or if its file changed since it was loaded.
+     *
+     * @return the template, or null if there is no template file with the given identifier.
+     */
+    private Template getTemplate(String id, Locale locale) {
+        File file = new File(templateDirectory, id + ".odt");
+        if (!file.isFile()) {
+            file = new File(templateDirectory, id + ".fodt");
+            if (!file.isFile()) {
+                return null;
+            }
+        }
+        String key = id + "|" + locale.toLanguageTag();
+        LoadedTemplate loaded = templates.get(key);
+        if (loaded == null || loaded.lastModified != file.lastModified()) {
+            long lastModified = file.lastModified();
+            Template template = new Template(file, locale);
+            template.setStructureCache(structureCache);
+            template.setRenderLimits(renderLimits);
+            // analyzed once, as it is loaded, instead of on the first render
+            template.getStructure();
+            loaded = new LoadedTemplate(template, lastModified);
+            templates.put(key, loaded);
+        }
+        return loaded.template;
+    }
+
+    private synchronized OfficeEndpointPool getPool() {
+        if (pool != null) {
+            return pool;
+        }
+        if (defaultPool == null) {
+            OddjetConfiguration.ConfigurationProperties config = OddjetConfiguration.getConfiguration();
+            defaultPool = new OfficeEndpointPool(new OpenOfficePrintingService(config.openOfficeHost(), config.openOfficePort(),
+                    config.openOfficeOutput()));
+        }
+        return defaultPool;
+    }
+
+    /**
+     * @return the request body, or null if it is larger than the given size.
+     */
+    private static String readBody(HttpExchange exchange, int maxSize) throws IOException {
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        try {
+            if (length != null && Long.parseLong(length.trim()) > maxSize) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            // checked as the body is read
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = exchange.getRequestBody()) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                if (body.size() + read > maxSize) {
+                    return null;
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void respondError(HttpExchange exchange, int status, String message) throws IOException {
+        respond(exchange, status, "text/plain; charset=UTF-8", (message + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class LoadedTemplate {
+        private final Template template;
+        private final long lastModified;
+
+        private LoadedTemplate(Template template, long lastModified) {
+            this.template = template;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Runs a render server from the command line, as described in the {@link RenderServer class documentation}.
+     *
+     * @param args the command line arguments.
+     * @throws IOException if the server can not listen on the given address.
+     */
+    public static void main(String[] args) throws IOException {
+        File templates = null;
+        int port = 8085;
+        InetAddress bind = InetAddress.getLoopbackAddress();
+        int workers = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("Missing value of " + option + ".");
+                }
+                String value = args[++i];
+                if (option.equals("--templates")) {
+                    templates = new File(value);
+                } else if (option.equals("--port")) {
+                    port = Integer.parseInt(value);
+                } else if (option.equals("--bind")) {
+                    bind = InetAddress.getByName(value);
+                } else if (option.equals("--workers")) {
+                    workers = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + option + ".");
+                }
+            }
+            Preconditions.checkArgument(templates != null, "The template directory is required.");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: RenderServer --templates <directory> [--port <n>] [--bind <address>] [--workers <n>]");
+            System.exit(2);
+            return;
+        }
+        final RenderServer server = new RenderServer(templates, new InetSocketAddress(bind, port), workers, null);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop(5);
+            }
+        });
+        server.start();
+        System.err.println("Listening on " + server.getAddress() + ".");
+    }
+}
@@ -0,0 +1,260 @@
+package org.fenixedu.oddjet.table;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.fenixedu.oddjet.utils.Formatters;
+
+/**
+ * Contains the data to be used for filling a table in the template organized into typed columns, each one a data category.
+ * Numeric and date columns are stored in arrays of the corresponding type, without boxing, and are formatted for the locale of
+ * the template instance according to the column's format specification, as described in {@link Formatters}.
+ * <p>
+ * The data categories are listed in the order the columns were added.
+ */
+public class ColumnarTableData implements TableData {
+
+    private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+
+    /**
+     * Adds or replaces an integer column, formatted with the locale's default number format.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values.
+     */
+    public void addColumn(String category, int[] values) {
+        addColumn(category, values, null);
+    }
+
+    /**
+     * Adds or replaces an integer column.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values.
+     * @param format the number format pattern of the column, or null for the locale's default number format.
+     */
+    public void addColumn(String category, final int[] values, String format) {
+        columns.put(category, new NumberColumn(format) {
+            @Override
+            int size() {
+                return values.length;
+            }
+
+            @Override
+            Object get(int index) {
+                return values[index];
+            }
+
+            @Override
+            String format(int index, Locale locale) {
+                return Formatters.getNumberFormat(this.format, locale).format(values[index]);
+            }
+        });
+    }
+
+    /**
+     * Adds or replaces a long integer column, formatted with the locale's default number format.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values.
+     */
+    public void addColumn(String category, long[] values) {
+        addColumn(category, values, null);
+    }
+
+    /**
+     * Adds or replaces a long integer column.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values.
+     * @param format the number format pattern of the column, or null for the locale's default number format.
+     */
+    public void addColumn(String category, final long[] values, String format) {
+        columns.put(category, new NumberColumn(format) {
+            @Override
+            int size() {
+                return values.length;
+            }
+
+            @Override
+            Object get(int index) {
+                return values[index];
+            }
+
+            @Override
+            String format(int index, Locale locale) {
+                return Formatters.getNumberFormat(this.format, locale).format(values[index]);
+            }
+        });
+    }
+
+    /**
+     * Adds or replaces a decimal column, formatted with the locale's default number format.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values.
+     */
+    public void addColumn(String category, double[] values) {
+        addColumn(category, values, null);
+    }
+
+    /**
+     * Adds or replaces a decimal column.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values.
+     * @param format the number format pattern of the column, or null for the locale's default number format.
+     */
+    public void addColumn(String category, final double[] values, String format) {
+        columns.put(category, new NumberColumn(format) {
+            @Override
+            int size() {
+                return values.length;
+            }
+
+            @Override
+            Object get(int index) {
+                return values[index];
+            }
+
+            @Override
+            String format(int index, Locale locale) {
+                return Formatters.getNumberFormat(this.format, locale).format(values[index]);
+            }
+        });
+    }
+
+    /**
+     * Adds or replaces a date column, formatted with the locale's medium date style.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values, which may contain nulls for empty cells.
+     */
+    public void addColumn(String category, LocalDate[] values) {
+        addColumn(category, values, null);
+    }
+
+    /**
+     * Adds or replaces a date column.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values, which may contain nulls for empty cells.
+     * @param format the date format style or pattern of the column, or null for the locale's medium date style.
+     */
+    public void addColumn(String category, final LocalDate[] values, final String format) {
+        columns.put(category, new Column() {
+            @Override
+            int size() {
+                return values.length;
+            }
+
+            @Override
+            Object get(int index) {
+                return values[index];
+            }
+
+            @Override
+            String format(int index, Locale locale) {
+                return values[index] != null ? Formatters.getDateFormatter(format, locale).format(values[index]) : "";
+            }
+        });
+    }
+
+    /**
+     * Adds or replaces a column of arbitrary objects, which are translated like any other table data objects.
+     *
+     * @param category the category string representation of the column.
+     * @param values the column values.
+     */
+    public void addColumn(String category, final List<?> values) {
+        columns.put(category, new Column() {
+            @Override
+            int size() {
+                return values.size();
+            }
+
+            @Override
+            Object get(int index) {
+                return values.get(index);
+            }
+
+            @Override
+            Object format(int index, Locale locale) {
+                return values.get(index);
+            }
+        });
+    }
+
+    /**
+     * Removes the column of the given category.
+     *
+     * @param category the category string representation of the column to be removed.
+     */
+    public void removeColumn(String category) {
+        columns.remove(category);
+    }
+
+    @Override
+    public List<List<Object>> getData() {
+        return getData(new ArrayList<String>(columns.keySet()));
+    }
+
+    @Override
+    public List<List<Object>> getData(List<String> categoryOrder) {
+        return getData(categoryOrder, null);
+    }
+
+    @Override
+    public List<List<Object>> getData(Locale locale) {
+        return getData(new ArrayList<String>(columns.keySet()), locale);
+    }
+
+    /**
+     * {@inheritDoc} The returned lists are views over the columns: each value is only boxed, or formatted if a locale is given,
+     * when it is read.
+     */
+    @Override
+    public List<List<Object>> getData(List<String> categoryOrder, Locale locale) {
+        List<List<Object>> data = new ArrayList<List<Object>>();
+        for (String category : categoryOrder) {
+            Column column = category != null ? columns.get(category) : null;
+            data.add(column != null ? column.view(locale) : null);
+        }
+        return data;
+    }
+
+    private static abstract class Column {
+        abstract int size();
+
+        abstract Object get(int index);
+
+        abstract Object format(int index, Locale locale);
+
+        List<Object> view(final Locale locale) {
+            return new AbstractList<Object>() {
+                @Override
+                public Object get(int index) {
+                    return locale != null ? format(index, locale) : Column.this.get(index);
+                }
+
+                @Override
+                public int size() {
+                    return Column.this.size();
+                }
+            };
+        }
+    }
+
+    private static abstract class NumberColumn extends Column {
+        protected final String format;
+
+        private NumberColumn(String format) {
+            this.format = format;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.fenixedu.oddjet.table;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An iterator over the entries of a {@link StreamingTableData}, holding the resources the entries are read from until it is
+ * closed. It must be closed even if it is not read to the end.
+ */
+public interface EntryIterator extends Iterator<List<Object>>, AutoCloseable {
+
+    /**
+     * Releases the resources the entries are read from. Closing an iterator more than once has no effect.
+     */
+    @Override
+    public void close();
+}
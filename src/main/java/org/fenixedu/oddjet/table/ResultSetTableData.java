@@ -0,0 +1,235 @@
+package org.fenixedu.oddjet.table;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.fenixedu.oddjet.exception.TableDataAccessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Contains the data to be used for filling a table in the template read from a JDBC result set. Each row of the result set is an
+ * entry of the table and its columns are the data categories, matched by column label. Rows are read as the table is filled, so
+ * the result set is never held in memory as a whole.
+ * <p>
+ * A ResultSetTableData constructed from a query executes it once for each table it fills, closing the statement once all the
+ * rows were read. One constructed from a result set can only fill a single table, and closing the result set remains the
+ * responsibility of the caller.
+ */
+public class ResultSetTableData implements StreamingTableData {
+
+    private final Connection connection;
+    private final String query;
+    private final int fetchSize;
+    private ResultSet resultSet;
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultSetTableData.class);
+
+    /**
+     * @param resultSet the result set containing the table data.
+     */
+    public ResultSetTableData(ResultSet resultSet) {
+        this.connection = null;
+        this.query = null;
+        this.fetchSize = 0;
+        this.resultSet = resultSet;
+    }
+
+    /**
+     * @param resultSet the result set containing the table data.
+     * @param fetchSize the number of rows to be fetched from the database at a time.
+     * @throws TableDataAccessException if the fetch size can not be set.
+     */
+    public ResultSetTableData(ResultSet resultSet, int fetchSize) throws TableDataAccessException {
+        this(resultSet);
+        try {
+            resultSet.setFetchSize(fetchSize);
+        } catch (SQLException e) {
+            throw new TableDataAccessException(e);
+        }
+    }
+
+    /**
+     * @param connection the connection the query is executed on.
+     * @param query the query whose result contains the table data.
+     * @param fetchSize the number of rows to be fetched from the database at a time.
+     */
+    public ResultSetTableData(Connection connection, String query, int fetchSize) {
+        this.connection = connection;
+        this.query = query;
+        this.fetchSize = fetchSize;
+    }
+
+    @Override
+    public EntryIterator getEntries() throws TableDataAccessException {
+        RowIterator rows = open();
+        try {
+            ResultSetMetaData metaData = rows.resultSet.getMetaData();
+            int[] columns = new int[metaData.getColumnCount()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = i + 1;
+            }
+            rows.columns = columns;
+            return rows;
+        } catch (SQLException e) {
+            rows.close();
+            throw new TableDataAccessException(e);
+        }
+    }
+
+    @Override
+    public EntryIterator getEntries(List<String> categoryOrder) throws TableDataAccessException {
+        RowIterator rows = open();
+        try {
+            ResultSetMetaData metaData = rows.resultSet.getMetaData();
+            int[] columns = new int[categoryOrder.size()];
+            for (int i = 0; i < columns.length; i++) {
+                String category = categoryOrder.get(i);
+                for (int c = 1; category != null && c <= metaData.getColumnCount(); c++) {
+                    if (category.equalsIgnoreCase(metaData.getColumnLabel(c))) {
+                        columns[i] = c;
+                        break;
+                    }
+                }
+                if (category != null && columns[i] == 0) {
+                    logger.warn("No column labeled '" + category + "' was found in the result set.");
+                }
+            }
+            rows.columns = columns;
+            return rows;
+        } catch (SQLException e) {
+            rows.close();
+            throw new TableDataAccessException(e);
+        }
+    }
+
+    @Override
+    public List<List<Object>> getData() throws TableDataAccessException {
+        return toCategories(getEntries());
+    }
+
+    @Override
+    public List<List<Object>> getData(List<String> categoryOrder) throws TableDataAccessException {
+        return toCategories(getEntries(categoryOrder));
+    }
+
+    private RowIterator open() throws TableDataAccessException {
+        if (query == null) {
+            if (resultSet == null) {
+                throw new IllegalStateException("The result set was already read.");
+            }
+            RowIterator rows = new RowIterator(resultSet, null);
+            resultSet = null;
+            return rows;
+        }
+        try {
+            PreparedStatement statement =
+                    connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                statement.setFetchSize(fetchSize);
+                return new RowIterator(statement.executeQuery(), statement);
+            } catch (SQLException e) {
+                statement.close();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new TableDataAccessException(e);
+        }
+    }
+
+    private static List<List<Object>> toCategories(Iterator<List<Object>> entries) {
+        List<List<Object>> data = new ArrayList<List<Object>>();
+        while (entries.hasNext()) {
+            List<Object> entry = entries.next();
+            for (int i = 0; i < entry.size(); i++) {
+                if (data.size() <= i) {
+                    data.add(new ArrayList<Object>());
+                }
+                data.get(i).add(entry.get(i));
+            }
+        }
+        return data;
+    }
+
+    private static class RowIterator implements EntryIterator {
+        private final ResultSet resultSet;
+        /** The statement to be closed once all rows are read, null if the result set is owned by the caller. */
+        private final Statement statement;
+        /** The result set column index of each category, 0 for categories without a column. */
+        private int[] columns;
+        private boolean fetched = false;
+        private boolean hasNext;
+        private boolean closed = false;
+
+        private RowIterator(ResultSet resultSet, Statement statement) {
+            this.resultSet = resultSet;
+            this.statement = statement;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (!fetched) {
+                try {
+                    hasNext = resultSet.next();
+                } catch (SQLException e) {
+                    close();
+                    throw new TableDataAccessException(e);
+                }
+                fetched = true;
+                if (!hasNext) {
+                    close();
+                }
+            }
+            return hasNext;
+        }
+
+        @Override
+        public List<Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+            List<Object> entry = new ArrayList<Object>(columns.length);
+            try {
+                for (int column : columns) {
+                    entry.add(column > 0 ? resultSet.getObject(column) : null);
+                }
+            } catch (SQLException e) {
+                close();
+                throw new TableDataAccessException(e);
+            }
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                    logger.warn("Failed to close the table data statement.");
+                }
+            }
+        }
+    }
+}
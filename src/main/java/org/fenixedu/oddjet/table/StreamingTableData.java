@@ -0,0 +1,30 @@
+package org.fenixedu.oddjet.table;
+
+import java.util.List;
+
+/**
+ * Defines table data that can be read one entry at a time, allowing tables to be filled from sources too large to be held in
+ * memory as a whole, such as database cursors. Tables with the write fill behavior are filled directly from the entries, other
+ * tables fall back to the {@link TableData} methods. The returned iterators are always closed by the template, whether or not all
+ * their entries were read.
+ */
+public interface StreamingTableData extends TableData {
+
+    /**
+     * Gets the entries to be used in filling a template table with the default category ordering.
+     *
+     * @return an iterator over the table entries. Each entry corresponds to a column or row of the table and contains its data
+     *         objects ordered according to some default order coded in implementing classes.
+     */
+    public EntryIterator getEntries();
+
+    /**
+     * Gets the entries to be used in filling a template table with the specified category ordering.
+     *
+     * @param categoryOrder a list of category string representations encoding the order of the data objects of each entry. This
+     *            list may have null values.
+     * @return an iterator over the table entries. Each entry corresponds to a column or row of the table and contains its data
+     *         objects ordered according to the order of the categories in the provided list.
+     */
+    public EntryIterator getEntries(List<String> categoryOrder);
+}
@@ -1,5 +1,6 @@
 package org.fenixedu.oddjet.table;
 
+import java.io.Serializable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -15,7 +16,10 @@ import org.slf4j.LoggerFactory;
  * @author Gil Lacerda (gil.lacerda@tecnico.ulisboa.pt)
  * 
  */
-public class TableCall {
+public class TableCall implements Serializable {
+
+    private static final long serialVersionUID = -8287366651735938312L;
+
     private TableConfiguration parameters;
     private String tableName;
     private String tableDataSourceName;
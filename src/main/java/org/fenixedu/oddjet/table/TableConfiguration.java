@@ -1,5 +1,6 @@
 package org.fenixedu.oddjet.table;
 
+import java.io.Serializable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,7 +14,9 @@ import org.odftoolkit.simple.style.StyleTypeDefinitions.CellBordersType;
  * @author Gil Lacerda (gil.lacerda@tecnico.ulisboa.pt)
  * 
  */
-public class TableConfiguration {
+public class TableConfiguration implements Serializable {
+
+    private static final long serialVersionUID = 2851063528411245037L;
 
     /**
      * Specifies the behavior used when filling the cells of a dynamic table with the corresponding data content.
@@ -302,7 +305,19 @@ public class TableConfiguration {
          * </ul>
          */
         LAST_BORDER(
-                "^(?:(lb|lborder|lastborder)(?:_(h|header|b|body)(l|left|r|right|b|bottom|t|top))?)|(nlb|nolborder|nolastborder)$");
+                "^(?:(lb|lborder|lastborder)(?:_(h|header|b|body)(l|left|r|right|b|bottom|t|top))?)|(nlb|nolborder|nolastborder)$"),
+
+        /**
+         * The table split parameter type, specifying the maximum number of body rows of each table generated from a vertical
+         * table. Larger tables are split into consecutive tables, each repeating the header rows, the styles and the last border
+         * of the original, since office services lay out many small tables much faster than a single huge one. It matches the
+         * following values:
+         * <ul>
+         * <li>nsp or nosplit - the table is not split.</li>
+         * <li>spl[rows] or split[rows] - the table is split into tables with at most [rows] body rows each.</li>
+         * </ul>
+         */
+        SPLIT("^(?:(nsp|nosplit)|(?:spl|split)(\\d+))$");
 
         /** The pattern that matches the parameter type's string representations. */
         private Pattern pattern;
@@ -388,6 +403,8 @@ public class TableConfiguration {
                     tableConfig.lastBorderSourceSection = LastBorderSourceSection.HEADER;
                     tableConfig.lastBorderSourceType = CellBordersType.BOTTOM;
                 }
+            } else if ((matcher = ParameterType.SPLIT.getMatcher(parameter)).find()) {
+                tableConfig.splitRows = matcher.group(1) != null ? 0 : Integer.parseInt(matcher.group(2));
             } else if ((ParameterType.GENERIC.getMatcher(parameter)).find()) {
                 throw new UnknownParameterTypeException(parameter);
             } else {
@@ -404,6 +421,7 @@ public class TableConfiguration {
     private CellBordersType lastBorderSourceType = null;
     private TableCoordinate styleRelativeCoord = new TableCoordinate(0, 1);
     private TableCoordinate header = new TableCoordinate(0, 1);
+    private int splitRows = 0;
 
     /**
      * @return the current content structure parameter's value. The default value is {@link ContentStructure#CATEGORICAL
@@ -468,4 +486,11 @@ public class TableConfiguration {
         return header;
     }
 
+    /**
+     * @return the current split parameter's value. The default value is 0, meaning the table is not split.
+     */
+    public int getSplitRows() {
+        return splitRows;
+    }
+
 }
@@ -1,12 +1,16 @@
 package org.fenixedu.oddjet.table;
 
+import java.io.Serializable;
+
 /**
  * Represents the coordinate of a cell in a table.
  * 
  * @author Gil Lacerda (gil.lacerda@tecnico.ulisboa.pt)
  * 
  */
-public class TableCoordinate {
+public class TableCoordinate implements Serializable {
+
+    private static final long serialVersionUID = -4139735170207735571L;
 
     /** column index, a non-negative integer */
     private int column;
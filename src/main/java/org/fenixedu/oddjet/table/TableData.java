@@ -1,6 +1,7 @@
 package org.fenixedu.oddjet.table;
 
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Defines the necessary methods for classes that contain the data to be used for filling a table in the template.
@@ -35,4 +36,30 @@ public interface TableData {
      *         categories in the provided list.
      */
     public List<List<Object>> getData(List<String> categoryOrder);
+
+    /**
+     * Gets the data to be used in filling a template table with the default category ordering, allowing implementing classes to
+     * format their data objects for the locale of the template instance. By default the data is the same as
+     * {@link #getData()}'s.
+     * 
+     * @param locale the locale of the template instance.
+     * @return a list of lists of objects containing the data for the table, as described in {@link #getData()}.
+     */
+    public default List<List<Object>> getData(Locale locale) {
+        return getData();
+    }
+
+    /**
+     * Gets the data to be used in filling a template table with the specified category ordering, allowing implementing classes
+     * to format their data objects for the locale of the template instance. By default the data is the same as
+     * {@link #getData(List)}'s.
+     * 
+     * @param categoryOrder a list of category string representations encoding the order of the corresponding internal lists. This
+     *            list may have null values to insert empty category lists.
+     * @param locale the locale of the template instance.
+     * @return a list of lists of objects containing the data for the table, as described in {@link #getData(List)}.
+     */
+    public default List<List<Object>> getData(List<String> categoryOrder, Locale locale) {
+        return getData(categoryOrder);
+    }
 }
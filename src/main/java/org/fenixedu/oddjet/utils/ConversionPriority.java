@@ -0,0 +1,12 @@
+package org.fenixedu.oddjet.utils;
+
+/**
+ * Specifies the priority class of a conversion submitted to a {@link ConversionScheduler}. Queued conversions of a higher
+ * priority class are always started before those of a lower one.
+ */
+public enum ConversionPriority {
+    /** Conversions a user is waiting for, such as single document requests. */
+    INTERACTIVE,
+    /** Conversions of bulk jobs, which only use the capacity left by interactive conversions. */
+    BATCH
+}
@@ -0,0 +1,324 @@
+package org.fenixedu.oddjet.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.fenixedu.oddjet.exception.ConversionOverloadException;
+import org.fenixedu.oddjet.exception.RenderCancelledException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Schedules the conversions sent to an OpenOffice service, bounding how many run at once and how many may wait.
+ * <p>
+ * Each {@link ConversionPriority priority class} has its own bounded queue, and submissions to a full queue are rejected
+ * immediately with a {@link ConversionOverloadException}. Queued conversions are started by priority class and, within a class,
+ * shortest job first, taking the document size as the job size. So that large or low priority conversions are not starved by a
+ * steady stream of smaller or more urgent ones, conversions that have waited longer than a given bound are started first, oldest
+ * first. Each caller, such as a tenant or an application, may have at most a given number of conversions running at once, so
+ * that a single bulk job can not take every worker.
+ */
+public class ConversionScheduler {
+
+    private class Task<T> extends FutureTask<T> {
+        private final ConversionPriority priority;
+        private final String caller;
+        private final long size;
+        private final long sequence;
+        private final long submitted;
+
+        private Task(Callable<T> conversion, ConversionPriority priority, String caller, long size) {
+            super(conversion);
+            this.priority = priority;
+            this.caller = caller;
+            this.size = size;
+            this.sequence = sequenceGenerator.getAndIncrement();
+            this.submitted = System.nanoTime();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                dequeue(this);
+            }
+            return cancelled;
+        }
+    }
+
+    private static final Comparator<Task<?>> SCHEDULING_ORDER = new Comparator<Task<?>>() {
+        @Override
+        public int compare(Task<?> a, Task<?> b) {
+            if (a.priority != b.priority) {
+                return a.priority.compareTo(b.priority);
+            }
+            if (a.size != b.size) {
+                return a.size < b.size ? -1 : 1;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private static final Comparator<Task<?>> SUBMISSION_ORDER = new Comparator<Task<?>>() {
+        @Override
+        public int compare(Task<?> a, Task<?> b) {
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    /** The default time a conversion may wait before it is started ahead of the scheduling order. */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 30000;
+
+    private final int queueCapacity;
+    private final int callerQuota;
+    private final long maxWaitNanos;
+    private final AtomicLong sequenceGenerator = new AtomicLong();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dispatchable = lock.newCondition();
+    private final TreeSet<Task<?>> queue = new TreeSet<Task<?>>(SCHEDULING_ORDER);
+    private final TreeSet<Task<?>> arrivals = new TreeSet<Task<?>>(SUBMISSION_ORDER);
+    private final Map<ConversionPriority, Integer> queued = new EnumMap<ConversionPriority, Integer>(ConversionPriority.class);
+    private final Map<String, Integer> running = new HashMap<String, Integer>();
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile boolean shutdown = false;
+
+    /**
+     * Constructs a ConversionScheduler, with the {@link #DEFAULT_MAX_WAIT_MILLIS default maximum wait}, and starts its workers.
+     *
+     * @param workers the number of conversions that may run at once, usually the number of office processes available.
+     * @param queueCapacity the maximum number of conversions waiting in the queue of each priority class.
+     * @param callerQuota the maximum number of conversions of a single caller that may run at once.
+     */
+    public ConversionScheduler(int workers, int queueCapacity, int callerQuota) {
+        this(workers, queueCapacity, callerQuota, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * Constructs a ConversionScheduler and starts its workers.
+     *
+     * @param workers the number of conversions that may run at once, usually the number of office processes available.
+     * @param queueCapacity the maximum number of conversions waiting in the queue of each priority class.
+     * @param callerQuota the maximum number of conversions of a single caller that may run at once.
+     * @param maxWaitMillis the time, in milliseconds, after which a waiting conversion is started ahead of the scheduling order.
+     */
+    public ConversionScheduler(int workers, int queueCapacity, int callerQuota, long maxWaitMillis) {
+        Preconditions.checkArgument(workers > 0, "Invalid number of workers.");
+        Preconditions.checkArgument(queueCapacity >= 0, "Invalid queue capacity.");
+        Preconditions.checkArgument(callerQuota > 0, "Invalid caller quota.");
+        Preconditions.checkArgument(maxWaitMillis >= 0, "Invalid maximum wait.");
+        this.queueCapacity = queueCapacity;
+        this.callerQuota = callerQuota;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        for (ConversionPriority priority : ConversionPriority.values()) {
+            queued.put(priority, 0);
+        }
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "oddjet-scheduler-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            this.workers.add(worker);
+        }
+    }
+
+    /**
+     * Submits a conversion for asynchronous execution.
+     *
+     * @param priority the priority class of the conversion.
+     * @param caller the identifier of the caller the conversion counts against, such as a tenant or an application name.
+     * @param size the size of the document to be converted, used to run shorter conversions first.
+     * @param conversion the conversion itself.
+     * @return a Future representing the pending conversion.
+     * @throws ConversionOverloadException if the queue of the given priority class is full or the scheduler was shut down.
+     */
+    public <T> Future<T> submit(ConversionPriority priority, String caller, long size, Callable<T> conversion)
+            throws ConversionOverloadException {
+        Preconditions.checkNotNull(priority, "Invalid priority.");
+        Preconditions.checkNotNull(caller, "Invalid caller.");
+        Task<T> task = new Task<T>(conversion, priority, caller, size);
+        lock.lock();
+        try {
+            if (shutdown) {
+                throw new ConversionOverloadException("Conversion scheduler was shut down.");
+            }
+            if (queued.get(priority) >= queueCapacity) {
+                throw new ConversionOverloadException("The " + priority.name().toLowerCase() + " conversion queue is full ("
+                        + queueCapacity + " conversions).");
+            }
+            queue.add(task);
+            arrivals.add(task);
+            queued.put(priority, queued.get(priority) + 1);
+            dispatchable.signal();
+        } finally {
+            lock.unlock();
+        }
+        return task;
+    }
+
+    /**
+     * Submits a conversion and waits for its result. If the calling thread is interrupted while waiting, the conversion is
+     * cancelled.
+     *
+     * @param priority the priority class of the conversion.
+     * @param caller the identifier of the caller the conversion counts against, such as a tenant or an application name.
+     * @param size the size of the document to be converted, used to run shorter conversions first.
+     * @param conversion the conversion itself.
+     * @return the result of the conversion.
+     * @throws ConversionOverloadException if the queue of the given priority class is full or the scheduler was shut down.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting.
+     */
+    public <T> T execute(ConversionPriority priority, String caller, long size, Callable<T> conversion)
+            throws ConversionOverloadException, RenderCancelledException {
+        Future<T> future = submit(priority, caller, size, conversion);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @param priority a priority class.
+     * @return the number of conversions of the given priority class waiting to be started.
+     */
+    public int getQueuedCount(ConversionPriority priority) {
+        lock.lock();
+        try {
+            return queued.get(priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting conversions, cancels the queued ones and stops the workers once the running conversions finish.
+     */
+    public void shutdown() {
+        List<Task<?>> cancelled;
+        lock.lock();
+        try {
+            shutdown = true;
+            cancelled = new ArrayList<Task<?>>(queue);
+            dispatchable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Task<?> task : cancelled) {
+            task.cancel(false);
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Task<?> task;
+            lock.lock();
+            try {
+                while ((task = nextDispatchable()) == null) {
+                    if (shutdown) {
+                        return;
+                    }
+                    dispatchable.await();
+                }
+                queue.remove(task);
+                arrivals.remove(task);
+                queued.put(task.priority, queued.get(task.priority) - 1);
+                Integer count = running.get(task.caller);
+                running.put(task.caller, count == null ? 1 : count + 1);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                task.run();
+            } finally {
+                lock.lock();
+                try {
+                    int count = running.get(task.caller) - 1;
+                    if (count == 0) {
+                        running.remove(task.caller);
+                    } else {
+                        running.put(task.caller, count);
+                    }
+                    // a task of the same caller may have become dispatchable
+                    dispatchable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                // clear any interruption left by a cancellation so it does not affect the next task
+                Thread.interrupted();
+            }
+        }
+    }
+
+    // Must be called while holding the lock.
+    private Task<?> nextDispatchable() {
+        // conversions that waited too long go first, oldest first, so that no conversion waits forever
+        long now = System.nanoTime();
+        Iterator<Task<?>> iterator = arrivals.iterator();
+        while (iterator.hasNext()) {
+            Task<?> task = iterator.next();
+            if (now - task.submitted < maxWaitNanos) {
+                break;
+            }
+            if (isWithinQuota(task)) {
+                return task;
+            }
+        }
+        iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            Task<?> task = iterator.next();
+            if (isWithinQuota(task)) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    // Must be called while holding the lock.
+    private boolean isWithinQuota(Task<?> task) {
+        Integer count = running.get(task.caller);
+        return count == null || count < callerQuota;
+    }
+
+    private void dequeue(Task<?> task) {
+        lock.lock();
+        try {
+            if (queue.remove(task)) {
+                arrivals.remove(task);
+                queued.put(task.priority, queued.get(task.priority) - 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package org.fenixedu.oddjet.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A display condition of a hidden section or paragraph, such as <code>ooow:hasThesis == 0</code> or
+ * <code>ooow:degree.type != "PHD" AND NOT isPHD</code>, written in the notation of the OpenOffice writer conditions. Conditions
+ * hold numbers, strings between quotes, <code>TRUE</code> and <code>FALSE</code>, variables, parentheses and the following
+ * operators, from the lowest to the highest precedence:
+ * <ul>
+ * <li><code>||</code>, <code>OR</code>, <code>|</code></li>
+ * <li><code>&amp;&amp;</code>, <code>AND</code>, <code>&amp;</code></li>
+ * <li><code>==</code>, <code>EQ</code>, <code>!=</code>, <code>NEQ</code>, <code>&lt;</code>, <code>LT</code>,
+ * <code>&lt;=</code>, <code>LEQ</code>, <code>&gt;</code>, <code>GT</code>, <code>&gt;=</code>, <code>GEQ</code></li>
+ * <li><code>+</code>, <code>-</code></li>
+ * <li><code>*</code>, <code>/</code></li>
+ * <li><code>!</code>, <code>NOT</code> and the unary <code>-</code></li>
+ * </ul>
+ * Variables are attribute chains, valued as numbers when their value is a number, a boolean or a string holding a number, and as
+ * strings otherwise. Values are compared as numbers when both are numbers and as strings otherwise, and are true when they are a
+ * number other than 0 or a non empty string.
+ */
+public class DisplayCondition {
+
+    private static final Pattern NAMESPACE = Pattern.compile("^\\s*[a-z]+:(?![=:])");
+    private static final Pattern TOKEN = Pattern.compile("\\s*(?:(\\d*\\.?\\d+(?:[eE][-+]?\\d+)?)|\"([^\"]*)\"|'([^']*)'"
+            + "|([\\p{L}_][\\p{L}\\p{N}_.]*)|(==|!=|<>|<=|>=|&&|\\|\\||[-+*/()<>!=&|]))");
+
+    private final String condition;
+    private final List<String> tokens;
+
+    private DisplayCondition(String condition, List<String> tokens) {
+        this.condition = condition;
+        this.tokens = tokens;
+    }
+
+    /**
+     * Parses a display condition.
+     *
+     * @param condition the condition, optionally prefixed by its namespace, such as <code>ooow:</code>.
+     * @return the parsed condition.
+     * @throws IllegalArgumentException if the condition is empty or uses an unsupported notation.
+     */
+    public static DisplayCondition parse(String condition) throws IllegalArgumentException {
+        String expression = NAMESPACE.matcher(condition).replaceFirst("");
+        List<String> tokens = new ArrayList<String>();
+        Matcher matcher = TOKEN.matcher(expression);
+        int position = 0;
+        while (position < expression.length()) {
+            if (!matcher.find(position) || matcher.start() != position) {
+                if (expression.substring(position).trim().isEmpty()) {
+                    break;
+                }
+                throw new IllegalArgumentException("Unsupported notation at position " + position + " of condition '" + condition
+                        + "'.");
+            }
+            if (matcher.group(2) != null || matcher.group(3) != null) {
+                // strings are kept quoted, to tell them apart from variables and operators
+                tokens.add("\"" + (matcher.group(2) != null ? matcher.group(2) : matcher.group(3)));
+            } else {
+                for (int group = 1; group <= 5; group++) {
+                    if (matcher.group(group) != null) {
+                        tokens.add(matcher.group(group));
+                    }
+                }
+            }
+            position = matcher.end();
+        }
+        DisplayCondition parsed = new DisplayCondition(condition, Collections.unmodifiableList(tokens));
+        // Fail on invalid conditions while parsing instead of while evaluating
+        parsed.evaluate(new Function<String, Object>() {
+            @Override
+            public Object apply(String variable) {
+                return 0;
+            }
+        });
+        return parsed;
+    }
+
+    /**
+     * @return the names of the variables of this condition.
+     */
+    public List<String> getVariables() {
+        List<String> variables = new ArrayList<String>();
+        for (String token : tokens) {
+            if (isVariable(token) && !variables.contains(token)) {
+                variables.add(token);
+            }
+        }
+        return variables;
+    }
+
+    /**
+     * Evaluates the condition.
+     *
+     * @param variables the function giving the value of each variable of the condition. It may throw an
+     *            IllegalArgumentException for variables without a value.
+     * @return true if the condition holds.
+     * @throws IllegalArgumentException if the condition can not be evaluated.
+     */
+    public boolean evaluate(Function<String, ?> variables) throws IllegalArgumentException {
+        Evaluation evaluation = new Evaluation(variables);
+        Object value = evaluation.or();
+        if (evaluation.position != tokens.size()) {
+            throw evaluation.unexpected();
+        }
+        return isTrue(value);
+    }
+
+    @Override
+    public String toString() {
+        return condition;
+    }
+
+    private static boolean isVariable(String token) {
+        if (!Character.isLetter(token.charAt(0)) && token.charAt(0) != '_') {
+            return false;
+        }
+        switch (token.toUpperCase(Locale.ENGLISH)) {
+        case "AND":
+        case "OR":
+        case "NOT":
+        case "EQ":
+        case "NEQ":
+        case "LT":
+        case "LEQ":
+        case "GT":
+        case "GEQ":
+        case "TRUE":
+        case "FALSE":
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    private static boolean isTrue(Object value) {
+        return value instanceof Double ? (Double) value != 0 : !((String) value).isEmpty();
+    }
+
+    /** Values are either doubles or strings. */
+    private static Object toValue(Object object) {
+        if (object instanceof Boolean) {
+            return (Boolean) object ? 1d : 0d;
+        }
+        if (object instanceof Number) {
+            return ((Number) object).doubleValue();
+        }
+        String string = object != null ? object.toString().trim() : "";
+        if (string.equalsIgnoreCase("true") || string.equalsIgnoreCase("false")) {
+            return string.equalsIgnoreCase("true") ? 1d : 0d;
+        }
+        try {
+            return Double.parseDouble(string);
+        } catch (NumberFormatException e) {
+            return string;
+        }
+    }
+
+    /**
+     * A recursive descent evaluation of the condition's tokens, one method per precedence level.
+     */
+    private class Evaluation {
+
+        private final Function<String, ?> variables;
+        private int position = 0;
+
+        private Evaluation(Function<String, ?> variables) {
+            this.variables = variables;
+        }
+
+        private Object or() {
+            Object value = and();
+            while (accept("||", "|", "OR")) {
+                Object right = and();
+                value = isTrue(value) || isTrue(right) ? 1d : 0d;
+            }
+            return value;
+        }
+
+        private Object and() {
+            Object value = comparison();
+            while (accept("&&", "&", "AND")) {
+                Object right = comparison();
+                value = isTrue(value) && isTrue(right) ? 1d : 0d;
+            }
+            return value;
+        }
+
+        private Object comparison() {
+            Object value = sum();
+            String operator = peek();
+            if (operator == null) {
+                return value;
+            }
+            int comparison;
+            switch (operator.toUpperCase(Locale.ENGLISH)) {
+            case "==":
+            case "=":
+            case "EQ":
+            case "!=":
+            case "<>":
+            case "NEQ":
+            case "<":
+            case "LT":
+            case "<=":
+            case "LEQ":
+            case ">":
+            case "GT":
+            case ">=":
+            case "GEQ":
+                position++;
+                Object right = sum();
+                if (value instanceof Double && right instanceof Double) {
+                    comparison = Double.compare((Double) value, (Double) right);
+                } else {
+                    comparison = value.toString().compareTo(right.toString());
+                }
+                break;
+            default:
+                return value;
+            }
+            boolean result;
+            switch (operator.toUpperCase(Locale.ENGLISH)) {
+            case "==":
+            case "=":
+            case "EQ":
+                result = comparison == 0;
+                break;
+            case "!=":
+            case "<>":
+            case "NEQ":
+                result = comparison != 0;
+                break;
+            case "<":
+            case "LT":
+                result = comparison < 0;
+                break;
+            case "<=":
+            case "LEQ":
+                result = comparison <= 0;
+                break;
+            case ">":
+            case "GT":
+                result = comparison > 0;
+                break;
+            default:
+                result = comparison >= 0;
+            }
+            return result ? 1d : 0d;
+        }
+
+        private Object sum() {
+            Object value = product();
+            while (true) {
+                if (accept("+")) {
+                    Object right = product();
+                    if (value instanceof Double && right instanceof Double) {
+                        value = (Double) value + (Double) right;
+                    } else {
+                        value = value.toString() + right;
+                    }
+                } else if (accept("-")) {
+                    value = toNumber(value) - toNumber(product());
+                } else {
+                    return value;
+                }
+            }
+        }
+
+        private Object product() {
+            Object value = unary();
+            while (true) {
+                if (accept("*")) {
+                    value = toNumber(value) * toNumber(unary());
+                } else if (accept("/")) {
+                    value = toNumber(value) / toNumber(unary());
+                } else {
+                    return value;
+                }
+            }
+        }
+
+        private Object unary() {
+            if (accept("!", "NOT")) {
+                return isTrue(unary()) ? 0d : 1d;
+            }
+            if (accept("-")) {
+                return -toNumber(unary());
+            }
+            return primary();
+        }
+
+        private Object primary() {
+            String token = peek();
+            if (token == null) {
+                throw new IllegalArgumentException("Incomplete condition '" + condition + "'.");
+            }
+            position++;
+            if (token.equals("(")) {
+                Object value = or();
+                if (!accept(")")) {
+                    throw unexpected();
+                }
+                return value;
+            }
+            if (token.startsWith("\"")) {
+                return token.substring(1);
+            }
+            if (Character.isDigit(token.charAt(0)) || token.charAt(0) == '.') {
+                return Double.parseDouble(token);
+            }
+            if (token.equalsIgnoreCase("TRUE") || token.equalsIgnoreCase("FALSE")) {
+                return token.equalsIgnoreCase("TRUE") ? 1d : 0d;
+            }
+            if (isVariable(token)) {
+                return toValue(variables.apply(token));
+            }
+            position--;
+            throw unexpected();
+        }
+
+        private double toNumber(Object value) {
+            if (!(value instanceof Double)) {
+                throw new IllegalArgumentException("Arithmetic on the string '" + value + "' in condition '" + condition + "'.");
+            }
+            return (Double) value;
+        }
+
+        private String peek() {
+            return position < tokens.size() ? tokens.get(position) : null;
+        }
+
+        private boolean accept(String... operators) {
+            String token = peek();
+            if (token != null && !token.startsWith("\"")) {
+                for (String operator : operators) {
+                    if (token.equalsIgnoreCase(operator)) {
+                        position++;
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private IllegalArgumentException unexpected() {
+            return new IllegalArgumentException("Unexpected '" + peek() + "' in condition '" + condition + "'.");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.fenixedu.oddjet.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.fenixedu.oddjet.exception.DocumentSaveException;
+import org.odftoolkit.odfdom.pkg.OdfPackage;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Writes filled documents as ODF packages, serializing their content and styles parts with an {@link XmlSerializer} straight
+ * into the zip entries instead of going through the generic serialization of the ODF toolkit. The other parts of the package are
+ * copied as they are, pictures without being compressed again, and the manifest is written from the package's entries.
+ */
+public class DocumentWriter {
+
+    private static final String MIMETYPE = "mimetype";
+    private static final String MANIFEST = "META-INF/manifest.xml";
+    private static final String CONTENT = "content.xml";
+    private static final String STYLES = "styles.xml";
+
+    /** The serializers, and their buffers, are reused by every document written or converted by the same thread. */
+    static final ThreadLocal<XmlSerializer> serializers = new ThreadLocal<XmlSerializer>() {
+        @Override
+        protected XmlSerializer initialValue() {
+            return new XmlSerializer();
+        }
+    };
+
+    /**
+     * Writes a document as an ODF package or as a {@link FlatDocument flat ODF XML file}.
+     *
+     * @param document the document to be written.
+     * @param out the stream the document is written to, which is not closed.
+     * @param flat true to write a flat XML file, false to write a package.
+     * @throws DocumentSaveException if the document can not be written.
+     */
+    public static void write(TextDocument document, OutputStream out, boolean flat) throws DocumentSaveException {
+        if (flat) {
+            FlatDocument.write(document, out);
+        } else {
+            write(document, out);
+        }
+    }
+
+    /**
+     * Writes a document as an ODF package.
+     *
+     * @param document the document to be written.
+     * @param out the stream the package is written to, which is not closed.
+     * @throws DocumentSaveException if the document can not be written.
+     */
+    public static void write(TextDocument document, OutputStream out) throws DocumentSaveException {
+        try {
+            OdfPackage odfPackage = document.getPackage();
+            ZipOutputStream zip = new ZipOutputStream(out);
+            String mediaType = odfPackage.getMediaTypeString();
+            writeStored(zip, MIMETYPE, mediaType.getBytes(StandardCharsets.US_ASCII));
+
+            Set<String> paths = getPartPaths(document, odfPackage);
+            StringBuilder manifest = new StringBuilder();
+            manifest.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            manifest.append("<manifest:manifest xmlns:manifest=\"urn:oasis:names:tc:opendocument:xmlns:manifest:1.0\"");
+            String version = document.getContentDom().getDocumentElement().getAttribute("office:version");
+            if (!version.isEmpty()) {
+                manifest.append(" manifest:version=\"").append(version).append('"');
+            }
+            manifest.append(">\n <manifest:file-entry manifest:full-path=\"/\" manifest:media-type=\"").append(mediaType)
+                    .append('"');
+            if (!version.isEmpty()) {
+                manifest.append(" manifest:version=\"").append(version).append('"');
+            }
+            manifest.append("/>\n");
+            for (String path : paths) {
+                String entryType = odfPackage.getFileEntryMediaType(path);
+                manifest.append(" <manifest:file-entry manifest:full-path=\"").append(escape(path))
+                        .append("\" manifest:media-type=\"").append(entryType != null ? escape(entryType) : "").append("\"/>\n");
+            }
+            manifest.append("</manifest:manifest>\n");
+            zip.putNextEntry(new ZipEntry(MANIFEST));
+            zip.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            XmlSerializer serializer = serializers.get();
+            for (String path : paths) {
+                if (path.equals(CONTENT) || path.equals(STYLES)) {
+                    zip.putNextEntry(new ZipEntry(path));
+                    serializer.serialize(path.equals(CONTENT) ? document.getContentDom() : document.getStylesDom(), zip);
+                    zip.closeEntry();
+                    continue;
+                }
+                byte[] bytes = odfPackage.getBytes(path);
+                if (bytes == null) {
+                    continue;
+                }
+                String entryType = odfPackage.getFileEntryMediaType(path);
+                if (entryType != null && entryType.startsWith("image/") && !entryType.startsWith("image/svg")) {
+                    // already compressed
+                    writeStored(zip, path, bytes);
+                } else {
+                    zip.putNextEntry(new ZipEntry(path));
+                    zip.write(bytes);
+                    zip.closeEntry();
+                }
+            }
+            zip.finish();
+            zip.flush();
+        } catch (Exception e) {
+            throw new DocumentSaveException(e);
+        }
+    }
+
+    /**
+     * Gets the paths of the files of a package, along with those of the pictures referenced by the document, which may have been
+     * inserted after the package was loaded, leaving out the directories, the mimetype and the manifest.
+     */
+    private static Set<String> getPartPaths(TextDocument document, OdfPackage odfPackage) throws Exception {
+        Set<String> paths = new LinkedHashSet<String>();
+        paths.add(CONTENT);
+        paths.add(STYLES);
+        for (String path : odfPackage.getFilePaths()) {
+            if (!path.isEmpty() && !path.endsWith("/") && !path.equals(MIMETYPE) && !path.equals(MANIFEST)) {
+                paths.add(path);
+            }
+        }
+        NodeList images = document.getContentDom().getElementsByTagName("draw:image");
+        for (int i = 0; i < images.getLength(); i++) {
+            String path = ((Element) images.item(i)).getAttribute("xlink:href");
+            if (!path.isEmpty() && !path.contains("://") && !path.startsWith("#") && !path.startsWith("../")
+                    && odfPackage.contains(path)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    private static void writeStored(ZipOutputStream zip, String path, byte[] bytes) throws IOException {
+        ZipEntry entry = new ZipEntry(path);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(bytes);
+        zip.closeEntry();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,450 @@
+package org.fenixedu.oddjet.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.fenixedu.oddjet.exception.DocumentLoadException;
+import org.fenixedu.oddjet.exception.DocumentSaveException;
+import org.odftoolkit.odfdom.pkg.OdfPackage;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Reads and writes text documents as flat ODF XML files (<code>.fodt</code>), which hold every part of a document in a single XML
+ * file, with its pictures embedded as base64 data. Flat files are neither inflated when read nor deflated when written, and the
+ * office process loads them as plain XML, which makes them cheaper than packages for documents with few or no pictures.
+ * <p>
+ * As the ODF toolkit only loads packages, a flat template is converted once, when it is read, into a package whose entries are
+ * stored without compression, so that loading it again for each render does not inflate it either.
+ */
+public class FlatDocument {
+
+    /** The media type of flat text documents. */
+    public static final String MEDIA_TYPE = "application/vnd.oasis.opendocument.text-flat-xml";
+    /** The name of the office filter that reads and writes flat text documents. */
+    public static final String FILTER_NAME = "OpenDocument Text Flat XML";
+
+    private static final String TEXT_MEDIA_TYPE = "application/vnd.oasis.opendocument.text";
+    private static final String OFFICE_NS = "urn:oasis:names:tc:opendocument:xmlns:office:1.0";
+    private static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+    private static final String XMLNS_NS = "http://www.w3.org/2000/xmlns/";
+    /** The time of the entries of converted packages, fixed so a flat file always converts into the same bytes. */
+    private static final long ENTRY_TIME = 315532800000L;
+
+    /**
+     * Checks whether the bytes of a document file are those of a flat XML file, rather than of a package.
+     *
+     * @param bytes the bytes of the document file.
+     * @return true if the bytes start as an XML file, false otherwise.
+     */
+    public static boolean isFlat(byte[] bytes) {
+        int i = 0;
+        if (bytes.length >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+            i = 3;
+        }
+        while (i < bytes.length && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r' || bytes[i] == '\n')) {
+            i++;
+        }
+        return i < bytes.length && bytes[i] == '<';
+    }
+
+    /**
+     * Checks whether the content of a buffer is a flat XML file, rather than a package, without copying it into an array.
+     *
+     * @param buffer the buffer holding the document file.
+     * @return true if the content starts as an XML file, false otherwise.
+     */
+    public static boolean isFlat(SegmentedBuffer buffer) {
+        byte[] chunk = new byte[64];
+        long position = 0;
+        int read;
+        while ((read = buffer.read(position, chunk, 0, chunk.length)) > 0) {
+            int i = 0;
+            if (position == 0 && read >= 3 && chunk[0] == (byte) 0xEF && chunk[1] == (byte) 0xBB && chunk[2] == (byte) 0xBF) {
+                i = 3;
+            }
+            while (i < read && (chunk[i] == ' ' || chunk[i] == '\t' || chunk[i] == '\r' || chunk[i] == '\n')) {
+                i++;
+            }
+            if (i < read) {
+                return chunk[i] == '<';
+            }
+            position += read;
+        }
+        return false;
+    }
+
+    /**
+     * Converts a flat text document into a package, with its content, styles, meta data and settings in their own parts and its
+     * embedded pictures extracted into the package. The entries of the package are stored without compression.
+     *
+     * @param flat the bytes of the flat XML file.
+     * @return the bytes of the package.
+     * @throws DocumentLoadException if the flat file can not be read.
+     */
+    public static byte[] toPackage(byte[] flat) throws DocumentLoadException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            Element root = builder.parse(new ByteArrayInputStream(flat)).getDocumentElement();
+            if (!OFFICE_NS.equals(root.getNamespaceURI()) || !"document".equals(root.getLocalName())) {
+                throw new IllegalArgumentException("The file is not a flat ODF document.");
+            }
+            Map<String, byte[]> pictures = extractPictures(root);
+            String mediaType = root.getAttributeNS(OFFICE_NS, "mimetype");
+            if (mediaType.isEmpty()) {
+                mediaType = TEXT_MEDIA_TYPE;
+            }
+
+            Map<String, Document> parts = new LinkedHashMap<String, Document>();
+            parts.put("content.xml", createPart(builder, root, "document-content", "scripts", "font-face-decls",
+                    "automatic-styles", "body"));
+            // the automatic styles of a flat file are shared by the body and the master styles, so both parts get them
+            parts.put("styles.xml", createPart(builder, root, "document-styles", "font-face-decls", "styles",
+                    "automatic-styles", "master-styles"));
+            if (getChild(root, "meta") != null) {
+                parts.put("meta.xml", createPart(builder, root, "document-meta", "meta"));
+            }
+            if (getChild(root, "settings") != null) {
+                parts.put("settings.xml", createPart(builder, root, "document-settings", "settings"));
+            }
+
+            StringBuilder manifest = new StringBuilder();
+            manifest.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            manifest.append("<manifest:manifest xmlns:manifest=\"urn:oasis:names:tc:opendocument:xmlns:manifest:1.0\">\n");
+            manifest.append(" <manifest:file-entry manifest:full-path=\"/\" manifest:media-type=\"").append(mediaType)
+                    .append("\"/>\n");
+            for (String path : parts.keySet()) {
+                manifest.append(" <manifest:file-entry manifest:full-path=\"").append(path)
+                        .append("\" manifest:media-type=\"text/xml\"/>\n");
+            }
+            for (Map.Entry<String, byte[]> picture : pictures.entrySet()) {
+                manifest.append(" <manifest:file-entry manifest:full-path=\"").append(picture.getKey())
+                        .append("\" manifest:media-type=\"").append(getPictureType(picture.getValue())[1]).append("\"/>\n");
+            }
+            manifest.append("</manifest:manifest>\n");
+
+            XmlSerializer serializer = DocumentWriter.serializers.get();
+            try (SegmentedBuffer out = new SegmentedBuffer()) {
+                ZipOutputStream zip = new ZipOutputStream(out);
+                writeStored(zip, "mimetype", mediaType.getBytes(StandardCharsets.US_ASCII));
+                writeStored(zip, "META-INF/manifest.xml", manifest.toString().getBytes(StandardCharsets.UTF_8));
+                for (Map.Entry<String, Document> part : parts.entrySet()) {
+                    try (SegmentedBuffer partOut = new SegmentedBuffer()) {
+                        serializer.serialize(part.getValue(), partOut);
+                        writeStored(zip, part.getKey(), partOut.toByteArray());
+                    }
+                }
+                for (Map.Entry<String, byte[]> picture : pictures.entrySet()) {
+                    writeStored(zip, picture.getKey(), picture.getValue());
+                }
+                zip.finish();
+                return out.toByteArray();
+            }
+        } catch (Exception e) {
+            throw new DocumentLoadException(e);
+        }
+    }
+
+    /**
+     * Writes a text document as a flat XML file, embedding the pictures of its package. A flat file has a single set of automatic
+     * styles, so the automatic styles of the content that clash with those of the styles part are written under new names.
+     *
+     * @param document the document to be written.
+     * @param out the stream the flat file is written to, which is not closed.
+     * @throws DocumentSaveException if the document can not be written.
+     */
+    public static void write(TextDocument document, OutputStream out) throws DocumentSaveException {
+        XmlSerializer serializer = DocumentWriter.serializers.get();
+        try {
+            OdfPackage odfPackage = document.getPackage();
+            Element content = document.getContentDom().getDocumentElement();
+            Element styles = document.getStylesDom().getDocumentElement();
+            Element meta = odfPackage.contains("meta.xml") ? document.getMetaDom().getDocumentElement() : null;
+            Element settings = odfPackage.contains("settings.xml") ? document.getSettingsDom().getDocumentElement() : null;
+
+            Map<String, String> namespaces = new LinkedHashMap<String, String>();
+            namespaces.put("office", OFFICE_NS);
+            for (Element part : new Element[] { meta, settings, styles, content }) {
+                if (part != null) {
+                    for (Map.Entry<String, String> namespace : XmlSerializer.getNamespaces(part).entrySet()) {
+                        if (!namespaces.containsKey(namespace.getKey())) {
+                            namespaces.put(namespace.getKey(), namespace.getValue());
+                        }
+                    }
+                }
+            }
+            Map<String, String> attributes = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, String> namespace : namespaces.entrySet()) {
+                attributes.put("xmlns:" + namespace.getKey(), namespace.getValue());
+            }
+            String version = content.getAttribute("office:version");
+            if (!version.isEmpty()) {
+                attributes.put("office:version", version);
+            }
+            attributes.put("office:mimetype", odfPackage.getMediaTypeString());
+
+            // the automatic styles of each part have their own names, so the content ones clashing with the styles ones are
+            // renamed, along with their references in the content
+            Map<String, String> renamedStyles =
+                    getRenamedStyles(getChild(styles, "automatic-styles"), getChild(content, "automatic-styles"));
+
+            serializer.startDocument(out);
+            serializer.setEmbeddedPictures(odfPackage);
+            serializer.startElement("office:document", attributes);
+            writeChild(serializer, meta, "meta");
+            writeChild(serializer, settings, "settings");
+            writeChild(serializer, content, "scripts");
+            writeMerged(serializer, "font-face-decls", styles, content, null);
+            writeChild(serializer, styles, "styles");
+            writeMerged(serializer, "automatic-styles", styles, content, renamedStyles);
+            writeChild(serializer, styles, "master-styles");
+            serializer.setRenamedStyles(renamedStyles);
+            writeChild(serializer, content, "body");
+            serializer.setRenamedStyles(null);
+            serializer.endElement("office:document");
+            serializer.endDocument();
+        } catch (Exception e) {
+            throw new DocumentSaveException(e);
+        } finally {
+            serializer.reset();
+        }
+    }
+
+    /**
+     * Replaces the binary data embedded in a flat file by references to package paths.
+     *
+     * @return the extracted pictures by their package path.
+     */
+    private static Map<String, byte[]> extractPictures(Element root) {
+        Map<String, byte[]> pictures = new LinkedHashMap<String, byte[]>();
+        NodeList found = root.getElementsByTagNameNS(OFFICE_NS, "binary-data");
+        List<Element> data = new ArrayList<Element>();
+        for (int i = 0; i < found.getLength(); i++) {
+            data.add((Element) found.item(i));
+        }
+        for (Element binary : data) {
+            Element referrer = (Element) binary.getParentNode();
+            byte[] bytes = Base64.getMimeDecoder().decode(binary.getTextContent());
+            String path = "Pictures/embedded" + (pictures.size() + 1) + "." + getPictureType(bytes)[0];
+            referrer.removeChild(binary);
+            referrer.setAttributeNS(XLINK_NS, "xlink:href", path);
+            referrer.setAttributeNS(XLINK_NS, "xlink:type", "simple");
+            referrer.setAttributeNS(XLINK_NS, "xlink:show", "embed");
+            referrer.setAttributeNS(XLINK_NS, "xlink:actuate", "onLoad");
+            pictures.put(path, bytes);
+        }
+        return pictures;
+    }
+
+    /**
+     * Gets the file extension and media type of a picture from its first bytes.
+     */
+    private static String[] getPictureType(byte[] bytes) {
+        if (bytes.length > 3 && bytes[0] == (byte) 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G') {
+            return new String[] { "png", "image/png" };
+        }
+        if (bytes.length > 1 && bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xD8) {
+            return new String[] { "jpg", "image/jpeg" };
+        }
+        if (bytes.length > 2 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F') {
+            return new String[] { "gif", "image/gif" };
+        }
+        if (isFlat(bytes)) {
+            return new String[] { "svg", "image/svg+xml" };
+        }
+        return new String[] { "bin", "application/octet-stream" };
+    }
+
+    /**
+     * Creates the DOM of a package part with the given office root, declaring the namespaces declared by the root of the flat
+     * file, and copies of the given children of the flat file's root.
+     */
+    private static Document createPart(DocumentBuilder builder, Element flatRoot, String rootName, String... childNames) {
+        Document part = builder.newDocument();
+        Element root = part.createElementNS(OFFICE_NS, "office:" + rootName);
+        NamedNodeMap attributes = flatRoot.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (XMLNS_NS.equals(attribute.getNamespaceURI())) {
+                root.setAttributeNS(XMLNS_NS, attribute.getName(), attribute.getValue());
+            }
+        }
+        String version = flatRoot.getAttributeNS(OFFICE_NS, "version");
+        if (!version.isEmpty()) {
+            root.setAttributeNS(OFFICE_NS, "office:version", version);
+        }
+        part.appendChild(root);
+        for (String childName : childNames) {
+            Element child = getChild(flatRoot, childName);
+            if (child != null) {
+                root.appendChild(part.importNode(child, true));
+            }
+        }
+        return part;
+    }
+
+    private static Element getChild(Element parent, String officeName) {
+        if (parent == null) {
+            return null;
+        }
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && OFFICE_NS.equals(child.getNamespaceURI())
+                    && officeName.equals(child.getLocalName())) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    private static void writeChild(XmlSerializer serializer, Element part, String officeName) throws IOException {
+        Element child = getChild(part, officeName);
+        if (child != null) {
+            serializer.writeElement(child);
+        }
+    }
+
+    /**
+     * Writes an office element holding the children of the elements with that name in the styles and the content parts, leaving
+     * out the children with the same name as an already written one, such as font faces declared by both parts.
+     *
+     * @param renamedStyles the new names of the renamed children of the content part, or null if none are renamed.
+     */
+    private static void writeMerged(XmlSerializer serializer, String officeName, Element styles, Element content,
+            Map<String, String> renamedStyles) throws IOException {
+        Element fromStyles = getChild(styles, officeName);
+        Element fromContent = getChild(content, officeName);
+        if (fromStyles == null && fromContent == null) {
+            return;
+        }
+        serializer.startElement("office:" + officeName, null);
+        Set<String> written = new HashSet<String>();
+        for (Element parent : new Element[] { fromStyles, fromContent }) {
+            if (parent == null) {
+                continue;
+            }
+            Map<String, String> renamed = parent == fromContent ? renamedStyles : null;
+            serializer.setRenamedStyles(renamed);
+            for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() != Node.ELEMENT_NODE) {
+                    continue;
+                }
+                Element element = (Element) child;
+                String name = element.getAttribute("style:name");
+                if (renamed != null && renamed.containsKey(name)) {
+                    name = renamed.get(name);
+                }
+                if (name.isEmpty()
+                        || written.add(element.getNodeName() + "|" + element.getAttribute("style:family") + "|" + name)) {
+                    serializer.writeElement(element);
+                }
+            }
+        }
+        serializer.setRenamedStyles(null);
+        serializer.endElement("office:" + officeName);
+    }
+
+    /**
+     * Gets the new names of the automatic styles of the content part that clash with those of the styles part. A content style
+     * clashes with the styles one of the same name if they differ, or if it refers to a clashing style, as it would refer to a
+     * renamed style once written. Identical styles are written once, and shared by both parts.
+     *
+     * @return the new names of the clashing content styles, by their names.
+     */
+    private static Map<String, String> getRenamedStyles(Element stylesPart, Element contentPart) {
+        Map<String, String> renamed = new HashMap<String, String>();
+        if (stylesPart == null || contentPart == null) {
+            return renamed;
+        }
+        Map<String, Element> partStyles = new HashMap<String, Element>();
+        for (Node child = stylesPart.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && ((Element) child).hasAttribute("style:name")) {
+                partStyles.put(((Element) child).getAttribute("style:name"), (Element) child);
+            }
+        }
+        List<Element> contentStyles = new ArrayList<Element>();
+        Set<String> names = new HashSet<String>(partStyles.keySet());
+        for (Node child = contentPart.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && ((Element) child).hasAttribute("style:name")) {
+                contentStyles.add((Element) child);
+                names.add(((Element) child).getAttribute("style:name"));
+            }
+        }
+        Set<String> clashing = new HashSet<String>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Element style : contentStyles) {
+                String name = style.getAttribute("style:name");
+                Element existing = partStyles.get(name);
+                if (existing != null && !clashing.contains(name)
+                        && (!existing.isEqualNode(style) || refersToAny(style, clashing))) {
+                    clashing.add(name);
+                    changed = true;
+                }
+            }
+        }
+        for (String name : clashing) {
+            String newName = name;
+            for (int n = 1; names.contains(newName); n++) {
+                newName = name + "_" + n;
+            }
+            names.add(newName);
+            renamed.put(name, newName);
+        }
+        return renamed;
+    }
+
+    private static boolean refersToAny(Element element, Set<String> names) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (attribute.getName().endsWith("style-name") && names.contains(attribute.getValue())) {
+                return true;
+            }
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element && refersToAny((Element) child, names)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void writeStored(ZipOutputStream zip, String path, byte[] bytes) throws IOException {
+        ZipEntry entry = new ZipEntry(path);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setTime(ENTRY_TIME);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(bytes);
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,89 @@
+package org.fenixedu.oddjet.utils;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Provides number and date formatters for format specifications and locales, caching them so each formatter is only built once.
+ * <p>
+ * Number format specifications are {@link DecimalFormat} patterns, such as <code>0.00</code>, with null standing for the
+ * locale's default number format. Date format specifications are either one of the localized styles <code>short</code>,
+ * <code>medium</code>, <code>long</code> or <code>full</code>, or a {@link DateTimeFormatter} pattern, such as
+ * <code>dd/MM/yyyy</code>, with null standing for the locale's medium style.
+ */
+public class Formatters {
+
+    /** Number formats are not thread safe, so they are cached per thread. */
+    private static final ThreadLocal<Map<String, NumberFormat>> numberFormats = new ThreadLocal<Map<String, NumberFormat>>() {
+        @Override
+        protected Map<String, NumberFormat> initialValue() {
+            return new HashMap<String, NumberFormat>();
+        }
+    };
+
+    private static final ConcurrentMap<String, DateTimeFormatter> dateFormatters =
+            new ConcurrentHashMap<String, DateTimeFormatter>();
+
+    /**
+     * @param pattern the number format pattern, or null for the locale's default number format.
+     * @param locale the locale of the format.
+     * @return the number format for the given pattern and locale. The returned instance must only be used by the calling
+     *         thread.
+     * @throws IllegalArgumentException if the pattern is invalid.
+     */
+    public static NumberFormat getNumberFormat(String pattern, Locale locale) {
+        String key = pattern + "|" + locale;
+        Map<String, NumberFormat> formats = numberFormats.get();
+        NumberFormat format = formats.get(key);
+        if (format == null) {
+            if (pattern == null) {
+                format = NumberFormat.getInstance(locale);
+            } else {
+                format = new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(locale));
+            }
+            formats.put(key, format);
+        }
+        return format;
+    }
+
+    /**
+     * @param spec the date format style or pattern, or null for the locale's medium style.
+     * @param locale the locale of the format.
+     * @return the date formatter for the given specification and locale.
+     * @throws IllegalArgumentException if the pattern is invalid.
+     */
+    public static DateTimeFormatter getDateFormatter(String spec, Locale locale) {
+        String key = spec + "|" + locale;
+        DateTimeFormatter formatter = dateFormatters.get(key);
+        if (formatter == null) {
+            FormatStyle style = getFormatStyle(spec);
+            if (style != null) {
+                formatter = DateTimeFormatter.ofLocalizedDate(style).withLocale(locale);
+            } else {
+                formatter = DateTimeFormatter.ofPattern(spec, locale);
+            }
+            dateFormatters.putIfAbsent(key, formatter);
+        }
+        return formatter;
+    }
+
+    private static FormatStyle getFormatStyle(String spec) {
+        if (spec == null) {
+            return FormatStyle.MEDIUM;
+        }
+        for (FormatStyle style : FormatStyle.values()) {
+            if (style.name().equalsIgnoreCase(spec)) {
+                return style;
+            }
+        }
+        return null;
+    }
+}
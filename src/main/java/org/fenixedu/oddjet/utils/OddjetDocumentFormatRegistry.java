@@ -0,0 +1,31 @@
+package org.fenixedu.oddjet.utils;
+
+import com.artofsolving.jodconverter.DefaultDocumentFormatRegistry;
+import com.artofsolving.jodconverter.DocumentFamily;
+import com.artofsolving.jodconverter.DocumentFormat;
+
+/**
+ * The registry of the document formats known to Oddjet. Extends the JODConverter default registry with the text document output
+ * formats it lacks, such as Office Open XML documents, flat ODF XML documents and PNG images of the first page.
+ */
+public class OddjetDocumentFormatRegistry extends DefaultDocumentFormatRegistry {
+
+    public OddjetDocumentFormatRegistry() {
+        super();
+
+        DocumentFormat docx =
+                new DocumentFormat("Microsoft Word 2007 XML", DocumentFamily.TEXT,
+                        "application/vnd.openxmlformats-officedocument.wordprocessingml.document", "docx");
+        docx.setExportFilter(DocumentFamily.TEXT, "MS Word 2007 XML");
+        addDocumentFormat(docx);
+
+        DocumentFormat fodt =
+                new DocumentFormat("OpenDocument Text Flat XML", DocumentFamily.TEXT, FlatDocument.MEDIA_TYPE, "fodt");
+        fodt.setExportFilter(DocumentFamily.TEXT, FlatDocument.FILTER_NAME);
+        addDocumentFormat(fodt);
+
+        DocumentFormat png = new DocumentFormat("Portable Network Graphic", "image/png", "png");
+        png.setExportFilter(DocumentFamily.TEXT, "writer_png_Export");
+        addDocumentFormat(png);
+    }
+}
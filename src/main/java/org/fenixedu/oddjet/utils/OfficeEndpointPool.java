@@ -0,0 +1,342 @@
+package org.fenixedu.oddjet.utils;
+
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fenixedu.oddjet.exception.OpenOfficeConnectionException;
+import org.fenixedu.oddjet.exception.RenderCancelledException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Distributes conversions among several OpenOffice services, cutting the conversion latency tail and routing around unhealthy
+ * services.
+ * <p>
+ * When a conversion takes longer than a given percentile of the recent conversion latencies, a duplicate of it is sent to
+ * another service, the first result obtained is used and the other conversion is abandoned. Each service has a circuit
+ * breaker: after a number of consecutive failures the service stops receiving conversions for a while, after which a single
+ * trial conversion decides if it is healthy again.
+ * <p>
+ * Abandoned conversions are interrupted, and are expected to give up the connection they opened when interrupted, as those of
+ * {@link PrintUtils} do. Their failure is not held against their service.
+ */
+public class OfficeEndpointPool {
+
+    /**
+     * A conversion that can be performed by any of the pool's services.
+     */
+    public static interface Conversion<T> {
+        /**
+         * @param service the service to perform the conversion with.
+         * @return the result of the conversion.
+         * @throws Exception if the conversion fails.
+         */
+        public T convert(OfficeService service) throws Exception;
+    }
+
+    /** Number of recent conversion latencies used to compute the hedging delay. */
+    private static final int LATENCY_SAMPLES = 256;
+
+    private static final Logger logger = LoggerFactory.getLogger(OfficeEndpointPool.class);
+
+    private final List<Endpoint> endpoints = new ArrayList<Endpoint>();
+    private final AtomicInteger nextEndpoint = new AtomicInteger();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount = 0;
+    private int latencyIndex = 0;
+
+    private double hedgePercentile = 0.95;
+    private int minimumSamples = 20;
+    private int failureThreshold = 3;
+    private long openInterval = 30000;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "oddjet-endpoint-pool");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * @param services the OpenOffice services conversions are distributed among.
+     */
+    public OfficeEndpointPool(List<? extends OfficeService> services) {
+        Preconditions.checkArgument(services != null && !services.isEmpty(), "No services.");
+        for (OfficeService service : services) {
+            endpoints.add(new Endpoint(service));
+        }
+    }
+
+    /**
+     * @param services the OpenOffice services conversions are distributed among.
+     */
+    public OfficeEndpointPool(OfficeService... services) {
+        this(Arrays.asList(services));
+    }
+
+    /**
+     * @return the percentile of the recent conversion latencies after which a conversion is hedged. The default value is 0.95.
+     */
+    public double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * @param hedgePercentile the percentile of the recent conversion latencies after which a conversion is hedged, between 0
+     *            (exclusive) and 1 (inclusive).
+     */
+    public void setHedgePercentile(double hedgePercentile) {
+        Preconditions.checkArgument(hedgePercentile > 0 && hedgePercentile <= 1, "Invalid percentile.");
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    /**
+     * @return the number of conversion latencies that must be known before conversions are hedged. The default value is 20.
+     */
+    public int getMinimumSamples() {
+        return minimumSamples;
+    }
+
+    /**
+     * @param minimumSamples the number of conversion latencies that must be known before conversions are hedged.
+     */
+    public void setMinimumSamples(int minimumSamples) {
+        this.minimumSamples = Math.max(1, Math.min(minimumSamples, LATENCY_SAMPLES));
+    }
+
+    /**
+     * @return the number of consecutive failures that open a service's circuit breaker. The default value is 3.
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * @param failureThreshold the number of consecutive failures that open a service's circuit breaker.
+     */
+    public void setFailureThreshold(int failureThreshold) {
+        Preconditions.checkArgument(failureThreshold > 0, "Invalid failure threshold.");
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * @return the time, in milliseconds, an open circuit breaker waits before allowing a trial conversion. The default value is
+     *         30 seconds.
+     */
+    public long getOpenInterval() {
+        return openInterval;
+    }
+
+    /**
+     * @param openInterval the time, in milliseconds, an open circuit breaker waits before allowing a trial conversion.
+     */
+    public void setOpenInterval(long openInterval) {
+        this.openInterval = openInterval;
+    }
+
+    /**
+     * Performs a conversion with one of the pool's healthy services, hedging it with a second service if it takes longer than
+     * the configured percentile of the recent latencies, and failing over to a second service if the first one fails.
+     *
+     * @param conversion the conversion to perform.
+     * @return the result of the first successful conversion.
+     * @throws OpenOfficeConnectionException if no healthy service is available or if every attempted service failed.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public <T> T execute(final Conversion<T> conversion) throws OpenOfficeConnectionException, RenderCancelledException {
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+        List<Future<T>> attempts = new ArrayList<Future<T>>();
+        List<Endpoint> attempted = new ArrayList<Endpoint>();
+        // set once the conversion has a result or is cancelled, so that the abandoned attempts do not count as failures
+        AtomicBoolean settled = new AtomicBoolean();
+        Exception failure = null;
+
+        Endpoint primary = pickEndpoint(attempted);
+        if (primary == null) {
+            throw new OpenOfficeConnectionException(new ConnectException("No healthy office service available."));
+        }
+        attempts.add(completion.submit(primary.attempt(conversion, settled)));
+        attempted.add(primary);
+        int pending = 1;
+        long hedgeDelay = getHedgeDelay();
+
+        try {
+            while (pending > 0) {
+                Future<T> done;
+                if (attempted.size() == 1 && hedgeDelay > 0) {
+                    done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        // the primary conversion is slower than usual, hedge it with another service
+                        Endpoint hedge = pickEndpoint(attempted);
+                        hedgeDelay = 0;
+                        if (hedge != null) {
+                            logger.debug("Hedging conversion on " + primary + " with " + hedge + ".");
+                            attempts.add(completion.submit(hedge.attempt(conversion, settled)));
+                            attempted.add(hedge);
+                            pending++;
+                        }
+                        continue;
+                    }
+                } else {
+                    done = completion.take();
+                }
+                pending--;
+                try {
+                    T result = done.get();
+                    settled.set(true);
+                    abandon(attempts, attempted, done);
+                    return result;
+                } catch (ExecutionException e) {
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    if (pending == 0 && attempted.size() == 1) {
+                        // the primary conversion failed before being hedged, fail over to another service
+                        Endpoint failover = pickEndpoint(attempted);
+                        if (failover != null) {
+                            attempts.add(completion.submit(failover.attempt(conversion, settled)));
+                            attempted.add(failover);
+                            pending++;
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            settled.set(true);
+            abandon(attempts, attempted, null);
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException();
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        throw new OpenOfficeConnectionException(failure);
+    }
+
+    /**
+     * Stops the threads used to run conversions. Conversions in progress are abandoned.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> void abandon(List<Future<T>> attempts, List<Endpoint> attempted, Future<T> winner) {
+        for (int i = 0; i < attempts.size(); i++) {
+            Future<T> attempt = attempts.get(i);
+            if (attempt != winner && attempt.cancel(true)) {
+                // the interrupted conversion disconnects its own connection, leaving the winner's untouched
+                attempted.get(i).releaseTrial();
+            }
+        }
+    }
+
+    private Endpoint pickEndpoint(List<Endpoint> excluded) {
+        int start = Math.abs(nextEndpoint.getAndIncrement() % endpoints.size());
+        for (int i = 0; i < endpoints.size(); i++) {
+            Endpoint endpoint = endpoints.get((start + i) % endpoints.size());
+            if (!excluded.contains(endpoint) && endpoint.allowRequest()) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    private synchronized long getHedgeDelay() {
+        if (endpoints.size() < 2 || latencyCount < minimumSamples) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(hedgePercentile * latencyCount) - 1;
+        return Math.max(1, sorted[Math.max(0, index)]);
+    }
+
+    private synchronized void recordLatency(long latency) {
+        latencies[latencyIndex] = latency;
+        latencyIndex = (latencyIndex + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+    }
+
+    private class Endpoint {
+        private final OfficeService service;
+        private int consecutiveFailures = 0;
+        private long openUntil = 0;
+        private boolean trialInProgress = false;
+
+        private Endpoint(OfficeService service) {
+            this.service = service;
+        }
+
+        private synchronized boolean allowRequest() {
+            if (consecutiveFailures < failureThreshold) {
+                return true;
+            }
+            // the breaker is open, allow a single trial once the open interval has passed
+            if (!trialInProgress && System.currentTimeMillis() >= openUntil) {
+                trialInProgress = true;
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized void recordSuccess() {
+            consecutiveFailures = 0;
+            trialInProgress = false;
+        }
+
+        private synchronized void releaseTrial() {
+            trialInProgress = false;
+        }
+
+        private synchronized void recordFailure() {
+            consecutiveFailures++;
+            trialInProgress = false;
+            if (consecutiveFailures >= failureThreshold) {
+                openUntil = System.currentTimeMillis() + openInterval;
+                logger.warn("Office service " + this + " is unhealthy, circuit opened for " + openInterval + "ms.");
+            }
+        }
+
+        private <T> Callable<T> attempt(final Conversion<T> conversion, final AtomicBoolean settled) {
+            return new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    long start = System.nanoTime();
+                    try {
+                        T result = conversion.convert(service);
+                        recordSuccess();
+                        recordLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        return result;
+                    } catch (Exception e) {
+                        if (!settled.get() && !Thread.currentThread().isInterrupted()) {
+                            recordFailure();
+                        } else {
+                            // abandoned hedges are not the service's fault
+                            releaseTrial();
+                        }
+                        throw e;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            return service.getHost() + ":" + service.getPort();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.fenixedu.oddjet.utils;
+
+import com.artofsolving.jodconverter.DocumentFormat;
+import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeConnection;
+
+/**
+ * An office process that converts documents. Each conversion opens its own connection to the process and disconnects it when
+ * done, so concurrent conversions with the same service never tear down each other's UNO bridge.
+ */
+public interface OfficeService {
+
+    /**
+     * @return the host of the office process.
+     */
+    public String getHost();
+
+    /**
+     * @return the port the office process listens on.
+     */
+    public int getPort();
+
+    /**
+     * @return the format documents are converted to, unless another one is requested.
+     */
+    public DocumentFormat getOutputFormat();
+
+    /**
+     * Creates a connection to the office process for the exclusive use of a single conversion, which connects it and
+     * disconnects it once done or abandoned.
+     *
+     * @return a new connection, not yet connected.
+     */
+    public OpenOfficeConnection newConnection();
+}
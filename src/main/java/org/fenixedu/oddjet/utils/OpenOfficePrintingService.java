@@ -1,12 +1,11 @@
 package org.fenixedu.oddjet.utils;
 
-import com.artofsolving.jodconverter.DefaultDocumentFormatRegistry;
 import com.artofsolving.jodconverter.DocumentFormat;
 import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeConnection;
 import com.artofsolving.jodconverter.openoffice.connection.SocketOpenOfficeConnection;
 import com.google.common.base.Preconditions;
 
-public class OpenOfficePrintingService {
+public class OpenOfficePrintingService implements OfficeService {
 
     private String host;
     private int port;
@@ -19,7 +18,7 @@ public class OpenOfficePrintingService {
         Preconditions.checkArgument(port >= 0, "Invalid port.");
         Preconditions.checkArgument(port <= 65535, "Invalid port.");
         Preconditions.checkNotNull(outputFormat, "Invalid output format.");
-        DocumentFormat format = new DefaultDocumentFormatRegistry().getFormatByFileExtension(outputFormat);
+        DocumentFormat format = new OddjetDocumentFormatRegistry().getFormatByFileExtension(outputFormat);
         Preconditions.checkArgument(format != null, "Unknown output format.");
 
         this.connection = new SocketOpenOfficeConnection(host, port);
@@ -35,22 +34,34 @@ public class OpenOfficePrintingService {
         this.outputFormat = format;
     }
 
+    @Override
     public String getHost() {
         return host;
     }
 
+    @Override
     public int getPort() {
         return port;
     }
 
+    @Override
     public DocumentFormat getOutputFormat() {
         return outputFormat;
     }
 
+    /**
+     * @return the connection used to check that the service is available. Conversions do not use it, each one opens its own
+     *         {@link #newConnection() connection}.
+     */
     public OpenOfficeConnection getConnection() {
         return connection;
     }
 
+    @Override
+    public OpenOfficeConnection newConnection() {
+        return new SocketOpenOfficeConnection(host, port);
+    }
+
     public static boolean isValidService(String host, int port) {
         OpenOfficeConnection connection = new SocketOpenOfficeConnection(host, port);
         try {
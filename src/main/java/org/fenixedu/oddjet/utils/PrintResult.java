@@ -0,0 +1,108 @@
+package org.fenixedu.oddjet.utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Contains the prints of a document obtained from a single load of the document by an OpenOffice service, along with the page
+ * count of the document as laid out by that service and the size and timing of the render.
+ */
+public class PrintResult {
+
+    /** The prints of the document indexed by the file extension of their format, in the requested order. */
+    private final Map<String, byte[]> outputs = new LinkedHashMap<String, byte[]>();
+    /** The page count of the document as laid out by the OpenOffice service, -1 if it could not be obtained. */
+    private int pageCount = -1;
+    /** The size of the document sent to the OpenOffice service, in bytes. */
+    private long documentSize = 0;
+    /** The time taken to generate and save the document, in milliseconds, -1 if unknown. */
+    private long renderTime = -1;
+    /** The time taken by the OpenOffice service to load and print the document, in milliseconds. */
+    private long conversionTime = 0;
+
+    /**
+     * @return the first, and usually only, print of the document, or null if no print was requested.
+     */
+    public byte[] getOutput() {
+        return outputs.isEmpty() ? null : outputs.values().iterator().next();
+    }
+
+    /**
+     * @param extension the file extension of an output format.
+     * @return the print of the document in the format with the given extension, or null if it was not requested.
+     */
+    public byte[] getOutput(String extension) {
+        return outputs.get(extension);
+    }
+
+    /**
+     * @return the prints of the document indexed by the file extension of their format, in the requested order.
+     */
+    public Map<String, byte[]> getOutputs() {
+        return Collections.unmodifiableMap(outputs);
+    }
+
+    void addOutput(String extension, byte[] output) {
+        outputs.put(extension, output);
+    }
+
+    /**
+     * @return the page count of the document as laid out by the OpenOffice service, or -1 if it could not be obtained.
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    void setPageCount(int pageCount) {
+        this.pageCount = pageCount;
+    }
+
+    /**
+     * @return the size of the document sent to the OpenOffice service, in bytes.
+     */
+    public long getDocumentSize() {
+        return documentSize;
+    }
+
+    void setDocumentSize(long documentSize) {
+        this.documentSize = documentSize;
+    }
+
+    /**
+     * @return the total size of the prints of the document, in bytes.
+     */
+    public long getOutputSize() {
+        long size = 0;
+        for (byte[] output : outputs.values()) {
+            size += output.length;
+        }
+        return size;
+    }
+
+    /**
+     * @return the time taken to generate and save the document, in milliseconds, or -1 if the document was not generated
+     *         along with the print.
+     */
+    public long getRenderTime() {
+        return renderTime;
+    }
+
+    /**
+     * @param renderTime the time taken to generate and save the document, in milliseconds.
+     */
+    public void setRenderTime(long renderTime) {
+        this.renderTime = renderTime;
+    }
+
+    /**
+     * @return the time taken by the OpenOffice service to load and print the document, in milliseconds.
+     */
+    public long getConversionTime() {
+        return conversionTime;
+    }
+
+    void setConversionTime(long conversionTime) {
+        this.conversionTime = conversionTime;
+    }
+}
@@ -1,16 +1,44 @@
 package org.fenixedu.oddjet.utils;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.fenixedu.oddjet.exception.DocumentSaveException;
 import org.fenixedu.oddjet.exception.OpenOfficeConnectionException;
+import org.fenixedu.oddjet.exception.RenderCancelledException;
+import org.fenixedu.oddjet.exception.RenderLimitExceededException;
 import org.odftoolkit.simple.TextDocument;
 
-import com.artofsolving.jodconverter.DefaultDocumentFormatRegistry;
+import com.artofsolving.jodconverter.DocumentFamily;
 import com.artofsolving.jodconverter.DocumentFormat;
 import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeConnection;
-import com.artofsolving.jodconverter.openoffice.converter.OpenOfficeDocumentConverter;
+import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeException;
+import com.google.common.base.Preconditions;
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.frame.XController;
+import com.sun.star.frame.XModel;
+import com.sun.star.frame.XStorable;
+import com.sun.star.lang.XComponent;
+import com.sun.star.lib.uno.adapter.ByteArrayToXInputStreamAdapter;
+import com.sun.star.lib.uno.adapter.OutputStreamToXOutputStreamAdapter;
+import com.sun.star.text.XPageCursor;
+import com.sun.star.text.XTextViewCursorSupplier;
+import com.sun.star.uno.UnoRuntime;
+import com.sun.star.util.CloseVetoException;
+import com.sun.star.util.XCloseable;
+import com.sun.star.util.XRefreshable;
 
 /**
  * Printing utilities. Contains methods to print TextDocuments.
@@ -19,6 +47,33 @@ import com.artofsolving.jodconverter.openoffice.converter.OpenOfficeDocumentConv
  *
  */
 public class PrintUtils {
+
+    /** Runs the conversions that must be abandoned if they take too long. */
+    private static final ExecutorService conversionExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "oddjet-conversion");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** The known document formats. */
+    private static final OddjetDocumentFormatRegistry formatRegistry = new OddjetDocumentFormatRegistry();
+
+    /**
+     * Gets a known document format by its file extension.
+     *
+     * @param extension the file extension of the format, such as pdf, docx or png.
+     * @return the document format with the given file extension.
+     * @throws IllegalArgumentException if there is no known format with the given file extension.
+     */
+    public static DocumentFormat getDocumentFormat(String extension) throws IllegalArgumentException {
+        DocumentFormat format = formatRegistry.getFormatByFileExtension(extension);
+        Preconditions.checkArgument(format != null, "Unknown output format.");
+        return format;
+    }
+
     /**
      * Connects to an headless OpenOffice process, sends it a document for convertion to pdf and
      * returns a byte array with the obtained pdf print of the document.
@@ -27,35 +82,534 @@ public class PrintUtils {
      * @throws DocumentSaveException if the document can not be written to a byte array.
      * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
      */
-    public static byte[] print(TextDocument doc, OpenOfficePrintingService service) throws DocumentSaveException,
+    public static byte[] print(TextDocument doc, OfficeService service) throws DocumentSaveException,
             OpenOfficeConnectionException {
+        return print(doc, service, 0);
+    }
+
+    /**
+     * Connects to an headless OpenOffice process, sends it a document for convertion and returns a byte array with the obtained
+     * print of the document. If the conversion does not finish within the given timeout, or the calling thread is interrupted
+     * while waiting for it, the conversion is abandoned and its connection is discarded.
+     *
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return a byte array corresponding to a print of the document.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static byte[] print(TextDocument doc, OfficeService service, long timeout) throws DocumentSaveException,
+            OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
         if (service != null) {
-            OpenOfficeConnection connection = service.getConnection();
-            try {
-                connection.connect();
-            } catch (Exception e) {
-                throw new OpenOfficeConnectionException(e);
+            try (SegmentedBuffer document = toBuffer(doc, false)) {
+                return print(document, service, timeout);
             }
+        }
+        return null;
+    }
+
+    /**
+     * Saves a document into a byte array.
+     *
+     * @return a byte array corresponding to the document's file.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     */
+    public static byte[] toByteArray(TextDocument doc) throws DocumentSaveException {
+        return toByteArray(doc, false);
+    }
+
+    /**
+     * Saves a document into a byte array, as a package or as a flat XML file, which the office process loads without unzipping
+     * it.
+     *
+     * @param flat true to save the document as a flat XML file, false to save it as a package.
+     * @return a byte array corresponding to the document's file.
+     * @throws DocumentSaveException if the document can not be written to a byte array.
+     */
+    public static byte[] toByteArray(TextDocument doc, boolean flat) throws DocumentSaveException {
+        try (SegmentedBuffer out = toBuffer(doc, flat)) {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Saves a document into a pooled buffer, as a package or as a flat XML file, which can be printed without being copied into
+     * a single array. The buffer must be closed by the caller once it is no longer used.
+     *
+     * @param flat true to save the document as a flat XML file, false to save it as a package.
+     * @return a buffer holding the document's file.
+     * @throws DocumentSaveException if the document can not be written to the buffer.
+     */
+    public static SegmentedBuffer toBuffer(TextDocument doc, boolean flat) throws DocumentSaveException {
+        SegmentedBuffer out = new SegmentedBuffer();
+        try {
+            DocumentWriter.write(doc, out, flat);
+            return out;
+        } catch (RuntimeException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Connects to an headless OpenOffice process, sends it an already saved ODT document for convertion and returns a byte array
+     * with the obtained print of the document. If the conversion does not finish within the given timeout, or the calling thread
+     * is interrupted while waiting for it, the conversion is abandoned and its connection is discarded.
+     *
+     * @param document the bytes of the ODT, or flat ODT, document file.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return a byte array corresponding to a print of the document.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static byte[] print(byte[] document, OfficeService service, long timeout)
+            throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        if (service != null) {
+            return printResult(document, service, timeout).getOutput();
+        }
+        return null;
+    }
 
-            DefaultDocumentFormatRegistry registry = new DefaultDocumentFormatRegistry();
-            DocumentFormat inputFormat = registry.getFormatByFileExtension("odt");
-            OpenOfficeDocumentConverter converter = new OpenOfficeDocumentConverter(connection);
+    /**
+     * Connects to an headless OpenOffice process, sends it an ODT document saved into a buffer for convertion and returns a byte
+     * array with the obtained print of the document. The office process reads the document straight from the buffer, which must
+     * be neither written nor closed until the conversion is done or abandoned. If the conversion does not finish within the
+     * given timeout, or the calling thread is interrupted while waiting for it, the conversion is abandoned and its connection
+     * is discarded.
+     *
+     * @param document the buffer holding the ODT, or flat ODT, document file.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return a byte array corresponding to a print of the document.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static byte[] print(SegmentedBuffer document, OfficeService service, long timeout)
+            throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        if (service != null) {
+            return printResult(document, service, timeout).getOutput();
+        }
+        return null;
+    }
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
+    /**
+     * Connects to an headless OpenOffice process, sends it an already saved ODT document for convertion to the service's output
+     * format and returns the obtained print along with the page count of the document as laid out for that print. If the
+     * conversion does not finish within the given timeout, or the calling thread is interrupted while waiting for it, the
+     * conversion is abandoned and its connection is discarded.
+     *
+     * @param document the bytes of the ODT, or flat ODT, document file.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return the print of the document along with its page count.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static PrintResult printResult(byte[] document, OfficeService service, long timeout)
+            throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        if (service != null) {
+            return print(document, service, Collections.singletonList(service.getOutputFormat()), timeout);
+        }
+        return null;
+    }
+
+    /**
+     * Connects to an headless OpenOffice process, sends it an ODT document saved into a buffer for convertion to the service's
+     * output format and returns the obtained print along with the page count of the document as laid out for that print. The
+     * office process reads the document straight from the buffer, which must be neither written nor closed until the
+     * conversion is done or abandoned. If the conversion does not finish within the given timeout, or the calling thread is
+     * interrupted while waiting for it, the conversion is abandoned and its connection is discarded.
+     *
+     * @param document the buffer holding the ODT, or flat ODT, document file.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return the print of the document along with its page count.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static PrintResult printResult(SegmentedBuffer document, OfficeService service, long timeout)
+            throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        if (service != null) {
+            return print(document, service, Collections.singletonList(service.getOutputFormat()), timeout);
+        }
+        return null;
+    }
+
+    /**
+     * Connects to an headless OpenOffice process, sends it an already saved ODT document and obtains prints of the document in
+     * all the given formats from that single load of the document, along with its page count. If the conversion does not finish
+     * within the given timeout, or the calling thread is interrupted while waiting for it, the conversion is abandoned and its
+     * connection is discarded.
+     *
+     * @param document the bytes of the ODT, or flat ODT, document file.
+     * @param outputFormats the formats of the prints to be obtained.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return the prints of the document in the given formats along with its page count.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static PrintResult print(byte[] document, OfficeService service, List<DocumentFormat> outputFormats, long timeout)
+            throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        return print(new SavedDocument(document), service, outputFormats, timeout);
+    }
+
+    /**
+     * Connects to an headless OpenOffice process, sends it an ODT document saved into a buffer and obtains prints of the
+     * document in all the given formats from that single load of the document, along with its page count. The office process
+     * reads the document straight from the buffer, which must be neither written nor closed until the conversion is done or
+     * abandoned. If the conversion does not finish within the given timeout, or the calling thread is interrupted while waiting
+     * for it, the conversion is abandoned and its connection is discarded.
+     *
+     * @param document the buffer holding the ODT, or flat ODT, document file.
+     * @param outputFormats the formats of the prints to be obtained.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return the prints of the document in the given formats along with its page count.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static PrintResult print(SegmentedBuffer document, OfficeService service, List<DocumentFormat> outputFormats,
+            long timeout) throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        return print(new SavedDocument(document), service, outputFormats, timeout);
+    }
+
+    private static PrintResult print(final SavedDocument document, OfficeService service,
+            final List<DocumentFormat> outputFormats, long timeout) throws OpenOfficeConnectionException,
+            RenderLimitExceededException, RenderCancelledException {
+        if (service != null) {
+            long start = System.nanoTime();
+            final OpenOfficeConnection connection = connect(service);
+            PrintResult result = runConversion(connection, timeout, new Callable<PrintResult>() {
+                @Override
+                public PrintResult call() throws Exception {
+                    return export(connection, document, outputFormats, null, false);
+                }
+            });
+            result.setDocumentSize(document.size());
+            result.setConversionTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * Connects to an headless OpenOffice process, sends it an already saved ODT document for convertion to the service's output
+     * format and writes the obtained print to the given stream, which is neither flushed nor closed. The print is kept in a
+     * pooled buffer until the conversion succeeds, so nothing is written to the stream by a conversion that fails or is
+     * abandoned: if the conversion does not finish within the given timeout, or the calling thread is interrupted while waiting
+     * for it, the conversion is abandoned and its connection is discarded.
+     *
+     * @param document the bytes of the ODT, or flat ODT, document file.
+     * @param out the stream to write the print to.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return the page count of the document along with the size and timing of the conversion, without outputs, or null if no
+     *         printing service is configured.
+     * @throws DocumentSaveException if the print can not be written to the stream.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static PrintResult print(byte[] document, OfficeService service, OutputStream out, long timeout)
+            throws DocumentSaveException, OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        return print(new SavedDocument(document), service, out, timeout);
+    }
+
+    /**
+     * Connects to an headless OpenOffice process, sends it an ODT document saved into a buffer for convertion to the service's
+     * output format and writes the obtained print to the given stream, which is neither flushed nor closed. Neither the document
+     * nor its print are copied into single arrays: the office process reads the document straight from its buffer, which must
+     * be neither written nor closed until the conversion is done or abandoned, and the print is kept in a pooled buffer until
+     * the conversion succeeds, so nothing is written to the stream by a conversion that fails or is abandoned. If the conversion
+     * does not finish within the given timeout, or the calling thread is interrupted while waiting for it, the conversion is
+     * abandoned and its connection is discarded.
+     *
+     * @param document the buffer holding the ODT, or flat ODT, document file.
+     * @param out the stream to write the print to.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return the page count of the document along with the size and timing of the conversion, without outputs, or null if no
+     *         printing service is configured.
+     * @throws DocumentSaveException if the print can not be written to the stream.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static PrintResult print(SegmentedBuffer document, OfficeService service, OutputStream out, long timeout)
+            throws DocumentSaveException, OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        return print(new SavedDocument(document), service, out, timeout);
+    }
+
+    private static PrintResult print(final SavedDocument document, final OfficeService service, final OutputStream out,
+            long timeout) throws DocumentSaveException, OpenOfficeConnectionException, RenderLimitExceededException,
+            RenderCancelledException {
+        if (service != null) {
+            long start = System.nanoTime();
+            final OpenOfficeConnection connection = connect(service);
+            // an abandoned conversion may still be writing into its buffer, which is then left to the garbage collector
+            final SegmentedBuffer buffer = new SegmentedBuffer();
+            PrintResult result = runConversion(connection, timeout, new Callable<PrintResult>() {
+                @Override
+                public PrintResult call() throws Exception {
+                    return export(connection, document, Collections.singletonList(service.getOutputFormat()), buffer, false);
+                }
+            });
             try {
-                doc.save(out);
-            } catch (Exception e) {
+                buffer.writeTo(out);
+            } catch (IOException e) {
                 throw new DocumentSaveException(e);
+            } finally {
+                buffer.close();
             }
-            ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
-            out = new ByteArrayOutputStream();
+            result.setDocumentSize(document.size());
+            result.setConversionTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
+        }
+        return null;
+    }
 
-            converter.convert(in, inputFormat, out, service.getOutputFormat());
+    /**
+     * Connects to an headless OpenOffice process, sends it an already saved document and obtains a preview of its first page in
+     * the given format: PDF prints only hold the first page, and PNG images are of the first page anyway. The page count of the
+     * document is not obtained, as it requires the office process to lay out every page. If the conversion does not finish
+     * within the given timeout, or the calling thread is interrupted while waiting for it, the conversion is abandoned and its
+     * connection is discarded.
+     *
+     * @param document the bytes of the ODT, or flat ODT, document file.
+     * @param format the format of the preview, such as pdf or png.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return the preview of the document, with a page count of -1, or null if no printing service is given.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static PrintResult printPreview(byte[] document, OfficeService service, DocumentFormat format, long timeout)
+            throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        return printPreview(new SavedDocument(document), service, format, timeout);
+    }
 
-            connection.disconnect();
+    /**
+     * Connects to an headless OpenOffice process, sends it a document saved into a buffer and obtains a preview of its first
+     * page in the given format, as {@link #printPreview(byte[], OfficeService, DocumentFormat, long)} does. The office process
+     * reads the document straight from the buffer, which must be neither written nor closed until the conversion is done or
+     * abandoned.
+     *
+     * @param document the buffer holding the ODT, or flat ODT, document file.
+     * @param format the format of the preview, such as pdf or png.
+     * @param timeout the maximum time the conversion may take in milliseconds, 0 or less for no limit.
+     * @return the preview of the document, with a page count of -1, or null if no printing service is given.
+     * @throws OpenOfficeConnectionException if it fails to connect to the expected headless OpenOffice process.
+     * @throws RenderLimitExceededException if the conversion exceeds the given timeout.
+     * @throws RenderCancelledException if the calling thread is interrupted while waiting for the conversion.
+     */
+    public static PrintResult printPreview(SegmentedBuffer document, OfficeService service, DocumentFormat format,
+            long timeout) throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        return printPreview(new SavedDocument(document), service, format, timeout);
+    }
 
-            return out.toByteArray();
+    private static PrintResult printPreview(final SavedDocument document, OfficeService service, final DocumentFormat format,
+            long timeout) throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        if (service != null) {
+            long start = System.nanoTime();
+            final OpenOfficeConnection connection = connect(service);
+            PrintResult result = runConversion(connection, timeout, new Callable<PrintResult>() {
+                @Override
+                public PrintResult call() throws Exception {
+                    return export(connection, document, Collections.singletonList(format), null, true);
+                }
+            });
+            result.setDocumentSize(document.size());
+            result.setConversionTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
         }
         return null;
     }
+
+    /** An already saved document, either in an array or in a buffer, which the office process reads without copying it. */
+    private static class SavedDocument {
+        private final byte[] bytes;
+        private final SegmentedBuffer buffer;
+
+        private SavedDocument(byte[] bytes) {
+            this.bytes = bytes;
+            this.buffer = null;
+        }
+
+        private SavedDocument(SegmentedBuffer buffer) {
+            this.bytes = null;
+            this.buffer = buffer;
+        }
+
+        /** Gets a new stream over the document, so that each load of the document reads it from its own position. */
+        private Object newInputStream() {
+            return bytes != null ? new ByteArrayToXInputStreamAdapter(bytes) : new SegmentedBufferToXInputStreamAdapter(buffer);
+        }
+
+        private long size() {
+            return bytes != null ? bytes.length : buffer.size();
+        }
+
+        private boolean isFlat() {
+            return bytes != null ? FlatDocument.isFlat(bytes) : FlatDocument.isFlat(buffer);
+        }
+    }
+
+    private static OpenOfficeConnection connect(OfficeService service) throws OpenOfficeConnectionException {
+        OpenOfficeConnection connection = service.newConnection();
+        try {
+            connection.connect();
+        } catch (Exception e) {
+            throw new OpenOfficeConnectionException(e);
+        }
+        return connection;
+    }
+
+    /**
+     * Runs a conversion with its own connection, which is disconnected once the conversion is done or abandoned. The conversion
+     * always runs in another thread, so that the calling thread can abandon it when the timeout expires or when it is
+     * interrupted, such as by the pool of services abandoning a hedged conversion.
+     */
+    private static <T> T runConversion(OpenOfficeConnection connection, long timeout, Callable<T> conversion)
+            throws OpenOfficeConnectionException, RenderLimitExceededException, RenderCancelledException {
+        Future<T> future = conversionExecutor.submit(conversion);
+        try {
+            return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new RenderLimitExceededException("Conversion time limit of " + timeout + "ms exceeded.");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RenderCancelledException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new OpenOfficeConnectionException(e);
+        } finally {
+            // the connection belongs to this conversion alone, disconnecting it also tears down the UNO bridge of an abandoned
+            // conversion, releasing the office process from it
+            try {
+                connection.disconnect();
+            } catch (Exception e) {
+                // the connection is not used again regardless
+            }
+        }
+    }
+
+    /**
+     * Loads a document in the office process and stores it in each of the given formats, into the result or, if a target stream
+     * is given, into that stream. Previews only store the first page and do not count the pages.
+     */
+    private static PrintResult export(OpenOfficeConnection connection, SavedDocument document,
+            List<DocumentFormat> outputFormats, OutputStream target, boolean preview) throws Exception {
+        PrintResult result = new PrintResult();
+        synchronized (connection) {
+            Map<String, Object> loadProperties = new HashMap<String, Object>();
+            loadProperties.put("InputStream", document.newInputStream());
+            loadProperties.put("Hidden", Boolean.TRUE);
+            loadProperties.put("ReadOnly", Boolean.TRUE);
+            if (document.isFlat()) {
+                // spares the office process the type detection of a plain XML stream
+                loadProperties.put("FilterName", FlatDocument.FILTER_NAME);
+            }
+            XComponent loaded =
+                    connection.getDesktop().loadComponentFromURL("private:stream", "_blank", 0, toPropertyValues(loadProperties));
+            if (loaded == null) {
+                throw new OpenOfficeException("conversion failed: input document is null after loading");
+            }
+            try {
+                XRefreshable refreshable = (XRefreshable) UnoRuntime.queryInterface(XRefreshable.class, loaded);
+                if (refreshable != null) {
+                    refreshable.refresh();
+                }
+                if (!preview) {
+                    result.setPageCount(getPageCount(loaded));
+                }
+                XStorable storable = (XStorable) UnoRuntime.queryInterface(XStorable.class, loaded);
+                for (DocumentFormat format : outputFormats) {
+                    SegmentedBuffer buffer = target == null ? new SegmentedBuffer() : null;
+                    try {
+                        Map<String, Object> storeProperties =
+                                new HashMap<String, Object>(format.getExportOptions(DocumentFamily.TEXT));
+                        storeProperties.put("OutputStream", new OutputStreamToXOutputStreamAdapter(target != null ? target
+                                : buffer));
+                        if (preview && "pdf".equals(format.getFileExtension())) {
+                            Map<Object, Object> filterData = new HashMap<Object, Object>();
+                            if (storeProperties.get("FilterData") instanceof Map) {
+                                filterData.putAll((Map<?, ?>) storeProperties.get("FilterData"));
+                            }
+                            filterData.put("PageRange", "1");
+                            storeProperties.put("FilterData", filterData);
+                        }
+                        storable.storeToURL("private:stream", toPropertyValues(storeProperties));
+                        if (buffer != null) {
+                            result.addOutput(format.getFileExtension(), buffer.toByteArray());
+                        }
+                    } finally {
+                        if (buffer != null) {
+                            buffer.close();
+                        }
+                    }
+                }
+            } finally {
+                close(loaded);
+            }
+        }
+        return result;
+    }
+
+    private static int getPageCount(XComponent document) {
+        XModel model = (XModel) UnoRuntime.queryInterface(XModel.class, document);
+        XController controller = model != null ? model.getCurrentController() : null;
+        if (controller == null) {
+            return -1;
+        }
+        // documents loaded without a text view, such as hidden or non text ones, have no view cursor to count pages with
+        XTextViewCursorSupplier supplier =
+                (XTextViewCursorSupplier) UnoRuntime.queryInterface(XTextViewCursorSupplier.class, controller);
+        if (supplier == null || supplier.getViewCursor() == null) {
+            return -1;
+        }
+        XPageCursor pageCursor = (XPageCursor) UnoRuntime.queryInterface(XPageCursor.class, supplier.getViewCursor());
+        if (pageCursor == null) {
+            return -1;
+        }
+        pageCursor.jumpToLastPage();
+        return pageCursor.getPage();
+    }
+
+    private static void close(XComponent document) {
+        XCloseable closeable = (XCloseable) UnoRuntime.queryInterface(XCloseable.class, document);
+        if (closeable != null) {
+            try {
+                closeable.close(true);
+            } catch (CloseVetoException e) {
+                // the office process will close it when it is no longer in use
+            }
+        } else {
+            document.dispose();
+        }
+    }
+
+    private static PropertyValue[] toPropertyValues(Map<?, ?> properties) {
+        PropertyValue[] values = new PropertyValue[properties.size()];
+        int i = 0;
+        for (Map.Entry<?, ?> entry : properties.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                value = toPropertyValues((Map<?, ?>) value);
+            }
+            values[i++] = property((String) entry.getKey(), value);
+        }
+        return values;
+    }
+
+    private static PropertyValue property(String name, Object value) {
+        PropertyValue property = new PropertyValue();
+        property.Name = name;
+        property.Value = value;
+        return property;
+    }
 }
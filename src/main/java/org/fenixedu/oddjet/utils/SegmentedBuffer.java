@@ -0,0 +1,235 @@
+package org.fenixedu.oddjet.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An output stream that keeps the written bytes in fixed size segments taken from a pool shared by all buffers, instead of a
+ * single array that grows by doubling. Segments are small enough not to be allocated as humongous objects by the G1 collector,
+ * and are returned to the pool, to be reused by the following renders, when the buffer is {@link #close() closed}. A buffer must
+ * be closed once its content is no longer used, and is not thread safe.
+ * <p>
+ * The content can be read as read-only {@link #getBuffers() byte buffers}, through an {@link #getInputStream() input stream},
+ * from {@link #read(long, byte[], int, int) any position} or written to a {@link #writeTo(OutputStream) stream} or a
+ * {@link #writeTo(WritableByteChannel) channel} without being copied into a single array.
+ */
+public class SegmentedBuffer extends OutputStream {
+
+    /** The size of each segment, in bytes. */
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    /** The maximum number of segments kept in the pool, so at most 32MB are retained between renders. */
+    private static final int MAX_POOLED_SEGMENTS = 512;
+
+    private static final Queue<byte[]> pool = new ConcurrentLinkedQueue<byte[]>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private final List<byte[]> segments = new ArrayList<byte[]>();
+    /** The number of bytes written to the last segment. */
+    private int position = SEGMENT_SIZE;
+    private long size = 0;
+    private boolean closed = false;
+
+    private static byte[] acquire() {
+        byte[] segment = pool.poll();
+        if (segment == null) {
+            return new byte[SEGMENT_SIZE];
+        }
+        pooled.decrementAndGet();
+        return segment;
+    }
+
+    private static void release(byte[] segment) {
+        if (pooled.incrementAndGet() <= MAX_POOLED_SEGMENTS) {
+            pool.offer(segment);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    @Override
+    public void write(int b) {
+        checkOpen();
+        if (position == SEGMENT_SIZE) {
+            segments.add(acquire());
+            position = 0;
+        }
+        segments.get(segments.size() - 1)[position++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        checkOpen();
+        while (length > 0) {
+            if (position == SEGMENT_SIZE) {
+                segments.add(acquire());
+                position = 0;
+            }
+            int count = Math.min(length, SEGMENT_SIZE - position);
+            System.arraycopy(bytes, offset, segments.get(segments.size() - 1), position, count);
+            position += count;
+            offset += count;
+            length -= count;
+            size += count;
+        }
+    }
+
+    /**
+     * @return the number of bytes written to the buffer.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return read-only views of the segments of the buffer, holding its content in order. The views are only valid until the
+     *         buffer is closed.
+     */
+    public ByteBuffer[] getBuffers() {
+        checkOpen();
+        ByteBuffer[] buffers = new ByteBuffer[segments.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(segments.get(i), 0, getLength(i)).asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * @return a stream reading the content of the buffer, which is only valid until the buffer is closed.
+     */
+    public InputStream getInputStream() {
+        checkOpen();
+        return new InputStream() {
+            private int segment = 0;
+            private int offset = 0;
+
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int off, int len) {
+                checkOpen();
+                while (segment < segments.size() && offset == getLength(segment)) {
+                    segment++;
+                    offset = 0;
+                }
+                if (segment == segments.size()) {
+                    return len == 0 ? 0 : -1;
+                }
+                int count = Math.min(len, getLength(segment) - offset);
+                System.arraycopy(segments.get(segment), offset, bytes, off, count);
+                offset += count;
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Reads part of the content of the buffer from the given position. Unlike the {@link #getInputStream() input stream}, it
+     * keeps no state, so a buffer that is no longer written can be read concurrently, such as by conversions hedged between
+     * services.
+     *
+     * @param position the position of the first byte to be read.
+     * @param bytes the array the bytes are read into.
+     * @param offset the position in the array of the first byte read.
+     * @param length the maximum number of bytes to be read.
+     * @return the number of bytes read, or -1 if the position is at or past the end of the content.
+     */
+    public int read(long position, byte[] bytes, int offset, int length) {
+        checkOpen();
+        Preconditions.checkArgument(position >= 0, "Invalid position.");
+        if (position >= size) {
+            return length == 0 ? 0 : -1;
+        }
+        int read = 0;
+        while (read < length && position < size) {
+            // every segment but the last is full
+            int segment = (int) (position / SEGMENT_SIZE);
+            int segmentOffset = (int) (position % SEGMENT_SIZE);
+            int count = Math.min(length - read, getLength(segment) - segmentOffset);
+            System.arraycopy(segments.get(segment), segmentOffset, bytes, offset + read, count);
+            read += count;
+            position += count;
+        }
+        return read;
+    }
+
+    /**
+     * Writes the content of the buffer to a stream, which is neither flushed nor closed.
+     *
+     * @param out the stream the content is written to.
+     * @throws IOException if the stream can not be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        checkOpen();
+        for (int i = 0; i < segments.size(); i++) {
+            out.write(segments.get(i), 0, getLength(i));
+        }
+    }
+
+    /**
+     * Writes the content of the buffer to a channel, which is not closed.
+     *
+     * @param channel the channel the content is written to.
+     * @throws IOException if the channel can not be written.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        for (ByteBuffer buffer : getBuffers()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Copies the content of the buffer into a new array, for the callers that need one.
+     *
+     * @return the content of the buffer.
+     */
+    public byte[] toByteArray() {
+        checkOpen();
+        Preconditions.checkState(size <= Integer.MAX_VALUE, "The buffer is too large for an array.");
+        byte[] bytes = new byte[(int) size];
+        int offset = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            System.arraycopy(segments.get(i), 0, bytes, offset, getLength(i));
+            offset += getLength(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the segments of the buffer to the pool. The buffer, and any view of its content, can no longer be used.
+     */
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            for (byte[] segment : segments) {
+                release(segment);
+            }
+            segments.clear();
+        }
+    }
+
+    private int getLength(int segment) {
+        return segment == segments.size() - 1 ? position : SEGMENT_SIZE;
+    }
+
+    private void checkOpen() {
+        Preconditions.checkState(!closed, "The buffer was closed.");
+    }
+}
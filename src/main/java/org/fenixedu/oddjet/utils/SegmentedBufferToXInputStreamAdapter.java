@@ -0,0 +1,96 @@
+package org.fenixedu.oddjet.utils;
+
+import com.sun.star.io.BufferSizeExceededException;
+import com.sun.star.io.IOException;
+import com.sun.star.io.NotConnectedException;
+import com.sun.star.io.XInputStream;
+import com.sun.star.io.XSeekable;
+
+/**
+ * Lets the office process read a saved document straight from its {@link SegmentedBuffer}, instead of from a copy of the whole
+ * document in a single array. The stream is seekable, as the office process needs to seek through packages, and reads the buffer
+ * from its own position, so each conversion of the same buffer, such as hedged ones, has its own stream.
+ */
+class SegmentedBufferToXInputStreamAdapter implements XInputStream, XSeekable {
+
+    private final SegmentedBuffer buffer;
+    private long position = 0;
+    private boolean closed = false;
+
+    /**
+     * @param buffer the buffer holding the document, which must not be written or closed while the stream is in use.
+     */
+    SegmentedBufferToXInputStreamAdapter(SegmentedBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public synchronized int readBytes(byte[][] data, int count) throws NotConnectedException, BufferSizeExceededException,
+            IOException {
+        checkConnected();
+        if (count < 0) {
+            throw new BufferSizeExceededException("Invalid number of bytes to read.");
+        }
+        int length = (int) Math.min(count, buffer.size() - position);
+        // the array is sent back as the sequence of read bytes, so its length must be the number of bytes read
+        if (data[0] == null || data[0].length != length) {
+            data[0] = new byte[length];
+        }
+        if (length > 0) {
+            buffer.read(position, data[0], 0, length);
+            position += length;
+        }
+        return length;
+    }
+
+    @Override
+    public int readSomeBytes(byte[][] data, int maxCount) throws NotConnectedException, BufferSizeExceededException,
+            IOException {
+        return readBytes(data, maxCount);
+    }
+
+    @Override
+    public synchronized void skipBytes(int count) throws NotConnectedException, BufferSizeExceededException, IOException {
+        checkConnected();
+        if (count < 0) {
+            throw new BufferSizeExceededException("Invalid number of bytes to skip.");
+        }
+        position = Math.min(position + count, buffer.size());
+    }
+
+    @Override
+    public synchronized int available() throws NotConnectedException, IOException {
+        checkConnected();
+        return (int) Math.min(Integer.MAX_VALUE, buffer.size() - position);
+    }
+
+    @Override
+    public synchronized void closeInput() throws NotConnectedException, IOException {
+        checkConnected();
+        closed = true;
+    }
+
+    @Override
+    public synchronized void seek(long location) throws com.sun.star.lang.IllegalArgumentException, IOException {
+        if (location < 0 || location > buffer.size()) {
+            throw new com.sun.star.lang.IllegalArgumentException("Invalid position " + location + ".");
+        }
+        position = location;
+    }
+
+    @Override
+    public synchronized long getPosition() throws IOException {
+        return position;
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        return buffer.size();
+    }
+
+    private void checkConnected() throws NotConnectedException {
+        if (closed) {
+            throw new NotConnectedException("The stream was closed.");
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package org.fenixedu.oddjet.utils;
+
+import java.io.Serializable;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAccessor;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A format directive attached to a user field name or table category header, such as <code>birth_date|date:long</code> or
+ * <code>credits|number:0.0</code>. The directive follows the attribute chain after a <code>|</code> and consists of the format
+ * kind, <code>date</code> or <code>number</code>, optionally followed by a <code>:</code> and a format specification as described
+ * in {@link Formatters}.
+ */
+public class ValueFormat implements Serializable {
+
+    private static final long serialVersionUID = 3861947218370164829L;
+
+    /** The separator between the attribute chain and the format directive. */
+    public static final char DIRECTIVE_SEPARATOR = '|';
+
+    /** The kinds of values a format applies to. */
+    public static enum Kind {
+        DATE, NUMBER
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ValueFormat.class);
+
+    private final Kind kind;
+    private final String spec;
+
+    private ValueFormat(Kind kind, String spec) {
+        this.kind = kind;
+        this.spec = spec;
+    }
+
+    /**
+     * @param name a user field name or table category header.
+     * @return the name without its format directive.
+     */
+    public static String stripDirective(String name) {
+        int separator = name.indexOf(DIRECTIVE_SEPARATOR);
+        return separator < 0 ? name : name.substring(0, separator).trim();
+    }
+
+    /**
+     * Parses the format directive of a user field name or table category header.
+     *
+     * @param name a user field name or table category header.
+     * @return the format of the given name, or null if it has no valid format directive.
+     */
+    public static ValueFormat parse(String name) {
+        int separator = name.indexOf(DIRECTIVE_SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        String directive = name.substring(separator + 1).trim();
+        int specSeparator = directive.indexOf(':');
+        String kind = specSeparator < 0 ? directive : directive.substring(0, specSeparator);
+        String spec = specSeparator < 0 ? null : directive.substring(specSeparator + 1).trim();
+        if (spec != null && spec.isEmpty()) {
+            spec = null;
+        }
+        try {
+            ValueFormat format = new ValueFormat(Kind.valueOf(kind.trim().toUpperCase(Locale.ENGLISH)), spec);
+            // Fail on invalid specifications while parsing the template instead of while filling it
+            format.format(format.kind == Kind.DATE ? new Date(0) : (Object) 0, Locale.ENGLISH);
+            return format;
+        } catch (IllegalArgumentException | DateTimeException e) {
+            logger.warn("Invalid format directive '" + directive + "' in '" + name + "', it will be ignored.");
+            return null;
+        }
+    }
+
+    /**
+     * @return the kind of values this format applies to.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the format specification, or null for the locale's default format.
+     */
+    public String getSpec() {
+        return spec;
+    }
+
+    /**
+     * Formats a value for the given locale.
+     *
+     * @param value the value to be formatted.
+     * @param locale the locale of the template instance.
+     * @return the formatted value, or the given value unchanged if it is not of the kind this format applies to or if the format
+     *         does not apply to it, such as a time pattern to a date without time.
+     */
+    public Object apply(Object value, Locale locale) {
+        try {
+            return format(value, locale);
+        } catch (DateTimeException | IllegalArgumentException e) {
+            logger.warn("Format '" + kind.name().toLowerCase(Locale.ENGLISH) + (spec != null ? ":" + spec : "")
+                    + "' can not be applied to " + value + ", it is left unformatted: " + e.getMessage());
+            return value;
+        }
+    }
+
+    private Object format(Object value, Locale locale) {
+        if (kind == Kind.NUMBER && value instanceof Number) {
+            return Formatters.getNumberFormat(spec, locale).format(value);
+        }
+        if (kind == Kind.DATE) {
+            if (value instanceof TemporalAccessor) {
+                return Formatters.getDateFormatter(spec, locale).format((TemporalAccessor) value);
+            }
+            if (value instanceof Date) {
+                return formatInstant(Instant.ofEpochMilli(((Date) value).getTime()), locale);
+            }
+            if (value instanceof Calendar) {
+                return formatInstant(Instant.ofEpochMilli(((Calendar) value).getTimeInMillis()), locale);
+            }
+        }
+        return value;
+    }
+
+    private String formatInstant(Instant instant, Locale locale) {
+        return Formatters.getDateFormatter(spec, locale).format(LocalDateTime.ofInstant(instant, ZoneId.systemDefault()));
+    }
+}
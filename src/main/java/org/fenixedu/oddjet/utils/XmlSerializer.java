@@ -0,0 +1,378 @@
+package org.fenixedu.oddjet.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.odftoolkit.odfdom.pkg.OdfPackage;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Serializes the DOM of an ODF XML part straight into UTF-8 bytes, escaping text and attribute values while encoding them. Unlike
+ * the generic JAXP serialization, it neither formats the output nor builds any intermediate string of the document, writing
+ * through a fixed buffer that is reused by every part serialized by the same serializer. Characters that are not allowed in XML
+ * are dropped. A serializer is not thread safe.
+ * <p>
+ * Besides whole parts, a serializer can write a document assembled from elements of several parts, as flat ODF files are, and
+ * embed the pictures those elements reference as base64 binary data.
+ */
+class XmlSerializer {
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+    /** The elements whose referenced picture can be replaced by an office:binary-data child. */
+    private static final Set<String> PICTURE_ELEMENTS = new HashSet<String>(Arrays.asList("draw:image", "draw:fill-image",
+            "style:background-image", "text:list-level-style-image"));
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private OutputStream out;
+    /** The package whose pictures are embedded in the elements referencing them, null to keep the references. */
+    private OdfPackage embeddedPictures;
+    /** The new names of the renamed styles, applied to the style names and references written, null if none are renamed. */
+    private Map<String, String> renamedStyles;
+
+    /**
+     * Serializes a DOM. The output is flushed to the stream, which is not closed.
+     *
+     * @param dom the DOM to be serialized.
+     * @param out the stream the serialized DOM is written to.
+     * @throws IOException if the stream can not be written.
+     */
+    void serialize(Document dom, OutputStream out) throws IOException {
+        try {
+            startDocument(out);
+            Element root = dom.getDocumentElement();
+            writeElement(root, getUndeclaredNamespaces(root));
+            endDocument();
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Starts writing a document to a stream, writing the XML declaration. The document is written by the following calls, until
+     * {@link #endDocument()}, and the serializer must be {@link #reset()} afterwards.
+     */
+    void startDocument(OutputStream out) throws IOException {
+        this.out = out;
+        this.position = 0;
+        writeRaw(XML_DECLARATION);
+    }
+
+    /**
+     * Sets the package whose pictures are embedded, until the serializer is reset, as base64 binary data in the elements
+     * referencing them, instead of being referenced.
+     */
+    void setEmbeddedPictures(OdfPackage odfPackage) {
+        this.embeddedPictures = odfPackage;
+    }
+
+    /**
+     * Sets the styles renamed in the elements written afterwards, until the serializer is reset or the renamed styles are set
+     * again: their <code>style:name</code> attributes, and every style name reference to them, are written with their new names.
+     *
+     * @param renamedStyles the new names of the renamed styles, by their names, or null to write the names as they are.
+     */
+    void setRenamedStyles(Map<String, String> renamedStyles) {
+        this.renamedStyles = renamedStyles;
+    }
+
+    /**
+     * Writes the start tag of an element with the given attributes, which may be null.
+     */
+    void startElement(String name, Map<String, String> attributes) throws IOException {
+        write('<');
+        writeRaw(name);
+        if (attributes != null) {
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                writeAttribute(attribute.getKey(), attribute.getValue());
+            }
+        }
+        write('>');
+    }
+
+    /**
+     * Writes an element, along with its descendants.
+     */
+    void writeElement(Element element) throws IOException {
+        writeElement(element, null);
+    }
+
+    /**
+     * Writes the end tag of an element.
+     */
+    void endElement(String name) throws IOException {
+        write('<');
+        write('/');
+        writeRaw(name);
+        write('>');
+    }
+
+    /**
+     * Ends the document being written, flushing the output to the stream.
+     */
+    void endDocument() throws IOException {
+        flush();
+    }
+
+    /**
+     * Releases the stream and the embedded pictures of the last document, whether or not it was completely written.
+     */
+    void reset() {
+        this.out = null;
+        this.embeddedPictures = null;
+        this.renamedStyles = null;
+    }
+
+    /**
+     * Gets the namespaces declared by the root of a tree, along with those used by its elements and attributes, by prefix.
+     */
+    static Map<String, String> getNamespaces(Element root) {
+        Map<String, String> namespaces = new LinkedHashMap<String, String>();
+        NamedNodeMap attributes = root.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            if (attribute.getNodeName().startsWith("xmlns:")) {
+                namespaces.put(attribute.getNodeName().substring(6), attribute.getNodeValue());
+            }
+        }
+        collectNamespaces(root, namespaces);
+        namespaces.remove("xml");
+        namespaces.remove("xmlns");
+        return namespaces;
+    }
+
+    /**
+     * Collects the namespaces used by the elements and attributes of a tree that are not declared by its root, such as those of
+     * nodes created after the DOM was parsed, so they are declared by the root when it is written.
+     */
+    private static Map<String, String> getUndeclaredNamespaces(Element root) {
+        Map<String, String> namespaces = new LinkedHashMap<String, String>();
+        collectNamespaces(root, namespaces);
+        NamedNodeMap attributes = root.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            String name = attributes.item(i).getNodeName();
+            if (name.startsWith("xmlns:")) {
+                namespaces.remove(name.substring(6));
+            }
+        }
+        namespaces.remove("xml");
+        namespaces.remove("xmlns");
+        return namespaces;
+    }
+
+    private static void collectNamespaces(Element element, Map<String, String> namespaces) {
+        addNamespace(element, namespaces);
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            addNamespace(attributes.item(i), namespaces);
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                collectNamespaces((Element) child, namespaces);
+            }
+        }
+    }
+
+    private static void addNamespace(Node node, Map<String, String> namespaces) {
+        String prefix = node.getPrefix();
+        if (prefix != null && node.getNamespaceURI() != null && !namespaces.containsKey(prefix)) {
+            namespaces.put(prefix, node.getNamespaceURI());
+        }
+    }
+
+    private void writeElement(Element element, Map<String, String> declarations) throws IOException {
+        byte[] picture = getEmbeddedPicture(element);
+        write('<');
+        writeRaw(element.getNodeName());
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (picture == null || !attribute.getName().startsWith("xlink:")) {
+                writeAttribute(attribute.getName(), getRenamedValue(attribute));
+            }
+        }
+        if (declarations != null) {
+            for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+                writeAttribute("xmlns:" + declaration.getKey(), declaration.getValue());
+            }
+        }
+        Node child = element.getFirstChild();
+        if (child == null && picture == null) {
+            write('/');
+            write('>');
+            return;
+        }
+        write('>');
+        if (picture != null) {
+            writeRaw("<office:binary-data>");
+            flush();
+            out.write(Base64.getEncoder().encode(picture));
+            writeRaw("</office:binary-data>");
+        }
+        for (; child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                writeElement((Element) child, null);
+                break;
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                writeEscaped(child.getNodeValue(), false);
+                break;
+            case Node.COMMENT_NODE:
+                writeRaw("<!--");
+                writeRaw(child.getNodeValue());
+                writeRaw("-->");
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                writeRaw("<?");
+                writeRaw(child.getNodeName());
+                write(' ');
+                writeRaw(child.getNodeValue());
+                writeRaw("?>");
+                break;
+            default:
+                // entity references are expanded by the parser, and no other nodes may be children of an element
+                break;
+            }
+        }
+        endElement(element.getNodeName());
+    }
+
+    private String getRenamedValue(Attr attribute) {
+        if (renamedStyles != null && (attribute.getName().endsWith("style-name") || attribute.getName().equals("style:name"))) {
+            String renamed = renamedStyles.get(attribute.getValue());
+            if (renamed != null) {
+                return renamed;
+            }
+        }
+        return attribute.getValue();
+    }
+
+    private void writeAttribute(String name, String value) throws IOException {
+        write(' ');
+        writeRaw(name);
+        write('=');
+        write('"');
+        writeEscaped(value, true);
+        write('"');
+    }
+
+    /**
+     * Gets the picture of the embedded package referenced by an element, if that element can embed it.
+     */
+    private byte[] getEmbeddedPicture(Element element) {
+        if (embeddedPictures == null || !PICTURE_ELEMENTS.contains(element.getNodeName())) {
+            return null;
+        }
+        String path = element.getAttribute("xlink:href");
+        if (path.isEmpty() || path.contains("://") || path.startsWith("#") || path.startsWith("../")
+                || !embeddedPictures.contains(path)) {
+            return null;
+        }
+        return embeddedPictures.getBytes(path);
+    }
+
+    private void writeRaw(String string) throws IOException {
+        encode(string, false, false);
+    }
+
+    private void writeEscaped(String string, boolean attribute) throws IOException {
+        encode(string, true, attribute);
+    }
+
+    /**
+     * Encodes a string in UTF-8, escaping the markup characters, and in attribute values the white space characters that would
+     * otherwise be normalized by parsers, if requested.
+     */
+    private void encode(String string, boolean escape, boolean attribute) throws IOException {
+        int length = string.length();
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20 && c != '\t' && c != '\n' && c != '\r') {
+                    continue;
+                }
+                if (escape) {
+                    switch (c) {
+                    case '&':
+                        writeRaw("&amp;");
+                        continue;
+                    case '<':
+                        writeRaw("&lt;");
+                        continue;
+                    case '>':
+                        writeRaw("&gt;");
+                        continue;
+                    case '"':
+                        if (attribute) {
+                            writeRaw("&quot;");
+                            continue;
+                        }
+                        break;
+                    case '\t':
+                        if (attribute) {
+                            writeRaw("&#9;");
+                            continue;
+                        }
+                        break;
+                    case '\n':
+                        if (attribute) {
+                            writeRaw("&#10;");
+                            continue;
+                        }
+                        break;
+                    case '\r':
+                        writeRaw("&#13;");
+                        continue;
+                    default:
+                        break;
+                    }
+                }
+                write(c);
+            } else if (c < 0x800) {
+                ensure(2);
+                buffer[position++] = (byte) (0xC0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                ensure(4);
+                buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (!Character.isSurrogate(c) && c != 0xFFFE && c != 0xFFFF) {
+                ensure(3);
+                buffer[position++] = (byte) (0xE0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void write(char ascii) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) ascii;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+}
@@ -0,0 +1,49 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.fenixedu.oddjet.batch.BatchManifest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BatchManifestTest {
+
+    @Test
+    public void resumeFromManifest() throws Exception {
+        File file = File.createTempFile("oddjet-manifest", ".tsv");
+        file.deleteOnExit();
+        try (BatchManifest manifest = new BatchManifest(file)) {
+            manifest.complete("student\t1", "ab12", "student-1.odt");
+            manifest.complete("student 2", "cd34", "student-2.odt");
+        }
+        // a run interrupted while appending leaves an incomplete line
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write("student 3\tef".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (BatchManifest manifest = new BatchManifest(file)) {
+            assertEquals(2, manifest.size());
+            assertTrue(manifest.isCompleted("student\t1"));
+            assertEquals("ab12", manifest.getDigest("student 1"));
+            assertEquals("student-2.odt", manifest.getOutputName("student 2"));
+            assertFalse(manifest.isCompleted("student 3"));
+            assertNull(manifest.getDigest("student 3"));
+            manifest.complete("student 3", "ef56", "student-3.odt");
+        }
+
+        try (BatchManifest manifest = new BatchManifest(file)) {
+            assertEquals(3, manifest.size());
+            assertEquals("ef56", manifest.getDigest("student 3"));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.TemplateData;
+import org.fenixedu.oddjet.batch.BatchManifest;
+import org.fenixedu.oddjet.batch.BatchRenderer;
+import org.fenixedu.oddjet.batch.RecordReader;
+import org.fenixedu.oddjet.table.EntryListTableData;
+import org.fenixedu.oddjet.table.PositionalTableData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.simple.TextDocument;
+
+@RunWith(JUnit4.class)
+public class BatchRendererTest {
+
+    private static final String RECORDS = "{\"name\":\"ana\"}\n{\"name\":\"bruno\"}\n{\"name\":\"carla\"}\n";
+
+    /** A template whose renders fail a given number of times per record, counting the renders of each record. */
+    private static class FlakyTemplate extends Template {
+        private final Map<String, Integer> failures;
+        private final ConcurrentMap<String, AtomicInteger> renders = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private FlakyTemplate(Map<String, Integer> failures) throws Exception {
+            super(Files.readAllBytes(Paths.get("./src/test/resources/BatchRendererTest.fodt")));
+            this.failures = failures;
+            setFlatOutput(true);
+        }
+
+        @Override
+        public TextDocument getInstance(TemplateData record) {
+            String name = (String) record.getParameters().get("name");
+            renders.putIfAbsent(name, new AtomicInteger());
+            int render = renders.get(name).incrementAndGet();
+            Integer failing = failures.get(name);
+            if (failing != null && render <= failing) {
+                throw new IllegalStateException("Render " + render + " of " + name + " failed.");
+            }
+            return super.getInstance(record);
+        }
+
+        private int getRenders(String name) {
+            AtomicInteger count = renders.get(name);
+            return count != null ? count.get() : 0;
+        }
+    }
+
+    private static void run(BatchRenderer renderer, File output) throws Exception {
+        renderer.setWorkers(2);
+        renderer.setNameChain("name");
+        try (RecordReader records = RecordReader.jsonLines(new StringReader(RECORDS))) {
+            renderer.run(records, output);
+        }
+    }
+
+    @Test
+    public void recordsToTemplateData() {
+        Map<String, Object> course = new HashMap<String, Object>();
+        course.put("name", "Algebra");
+        Map<String, Object> record = new HashMap<String, Object>();
+        record.put("name", "Ana");
+        record.put("grades", Arrays.asList(Arrays.asList("Algebra", 17), Arrays.asList("Physics", 15)));
+        record.put("courses", Arrays.asList(course));
+        record.put("empty", Arrays.asList());
+        record.put("not-a-source", Arrays.asList("a", "b"));
+
+        TemplateData data = BatchRenderer.toTemplateData(record);
+        assertEquals("Ana", data.getParameters().get("name"));
+        assertSame(record.get("grades"), data.getParameters().get("grades"));
+        // lists of lists fill tables positionally, lists of objects by entry attributes
+        assertTrue(data.getTableDataSources().get("grades") instanceof PositionalTableData);
+        assertEquals(record.get("grades"), data.getTableDataSources().get("grades").getData(Arrays.asList("0", "1")));
+        assertTrue(data.getTableDataSources().get("courses") instanceof EntryListTableData);
+        assertEquals(Arrays.asList(Arrays.asList("Algebra")),
+                data.getTableDataSources().get("courses").getData(Arrays.asList("name")));
+        assertTrue(data.getTableDataSources().get("empty") instanceof EntryListTableData);
+        // lists also become the section sources of the same name
+        assertSame(record.get("courses"), data.getSectionDataSources().get("courses"));
+        assertNull(data.getTableDataSources().get("name"));
+        assertNull(data.getSectionDataSources().get("name"));
+        // fields that are not valid source names are only parameters
+        assertTrue(data.getParameters().containsKey("not-a-source"));
+        assertFalse(data.getTableDataSources().containsKey("not-a-source"));
+        assertFalse(data.getSectionDataSources().containsKey("not-a-source"));
+    }
+
+    @Test
+    public void failedRendersAreRetried() throws Exception {
+        Map<String, Integer> failures = new HashMap<String, Integer>();
+        failures.put("bruno", 1);
+        failures.put("carla", Integer.MAX_VALUE);
+        FlakyTemplate template = new FlakyTemplate(failures);
+        BatchRenderer renderer = new BatchRenderer(template);
+        renderer.setRetries(2, 0);
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        renderer.setLog(new PrintStream(log, true, "UTF-8"));
+        File output = Files.createTempDirectory("oddjet-batch").toFile();
+        run(renderer, output);
+
+        assertEquals(3, renderer.getRead());
+        assertEquals(1, renderer.getFailed());
+        // bruno is retried once, carla in both retry passes
+        assertEquals(3, renderer.getRetried());
+        assertEquals(1, template.getRenders("ana"));
+        assertEquals(2, template.getRenders("bruno"));
+        assertEquals(3, template.getRenders("carla"));
+        assertTrue(new File(output, "ana.fodt").isFile());
+        assertTrue(new String(Files.readAllBytes(new File(output, "bruno.fodt").toPath()), StandardCharsets.UTF_8)
+                .contains("bruno"));
+        // failed renders leave neither an output nor a temporary file
+        assertEquals(Arrays.asList("ana.fodt", "bruno.fodt"), sorted(output.list()));
+        assertTrue(new String(log.toByteArray(), StandardCharsets.UTF_8).contains("Failed carla.fodt"));
+    }
+
+    @Test
+    public void interruptedRunsAreResumed() throws Exception {
+        File output = Files.createTempDirectory("oddjet-batch").toFile();
+        File manifestFile = new File(output, "manifest.tsv");
+        Map<String, Integer> failures = new HashMap<String, Integer>();
+        failures.put("carla", Integer.MAX_VALUE);
+        FlakyTemplate template = new FlakyTemplate(failures);
+        try (BatchManifest manifest = new BatchManifest(manifestFile)) {
+            BatchRenderer renderer = new BatchRenderer(template);
+            renderer.setRetries(0, 0);
+            renderer.setManifest(manifest);
+            run(renderer, output);
+            assertEquals(1, renderer.getFailed());
+            assertEquals(2, manifest.size());
+        }
+
+        // the records completed by the first run are skipped, while the failed one is rendered again
+        failures.clear();
+        try (BatchManifest manifest = new BatchManifest(manifestFile)) {
+            BatchRenderer renderer = new BatchRenderer(template);
+            renderer.setManifest(manifest);
+            run(renderer, output);
+            assertEquals(2, renderer.getSkipped());
+            assertEquals(0, renderer.getFailed());
+            assertEquals(3, manifest.size());
+        }
+        assertEquals(1, template.getRenders("ana"));
+        assertEquals(2, template.getRenders("carla"));
+
+        // an output changed since it was completed is rendered again
+        Files.write(new File(output, "ana.fodt").toPath(), "changed".getBytes(StandardCharsets.UTF_8));
+        try (BatchManifest manifest = new BatchManifest(manifestFile)) {
+            BatchRenderer renderer = new BatchRenderer(template);
+            renderer.setManifest(manifest);
+            run(renderer, output);
+            assertEquals(2, renderer.getSkipped());
+        }
+        assertEquals(2, template.getRenders("ana"));
+        assertEquals(1, template.getRenders("bruno"));
+        assertTrue(new String(Files.readAllBytes(new File(output, "ana.fodt").toPath()), StandardCharsets.UTF_8)
+                .contains("ana"));
+    }
+
+    private static List<String> sorted(String[] names) {
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+}
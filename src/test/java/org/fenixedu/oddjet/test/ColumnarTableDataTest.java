@@ -0,0 +1,38 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.fenixedu.oddjet.table.ColumnarTableData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ColumnarTableDataTest {
+
+    @Test
+    public void localizedColumns() {
+        ColumnarTableData data = new ColumnarTableData();
+        data.addColumn("grade", new int[] { 14, 17 });
+        data.addColumn("average", new double[] { 15.5, 16.25 }, "0.00");
+        data.addColumn("date", new LocalDate[] { LocalDate.of(2014, 7, 1), null }, "dd/MM/yyyy");
+
+        List<List<Object>> pt = data.getData(Arrays.asList("average", null, "date"), new Locale("pt", "PT"));
+        assertEquals(Arrays.<Object> asList("15,50", "16,25"), pt.get(0));
+        assertNull(pt.get(1));
+        assertEquals(Arrays.<Object> asList("01/07/2014", ""), pt.get(2));
+
+        List<List<Object>> en = data.getData(Locale.ENGLISH);
+        assertEquals(Arrays.<Object> asList("14", "17"), en.get(0));
+        assertEquals(Arrays.<Object> asList("15.50", "16.25"), en.get(1));
+
+        // without a locale the raw values are given
+        assertEquals(Arrays.<Object> asList(14, 17), data.getData().get(0));
+    }
+}
@@ -0,0 +1,137 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.fenixedu.oddjet.exception.ConversionOverloadException;
+import org.fenixedu.oddjet.utils.ConversionPriority;
+import org.fenixedu.oddjet.utils.ConversionScheduler;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConversionSchedulerTest {
+
+    private static Callable<String> conversion(final String name, final List<String> order, final CountDownLatch gate) {
+        return conversion(name, order, new CountDownLatch(1), gate);
+    }
+
+    private static Callable<String> conversion(final String name, final List<String> order, final CountDownLatch started,
+            final CountDownLatch gate) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                gate.await();
+                order.add(name);
+                return name;
+            }
+        };
+    }
+
+    @Test
+    public void priorityAndShortestJobFirst() throws Exception {
+        ConversionScheduler scheduler = new ConversionScheduler(1, 10, 10);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        // occupies the single worker until the gate opens
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> blocker =
+                scheduler.submit(ConversionPriority.BATCH, "bulk", 0, conversion("blocker", order, started, gate));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> last = scheduler.submit(ConversionPriority.BATCH, "bulk", 500, conversion("bigBatch", order, gate));
+        scheduler.submit(ConversionPriority.BATCH, "bulk", 100, conversion("smallBatch", order, gate));
+        scheduler.submit(ConversionPriority.INTERACTIVE, "web", 900, conversion("bigInteractive", order, gate));
+        scheduler.submit(ConversionPriority.INTERACTIVE, "web", 10, conversion("smallInteractive", order, gate));
+        gate.countDown();
+        blocker.get();
+        last.get();
+        scheduler.shutdown();
+
+        assertEquals(Arrays.asList("blocker", "smallInteractive", "bigInteractive", "smallBatch", "bigBatch"), order);
+    }
+
+    @Test(expected = ConversionOverloadException.class)
+    public void fullQueueIsRejected() throws Exception {
+        ConversionScheduler scheduler = new ConversionScheduler(1, 1, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            scheduler.submit(ConversionPriority.BATCH, "bulk", 0, conversion("running", order, started, gate));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            scheduler.submit(ConversionPriority.BATCH, "bulk", 0, conversion("queued", order, gate));
+            scheduler.submit(ConversionPriority.BATCH, "bulk", 0, conversion("rejected", order, gate));
+        } finally {
+            gate.countDown();
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void waitingConversionsAreAged() throws Exception {
+        ConversionScheduler scheduler = new ConversionScheduler(1, 10, 10, 50);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        CountDownLatch started = new CountDownLatch(1);
+        Future<String> blocker =
+                scheduler.submit(ConversionPriority.INTERACTIVE, "web", 0, conversion("blocker", order, started, gate));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<String> big = scheduler.submit(ConversionPriority.BATCH, "bulk", 900, conversion("bigBatch", order, gate));
+        // the big batch conversion waits past the bound, while the following ones are submitted right before the gate opens
+        Thread.sleep(100);
+        Future<String> small = scheduler.submit(ConversionPriority.BATCH, "bulk", 10, conversion("smallBatch", order, gate));
+        Future<String> interactive =
+                scheduler.submit(ConversionPriority.INTERACTIVE, "web", 10, conversion("interactive", order, gate));
+        gate.countDown();
+        blocker.get();
+        big.get();
+        small.get();
+        interactive.get();
+        scheduler.shutdown();
+
+        assertEquals(Arrays.asList("blocker", "bigBatch"), order.subList(0, 2));
+        assertEquals(4, order.size());
+    }
+
+    @Test
+    public void callerQuotaLeavesWorkersToOtherCallers() throws Exception {
+        ConversionScheduler scheduler = new ConversionScheduler(2, 10, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch gate = new CountDownLatch(1);
+
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        Future<String> first =
+                scheduler.submit(ConversionPriority.BATCH, "bulk", 0, conversion("first", order, firstStarted, gate));
+        assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+        // the second conversion of the same caller is queued ahead of the other caller's, but exceeds the quota
+        CountDownLatch secondStarted = new CountDownLatch(1);
+        Future<String> second =
+                scheduler.submit(ConversionPriority.BATCH, "bulk", 0, conversion("second", order, secondStarted, gate));
+        CountDownLatch otherStarted = new CountDownLatch(1);
+        Future<String> other =
+                scheduler.submit(ConversionPriority.BATCH, "web", 100, conversion("other", order, otherStarted, gate));
+        assertTrue(otherStarted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, secondStarted.getCount());
+        assertEquals(1, scheduler.getQueuedCount(ConversionPriority.BATCH));
+
+        gate.countDown();
+        first.get();
+        second.get();
+        other.get();
+        assertEquals(0, secondStarted.getCount());
+        scheduler.shutdown();
+    }
+}
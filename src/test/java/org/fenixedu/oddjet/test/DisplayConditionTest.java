@@ -0,0 +1,89 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.fenixedu.oddjet.utils.DisplayCondition;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DisplayConditionTest {
+
+    private static Function<String, Object> variables(final Map<String, Object> values) {
+        return new Function<String, Object>() {
+            @Override
+            public Object apply(String variable) {
+                if (!values.containsKey(variable)) {
+                    throw new IllegalArgumentException("No value for " + variable + ".");
+                }
+                return values.get(variable);
+            }
+        };
+    }
+
+    @Test
+    public void flagConditions() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("hasThesis", true);
+        values.put("isPHD", false);
+        values.put("degree.type", "MSC");
+        values.put("credits", 120);
+        Function<String, Object> vars = variables(values);
+
+        assertFalse(DisplayCondition.parse("ooow:hasThesis == 0").evaluate(vars));
+        assertTrue(DisplayCondition.parse("ooow:isPHD == 0").evaluate(vars));
+        assertTrue(DisplayCondition.parse("ooow:!isPHD && hasThesis").evaluate(vars));
+        assertTrue(DisplayCondition.parse("NOT isPHD AND hasThesis").evaluate(vars));
+        assertTrue(DisplayCondition.parse("ooow:degree.type != \"PHD\"").evaluate(vars));
+        assertTrue(DisplayCondition.parse("degree.type EQ 'MSC' OR isPHD").evaluate(vars));
+        assertTrue(DisplayCondition.parse("credits >= 60 * 2").evaluate(vars));
+        assertFalse(DisplayCondition.parse("(credits - 20) / 2 > 50").evaluate(vars));
+        assertTrue(DisplayCondition.parse("-credits < 0 && TRUE").evaluate(vars));
+    }
+
+    @Test
+    public void variables() {
+        assertEquals(Arrays.asList("isPHD", "degree.type"),
+                DisplayCondition.parse("ooow:isPHD == 1 OR degree.type == \"PHD\" AND isPHD").getVariables());
+    }
+
+    @Test
+    public void stringValues() {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", "");
+        values.put("count", "3");
+        values.put("flag", "false");
+        Function<String, Object> vars = variables(values);
+
+        assertFalse(DisplayCondition.parse("name").evaluate(vars));
+        assertTrue(DisplayCondition.parse("count == 3").evaluate(vars));
+        assertTrue(DisplayCondition.parse("flag == FALSE").evaluate(vars));
+    }
+
+    @Test
+    public void unsupportedConditions() {
+        for (String condition : new String[] { "", "ooow:", "a ==", "(a == 1", "a == 1)", "a # b", "a == 1 2" }) {
+            try {
+                DisplayCondition.parse(condition);
+                fail("Condition '" + condition + "' was parsed.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        try {
+            DisplayCondition.parse("missing == 1").evaluate(variables(new HashMap<String, Object>()));
+            fail("Condition with a variable without a value was evaluated.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fenixedu.oddjet.DocumentMerger;
+import org.fenixedu.oddjet.utils.FlatDocument;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.odfdom.pkg.OdfPackage;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class DocumentMergerTest {
+
+    private static final byte[] PHOTO_1 = { (byte) 0x89, 'P', 'N', 'G', 13, 10, 26, 10, 0, 1 };
+    private static final byte[] PHOTO_2 = { (byte) 0x89, 'P', 'N', 'G', 13, 10, 26, 10, 0, 2 };
+
+    private static TextDocument load(String fixture) throws Exception {
+        byte[] flat = Files.readAllBytes(Paths.get("./src/test/resources", fixture));
+        return TextDocument.loadDocument(new ByteArrayInputStream(FlatDocument.toPackage(flat)));
+    }
+
+    private static Map<String, Element> getAutomaticStyles(Document content) {
+        Map<String, Element> styles = new HashMap<String, Element>();
+        Element automaticStyles = (Element) content.getElementsByTagName("office:automatic-styles").item(0);
+        NodeList children = automaticStyles.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) {
+                Element style = (Element) children.item(i);
+                assertFalse("Duplicate style " + style.getAttribute("style:name"),
+                        styles.containsKey(style.getAttribute("style:name")));
+                styles.put(style.getAttribute("style:name"), style);
+            }
+        }
+        return styles;
+    }
+
+    private static List<Element> getElements(Document content, String tagName) {
+        NodeList nodes = content.getElementsByTagName(tagName);
+        List<Element> elements = new ArrayList<Element>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element) nodes.item(i));
+        }
+        return elements;
+    }
+
+    private static List<String> getNames(Document content, String tagName, String attribute) {
+        List<String> names = new ArrayList<String>();
+        for (Element element : getElements(content, tagName)) {
+            names.add(element.getAttribute(attribute));
+        }
+        return names;
+    }
+
+    /** Gets the style of the paragraphs with the given text, in document order. */
+    private static List<String> getParagraphStyles(Document content, String text) {
+        List<String> styles = new ArrayList<String>();
+        for (Element paragraph : getElements(content, "text:p")) {
+            if (paragraph.getTextContent().trim().startsWith(text)) {
+                styles.add(paragraph.getAttribute("text:style-name"));
+            }
+        }
+        return styles;
+    }
+
+    @Test
+    public void mergedRecords() throws Exception {
+        // the second record defines different styles and a different photo under the same names
+        DocumentMerger merger = new DocumentMerger(load("DocumentMergerTest1.fodt"));
+        for (String fixture : new String[] { "DocumentMergerTest2.fodt", "DocumentMergerTest1.fodt" }) {
+            TextDocument record = load(fixture);
+            try {
+                merger.append(record);
+            } finally {
+                record.close();
+            }
+        }
+        TextDocument document = merger.getDocument();
+        try {
+            Document content = document.getContentDom();
+            Map<String, Element> styles = getAutomaticStyles(content);
+
+            // the differing styles of the second record are renamed, and so are those referring to them
+            assertEquals("2", ((Element) styles.get("N1_1").getElementsByTagName("number:number").item(0))
+                    .getAttribute("number:decimal-places"));
+            assertEquals("N1_1", styles.get("ce1_1").getAttribute("style:data-style-name"));
+            assertEquals("P1_1", styles.get("P2_1").getAttribute("style:parent-style-name"));
+            assertEquals("L1_1", styles.get("P3_1").getAttribute("style:list-style-name"));
+            assertEquals("italic", ((Element) styles.get("P1_1").getElementsByTagName("style:text-properties").item(0))
+                    .getAttribute("fo:font-style"));
+            // the styles of the first record keep their names and references
+            assertEquals("P1", styles.get("P2").getAttribute("style:parent-style-name"));
+            assertEquals("N1", styles.get("ce1").getAttribute("style:data-style-name"));
+            // identical styles are kept once, and the third record shares the styles of the first
+            assertTrue(styles.containsKey("fr1"));
+            assertFalse(styles.containsKey("fr1_1"));
+            assertFalse(styles.containsKey("fr1_2"));
+            assertFalse(styles.containsKey("P1_2"));
+
+            assertEquals(Arrays.asList("P1", "P1_1", "P1"), getParagraphStyles(content, "Student"));
+            assertEquals(Arrays.asList("P2", "P2_1", "P2"), getParagraphStyles(content, "Grade"));
+            assertEquals(Arrays.asList("P3", "P3_1", "P3"), getParagraphStyles(content, "Enrolled"));
+            assertEquals(Arrays.asList("L1", "L1_1", "L1"), getNames(content, "text:list", "text:style-name"));
+            assertEquals(Arrays.asList("ce1", "ce1_1", "ce1"), getNames(content, "table:table-cell", "table:style-name"));
+
+            // unique names are suffixed with the index of their record
+            assertEquals(Arrays.asList("grades", "grades_1", "grades_2"), getNames(content, "table:table", "table:name"));
+            assertEquals(Arrays.asList("notes", "notes_1", "notes_2"), getNames(content, "text:section", "text:name"));
+            assertEquals(Arrays.asList("photo", "logo", "photo_1", "logo_1", "photo_2", "logo_2"),
+                    getNames(content, "draw:frame", "draw:name"));
+
+            // the differing photo is renamed, while the identical photos and logos are kept once
+            List<String> pictures = getNames(content, "draw:image", "xlink:href");
+            assertEquals(Arrays.asList("Pictures/embedded1.png", "Pictures/embedded2.png", "Pictures/embedded1_1.png",
+                    "Pictures/embedded2.png", "Pictures/embedded1.png", "Pictures/embedded2.png"), pictures);
+            OdfPackage odfPackage = document.getPackage();
+            assertArrayEquals(PHOTO_1, odfPackage.getBytes("Pictures/embedded1.png"));
+            assertArrayEquals(PHOTO_2, odfPackage.getBytes("Pictures/embedded1_1.png"));
+            assertNull(odfPackage.getBytes("Pictures/embedded2_1.png"));
+            assertNull(odfPackage.getBytes("Pictures/embedded1_2.png"));
+
+            // user fields are replaced by the values of their own record
+            assertTrue(getElements(content, "text:user-field-get").isEmpty());
+            List<String> students = new ArrayList<String>();
+            List<String> grades = new ArrayList<String>();
+            for (Element paragraph : getElements(content, "text:p")) {
+                String text = paragraph.getTextContent().trim();
+                if (text.startsWith("Student ")) {
+                    students.add(text.substring(8));
+                } else if (text.startsWith("Grade ")) {
+                    grades.add(text.substring(6));
+                }
+            }
+            assertEquals(Arrays.asList("Ana", "Bruno", "Ana"), students);
+            assertEquals(Arrays.asList("17.5", "18.25", "17.5"), grades);
+        } finally {
+            document.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.imageio.ImageIO;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.utils.DocumentWriter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class DocumentWriterTest {
+
+    private static final String DRAW = "urn:oasis:names:tc:opendocument:xmlns:drawing:1.0";
+    private static final String TEXT = "urn:oasis:names:tc:opendocument:xmlns:text:1.0";
+    private static final String XLINK = "http://www.w3.org/1999/xlink";
+
+    /** Markup characters, quotes and characters outside the basic multilingual plane, written as surrogate pairs. */
+    private static final String VALUE = "Fish & chips <b>\"bold\"</b> 'quoted' > \uD834\uDD1E clef \uD83D\uDE00";
+
+    private static byte[] generatePicture() throws Exception {
+        BufferedImage image = new BufferedImage(4, 3, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(1, 1, 0xFF8800);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    /** Fills the fixture and inserts a picture after it was loaded. */
+    private static TextDocument fill() throws Exception {
+        Template t = new Template("./src/test/resources/test1.odt");
+        t.addParameter("title1", VALUE);
+        TextDocument document = t.getInstance();
+        document.addParagraph(VALUE);
+
+        document.getPackage().insert(generatePicture(), "Pictures/generated.png", "image/png");
+        Document content = document.getContentDom();
+        Element paragraph = content.createElementNS(TEXT, "text:p");
+        Element frame = content.createElementNS(DRAW, "draw:frame");
+        frame.setAttributeNS(DRAW, "draw:name", VALUE);
+        Element image = content.createElementNS(DRAW, "draw:image");
+        image.setAttributeNS(XLINK, "xlink:href", "Pictures/generated.png");
+        image.setAttributeNS(XLINK, "xlink:type", "simple");
+        frame.appendChild(image);
+        paragraph.appendChild(frame);
+        document.getContentRoot().appendChild(paragraph);
+        return document;
+    }
+
+    /**
+     * @return a canonical form of an element, its sorted attributes and its children, leaving out the namespace declarations,
+     *         which each serializer places differently.
+     */
+    private static String canonical(Node node) {
+        if (node.getNodeType() == Node.TEXT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
+            return node.getNodeValue();
+        }
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            return "";
+        }
+        StringBuilder builder = new StringBuilder("<").append(node.getNodeName());
+        List<String> attributes = new ArrayList<String>();
+        NamedNodeMap attributeNodes = node.getAttributes();
+        for (int i = 0; i < attributeNodes.getLength(); i++) {
+            Attr attribute = (Attr) attributeNodes.item(i);
+            if (!attribute.getName().startsWith("xmlns")) {
+                attributes.add(attribute.getName() + "=" + attribute.getValue());
+            }
+        }
+        Collections.sort(attributes);
+        for (String attribute : attributes) {
+            builder.append(' ').append(attribute);
+        }
+        builder.append('>');
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            builder.append(canonical(child));
+        }
+        return builder.append("</").append(node.getNodeName()).append('>').toString();
+    }
+
+    /** @return the media type of each file entry of a package's manifest, indexed by path, leaving out directories. */
+    private static Map<String, String> getManifestEntries(byte[] odt) throws Exception {
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(odt))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (entry.getName().equals("META-INF/manifest.xml")) {
+                    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                    factory.setNamespaceAware(true);
+                    Document manifest = factory.newDocumentBuilder().parse(zip);
+                    Map<String, String> entries = new TreeMap<String, String>();
+                    NodeList fileEntries = manifest.getElementsByTagName("manifest:file-entry");
+                    for (int i = 0; i < fileEntries.getLength(); i++) {
+                        Element fileEntry = (Element) fileEntries.item(i);
+                        String path = fileEntry.getAttribute("manifest:full-path");
+                        if (!path.endsWith("/")) {
+                            entries.put(path, fileEntry.getAttribute("manifest:media-type"));
+                        }
+                    }
+                    return entries;
+                }
+            }
+        }
+        throw new AssertionError("The package has no manifest.");
+    }
+
+    @Test
+    public void sameAsToolkitSerialization() throws Exception {
+        TextDocument document = fill();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        ByteArrayOutputStream saved = new ByteArrayOutputStream();
+        try {
+            DocumentWriter.write(document, written);
+            document.save(saved);
+        } finally {
+            document.close();
+        }
+
+        TextDocument reloaded = TextDocument.loadDocument(new ByteArrayInputStream(written.toByteArray()));
+        TextDocument expected = TextDocument.loadDocument(new ByteArrayInputStream(saved.toByteArray()));
+        try {
+            String content = canonical(reloaded.getContentDom().getDocumentElement());
+            assertEquals(canonical(expected.getContentDom().getDocumentElement()), content);
+            assertEquals(canonical(expected.getStylesDom().getDocumentElement()), canonical(reloaded.getStylesDom()
+                    .getDocumentElement()));
+            assertTrue(content.contains(VALUE));
+            assertTrue(content.contains("draw:name=" + VALUE));
+            assertTrue(reloaded.getPackage().contains("Pictures/generated.png"));
+        } finally {
+            reloaded.close();
+            expected.close();
+        }
+
+        Map<String, String> manifest = getManifestEntries(written.toByteArray());
+        assertEquals(getManifestEntries(saved.toByteArray()), manifest);
+        assertEquals("image/png", manifest.get("Pictures/generated.png"));
+    }
+
+    @Test
+    public void invalidCharacters() throws Exception {
+        TextDocument document = TextDocument.newTextDocument();
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try {
+            // control characters, non characters and unpaired surrogates can not be represented in XML 1.0
+            document.addParagraph("a\u0001b\uFFFEc\uD800d\uDC00e\u0085f");
+            DocumentWriter.write(document, written);
+        } finally {
+            document.close();
+        }
+        TextDocument reloaded = TextDocument.loadDocument(new ByteArrayInputStream(written.toByteArray()));
+        try {
+            String content = canonical(reloaded.getContentDom().getDocumentElement());
+            assertTrue(content.contains("abcde\u0085f"));
+            assertFalse(content.contains("\u0001"));
+        } finally {
+            reloaded.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.fenixedu.oddjet.exception.DocumentLoadException;
+import org.fenixedu.oddjet.utils.FlatDocument;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class FlatDocumentTest {
+
+    private static final byte[] PICTURE = { (byte) 0x89, 'P', 'N', 'G', 13, 10, 26, 10, 0, 0 };
+
+    private static final String FLAT = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<office:document xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\""
+            + " xmlns:style=\"urn:oasis:names:tc:opendocument:xmlns:style:1.0\""
+            + " xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\""
+            + " xmlns:draw=\"urn:oasis:names:tc:opendocument:xmlns:drawing:1.0\""
+            + " xmlns:xlink=\"http://www.w3.org/1999/xlink\" office:version=\"1.2\""
+            + " office:mimetype=\"application/vnd.oasis.opendocument.text\">"
+            + "<office:meta/><office:styles><style:style style:name=\"Standard\" style:family=\"paragraph\"/></office:styles>"
+            + "<office:automatic-styles><style:page-layout style:name=\"pm1\"/></office:automatic-styles>"
+            + "<office:master-styles><style:master-page style:name=\"Standard\" style:page-layout-name=\"pm1\"/>"
+            + "</office:master-styles><office:body><office:text><text:p>Hello &amp; welcome</text:p>"
+            + "<draw:frame><draw:image><office:binary-data>" + Base64.getMimeEncoder().encodeToString(PICTURE)
+            + "</office:binary-data></draw:image></draw:frame></office:text></office:body></office:document>";
+
+    private static final String NAMESPACES = " xmlns:office=\"urn:oasis:names:tc:opendocument:xmlns:office:1.0\""
+            + " xmlns:style=\"urn:oasis:names:tc:opendocument:xmlns:style:1.0\""
+            + " xmlns:text=\"urn:oasis:names:tc:opendocument:xmlns:text:1.0\""
+            + " xmlns:fo=\"urn:oasis:names:tc:opendocument:xmlns:xsl-fo-compatible:1.0\" office:version=\"1.2\"";
+
+    /** A package whose content and styles parts both define the automatic paragraph styles P1 and P2. */
+    private static byte[] createClashingPackage() throws Exception {
+        String content = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<office:document-content" + NAMESPACES + ">"
+                + "<office:automatic-styles>"
+                + "<style:style style:name=\"P1\" style:family=\"paragraph\"><style:text-properties fo:font-weight=\"bold\"/>"
+                + "</style:style>"
+                + "<style:style style:name=\"P2\" style:family=\"paragraph\" style:parent-style-name=\"P1\"/>"
+                + "<style:style style:name=\"P3\" style:family=\"paragraph\"/>"
+                + "</office:automatic-styles><office:body><office:text>"
+                + "<text:p text:style-name=\"P1\">Bold</text:p><text:p text:style-name=\"P2\">Child of bold</text:p>"
+                + "<text:p text:style-name=\"P3\">Plain</text:p></office:text></office:body></office:document-content>";
+        String styles = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<office:document-styles" + NAMESPACES + ">"
+                + "<office:styles><style:style style:name=\"Standard\" style:family=\"paragraph\"/></office:styles>"
+                + "<office:automatic-styles>"
+                + "<style:style style:name=\"P1\" style:family=\"paragraph\"><style:text-properties fo:font-style=\"italic\"/>"
+                + "</style:style>"
+                + "<style:style style:name=\"P2\" style:family=\"paragraph\" style:parent-style-name=\"P1\"/>"
+                + "<style:page-layout style:name=\"pm1\"/></office:automatic-styles>"
+                + "<office:master-styles><style:master-page style:name=\"Standard\" style:page-layout-name=\"pm1\">"
+                + "<style:footer><text:p text:style-name=\"P1\">Footer</text:p></style:footer></style:master-page>"
+                + "</office:master-styles></office:document-styles>";
+        String manifest = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<manifest:manifest xmlns:manifest=\"urn:oasis:names:tc:opendocument:xmlns:manifest:1.0\">"
+                + "<manifest:file-entry manifest:full-path=\"/\""
+                + " manifest:media-type=\"application/vnd.oasis.opendocument.text\"/>"
+                + "<manifest:file-entry manifest:full-path=\"content.xml\" manifest:media-type=\"text/xml\"/>"
+                + "<manifest:file-entry manifest:full-path=\"styles.xml\" manifest:media-type=\"text/xml\"/>"
+                + "</manifest:manifest>";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            String[][] entries = { { "mimetype", "application/vnd.oasis.opendocument.text" },
+                    { "META-INF/manifest.xml", manifest }, { "content.xml", content }, { "styles.xml", styles } };
+            for (String[] entry : entries) {
+                zip.putNextEntry(new ZipEntry(entry[0]));
+                zip.write(entry[1].getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static Map<String, byte[]> unzip(byte[] bytes) throws Exception {
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(bytes))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                assertEquals(ZipEntry.STORED, entry.getMethod());
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = zip.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+                entries.put(entry.getName(), out.toByteArray());
+            }
+        }
+        return entries;
+    }
+
+    @Test
+    public void flatDetection() {
+        assertTrue(FlatDocument.isFlat(FLAT.getBytes(StandardCharsets.UTF_8)));
+        assertTrue(FlatDocument.isFlat("\uFEFF\n  <office:document/>".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(FlatDocument.isFlat(new byte[] { 'P', 'K', 3, 4 }));
+        assertFalse(FlatDocument.isFlat(new byte[0]));
+    }
+
+    @Test
+    public void packageConversion() throws Exception {
+        byte[] converted = FlatDocument.toPackage(FLAT.getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals(converted, FlatDocument.toPackage(FLAT.getBytes(StandardCharsets.UTF_8)));
+
+        Map<String, byte[]> entries = unzip(converted);
+        assertEquals("application/vnd.oasis.opendocument.text", new String(entries.get("mimetype"), StandardCharsets.US_ASCII));
+        assertTrue(Arrays.equals(PICTURE, entries.get("Pictures/embedded1.png")));
+        assertTrue(entries.containsKey("meta.xml"));
+        assertFalse(entries.containsKey("settings.xml"));
+
+        String content = new String(entries.get("content.xml"), StandardCharsets.UTF_8);
+        assertTrue(content.contains("<office:document-content"));
+        assertTrue(content.contains("<text:p>Hello &amp; welcome</text:p>"));
+        assertTrue(content.contains("xlink:href=\"Pictures/embedded1.png\""));
+        assertFalse(content.contains("binary-data"));
+        assertFalse(content.contains("master-styles"));
+
+        String styles = new String(entries.get("styles.xml"), StandardCharsets.UTF_8);
+        assertTrue(styles.contains("<office:document-styles"));
+        assertTrue(styles.contains("<style:page-layout style:name=\"pm1\"/>"));
+        assertTrue(styles.contains("<office:master-styles>"));
+        assertFalse(styles.contains("office:body"));
+
+        String manifest = new String(entries.get("META-INF/manifest.xml"), StandardCharsets.UTF_8);
+        assertTrue(manifest.contains("manifest:full-path=\"Pictures/embedded1.png\" manifest:media-type=\"image/png\""));
+    }
+
+    @Test
+    public void clashingAutomaticStyles() throws Exception {
+        TextDocument document = TextDocument.loadDocument(new ByteArrayInputStream(createClashingPackage()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            FlatDocument.write(document, out);
+        } finally {
+            document.close();
+        }
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        Document flat = factory.newDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+
+        Map<String, Element> styles = new HashMap<String, Element>();
+        NodeList styleNodes = flat.getElementsByTagName("style:style");
+        for (int i = 0; i < styleNodes.getLength(); i++) {
+            Element style = (Element) styleNodes.item(i);
+            assertFalse("Duplicate style " + style.getAttribute("style:name"),
+                    styles.containsKey(style.getAttribute("style:name")));
+            styles.put(style.getAttribute("style:name"), style);
+        }
+        // the styles part keeps its names, used by the master pages
+        assertEquals("italic", ((Element) styles.get("P1").getElementsByTagName("style:text-properties").item(0))
+                .getAttribute("fo:font-style"));
+        assertEquals("P1", ((Element) flat.getElementsByTagName("style:footer").item(0).getFirstChild())
+                .getAttribute("text:style-name"));
+
+        // the differing content style is renamed, and the content style referring to it clashes as well
+        assertEquals("bold", ((Element) styles.get("P1_1").getElementsByTagName("style:text-properties").item(0))
+                .getAttribute("fo:font-weight"));
+        assertEquals("P1_1", styles.get("P2_1").getAttribute("style:parent-style-name"));
+        assertEquals("P1", styles.get("P2").getAttribute("style:parent-style-name"));
+        assertTrue(styles.containsKey("P3"));
+
+        NodeList paragraphs = ((Element) flat.getElementsByTagName("office:text").item(0)).getElementsByTagName("text:p");
+        assertEquals("P1_1", ((Element) paragraphs.item(0)).getAttribute("text:style-name"));
+        assertEquals("P2_1", ((Element) paragraphs.item(1)).getAttribute("text:style-name"));
+        assertEquals("P3", ((Element) paragraphs.item(2)).getAttribute("text:style-name"));
+    }
+
+    @Test
+    public void invalidFlatFile() {
+        try {
+            FlatDocument.toPackage("<html/>".getBytes(StandardCharsets.UTF_8));
+            fail("A file that is not a flat document was converted.");
+        } catch (DocumentLoadException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.fenixedu.oddjet.InstanceArchive;
+import org.fenixedu.oddjet.RenderLimits;
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.TemplateData;
+import org.fenixedu.oddjet.exception.RenderLimitExceededException;
+import org.fenixedu.oddjet.table.CategoricalTableData;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.simple.TextDocument;
+
+@RunWith(JUnit4.class)
+public class InstanceArchiveTest {
+
+    /** Runs the renders of an archive, keeping their instances and signalling the end of each render, in submission order. */
+    private static class RecordingExecutor extends AbstractExecutorService {
+        private final ExecutorService delegate = Executors.newFixedThreadPool(4);
+        private final List<Object> instances = Collections.synchronizedList(new ArrayList<Object>());
+        private final List<CountDownLatch> rendered = new ArrayList<CountDownLatch>();
+        private int submitted = 0;
+
+        private RecordingExecutor(int renders) {
+            for (int i = 0; i < renders; i++) {
+                instances.add(null);
+                rendered.add(new CountDownLatch(1));
+            }
+        }
+
+        @Override
+        public <T> Future<T> submit(final Callable<T> task) {
+            final int index = submitted++;
+            return super.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        T instance = task.call();
+                        instances.set(index, instance);
+                        return instance;
+                    } finally {
+                        rendered.get(index).countDown();
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            delegate.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    private RecordingExecutor executor;
+
+    @After
+    public void shutdownExecutor() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Template newTemplate() throws Exception {
+        Template template = new Template("./src/test/resources/InstanceArchiveTest.fodt");
+        template.setFlatOutput(true);
+        return template;
+    }
+
+    private static TemplateData record(String name, String... courses) {
+        TemplateData record = new TemplateData();
+        record.addParameter("name", name);
+        Map<String, List> categories = new HashMap<String, List>();
+        categories.put("name", Arrays.asList(courses));
+        record.addTableDataSource("courses", new CategoricalTableData(categories));
+        return record;
+    }
+
+    /** Reads the entries of a ZIP file, in order. */
+    private static Map<String, String> readEntries(byte[] zip) throws Exception {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8));
+            }
+        }
+        return entries;
+    }
+
+    /** Closed documents release their package, leaving no media type. */
+    private static boolean isClosed(TextDocument document) {
+        return document.getPackage() == null || document.getPackage().getMediaTypeString() == null;
+    }
+
+    @Test
+    public void entriesFollowTheRecordOrder() throws Exception {
+        String[] names = { "ana", "bruno", "carla", "duarte", "eva", "filipa" };
+        executor = new RecordingExecutor(names.length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // a window smaller than the number of records, so adding records waits for the oldest entries to be written
+        InstanceArchive archive = new InstanceArchive(newTemplate(), Channels.newChannel(out), executor, 2);
+        // the first render only ends after the second one, so the second instance is ready before the first
+        TemplateData first = record(null, "Algebra");
+        first.addLazyParameter("name", new Supplier<String>() {
+            @Override
+            public String get() {
+                try {
+                    executor.rendered.get(1).await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "ana";
+            }
+        });
+        archive.add("ana.fodt", first);
+        for (int i = 1; i < names.length; i++) {
+            archive.add(names[i] + ".fodt", record(names[i], "Algebra", "Physics"));
+        }
+        archive.finish();
+
+        Map<String, String> entries = readEntries(out.toByteArray());
+        assertEquals(Arrays.asList("ana.fodt", "bruno.fodt", "carla.fodt", "duarte.fodt", "eva.fodt", "filipa.fodt"),
+                new ArrayList<String>(entries.keySet()));
+        for (String name : names) {
+            assertTrue(entries.get(name + ".fodt").contains("Courses of " + name));
+        }
+        assertTrue(entries.get("bruno.fodt").contains("Physics"));
+        // written instances are closed
+        for (Object instance : executor.instances) {
+            assertTrue(isClosed((TextDocument) instance));
+        }
+    }
+
+    @Test
+    public void failedRendersAreReported() throws Exception {
+        executor = new RecordingExecutor(3);
+        Template template = newTemplate();
+        RenderLimits limits = new RenderLimits();
+        limits.setMaxCells(4);
+        template.setRenderLimits(limits);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InstanceArchive archive = new InstanceArchive(template, Channels.newChannel(out), executor, 2);
+        final Map<String, TemplateData> failed = new HashMap<String, TemplateData>();
+        final List<Exception> failures = new ArrayList<Exception>();
+        archive.setFailureListener(new InstanceArchive.FailureListener() {
+            @Override
+            public void renderFailed(String entryName, TemplateData record, Exception failure) {
+                failed.put(entryName, record);
+                failures.add(failure);
+            }
+        });
+        TemplateData bruno = record("bruno", "Algebra", "Physics", "Chemistry", "Biology", "Geology", "History");
+        archive.add("ana.fodt", record("ana", "Algebra"));
+        archive.add("bruno.fodt", bruno);
+        archive.add("carla.fodt", record("carla", "Algebra", "Physics"));
+        archive.finish();
+
+        // the record exceeding the cell limit is reported and left out, while the others are still written in order
+        assertEquals(Arrays.asList("ana.fodt", "carla.fodt"), new ArrayList<String>(readEntries(out.toByteArray()).keySet()));
+        assertEquals(1, failed.size());
+        assertSame(bruno, failed.get("bruno.fodt"));
+        assertTrue(failures.get(0) instanceof RenderLimitExceededException);
+
+        // without a listener, the failure aborts the archive
+        executor.shutdownNow();
+        executor = new RecordingExecutor(2);
+        archive = new InstanceArchive(template, Channels.newChannel(new ByteArrayOutputStream()), executor, 2);
+        archive.add("bruno.fodt", bruno);
+        try {
+            archive.finish();
+            fail("Failed render did not abort the archive.");
+        } catch (RenderLimitExceededException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cancelClosesRenderedInstances() throws Exception {
+        executor = new RecordingExecutor(4);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InstanceArchive archive = new InstanceArchive(newTemplate(), Channels.newChannel(out), executor, 10);
+        // the first render blocks until it is cancelled, so no entry is written and the following instances stay pending
+        final CountDownLatch never = new CountDownLatch(1);
+        TemplateData blocked = record(null, "Algebra");
+        blocked.addLazyParameter("name", new Supplier<String>() {
+            @Override
+            public String get() {
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "ana";
+            }
+        });
+        archive.add("ana.fodt", blocked);
+        archive.add("bruno.fodt", record("bruno", "Algebra"));
+        archive.add("carla.fodt", record("carla", "Algebra"));
+        archive.add("duarte.fodt", record("duarte", "Algebra"));
+        for (int i = 1; i < 4; i++) {
+            assertTrue(executor.rendered.get(i).await(10, TimeUnit.SECONDS));
+        }
+
+        archive.cancel();
+        for (int i = 1; i < 4; i++) {
+            TextDocument instance = (TextDocument) executor.instances.get(i);
+            assertTrue(isClosed(instance));
+        }
+        assertTrue(executor.rendered.get(0).await(10, TimeUnit.SECONDS));
+        // nothing is written once cancelled
+        archive.finish();
+        assertTrue(readEntries(out.toByteArray()).isEmpty());
+    }
+}
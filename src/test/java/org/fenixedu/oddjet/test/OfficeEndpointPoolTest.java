@@ -0,0 +1,172 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fenixedu.oddjet.exception.OpenOfficeConnectionException;
+import org.fenixedu.oddjet.utils.OfficeEndpointPool;
+import org.fenixedu.oddjet.utils.OfficeService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.artofsolving.jodconverter.DocumentFormat;
+import com.artofsolving.jodconverter.openoffice.connection.OpenOfficeConnection;
+
+@RunWith(JUnit4.class)
+public class OfficeEndpointPoolTest {
+
+    private static class FakeService implements OfficeService {
+        private final String host;
+        private final AtomicInteger conversions = new AtomicInteger();
+        private volatile boolean failing;
+
+        private FakeService(String host, boolean failing) {
+            this.host = host;
+            this.failing = failing;
+        }
+
+        @Override
+        public String getHost() {
+            return host;
+        }
+
+        @Override
+        public int getPort() {
+            return 8100;
+        }
+
+        @Override
+        public DocumentFormat getOutputFormat() {
+            return null;
+        }
+
+        @Override
+        public OpenOfficeConnection newConnection() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /** Converts to the host of the service used, failing with the services marked as failing. */
+    private static final OfficeEndpointPool.Conversion<String> HOST = new OfficeEndpointPool.Conversion<String>() {
+        @Override
+        public String convert(OfficeService service) throws Exception {
+            FakeService fake = (FakeService) service;
+            fake.conversions.incrementAndGet();
+            if (fake.failing) {
+                throw new IOException("Conversion failed on " + fake.host + ".");
+            }
+            return fake.host;
+        }
+    };
+
+    @Test
+    public void failover() throws Exception {
+        FakeService broken = new FakeService("broken", true);
+        FakeService healthy = new FakeService("healthy", false);
+        OfficeEndpointPool pool = new OfficeEndpointPool(broken, healthy);
+        try {
+            for (int i = 0; i < 4; i++) {
+                assertEquals("healthy", pool.execute(HOST));
+            }
+            assertEquals(4, healthy.conversions.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void circuitBreaker() throws Exception {
+        FakeService broken = new FakeService("broken", true);
+        FakeService healthy = new FakeService("healthy", false);
+        OfficeEndpointPool pool = new OfficeEndpointPool(broken, healthy);
+        pool.setFailureThreshold(2);
+        pool.setOpenInterval(50);
+        try {
+            for (int i = 0; i < 6; i++) {
+                assertEquals("healthy", pool.execute(HOST));
+            }
+            // the breaker opened after the second failure, and the open interval has not passed yet
+            assertEquals(2, broken.conversions.get());
+
+            broken.failing = false;
+            Thread.sleep(100);
+            for (int i = 0; i < 4; i++) {
+                pool.execute(HOST);
+            }
+            // the trial conversion succeeded and closed the breaker, the service is used again
+            assertTrue(broken.conversions.get() >= 4);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void noHealthyService() throws Exception {
+        FakeService broken = new FakeService("broken", true);
+        OfficeEndpointPool pool = new OfficeEndpointPool(broken);
+        pool.setFailureThreshold(1);
+        pool.setOpenInterval(60000);
+        try {
+            for (int i = 0; i < 2; i++) {
+                try {
+                    pool.execute(HOST);
+                    fail("A conversion succeeded without a healthy service.");
+                } catch (OpenOfficeConnectionException e) {
+                    // expected
+                }
+            }
+            assertEquals(1, broken.conversions.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void hedging() throws Exception {
+        final FakeService first = new FakeService("first", false);
+        final FakeService second = new FakeService("second", false);
+        OfficeEndpointPool pool = new OfficeEndpointPool(first, second);
+        pool.setMinimumSamples(1);
+        pool.setFailureThreshold(1);
+        try {
+            pool.execute(HOST);
+
+            final CountDownLatch interrupted = new CountDownLatch(1);
+            final AtomicInteger started = new AtomicInteger();
+            String result = pool.execute(new OfficeEndpointPool.Conversion<String>() {
+                @Override
+                public String convert(OfficeService service) throws Exception {
+                    if (started.getAndIncrement() == 0) {
+                        // the primary conversion hangs until it is abandoned
+                        try {
+                            Thread.sleep(10000);
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                            throw e;
+                        }
+                    }
+                    return service.getHost();
+                }
+            });
+            assertEquals(2, started.get());
+            assertTrue("The abandoned conversion was not interrupted.", interrupted.await(5, TimeUnit.SECONDS));
+
+            // the abandoned conversion is not counted as a failure, so neither breaker is open
+            for (int i = 0; i < 4; i++) {
+                pool.execute(HOST);
+            }
+            assertTrue(first.conversions.get() >= 2);
+            assertTrue(second.conversions.get() >= 2);
+            assertTrue(result.equals("first") || result.equals("second"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.fenixedu.oddjet.ImageData;
+import org.fenixedu.oddjet.Template;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.odfdom.pkg.OdfPackage;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class PictureStoreTest {
+
+    /** Encodes an opaque image of noise, which compresses poorly, so any downsampled copy is smaller than the original. */
+    private static byte[] generatePng(int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static Map<String, String> getPicturePaths(Element root) {
+        Map<String, String> paths = new HashMap<String, String>();
+        NodeList frames = root.getElementsByTagName("draw:frame");
+        for (int i = 0; i < frames.getLength(); i++) {
+            Element frame = (Element) frames.item(i);
+            Element picture = (Element) frame.getElementsByTagName("draw:image").item(0);
+            paths.put(frame.getAttribute("draw:name"), picture.getAttribute("xlink:href"));
+        }
+        return paths;
+    }
+
+    private static BufferedImage read(OdfPackage odfPackage, String path) throws Exception {
+        return ImageIO.read(new ByteArrayInputStream(odfPackage.getBytes(path)));
+    }
+
+    @Test
+    public void downsampledPictures() throws Exception {
+        byte[] png = generatePng(800, 400);
+        String hash = toHex(MessageDigest.getInstance("SHA-256").digest(png));
+
+        Template t = new Template("./src/test/resources/PictureStoreTest.fodt");
+        // 254 dots per inch are 100 pixels per centimeter
+        t.setImageResolution(254);
+        // separate images with the same content
+        for (String frame : new String[] { "photo", "copy", "icon", "poster", "relative" }) {
+            t.addParameter(frame, new ImageData(png.clone()));
+        }
+        TextDocument document = t.getInstance();
+        try {
+            Map<String, String> paths = getPicturePaths(document.getContentRoot());
+            OdfPackage odfPackage = document.getPackage();
+
+            // frames of the same size in different units share the stored image, decoded to cover 200x200 pixels
+            assertEquals("Pictures/" + hash + "_200x200.jpg", paths.get("photo"));
+            assertEquals(paths.get("photo"), paths.get("copy"));
+            BufferedImage photo = read(odfPackage, paths.get("photo"));
+            assertEquals(400, photo.getWidth());
+            assertEquals(200, photo.getHeight());
+
+            // 72pt by half an inch are 254x127 pixels, which the image covers exactly
+            assertEquals("Pictures/" + hash + "_254x127.jpg", paths.get("icon"));
+            BufferedImage icon = read(odfPackage, paths.get("icon"));
+            assertEquals(254, icon.getWidth());
+            assertEquals(127, icon.getHeight());
+
+            // the image is smaller than the poster frame, and the size of the relative frame is unknown
+            assertEquals("Pictures/" + hash + ".png", paths.get("poster"));
+            assertEquals(paths.get("poster"), paths.get("relative"));
+            BufferedImage poster = read(odfPackage, paths.get("poster"));
+            assertEquals(800, poster.getWidth());
+            assertEquals(400, poster.getHeight());
+
+            List<String> stored = new ArrayList<String>();
+            for (String path : odfPackage.getFilePaths()) {
+                if (path.startsWith("Pictures/" + hash)) {
+                    stored.add(path);
+                }
+            }
+            assertEquals(3, stored.size());
+        } finally {
+            document.close();
+        }
+    }
+
+    @Test
+    public void originalPictures() throws Exception {
+        byte[] png = generatePng(80, 40);
+        String hash = toHex(MessageDigest.getInstance("SHA-256").digest(png));
+
+        Template t = new Template("./src/test/resources/PictureStoreTest.fodt");
+        for (String frame : new String[] { "photo", "copy", "icon", "poster", "relative" }) {
+            t.addParameter(frame, new ImageData(png.clone()));
+        }
+        TextDocument document = t.getInstance();
+        try {
+            // without a resolution every frame shares the original image
+            for (String path : getPicturePaths(document.getContentRoot()).values()) {
+                assertEquals("Pictures/" + hash + ".png", path);
+            }
+            assertTrue(document.getPackage().contains("Pictures/" + hash + ".png"));
+        } finally {
+            document.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.fenixedu.oddjet.RenderLimits;
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.TemplateData;
+import org.fenixedu.oddjet.exception.OpenOfficeConnectionException;
+import org.fenixedu.oddjet.exception.RenderLimitExceededException;
+import org.fenixedu.oddjet.table.CategoricalTableData;
+import org.fenixedu.oddjet.table.EntryIterator;
+import org.fenixedu.oddjet.table.StreamingTableData;
+import org.fenixedu.oddjet.utils.PrintResult;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PreviewTest {
+
+    /** Streams a number of single category entries, counting those read and whether the stream was closed. */
+    private static class CountingTableData implements StreamingTableData {
+        private final int size;
+        private int read = 0;
+        private boolean closed = false;
+
+        private CountingTableData(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public List<List<Object>> getData() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<List<Object>> getData(List<String> categoryOrder) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public EntryIterator getEntries() {
+            return getEntries(null);
+        }
+
+        @Override
+        public EntryIterator getEntries(List<String> categoryOrder) {
+            return new EntryIterator() {
+                @Override
+                public boolean hasNext() {
+                    return read < size;
+                }
+
+                @Override
+                public List<Object> next() {
+                    read++;
+                    return Collections.<Object> singletonList("event " + read);
+                }
+
+                @Override
+                public void close() {
+                    closed = true;
+                }
+            };
+        }
+    }
+
+    /** Counts the items read from a list of items. */
+    private static class CountingItems implements Iterable<Map<String, Object>> {
+        private final List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+        private int read = 0;
+
+        private CountingItems(String... names) {
+            for (String name : names) {
+                items.add(Collections.<String, Object> singletonMap("name", name));
+            }
+        }
+
+        @Override
+        public Iterator<Map<String, Object>> iterator() {
+            final Iterator<Map<String, Object>> iterator = items.iterator();
+            return new Iterator<Map<String, Object>>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Map<String, Object> next() {
+                    read++;
+                    return iterator.next();
+                }
+            };
+        }
+    }
+
+    @Test
+    public void previewRows() throws Exception {
+        Map<String, List> people = new HashMap<String, List>();
+        people.put("name", Arrays.asList("Ana", "Bruno", "Carla", "Duarte", "Eva"));
+        CountingTableData log = new CountingTableData(1000);
+        CountingItems students = new CountingItems("Filipa", "Gil", "Helena");
+        TemplateData record = new TemplateData();
+        record.addTableDataSource("people", new CategoricalTableData(people));
+        record.addTableDataSource("log", log);
+        record.addSectionDataSource("student", students);
+
+        Template t = new Template("./src/test/resources/PreviewTest.fodt");
+        // enough cells for the first two entries of each table, but not for all the entries of either of them
+        RenderLimits limits = new RenderLimits();
+        limits.setMaxCells(5);
+        t.setRenderLimits(limits);
+        try {
+            PrintResult preview = t.getInstancePreview(record, 2, "pdf");
+            assertNotNull(preview);
+        } catch (OpenOfficeConnectionException e) {
+            // no office process to convert the preview, which was still rendered
+        }
+        // the streamed entries and the section items stop being read once the preview has enough of them
+        assertEquals(2, log.read);
+        assertTrue(log.closed);
+        assertEquals(2, students.read);
+
+        try {
+            t.getInstance(record);
+            fail("The whole data did not exceed the cell limit.");
+        } catch (RenderLimitExceededException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void previewRowsMustBePositive() throws Exception {
+        new Template("./src/test/resources/PreviewTest.fodt").getInstancePreview(new TemplateData(), 0, "pdf");
+    }
+}
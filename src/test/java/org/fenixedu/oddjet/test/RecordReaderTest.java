@@ -0,0 +1,67 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.fenixedu.oddjet.batch.RecordReader;
+import org.fenixedu.oddjet.exception.MalformedRecordException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RecordReaderTest {
+
+    @Test
+    public void csvRecords() throws Exception {
+        String csv = "name,person.email,notes\n" + "Marta,marta@example.com,\"quoted, with \"\"quotes\"\"\"\n"
+                + "José,jose@example.com,\"two\nlines\"\n" + "\n" + "Rui,rui@example.com\n" + "Ana,ana@example.com,\n";
+        try (RecordReader reader = RecordReader.csv(new StringReader(csv))) {
+            Map<String, Object> marta = reader.next();
+            assertEquals("Marta", marta.get("name"));
+            assertEquals("marta@example.com", ((Map<?, ?>) marta.get("person")).get("email"));
+            assertEquals("quoted, with \"quotes\"", marta.get("notes"));
+
+            assertEquals("two\nlines", reader.next().get("notes"));
+            assertEquals(4, reader.getLineNumber());
+
+            // a malformed row does not prevent reading the following ones
+            try {
+                reader.next();
+                fail("Row with missing fields was read.");
+            } catch (MalformedRecordException e) {
+                assertEquals(6, reader.getLineNumber());
+            }
+            assertEquals("", reader.next().get("notes"));
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void jsonLinesRecords() throws Exception {
+        String jsonl = "{\"name\":\"Marta\",\"credits\":180,\"average\":15.5,"
+                + "\"courses\":[{\"name\":\"Algebra\"},{\"name\":\"Logic\"}]}\n" + "\n" + "[1,2]\n"
+                + "{\"name\":\"José\",\"grades\":[[1,14],[2,17]]}\n";
+        try (RecordReader reader = RecordReader.jsonLines(new StringReader(jsonl))) {
+            Map<String, Object> marta = reader.next();
+            assertEquals("Marta", marta.get("name"));
+            assertEquals(180L, marta.get("credits"));
+            assertEquals(2, ((List<?>) marta.get("courses")).size());
+
+            try {
+                reader.next();
+                fail("A JSON array was read as a record.");
+            } catch (MalformedRecordException e) {
+                assertEquals(3, reader.getLineNumber());
+            }
+            assertEquals(Arrays.asList(Arrays.asList(1L, 14L), Arrays.asList(2L, 17L)), reader.next().get("grades"));
+            assertNull(reader.next());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.commons.io.IOUtils;
+import org.fenixedu.oddjet.RenderLimits;
+import org.fenixedu.oddjet.server.RenderServer;
+import org.fenixedu.oddjet.utils.FlatDocument;
+import org.fenixedu.oddjet.utils.OfficeEndpointPool;
+import org.fenixedu.oddjet.utils.OpenOfficePrintingService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RenderServerTest {
+
+    private static final String RECORD = "{\"name\":\"Ana\",\"courses\":[{\"name\":\"Algebra\"},{\"name\":\"Physics\"}]}";
+
+    private File templates;
+    private File template;
+    private OfficeEndpointPool pool;
+    private RenderServer server;
+
+    /** A response status, content type and body. */
+    private static class Response {
+        private final int status;
+        private final String contentType;
+        private final String body;
+
+        private Response(int status, String contentType, String body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        templates = Files.createTempDirectory("oddjet-templates").toFile();
+        template = new File(templates, "courses.fodt");
+        Files.copy(Paths.get("./src/test/resources/InstanceArchiveTest.fodt"), template.toPath());
+        // a printing service on a port nobody listens on, so every print fails to connect
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        pool = new OfficeEndpointPool(new OpenOfficePrintingService(InetAddress.getLoopbackAddress().getHostAddress(),
+                closedPort, "pdf"));
+        server = new RenderServer(templates, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2, pool);
+        RenderLimits limits = new RenderLimits();
+        limits.setMaxCells(4);
+        server.setRenderLimits(limits);
+        server.setMaxBodySize(256);
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        pool.shutdown();
+    }
+
+    private Response request(String method, String path, String body) throws IOException {
+        URL url = new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            connection.setRequestMethod(method);
+            if (body != null) {
+                connection.setDoOutput(true);
+                byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                connection.setFixedLengthStreamingMode(bytes.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(bytes);
+                }
+            }
+            int status = connection.getResponseCode();
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                String content = in != null ? new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8) : "";
+                return new Response(status, connection.getContentType(), content);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void routing() throws Exception {
+        Response health = request("GET", "/health", null);
+        assertEquals(200, health.status);
+        assertEquals("ok", health.body);
+
+        Response instance = request("POST", "/templates/courses/instance?locale=en", RECORD);
+        assertEquals(200, instance.status);
+        // flat templates are answered with flat instances
+        assertEquals(FlatDocument.MEDIA_TYPE, instance.contentType);
+        assertTrue(instance.body.contains("Courses of Ana"));
+        assertTrue(instance.body.contains("Physics"));
+    }
+
+    @Test
+    public void errorStatuses() throws Exception {
+        assertEquals(404, request("POST", "/templates/courses/edit", RECORD).status);
+        assertEquals(404, request("POST", "/templates/missing/instance", RECORD).status);
+        assertEquals(405, request("GET", "/templates/courses/instance", null).status);
+        assertEquals(400, request("POST", "/templates/courses/instance", "{\"name\":").status);
+        assertEquals(400, request("POST", "/templates/courses/instance", "{\"a.b\":1}").status);
+        assertEquals(400, request("POST", "/templates/courses/instance?locale=xx-Unknown", RECORD).status);
+        // exceeds the render cell limit
+        String manyCourses = "{\"name\":\"Ana\",\"courses\":[{\"name\":\"a\"},{\"name\":\"b\"},{\"name\":\"c\"},{\"name\":\"d\"},"
+                + "{\"name\":\"e\"},{\"name\":\"f\"}]}";
+        assertEquals(422, request("POST", "/templates/courses/instance", manyCourses).status);
+        // no printing service is listening
+        assertEquals(503, request("POST", "/templates/courses/print", RECORD).status);
+    }
+
+    @Test
+    public void largeRecordsAreRefused() throws Exception {
+        StringBuilder notes = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            notes.append('x');
+        }
+        Response response = request("POST", "/templates/courses/instance", "{\"name\":\"Ana\",\"notes\":\"" + notes + "\"}");
+        assertEquals(413, response.status);
+        // the server keeps serving requests after refusing one
+        assertEquals(200, request("POST", "/templates/courses/instance", RECORD).status);
+    }
+
+    @Test
+    public void changedTemplatesAreReloaded() throws Exception {
+        assertTrue(request("POST", "/templates/courses/instance", RECORD).body.contains("Courses of Ana"));
+
+        String content = new String(Files.readAllBytes(template.toPath()), StandardCharsets.UTF_8);
+        long lastModified = template.lastModified();
+        Files.write(template.toPath(), content.replace("Courses of", "Subjects of").getBytes(StandardCharsets.UTF_8));
+        // file systems may keep modification times in whole seconds
+        assertTrue(template.setLastModified(lastModified + 2000));
+
+        Response response = request("POST", "/templates/courses/instance", RECORD);
+        assertEquals(200, response.status);
+        assertTrue(response.body.contains("Subjects of Ana"));
+    }
+}
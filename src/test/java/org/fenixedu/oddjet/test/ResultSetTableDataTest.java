@@ -0,0 +1,182 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.table.EntryIterator;
+import org.fenixedu.oddjet.table.ResultSetTableData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class ResultSetTableDataTest {
+
+    @Test
+    public void doIt() throws Exception {
+        try (Connection h2 = DriverManager.getConnection("jdbc:h2:mem:oddjet")) {
+            try (Statement statement = h2.createStatement()) {
+                statement.execute("CREATE TABLE person (name VARCHAR(50), dob VARCHAR(10), age INT, gender CHAR(1))");
+                statement.execute("INSERT INTO person VALUES ('Mariana', '08/25/1990', 21, 'F'),"
+                        + " ('João', '12/25/1991', 25, 'M'), ('Marta', '02/14/1993', 28, 'F'), ('José', '05/10/1989', 21, 'M')");
+            }
+            String query = "SELECT name, dob, age, gender FROM person ORDER BY dob";
+            List<Statement> statements = new ArrayList<Statement>();
+            Connection connection = recordingConnection(h2, statements);
+
+            ResultSetTableData data = new ResultSetTableData(connection, query, 2);
+            try (EntryIterator entries = data.getEntries(Arrays.asList("gender", "name"))) {
+                assertEquals(Arrays.<Object> asList("F", "Marta"), entries.next());
+                assertEquals(Arrays.<Object> asList("M", "José"), entries.next());
+            }
+
+            Template t = new Template("./src/test/resources/test1.odt");
+            t.addParameter("title1", "Person Registry");
+            t.addTableDataSource("person", new ResultSetTableData(connection, query, 2));
+            TextDocument document = t.getInstance();
+            try {
+                List<List<String>> rows = getRows(document, "person");
+                assertEquals(5, rows.size());
+                assertEquals(Arrays.asList(Arrays.asList("Marta", "28", "F", "02/14/1993"),
+                        Arrays.asList("José", "21", "M", "05/10/1989"), Arrays.asList("Mariana", "21", "F", "08/25/1990"),
+                        Arrays.asList("João", "25", "M", "12/25/1991")), rows.subList(1, rows.size()));
+            } finally {
+                document.close();
+            }
+
+            // both the iterator stopped early and the one drained by the render close their statements
+            assertEquals(2, statements.size());
+            for (Statement statement : statements) {
+                assertTrue(statement.isClosed());
+            }
+        }
+    }
+
+    /** Gets the text of the cells of each row of the table with the given name. */
+    private static List<List<String>> getRows(TextDocument document, String tableName) throws Exception {
+        NodeList tables = document.getContentDom().getElementsByTagName("table:table");
+        List<List<String>> rows = new ArrayList<List<String>>();
+        for (int i = 0; i < tables.getLength(); i++) {
+            Element table = (Element) tables.item(i);
+            if (!table.getAttribute("table:name").equals(tableName)) {
+                continue;
+            }
+            NodeList rowNodes = table.getElementsByTagName("table:table-row");
+            for (int j = 0; j < rowNodes.getLength(); j++) {
+                NodeList cells = ((Element) rowNodes.item(j)).getElementsByTagName("table:table-cell");
+                List<String> row = new ArrayList<String>();
+                for (int k = 0; k < cells.getLength(); k++) {
+                    row.add(cells.item(k).getTextContent().trim());
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /** A connection delegating to the given one, keeping the statements it creates. */
+    private static Connection recordingConnection(final Connection connection, final List<Statement> statements) {
+        return proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                try {
+                    Object result = method.invoke(connection, args);
+                    if (result instanceof Statement) {
+                        statements.add((Statement) result);
+                    }
+                    return result;
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    /**
+     * A connection whose queries return an endless result set of a single column, counting the statements closed.
+     */
+    private static Connection endlessConnection(final AtomicInteger closedStatements) {
+        final ResultSetMetaData metaData = proxy(ResultSetMetaData.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("getColumnCount") ? (Object) 1 : "n";
+            }
+        });
+        final AtomicInteger row = new AtomicInteger();
+        final ResultSet resultSet = proxy(ResultSet.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                case "next":
+                    row.incrementAndGet();
+                    return true;
+                case "getObject":
+                    return row.get();
+                case "getMetaData":
+                    return metaData;
+                default:
+                    return null;
+                }
+            }
+        });
+        final PreparedStatement statement = proxy(PreparedStatement.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("close")) {
+                    closedStatements.incrementAndGet();
+                }
+                return method.getName().equals("executeQuery") ? resultSet : null;
+            }
+        });
+        return proxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return method.getName().equals("prepareStatement") ? statement : null;
+            }
+        });
+    }
+
+    @Test
+    public void closedWhenStoppedEarly() throws Exception {
+        AtomicInteger closedStatements = new AtomicInteger();
+        ResultSetTableData data = new ResultSetTableData(endlessConnection(closedStatements), "SELECT n FROM numbers", 10);
+        try (EntryIterator entries = data.getEntries(Arrays.asList("n", "missing"))) {
+            assertEquals(Arrays.<Object> asList(1, null), entries.next());
+            assertEquals(Arrays.<Object> asList(2, null), entries.next());
+            assertEquals(0, closedStatements.get());
+        }
+        assertEquals(1, closedStatements.get());
+
+        EntryIterator entries = data.getEntries();
+        assertTrue(entries.hasNext());
+        entries.close();
+        entries.close();
+        assertFalse(entries.hasNext());
+        assertEquals(2, closedStatements.get());
+    }
+}
@@ -0,0 +1,94 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fenixedu.oddjet.Template;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class SectionTest {
+
+    private static Map<String, Object> student(String name, int number, String... courses) {
+        Map<String, Object> student = new HashMap<String, Object>();
+        student.put("name", name);
+        student.put("number", number);
+        List<Map<String, Object>> courseList = new ArrayList<Map<String, Object>>();
+        for (String course : courses) {
+            Map<String, Object> entry = new HashMap<String, Object>();
+            entry.put("name", course);
+            courseList.add(entry);
+        }
+        student.put("courses", courseList);
+        return student;
+    }
+
+    private static List<String> getNames(Element root, String tagName, String attribute) {
+        List<String> names = new ArrayList<String>();
+        NodeList nodes = root.getElementsByTagName(tagName);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            names.add(((Element) nodes.item(i)).getAttribute(attribute));
+        }
+        return names;
+    }
+
+    @Test
+    public void repeatedSections() throws Exception {
+        Template t = new Template("./src/test/resources/SectionTest.fodt");
+        t.addSectionDataSource("student", Arrays.asList(student("Ana", 1001, "Algebra", "Physics"),
+                student("Bruno", 1002, "Chemistry"), student("Carla", 1003)));
+        TextDocument document = t.getInstance();
+        try {
+            Element root = document.getContentRoot();
+            assertEquals(Arrays.asList("student_0", "student_1", "student_2"), getNames(root, "text:section", "text:name"));
+            assertEquals(Arrays.asList("courses#0", "courses#1", "courses#2"), getNames(root, "table:table", "table:name"));
+            // the item fields are replaced by their values, as user fields hold a single value for the whole document
+            assertEquals(0, root.getElementsByTagName("text:user-field-get").getLength());
+
+            NodeList sections = root.getElementsByTagName("text:section");
+            String first = sections.item(0).getTextContent();
+            assertTrue(first.contains("Student Ana, number 1001"));
+            assertTrue(first.contains("Algebra"));
+            assertTrue(first.contains("Physics"));
+            String second = sections.item(1).getTextContent();
+            assertTrue(second.contains("Student Bruno, number 1002"));
+            assertTrue(second.contains("Chemistry"));
+            assertTrue(!second.contains("Algebra"));
+            assertTrue(sections.item(2).getTextContent().contains("Student Carla, number 1003"));
+
+            String text = root.getTextContent();
+            assertTrue(text.indexOf("Enrolled students") < text.indexOf("Ana"));
+            assertTrue(text.indexOf("Carla") < text.indexOf("End of the list"));
+        } finally {
+            document.close();
+        }
+    }
+
+    @Test
+    public void uniqueNames() throws Exception {
+        Template t = new Template("./src/test/resources/SectionNamesTest.fodt");
+        t.addSectionDataSource("student", Arrays.asList(student("Ana", 1001), student("Bruno", 1002), student("Carla", 1003)));
+        TextDocument document = t.getInstance();
+        try {
+            Element root = document.getContentRoot();
+            // the repetitions and the sections and frames they hold are suffixed with their index, or further suffixed if another
+            // section or frame of the document already has that name
+            assertEquals(Arrays.asList("student_1", "student_0", "remarks_0", "student_1_1", "remarks_1", "student_2",
+                    "remarks_2"), getNames(root, "text:section", "text:name"));
+            assertEquals(Arrays.asList("badge_0_1", "badge_1", "badge_2", "badge_0"), getNames(root, "draw:frame", "draw:name"));
+        } finally {
+            document.close();
+        }
+    }
+}
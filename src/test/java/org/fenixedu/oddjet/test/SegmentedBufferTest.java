@@ -0,0 +1,81 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.fenixedu.oddjet.utils.SegmentedBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SegmentedBufferTest {
+
+    @Test
+    public void contentAcrossSegments() throws Exception {
+        byte[] content = new byte[SegmentedBuffer.SEGMENT_SIZE * 2 + 123];
+        new Random(42).nextBytes(content);
+        try (SegmentedBuffer buffer = new SegmentedBuffer()) {
+            buffer.write(content[0]);
+            buffer.write(content, 1, SegmentedBuffer.SEGMENT_SIZE);
+            buffer.write(content, SegmentedBuffer.SEGMENT_SIZE + 1, content.length - SegmentedBuffer.SEGMENT_SIZE - 1);
+            assertEquals(content.length, buffer.size());
+            assertArrayEquals(content, buffer.toByteArray());
+
+            ByteBuffer[] views = buffer.getBuffers();
+            assertEquals(3, views.length);
+            assertTrue(views[0].isReadOnly());
+            assertEquals(123, views[2].remaining());
+
+            ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+            buffer.writeTo(Channels.newChannel(channelOut));
+            assertArrayEquals(content, channelOut.toByteArray());
+
+            ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
+            try (InputStream in = buffer.getInputStream()) {
+                byte[] chunk = new byte[1000];
+                int read;
+                while ((read = in.read(chunk)) > 0) {
+                    streamOut.write(chunk, 0, read);
+                }
+            }
+            assertArrayEquals(content, streamOut.toByteArray());
+
+            // reads from a position, across the boundary of two segments
+            byte[] part = new byte[100];
+            assertEquals(100, buffer.read(SegmentedBuffer.SEGMENT_SIZE - 50, part, 0, 100));
+            assertArrayEquals(Arrays.copyOfRange(content, SegmentedBuffer.SEGMENT_SIZE - 50, SegmentedBuffer.SEGMENT_SIZE + 50),
+                    part);
+            assertEquals(23, buffer.read(content.length - 23, part, 10, 100));
+            assertArrayEquals(Arrays.copyOfRange(content, content.length - 23, content.length), Arrays.copyOfRange(part, 10, 33));
+            assertEquals(-1, buffer.read(content.length, part, 0, 100));
+        }
+    }
+
+    @Test
+    public void closedBuffer() {
+        SegmentedBuffer buffer = new SegmentedBuffer();
+        buffer.write(new byte[10], 0, 10);
+        buffer.close();
+        buffer.close();
+        try {
+            buffer.toByteArray();
+            fail("Closed buffer was read.");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try (SegmentedBuffer empty = new SegmentedBuffer()) {
+            assertEquals(0, empty.toByteArray().length);
+            assertEquals(0, empty.getBuffers().length);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.table.CategoricalTableData;
+import org.fenixedu.oddjet.table.TableCall;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.simple.TextDocument;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+@RunWith(JUnit4.class)
+public class SplitTableTest {
+
+    @Test
+    public void splitParameters() throws Exception {
+        assertEquals(0, new TableCall("people").getParameters().getSplitRows());
+        assertEquals(10, new TableCall("people(spl10)").getParameters().getSplitRows());
+        assertEquals(250, new TableCall("people(split250)").getParameters().getSplitRows());
+        assertEquals(0, new TableCall("people(spl10,nsp)").getParameters().getSplitRows());
+        assertEquals(0, new TableCall("people(nosplit)").getParameters().getSplitRows());
+        // not split parameters, which are ignored
+        assertEquals(0, new TableCall("people(xspl10)").getParameters().getSplitRows());
+        assertEquals(0, new TableCall("people(spl)").getParameters().getSplitRows());
+    }
+
+    @Test
+    public void splitLayout() throws Exception {
+        Template t = new Template("./src/test/resources/SplitTableTest.fodt");
+        Map<String, List> people = new HashMap<String, List>();
+        people.put("name", Arrays.asList("Ana", "Bruno", "Carla", "Duarte", "Eva"));
+        t.addTableDataSource("people", new CategoricalTableData(people));
+        TextDocument document = t.getInstance();
+        try {
+            NodeList tableNodes = document.getContentDom().getElementsByTagName("table:table");
+            List<String> names = new ArrayList<String>();
+            List<Element> parts = new ArrayList<Element>();
+            for (int i = 0; i < tableNodes.getLength(); i++) {
+                Element table = (Element) tableNodes.item(i);
+                names.add(table.getAttribute("table:name"));
+                if (!table.getAttribute("table:name").equals("people(spl2)_1")) {
+                    parts.add(table);
+                }
+            }
+            // the parts follow the original, named so as not to clash with the static table
+            assertEquals(Arrays.asList("people(spl2)", "people(spl2)_1_1", "people(spl2)_2", "people(spl2)_1"), names);
+
+            int[] bodyRows = { 2, 2, 1 };
+            for (int i = 0; i < parts.size(); i++) {
+                Element part = parts.get(i);
+                NodeList headers = part.getElementsByTagName("table:table-header-rows");
+                assertEquals(1, headers.getLength());
+                assertEquals("Name", headers.item(0).getTextContent().trim());
+                int rows = 0;
+                for (Node child = part.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if ("table:table-row".equals(child.getNodeName())) {
+                        rows++;
+                    }
+                }
+                assertEquals(bodyRows[i], rows);
+            }
+        } finally {
+            document.close();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.fenixedu.oddjet.batch.SpoolQueue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SpoolQueueTest {
+
+    @Test
+    public void concurrentClaims() throws Exception {
+        File spool = Files.createTempDirectory("oddjet-spool").toFile();
+        SpoolQueue submitter = new SpoolQueue(spool, 60000);
+        for (int i = 0; i < 40; i++) {
+            submitter.submit("student " + i, "{\"number\":" + i + "}");
+        }
+        assertEquals(40, submitter.getPendingCount());
+
+        // two queues over the same spool stand for two worker processes
+        final List<SpoolQueue> queues = new ArrayList<SpoolQueue>();
+        queues.add(new SpoolQueue(spool, 60000));
+        queues.add(new SpoolQueue(spool, 60000));
+        final Set<String> claimed = Collections.synchronizedSet(new HashSet<String>());
+        final List<String> duplicates = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final SpoolQueue queue = queues.get(t % 2);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        SpoolQueue.Job job;
+                        while ((job = queue.claim()) != null) {
+                            if (!claimed.add(job.getId())) {
+                                duplicates.add(job.getId());
+                            }
+                            job.complete();
+                        }
+                    } catch (Exception e) {
+                        duplicates.add(e.toString());
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(duplicates.isEmpty());
+        assertEquals(40, claimed.size());
+        assertTrue(claimed.contains("student_7"));
+        assertEquals(0, submitter.getPendingCount());
+        assertEquals(40, submitter.getDoneCount());
+    }
+
+    @Test
+    public void expiredLeases() throws Exception {
+        File spool = Files.createTempDirectory("oddjet-spool").toFile();
+        SpoolQueue queue = new SpoolQueue(spool, 50);
+        queue.setMaxAttempts(2);
+        queue.submit("a", "{}");
+        queue.submit("b", "{}");
+
+        SpoolQueue.Job a = queue.claim();
+        SpoolQueue.Job b = queue.claim();
+        assertEquals("a", a.getId());
+        assertNull(queue.claim());
+        assertTrue(b.fail(new IllegalStateException("broken record")));
+        assertEquals(1, queue.getFailedCount());
+
+        // the worker holding a dies, so its lease expires and another worker gets the job
+        Thread.sleep(100);
+        SpoolQueue.Job retried = queue.claim();
+        assertEquals("a", retried.getId());
+        assertEquals(1, retried.getAttempt());
+        assertFalse(a.isLost());
+        assertFalse(a.renew());
+        // the first worker learns it lost the lease, and must abandon its render
+        assertTrue(a.isLost());
+        assertFalse(a.complete());
+        assertTrue(retried.renew());
+        assertFalse(retried.isLost());
+
+        // after too many attempts the job fails
+        Thread.sleep(100);
+        assertEquals(0, queue.requeueExpired());
+        assertFalse(retried.renew());
+        assertTrue(retried.isLost());
+        assertEquals(2, queue.getFailedCount());
+        assertEquals(0, queue.getClaimedCount());
+    }
+
+    @Test
+    public void duplicateIds() throws Exception {
+        File spool = Files.createTempDirectory("oddjet-spool").toFile();
+        SpoolQueue queue = new SpoolQueue(spool, 60000);
+        queue.submit("student 1", "{}");
+        try {
+            queue.submit("student 1", "{\"number\":1}");
+            fail("A pending job was replaced.");
+        } catch (FileAlreadyExistsException e) {
+            // expected
+        }
+        assertTrue(queue.claim().complete());
+        try {
+            // sanitized to the identifier of the completed job
+            queue.submit("student?1", "{}");
+            fail("A completed job was submitted again.");
+        } catch (FileAlreadyExistsException e) {
+            // expected
+        }
+        queue.submit("student 10", "{}");
+        assertEquals(1, queue.getPendingCount());
+        assertEquals(1, queue.getDoneCount());
+        assertEquals(0, spool.toPath().resolve("incoming").toFile().list().length);
+    }
+}
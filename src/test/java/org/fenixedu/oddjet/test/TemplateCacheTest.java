@@ -0,0 +1,41 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.TemplateCache;
+import org.fenixedu.oddjet.TemplateStructure;
+import org.fenixedu.oddjet.test.document.DiplomaSupplement;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TemplateCacheTest {
+
+    @Test
+    public void persistedStructure() throws Exception {
+        File directory = new File("./target/structureCache");
+        TemplateCache cache = new TemplateCache(directory);
+        cache.clear();
+
+        Template t = new DiplomaSupplement("./src/test/resources/diplomaSupplement.odt");
+        t.setStructureCache(cache);
+        TemplateStructure analyzed = t.getStructure();
+        assertEquals(1, directory.listFiles().length);
+
+        // a new cache over the same directory behaves like the cache of a freshly started JVM
+        Template t2 = new DiplomaSupplement("./src/test/resources/diplomaSupplement.odt");
+        t2.setStructureCache(new TemplateCache(directory));
+        TemplateStructure loaded = t2.getStructure();
+        assertEquals(analyzed.getUserFieldNames(), loaded.getUserFieldNames());
+        String programTable = "program(hdr0_2)";
+        assertNotNull(loaded.getTable(programTable));
+        assertEquals(analyzed.getTable(programTable).getCategoryOrder(), loaded.getTable(programTable).getCategoryOrder());
+
+        t2.saveInstance("./target/diplomaSupplementCachedInst.odt");
+    }
+}
@@ -0,0 +1,98 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.fenixedu.oddjet.Template;
+import org.fenixedu.oddjet.TemplateData;
+import org.fenixedu.oddjet.table.PositionalTableData;
+import org.fenixedu.oddjet.table.TableData;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.odftoolkit.simple.TextDocument;
+
+@RunWith(JUnit4.class)
+public class TemplateDataTest {
+
+    @Test
+    public void nullParameters() {
+        TemplateData data = new TemplateData();
+        data.addParameter("missing", null);
+        assertTrue(data.getParameters().containsKey("missing"));
+        assertNull(data.getParameters().get("missing"));
+        assertTrue(data.getLazyParameters().isEmpty());
+    }
+
+    @Test
+    public void supplierParameters() {
+        Supplier<String> supplier = new Supplier<String>() {
+            @Override
+            public String get() {
+                return "evaluated";
+            }
+        };
+        TemplateData data = new TemplateData();
+        // a supplier given as a plain value is a value like any other
+        data.addParameter("supplier", supplier);
+        assertSame(supplier, data.getParameters().get("supplier"));
+        assertFalse(data.getLazyParameters().containsKey("supplier"));
+
+        data.addLazyParameter("supplier", supplier);
+        assertSame(supplier, data.getLazyParameters().get("supplier"));
+        assertFalse(data.getParameters().containsKey("supplier"));
+
+        data.addParameter("supplier", "value");
+        assertEquals("value", data.getParameters().get("supplier"));
+        assertTrue(data.getLazyParameters().isEmpty());
+    }
+
+    @Test
+    public void lazyTableDataSources() {
+        final TableData table = new PositionalTableData(new Object[][] { { "a" } });
+        TemplateData data = new TemplateData();
+        data.addLazyTableDataSource("people", new Supplier<TableData>() {
+            @Override
+            public TableData get() {
+                return table;
+            }
+        });
+        assertFalse(data.getTableDataSources().containsKey("people"));
+        data.addTableDataSource("people", table);
+        assertSame(table, data.getTableDataSources().get("people"));
+        data.removeTableDataSource("people");
+        assertTrue(data.getTableDataSources().isEmpty());
+    }
+
+    @Test
+    public void failingLazyTableDataSources() throws Exception {
+        Template template = new Template("./src/test/resources/InstanceArchiveTest.fodt");
+        TemplateData data = new TemplateData();
+        data.addParameter("name", "Ana");
+        final AtomicInteger evaluations = new AtomicInteger();
+        data.addLazyTableDataSource("courses", new Supplier<TableData>() {
+            @Override
+            public TableData get() {
+                evaluations.incrementAndGet();
+                throw new IllegalStateException("The courses are unavailable.");
+            }
+        });
+        // the failing table is left static, while the rest of the instance is still rendered
+        TextDocument document = template.getInstance(data);
+        try {
+            String content = document.getContentRoot().getTextContent();
+            assertTrue(content.contains("Courses of Ana"));
+            // the table keeps its header and template rows
+            assertEquals(2, document.getContentDom().getElementsByTagName("table:table-row").getLength());
+            assertEquals(1, evaluations.get());
+        } finally {
+            document.close();
+        }
+    }
+}
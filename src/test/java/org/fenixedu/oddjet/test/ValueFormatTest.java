@@ -0,0 +1,32 @@
+package org.fenixedu.oddjet.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.time.LocalDate;
+import java.util.Locale;
+
+import org.fenixedu.oddjet.utils.ValueFormat;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ValueFormatTest {
+
+    @Test
+    public void formats() {
+        assertEquals("2.5", ValueFormat.parse("credits|number:0.0").apply(2.5, Locale.ENGLISH));
+        assertEquals("2014-03-01", ValueFormat.parse("birth|date:yyyy-MM-dd").apply(LocalDate.of(2014, 3, 1), Locale.ENGLISH));
+        assertNull(ValueFormat.parse("credits|currency"));
+    }
+
+    @Test
+    public void unformattableValues() {
+        // a time pattern can not be applied to a date without time, which is then left as it is
+        LocalDate date = LocalDate.of(2014, 3, 1);
+        assertSame(date, ValueFormat.parse("start|date:HH:mm").apply(date, Locale.ENGLISH));
+        assertEquals("text", ValueFormat.parse("credits|number:0.0").apply("text", Locale.ENGLISH));
+    }
+}